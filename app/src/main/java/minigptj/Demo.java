@@ -2,16 +2,26 @@ package minigptj;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
 
 import minigptj.core.Linear;
 import minigptj.core.Matrix;
 import minigptj.core.ReLU;
+import minigptj.data.BpeTokenizer;
 import minigptj.data.CharTokenizer;
+import minigptj.data.CorpusEncoder;
 import minigptj.data.TextDataset;
+import minigptj.data.TokenCache;
+import minigptj.data.TokenFile;
+import minigptj.data.TokenStore;
+import minigptj.data.Tokenizer;
+import minigptj.model.AdaptiveSoftmax;
 import minigptj.model.CausalSelfAttention;
 import minigptj.model.Embedding;
+import minigptj.model.TiedOutputProjection;
 import minigptj.optim.Adam;
 
 /**
@@ -25,6 +35,33 @@ import minigptj.optim.Adam;
  *   Train a few more steps first, then prompt interactively:
  *     ./gradlew run --args="demo --train 300"
  *
+ *   Use a model trained with TrainCharLM --adaptive-softmax (pass the same
+ *   --cutoffs A,B if training overrode the frequency-based default):
+ *     ./gradlew run --args="demo --adaptive-softmax"
+ *
+ *   Use a model trained with TrainCharLM --tie-weights:
+ *     ./gradlew run --args="demo --tie-weights"
+ *
+ *   Fine-tune rank-8 LoRA adapters instead of every weight, saving them
+ *   to adapters.bin (add --seed S for a reproducible adapter init):
+ *     ./gradlew run --args="demo --train 300 --lora 8"
+ *
+ *   Merge previously saved adapters into the model before generating:
+ *     ./gradlew run --args="demo --adapters adapters.bin"
+ *
+ *   Read the corpus from a memory-mapped token file, creating it on the
+ *   first run:
+ *     ./gradlew run --args="demo --train 300 --tokens grimm.tokens"
+ *
+ *   The corpus is otherwise tokenised once into .token-cache and reused
+ *   until it changes. Keep the cache elsewhere, or tokenise every run:
+ *     ./gradlew run --args="demo --train 300 --token-cache /tmp/tokens"
+ *     ./gradlew run --args="demo --train 300 --no-token-cache"
+ *
+ *   Use a model trained with TrainCharLM --tokenizer bpe, together with
+ *   the tokenizer saved next to it (model-bpe.bin, model-bpe.tokenizer):
+ *     ./gradlew run --args="demo --bpe"
+ *
  * The model is loaded from model.bin in the project root.
  * model.bin is produced by running the main training (TrainCharLM)
  * after ModelIO.save() has been added to the end of training.
@@ -35,21 +72,93 @@ public class Demo {
     static final int CONTEXT_LEN = 32;
     static final int D_MODEL     = 96;
     static final String MODEL_PATH = "model.bin";
+    static final String ADAPTIVE_MODEL_PATH = "model-adaptive.bin";
+    static final String TIED_MODEL_PATH = "model-tied.bin";
+    static final String ADAPTER_PATH = "adapters.bin";
     static final String DATA_PATH  = "app/src/main/java/minigptj/data/grimm_samples.txt";
+    static final String TOKEN_CACHE_PATH = ".token-cache";
 
     public static void main(String[] args) throws Exception {
 
         // --- parse args ---
         int extraSteps = 0;
+        boolean adaptive = false;
+        int[] cutoffs = null;
+        boolean tieWeights = false;
+        int loraRank = 0;
+        String adapterPath = null;
+        String tokenPath = null;
+        String tokenCachePath = TOKEN_CACHE_PATH;
+        boolean bpe = false;
+        Long seed = null;
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--train") && i + 1 < args.length) {
                 extraSteps = Integer.parseInt(args[i + 1]);
             }
+            if (args[i].equals("--adaptive-softmax")) {
+                adaptive = true;
+            }
+            if (args[i].equals("--cutoffs") && i + 1 < args.length) {
+                cutoffs = AdaptiveSoftmax.parseCutoffs(args[i + 1]);
+            }
+            if (args[i].equals("--tie-weights")) {
+                tieWeights = true;
+            }
+            if (args[i].equals("--lora") && i + 1 < args.length) {
+                loraRank = Integer.parseInt(args[i + 1]);
+            }
+            if (args[i].equals("--adapters") && i + 1 < args.length) {
+                adapterPath = args[i + 1];
+            }
+            if (args[i].equals("--tokens") && i + 1 < args.length) {
+                tokenPath = args[i + 1];
+            }
+            if (args[i].equals("--token-cache") && i + 1 < args.length) {
+                tokenCachePath = args[i + 1];
+            }
+            if (args[i].equals("--no-token-cache")) {
+                tokenCachePath = null;
+            }
+            if (args[i].equals("--bpe")) {
+                bpe = true;
+            }
+            if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[i + 1]);
+            }
+        }
+
+        // BPE models and their tokenizers live in their own files.
+        String modelPath = adaptive ? ADAPTIVE_MODEL_PATH : tieWeights ? TIED_MODEL_PATH : MODEL_PATH;
+        if (bpe) {
+            modelPath = modelPath.replace(".bin", "-bpe.bin");
         }
 
         // --- load training text and build tokenizer ---
-        String text = Files.readString(Path.of(DATA_PATH));
-        CharTokenizer tok = CharTokenizer.fromText(text);
+        Tokenizer tok;
+        TokenStore tokens;
+        if (bpe && tokenCachePath != null) {
+            // Reuses the corpus TrainCharLM encoded with the same merges.
+            BpeTokenizer bpeTok = ModelIO.loadTokenizer(ModelIO.tokenizerPath(modelPath));
+            tok = bpeTok;
+            tokens = new TokenCache(Path.of(tokenCachePath)).openBpe(Path.of(DATA_PATH), bpeTok).getTokens();
+        } else if (bpe) {
+            BpeTokenizer bpeTok = ModelIO.loadTokenizer(ModelIO.tokenizerPath(modelPath));
+            tok = bpeTok;
+            tokens = TokenStore.compact(bpeTok.encode(Files.readString(Path.of(DATA_PATH))), bpeTok.vocabSize());
+        } else if (tokenPath != null) {
+            TokenFile file = TokenFile.openOrCreate(Path.of(tokenPath), Path.of(DATA_PATH));
+            tok = file.getTokenizer();
+            tokens = file;
+        } else if (tokenCachePath != null) {
+            TokenFile file = new TokenCache(Path.of(tokenCachePath)).open(Path.of(DATA_PATH));
+            tok = file.getTokenizer();
+            tokens = file;
+        } else {
+            CorpusEncoder encoder = new CorpusEncoder();
+            CharTokenizer chars = encoder.buildTokenizer(Path.of(DATA_PATH));
+            tok = chars;
+            tokens = encoder.encodeCompact(Path.of(DATA_PATH), chars);
+        }
         int vocabSize = tok.vocabSize();
 
         // --- build model (same architecture as training) ---
@@ -58,12 +167,33 @@ public class Demo {
         Linear ffn1         = new Linear(D_MODEL, D_MODEL * 4);
         ReLU ffnAct         = new ReLU();
         Linear ffn2         = new Linear(D_MODEL * 4, D_MODEL);
-        Linear outProj      = new Linear(D_MODEL, vocabSize);
         Matrix pos          = new Matrix(CONTEXT_LEN, D_MODEL);
+        AdaptiveSoftmax adaptiveOut = null;
+        if (adaptive) {
+            int[] counts = tok.countTokens(tokens);
+            adaptiveOut = new AdaptiveSoftmax(D_MODEL, counts,
+                (cutoffs != null) ? cutoffs : AdaptiveSoftmax.defaultCutoffs(counts));
+        }
+        TiedOutputProjection tiedOut = tieWeights ? new TiedOutputProjection(emb) : null;
+        // The untied head is only needed when neither output above is used.
+        Linear outProj = (adaptiveOut == null && tiedOut == null) ? new Linear(D_MODEL, vocabSize) : null;
 
         // --- load pretrained weights ---
-        System.out.println("Loading model from " + MODEL_PATH + " ...");
-        ModelIO.load(MODEL_PATH, emb, attn, ffn1, ffn2, outProj, pos);
+        System.out.println("Loading model from " + modelPath + " ...");
+        if (adaptiveOut != null) {
+            ModelIO.load(modelPath, emb, attn, ffn1, ffn2, adaptiveOut, pos);
+        } else if (tiedOut != null) {
+            ModelIO.load(modelPath, emb, attn, ffn1, ffn2, pos);
+        } else {
+            ModelIO.load(modelPath, emb, attn, ffn1, ffn2, outProj, pos);
+        }
+
+        // Layers that can carry LoRA adapters, in adapter file order.
+        List<Linear> adaptable = List.of(
+            attn.getWq(), attn.getWk(), attn.getWv(), attn.getWo(), ffn1, ffn2);
+        if (adapterPath != null) {
+            ModelIO.mergeAdapters(adapterPath, adaptable);
+        }
         System.out.println("Done.\n");
 
         // --- optional: continue training for a few steps to show live learning ---
@@ -71,55 +201,32 @@ public class Demo {
             System.out.println("Continuing training for " + extraSteps + " steps...");
             System.out.println("(Watch the loss decrease as the model keeps learning)\n");
 
-            int[] tokens = tok.encode(text);
+            // With LoRA only the adapters train; everything else stays frozen.
+            boolean lora = loraRank > 0;
+            if (lora) {
+                Random initRng = (seed != null) ? new Random(seed) : new Random();
+                for (Linear layer : adaptable) layer.enableLora(loraRank, 2.0 * loraRank, initRng);
+                System.out.println("Training rank-" + loraRank + " LoRA adapters only.\n");
+            }
+
             TextDataset ds = new TextDataset(tokens, CONTEXT_LEN);
             Adam opt = new Adam(0.001);
             Random batchRng = new Random(42);
+            int[] x     = new int[64 * CONTEXT_LEN];
+            int[] flatY = new int[64 * CONTEXT_LEN];
 
             for (int step = 1; step <= extraSteps; step++) {
-                // --- forward pass ---
-                int[][] x      = sampleX(ds, 64, batchRng);
-                int[][] ySeq   = buildYSeq(ds, x, CONTEXT_LEN);
-                Matrix xSeq    = emb.forwardSeq(x);
-                addPos(xSeq, pos, x.length, CONTEXT_LEN, D_MODEL);
-
-                Matrix attnOut  = attn.forward(xSeq).add(xSeq);
-                Matrix ffnHid   = ffnAct.forward(ffn1.forward(attnOut));
-                Matrix blockOut = ffn2.forward(ffnHid).add(attnOut);
-                Matrix logits   = outProj.forward(blockOut);
-                Matrix probs    = logits.softmaxRows();
-
-                int[] flatY = flatten(ySeq);
-                double loss = maskedCE(probs, flatY, CharTokenizer.PAD_ID);
-                Matrix dLogits = maskedCEGrad(probs, flatY, CharTokenizer.PAD_ID);
-
-                // --- backward pass ---
-                Matrix dBlock  = outProj.backward(dLogits);
-                Matrix dHid    = ffn2.backward(dBlock);
-                dHid = ffnAct.backward(dHid);
-                Matrix dAttn   = ffn1.backward(dHid);
-                dAttn = dAttn.add(dBlock);
-                Matrix dXSeq   = attn.backward(dAttn).add(dAttn);
-                emb.backwardSeq(dXSeq);
-
-                Matrix gradPos = accumPosGrad(dXSeq, x.length, CONTEXT_LEN, D_MODEL);
-
-                // --- optimiser step ---
-                opt.tick();
-                opt.step(emb);
-                opt.step(attn.getWq());
-                opt.step(attn.getWk());
-                opt.step(attn.getWv());
-                opt.step(attn.getWo());
-                opt.step(outProj);
-                opt.step(ffn1);
-                opt.step(ffn2);
-                updatePos(pos, gradPos, 0.02);
+                ds.sampleSequences(batchRng, x, flatY);
+                double loss = trainStep(x, flatY, emb, attn, ffn1, ffnAct, ffn2, outProj,
+                                        adaptiveOut, tiedOut, pos, adaptable, opt, lora);
 
                 if (step % 50 == 0 || step == 1) {
                     System.out.printf("  step %d / %d  |  loss %.4f%n", step, extraSteps, loss);
                 }
             }
+            if (lora) {
+                ModelIO.saveAdapters(ADAPTER_PATH, adaptable);
+            }
             System.out.println("\nTraining complete. Entering generation mode.\n");
         }
 
@@ -143,7 +250,7 @@ public class Demo {
 
             System.out.print("\nGenerated: ");
             String output = generate(tok, emb, attn, ffn1, ffnAct, ffn2, outProj,
-                                     pos, CONTEXT_LEN, D_MODEL, prompt, 200, 1.0, genRng);
+                                     adaptiveOut, tiedOut, pos, CONTEXT_LEN, D_MODEL, prompt, 200, 1.0, genRng);
             System.out.println(output);
             System.out.println();
         }
@@ -151,47 +258,123 @@ public class Demo {
         scanner.close();
     }
 
+    // -------------------------------------------------------------------------
+    // Training
+    // -------------------------------------------------------------------------
+
+    /**
+     * Runs one forward pass, backward pass and optimiser step on a batch.
+     *
+     * @param x flat input windows, CONTEXT_LEN tokens per sequence
+     * @param flatY target token for every position of x
+     * @param outProj untied output projection, or null when adaptiveOut or tiedOut is set
+     * @param adaptable layers that carry LoRA adapters when lora is true
+     * @param lora whether only the adapters train
+     * @return mean loss of the batch
+     */
+    static double trainStep(int[] x, int[] flatY,
+                            Embedding emb, CausalSelfAttention attn,
+                            Linear ffn1, ReLU ffnAct, Linear ffn2, Linear outProj,
+                            AdaptiveSoftmax adaptiveOut, TiedOutputProjection tiedOut,
+                            Matrix pos, List<Linear> adaptable, Adam opt, boolean lora) {
+        // --- forward pass ---
+        Matrix xSeq    = emb.forwardSeq(x, pos);
+
+        Matrix attnOut  = attn.forward(xSeq).add(xSeq);
+        Matrix ffnHid   = ffnAct.forward(ffn1.forward(attnOut));
+        Matrix blockOut = ffn2.forward(ffnHid).add(attnOut);
+
+        double loss;
+        Matrix dBlock;
+        if (adaptiveOut != null) {
+            loss   = adaptiveOut.forward(blockOut, flatY, CharTokenizer.PAD_ID);
+            dBlock = adaptiveOut.backward();
+        } else if (tiedOut != null) {
+            Matrix probs   = tiedOut.forward(blockOut).softmaxRows();
+            loss           = maskedCE(probs, flatY, CharTokenizer.PAD_ID);
+            dBlock         = tiedOut.backward(maskedCEGrad(probs, flatY, CharTokenizer.PAD_ID));
+        } else {
+            Matrix probs   = outProj.forward(blockOut).softmaxRows();
+            loss           = maskedCE(probs, flatY, CharTokenizer.PAD_ID);
+            dBlock         = outProj.backward(maskedCEGrad(probs, flatY, CharTokenizer.PAD_ID));
+        }
+
+        // --- backward pass ---
+        Matrix dHid    = ffn2.backward(dBlock);
+        dHid = ffnAct.backward(dHid);
+        Matrix dAttn   = ffn1.backward(dHid);
+        dAttn = dAttn.add(dBlock);
+        Matrix dXSeq   = attn.backward(dAttn).add(dAttn);
+
+        // Frozen embeddings need no gradient under LoRA.
+        Matrix gradPos = null;
+        if (!lora) {
+            emb.backwardSeq(dXSeq);
+            gradPos = accumPosGrad(dXSeq, x.length / CONTEXT_LEN, CONTEXT_LEN, D_MODEL);
+        }
+
+        // --- optimiser step ---
+        opt.tick();
+        for (Linear layer : adaptable) opt.step(layer);
+        if (!lora) {
+            opt.step(emb);
+            if (adaptiveOut != null) {
+                for (Linear layer : adaptiveOut.getLayers()) opt.step(layer);
+            } else if (tiedOut == null) {
+                opt.step(outProj);
+            }
+            updatePos(pos, gradPos, 0.02);
+        }
+        return loss;
+    }
+
     // -------------------------------------------------------------------------
     // Generation
     // -------------------------------------------------------------------------
 
-    private static String generate(CharTokenizer tok,
+    private static String generate(Tokenizer tok,
                                    Embedding emb,
                                    CausalSelfAttention attn,
                                    Linear ffn1, ReLU ffnAct, Linear ffn2,
-                                   Linear outProj, Matrix pos,
+                                   Linear outProj, AdaptiveSoftmax adaptiveOut,
+                                   TiedOutputProjection tiedOut, Matrix pos,
                                    int contextLen, int dModel,
-                                   String prompt, int maxNewChars,
+                                   String prompt, int maxNewTokens,
                                    double temperature, Random rng) {
 
         StringBuilder out = new StringBuilder(prompt);
+        int[] promptIds = tok.encode(prompt);
+        int[] history = Arrays.copyOf(promptIds, promptIds.length + maxNewTokens);
+        int length = promptIds.length;
+        int[] ctx = new int[contextLen];
+        int[][] ctxBatch = new int[][] { ctx };
 
-        for (int i = 0; i < maxNewChars; i++) {
-            int[] ctx = new int[contextLen];
-            int start = out.length() - contextLen;
-
-            for (int j = 0; j < contextLen; j++) {
-                int charIndex = start + j;
-                ctx[j] = charIndex < 0
-                    ? CharTokenizer.PAD_ID
-                    : tok.charToId(out.charAt(charIndex));
-            }
+        for (int i = 0; i < maxNewTokens; i++) {
+            int start = length - contextLen;
+            int pad = Math.max(-start, 0);
+            Arrays.fill(ctx, 0, pad, CharTokenizer.PAD_ID);
+            System.arraycopy(history, start + pad, ctx, pad, contextLen - pad);
 
-            int[][] ctxBatch = new int[][] { ctx };
-            Matrix xSeq = emb.forwardSeq(ctxBatch);
-            addPos(xSeq, pos, 1, contextLen, dModel);
+            Matrix xSeq = emb.forwardSeq(ctxBatch, pos);
 
             Matrix attnOut  = attn.forward(xSeq).add(xSeq);
             Matrix ffnHid   = ffnAct.forward(ffn1.forward(attnOut));
             Matrix blockOut = ffn2.forward(ffnHid).add(attnOut);
             Matrix last     = takeLastToken(blockOut, 1, contextLen, dModel);
-            Matrix probs    = softmaxTemp(outProj.forward(last), temperature);
 
-            int nextId = sampleRow(probs, 0, rng);
-            Character nextChar = tok.idToChar(nextId);
-            if (nextChar == null) break;
+            int nextId;
+            if (adaptiveOut != null) {
+                nextId = adaptiveOut.sample(last, temperature, rng)[0];
+            } else {
+                Matrix logits = (tiedOut != null) ? tiedOut.forward(last) : outProj.forward(last);
+                Matrix probs = softmaxTemp(logits, temperature);
+                nextId = sampleRow(probs, 0, rng);
+            }
+            String next = tok.tokenText(nextId);
+            if (next == null) break;
 
-            out.append(nextChar);
+            history[length++] = nextId;
+            out.append(next);
         }
 
         return out.toString();
@@ -201,40 +384,6 @@ public class Demo {
     // Training helpers (mirrors TrainCharLM)
     // -------------------------------------------------------------------------
 
-    private static int[][] sampleX(TextDataset ds, int batchSize, Random rng) {
-        int[][] x = new int[batchSize][];
-        for (int b = 0; b < batchSize; b++) {
-            x[b] = ds.getContext(rng.nextInt(ds.size()));
-        }
-        return x;
-    }
-
-    private static int[][] buildYSeq(TextDataset ds, int[][] x, int contextLen) {
-        int batchSize = x.length;
-        int[][] ySeq = new int[batchSize][contextLen];
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < contextLen - 1; t++) {
-                ySeq[b][t] = x[b][t + 1];
-            }
-            // last target: find this context in the dataset (approximate with PAD)
-            ySeq[b][contextLen - 1] = CharTokenizer.PAD_ID;
-        }
-        return ySeq;
-    }
-
-    private static int[] flatten(int[][] ySeq) {
-        int batchSize = ySeq.length;
-        int contextLen = ySeq[0].length;
-        int[] flat = new int[batchSize * contextLen];
-        int idx = 0;
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < contextLen; t++) {
-                flat[idx++] = ySeq[b][t];
-            }
-        }
-        return flat;
-    }
-
     private static double maskedCE(Matrix probs, int[] targets, int padId) {
         double eps = 1e-12, loss = 0.0;
         int count = 0;
@@ -266,17 +415,6 @@ public class Demo {
     // Positional embedding helpers
     // -------------------------------------------------------------------------
 
-    private static void addPos(Matrix xSeq, Matrix pos, int batchSize, int contextLen, int dModel) {
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < contextLen; t++) {
-                int row = b * contextLen + t;
-                for (int j = 0; j < dModel; j++) {
-                    xSeq.set(row, j, xSeq.get(row, j) + pos.get(t, j));
-                }
-            }
-        }
-    }
-
     private static Matrix accumPosGrad(Matrix dXSeq, int batchSize, int contextLen, int dModel) {
         Matrix gradPos = new Matrix(contextLen, dModel);
         for (int b = 0; b < batchSize; b++) {
@@ -0,0 +1,111 @@
+package minigptj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares loss against wall-clock time for synchronous data-parallel and
+ * asynchronous Hogwild training.
+ *
+ * Both modes train a fresh model with TrainCharLM's default setup on the same
+ * number of threads and for the same time budget. Data-parallel training
+ * splits each batch across the threads and takes one optimiser step per
+ * batch; Hogwild gives every thread whole batches and lets each apply its own
+ * updates to the shared weights. The smoothed training loss of both runs is
+ * printed at evenly spaced points in time.
+ *
+ * Options:
+ *   --threads N     threads for both modes (default: available processors)
+ *   --seconds S     wall-clock budget per mode (default 120)
+ *   --steps N       step budget per mode (default 100000); also the length
+ *                   the learning-rate schedule is planned over
+ *   --points N      rows of the loss-vs-time table (default 12)
+ *   --seed S        seed for weight initialisation (default 1)
+ */
+public class HogwildBenchmark {
+
+    /**
+     * Runs both training modes and prints the loss-vs-time table.
+     *
+     * @param args command-line options
+     * @throws Exception if the training corpus cannot be read
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        double seconds = 120;
+        int steps = 100000;
+        int points = 12;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[i + 1]);
+            }
+            if (args[i].equals("--seconds")) {
+                seconds = Double.parseDouble(args[i + 1]);
+            }
+            if (args[i].equals("--steps")) {
+                steps = Integer.parseInt(args[i + 1]);
+            }
+            if (args[i].equals("--points")) {
+                points = Integer.parseInt(args[i + 1]);
+            }
+            if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[i + 1]);
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        List<TrainCharLM.Result> results = new ArrayList<>();
+        for (String mode : new String[] {"data-parallel", "hogwild"}) {
+            TrainCharLM.Options opts = new TrainCharLM.Options();
+            opts.steps = steps;
+            opts.timeLimit = seconds;
+            opts.curveEvery = 1;
+            opts.seed = seed;
+            opts.verbose = false;
+            if (mode.equals("hogwild")) {
+                opts.hogwild = threads;
+            } else {
+                opts.replicas = threads;
+                opts.threads = threads;
+            }
+
+            System.out.printf("running %s on %d thread(s) for %.0f s...%n", mode, threads, seconds);
+            TrainCharLM.Result result = TrainCharLM.train(opts);
+            System.out.printf("  %d steps, %.0f tokens/s, smoothed loss %.4f%n",
+                result.steps, result.tokensPerSecond(), result.smoothedLoss);
+            names.add(mode);
+            results.add(result);
+        }
+
+        System.out.println();
+        System.out.printf("smoothed loss vs wall-clock time, %d thread(s)%n", threads);
+        System.out.printf("%10s", "seconds");
+        for (String name : names) {
+            System.out.printf(" %14s", name);
+        }
+        System.out.println();
+        for (int p = 1; p <= points; p++) {
+            double t = seconds * p / points;
+            System.out.printf("%10.1f", t);
+            for (TrainCharLM.Result r : results) {
+                double loss = lossAt(r.lossCurve, t);
+                System.out.printf(" %14s", Double.isNaN(loss) ? "-" : String.format("%.4f", loss));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Returns the last smoothed loss recorded at or before a time, or NaN if
+     * none was recorded yet.
+     */
+    private static double lossAt(List<double[]> curve, double seconds) {
+        double loss = Double.NaN;
+        for (double[] point : curve) {
+            if (point[0] > seconds) break;
+            loss = point[1];
+        }
+        return loss;
+    }
+}
@@ -1,8 +1,12 @@
 package minigptj;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.List;
 import minigptj.core.Linear;
 import minigptj.core.Matrix;
+import minigptj.data.BpeTokenizer;
+import minigptj.model.AdaptiveSoftmax;
 import minigptj.model.CausalSelfAttention;
 import minigptj.model.Embedding;
 
@@ -22,6 +26,26 @@ import minigptj.model.Embedding;
  *   7. FFN layer 2 weights + bias
  *   8. Output projection weights + bias
  *   9. Positional embeddings matrix
+ *
+ * Models using an adaptive softmax output layer replace step 8 with:
+ *   8a. Cutoffs: count (int), then each cutoff (int)
+ *   8b. Frequency ordering: count (int), then each token ID (int)
+ *   8c. Weights + bias of every adaptive softmax layer, in getLayers() order
+ *
+ * Models whose output projection is tied to the embedding (see
+ * TiedOutputProjection) omit step 8 entirely.
+ *
+ * LoRA adapters are stored in their own file, separate from the base model,
+ * so one base model can be shared by many small fine-tunes:
+ *   1. Layer count (int)
+ *   2. For each layer: rank (int, 0 = no adapters), then if rank > 0
+ *      alpha (double), A matrix, B matrix
+ *
+ * Models trained with a BPE tokenizer need its merges to map text to the
+ * embedding rows, so the tokenizer is saved next to the model (see
+ * tokenizerPath()):
+ *   1. Alphabet: length (int), then each char
+ *   2. Merges: count of IDs (int), then left and right token ID of each merge
  */
 public class ModelIO {
 
@@ -47,21 +71,7 @@ public class ModelIO {
         try (DataOutputStream dos = new DataOutputStream(
                 new BufferedOutputStream(new FileOutputStream(path)))) {
 
-            writeMatrix(dos, emb.getWeights());
-
-            writeMatrix(dos, attn.getWq().getWeights());
-            writeMatrix(dos, attn.getWq().getBias());
-            writeMatrix(dos, attn.getWk().getWeights());
-            writeMatrix(dos, attn.getWk().getBias());
-            writeMatrix(dos, attn.getWv().getWeights());
-            writeMatrix(dos, attn.getWv().getBias());
-            writeMatrix(dos, attn.getWo().getWeights());
-            writeMatrix(dos, attn.getWo().getBias());
-
-            writeMatrix(dos, ffn1.getWeights());
-            writeMatrix(dos, ffn1.getBias());
-            writeMatrix(dos, ffn2.getWeights());
-            writeMatrix(dos, ffn2.getBias());
+            writeBlock(dos, emb, attn, ffn1, ffn2);
 
             writeMatrix(dos, outProj.getWeights());
             writeMatrix(dos, outProj.getBias());
@@ -72,6 +82,70 @@ public class ModelIO {
         System.out.println("Model saved to: " + path);
     }
 
+    /**
+     * Save a model that uses an adaptive softmax output layer.
+     *
+     * @param path     file path to write to
+     * @param emb      trained Embedding layer
+     * @param attn     trained CausalSelfAttention layer
+     * @param ffn1     first feed-forward Linear layer
+     * @param ffn2     second feed-forward Linear layer
+     * @param output   adaptive softmax output layer
+     * @param pos      positional embedding matrix (contextLen x dModel)
+     */
+    public static void save(String path,
+                            Embedding emb,
+                            CausalSelfAttention attn,
+                            Linear ffn1,
+                            Linear ffn2,
+                            AdaptiveSoftmax output,
+                            Matrix pos) throws IOException {
+
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+
+            writeBlock(dos, emb, attn, ffn1, ffn2);
+
+            writeInts(dos, output.getCutoffs());
+            writeInts(dos, output.getRankToId());
+            for (Linear layer : output.getLayers()) {
+                writeMatrix(dos, layer.getWeights());
+                writeMatrix(dos, layer.getBias());
+            }
+
+            writeMatrix(dos, pos);
+        }
+
+        System.out.println("Model saved to: " + path);
+    }
+
+    /**
+     * Save a model whose output projection is tied to the token embedding.
+     *
+     * @param path     file path to write to
+     * @param emb      trained Embedding layer, also used as the output projection
+     * @param attn     trained CausalSelfAttention layer
+     * @param ffn1     first feed-forward Linear layer
+     * @param ffn2     second feed-forward Linear layer
+     * @param pos      positional embedding matrix (contextLen x dModel)
+     */
+    public static void save(String path,
+                            Embedding emb,
+                            CausalSelfAttention attn,
+                            Linear ffn1,
+                            Linear ffn2,
+                            Matrix pos) throws IOException {
+
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+
+            writeBlock(dos, emb, attn, ffn1, ffn2);
+            writeMatrix(dos, pos);
+        }
+
+        System.out.println("Model saved to: " + path);
+    }
+
     /**
      * Load a saved model from file, writing weights directly into the
      * provided (already-constructed) layer objects.
@@ -95,21 +169,7 @@ public class ModelIO {
         try (DataInputStream dis = new DataInputStream(
                 new BufferedInputStream(new FileInputStream(path)))) {
 
-            readInto(dis, emb.getWeights());
-
-            readInto(dis, attn.getWq().getWeights());
-            readInto(dis, attn.getWq().getBias());
-            readInto(dis, attn.getWk().getWeights());
-            readInto(dis, attn.getWk().getBias());
-            readInto(dis, attn.getWv().getWeights());
-            readInto(dis, attn.getWv().getBias());
-            readInto(dis, attn.getWo().getWeights());
-            readInto(dis, attn.getWo().getBias());
-
-            readInto(dis, ffn1.getWeights());
-            readInto(dis, ffn1.getBias());
-            readInto(dis, ffn2.getWeights());
-            readInto(dis, ffn2.getBias());
+            readBlock(dis, emb, attn, ffn1, ffn2);
 
             readInto(dis, outProj.getWeights());
             readInto(dis, outProj.getBias());
@@ -120,8 +180,260 @@ public class ModelIO {
         System.out.println("Model loaded from: " + path);
     }
 
+    /**
+     * Load a model saved with an adaptive softmax output layer.
+     *
+     * The provided output layer must have been built with the same cutoffs and
+     * token frequency ordering as the saved one.
+     *
+     * @param path     file path to read from
+     * @param emb      Embedding layer to populate
+     * @param attn     CausalSelfAttention layer to populate
+     * @param ffn1     first feed-forward Linear layer to populate
+     * @param ffn2     second feed-forward Linear layer to populate
+     * @param output   adaptive softmax output layer to populate
+     * @param pos      positional embedding matrix to populate
+     */
+    public static void load(String path,
+                            Embedding emb,
+                            CausalSelfAttention attn,
+                            Linear ffn1,
+                            Linear ffn2,
+                            AdaptiveSoftmax output,
+                            Matrix pos) throws IOException {
+
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path)))) {
+
+            readBlock(dis, emb, attn, ffn1, ffn2);
+
+            if (!Arrays.equals(readInts(dis), output.getCutoffs())) {
+                throw new IOException("Adaptive softmax cutoffs in file do not match the model");
+            }
+            if (!Arrays.equals(readInts(dis), output.getRankToId())) {
+                throw new IOException("Adaptive softmax token ordering in file does not match the model");
+            }
+            for (Linear layer : output.getLayers()) {
+                readInto(dis, layer.getWeights());
+                readInto(dis, layer.getBias());
+            }
+
+            readInto(dis, pos);
+        }
+
+        System.out.println("Model loaded from: " + path);
+    }
+
+    /**
+     * Load a model whose output projection is tied to the token embedding.
+     *
+     * @param path     file path to read from
+     * @param emb      Embedding layer to populate
+     * @param attn     CausalSelfAttention layer to populate
+     * @param ffn1     first feed-forward Linear layer to populate
+     * @param ffn2     second feed-forward Linear layer to populate
+     * @param pos      positional embedding matrix to populate
+     */
+    public static void load(String path,
+                            Embedding emb,
+                            CausalSelfAttention attn,
+                            Linear ffn1,
+                            Linear ffn2,
+                            Matrix pos) throws IOException {
+
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path)))) {
+
+            readBlock(dis, emb, attn, ffn1, ffn2);
+            readInto(dis, pos);
+        }
+
+        System.out.println("Model loaded from: " + path);
+    }
+
+    /**
+     * Save the LoRA adapters of a list of layers.
+     *
+     * Only the adapters are written; the frozen base weights are saved
+     * separately with save(). Layers without adapters are recorded as rank 0.
+     *
+     * @param path     file path to write to (e.g. "adapters.bin")
+     * @param layers   layers whose adapters to save, in a fixed order
+     */
+    public static void saveAdapters(String path, List<Linear> layers) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+
+            dos.writeInt(layers.size());
+            for (Linear layer : layers) {
+                dos.writeInt(layer.getLoraRank());
+                if (layer.hasLora()) {
+                    dos.writeDouble(layer.getLoraAlpha());
+                    writeMatrix(dos, layer.getLoraA());
+                    writeMatrix(dos, layer.getLoraB());
+                }
+            }
+        }
+
+        System.out.println("Adapters saved to: " + path);
+    }
+
+    /**
+     * Load LoRA adapters and attach them to a list of layers.
+     *
+     * The base weights must already be loaded. Each layer in the file with a
+     * non-zero rank gets adapters attached (freezing its base weights) and
+     * populated, so training can continue on the adapters.
+     *
+     * @param path     file path to read from
+     * @param layers   layers to attach adapters to, in the order used when saving
+     */
+    public static void loadAdapters(String path, List<Linear> layers) throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path)))) {
+
+            int count = dis.readInt();
+            if (count != layers.size()) {
+                throw new IOException(String.format(
+                    "Adapter file has %d layers, expected %d", count, layers.size()));
+            }
+
+            for (Linear layer : layers) {
+                int rank = dis.readInt();
+                if (rank == 0) continue;
+                if (rank < 0) throw new IOException("Corrupt adapter file: negative rank");
+
+                layer.enableLora(rank, dis.readDouble());
+                readInto(dis, layer.getLoraA());
+                readInto(dis, layer.getLoraB());
+            }
+        }
+
+        System.out.println("Adapters loaded from: " + path);
+    }
+
+    /**
+     * Load LoRA adapters and merge them into the base weights.
+     *
+     * Afterwards the layers are plain Linear layers again, with no inference
+     * overhead from the adapters.
+     *
+     * @param path     file path to read from
+     * @param layers   layers to merge adapters into, in the order used when saving
+     */
+    public static void mergeAdapters(String path, List<Linear> layers) throws IOException {
+        loadAdapters(path, layers);
+        for (Linear layer : layers) {
+            if (layer.hasLora()) {
+                layer.mergeLora();
+            }
+        }
+    }
+
+    /**
+     * Returns the file a model's BPE tokenizer is saved to: the model path
+     * with its extension replaced by ".tokenizer".
+     *
+     * @param modelPath model file path (e.g. "model-bpe.bin")
+     * @return tokenizer file path (e.g. "model-bpe.tokenizer")
+     */
+    public static String tokenizerPath(String modelPath) {
+        int dot = modelPath.lastIndexOf('.');
+        return (dot > 0 ? modelPath.substring(0, dot) : modelPath) + ".tokenizer";
+    }
+
+    /**
+     * Save the alphabet and merges of a BPE tokenizer.
+     *
+     * @param path     file path to write to (e.g. "model-bpe.tokenizer")
+     * @param tok      trained tokenizer
+     */
+    public static void saveTokenizer(String path, BpeTokenizer tok) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+
+            String alphabet = tok.getAlphabet();
+            dos.writeInt(alphabet.length());
+            dos.writeChars(alphabet);
+            writeInts(dos, tok.getMerges());
+        }
+
+        System.out.println("Tokenizer saved to: " + path);
+    }
+
+    /**
+     * Load a BPE tokenizer saved with saveTokenizer().
+     *
+     * @param path     file path to read from
+     * @return tokenizer with the saved token IDs
+     */
+    public static BpeTokenizer loadTokenizer(String path) throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path)))) {
+
+            int length = dis.readInt();
+            if (length < 0) throw new IOException("Corrupt tokenizer file: negative alphabet length");
+            char[] alphabet = new char[length];
+            for (int i = 0; i < length; i++) {
+                alphabet[i] = dis.readChar();
+            }
+            int[] merges = readInts(dis);
+            try {
+                return BpeTokenizer.fromMerges(new String(alphabet), merges);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt tokenizer file: " + e.getMessage(), e);
+            }
+        }
+    }
+
     // --- private helpers ---
 
+    /** Write the embedding, attention and feed-forward weights (steps 1-7). */
+    private static void writeBlock(DataOutputStream dos,
+                                   Embedding emb,
+                                   CausalSelfAttention attn,
+                                   Linear ffn1,
+                                   Linear ffn2) throws IOException {
+        writeMatrix(dos, emb.getWeights());
+
+        writeMatrix(dos, attn.getWq().getWeights());
+        writeMatrix(dos, attn.getWq().getBias());
+        writeMatrix(dos, attn.getWk().getWeights());
+        writeMatrix(dos, attn.getWk().getBias());
+        writeMatrix(dos, attn.getWv().getWeights());
+        writeMatrix(dos, attn.getWv().getBias());
+        writeMatrix(dos, attn.getWo().getWeights());
+        writeMatrix(dos, attn.getWo().getBias());
+
+        writeMatrix(dos, ffn1.getWeights());
+        writeMatrix(dos, ffn1.getBias());
+        writeMatrix(dos, ffn2.getWeights());
+        writeMatrix(dos, ffn2.getBias());
+    }
+
+    /** Read the embedding, attention and feed-forward weights (steps 1-7). */
+    private static void readBlock(DataInputStream dis,
+                                  Embedding emb,
+                                  CausalSelfAttention attn,
+                                  Linear ffn1,
+                                  Linear ffn2) throws IOException {
+        readInto(dis, emb.getWeights());
+
+        readInto(dis, attn.getWq().getWeights());
+        readInto(dis, attn.getWq().getBias());
+        readInto(dis, attn.getWk().getWeights());
+        readInto(dis, attn.getWk().getBias());
+        readInto(dis, attn.getWv().getWeights());
+        readInto(dis, attn.getWv().getBias());
+        readInto(dis, attn.getWo().getWeights());
+        readInto(dis, attn.getWo().getBias());
+
+        readInto(dis, ffn1.getWeights());
+        readInto(dis, ffn1.getBias());
+        readInto(dis, ffn2.getWeights());
+        readInto(dis, ffn2.getBias());
+    }
+
     /** Write a matrix as: rows (int), cols (int), then all doubles row-major. */
     private static void writeMatrix(DataOutputStream dos, Matrix m) throws IOException {
         int rows = m.getRows();
@@ -155,4 +467,23 @@ public class ModelIO {
             }
         }
     }
-}
\ No newline at end of file
+
+    /** Write an int array as: length (int), then each value. */
+    private static void writeInts(DataOutputStream dos, int[] values) throws IOException {
+        dos.writeInt(values.length);
+        for (int v : values) {
+            dos.writeInt(v);
+        }
+    }
+
+    /** Read an int array written by writeInts(). */
+    private static int[] readInts(DataInputStream dis) throws IOException {
+        int n = dis.readInt();
+        if (n < 0) throw new IOException("Corrupt model file: negative array length");
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = dis.readInt();
+        }
+        return values;
+    }
+}
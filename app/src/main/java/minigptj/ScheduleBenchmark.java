@@ -0,0 +1,89 @@
+package minigptj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares learning-rate schedules by how quickly they reach a target loss.
+ *
+ * Each schedule trains a fresh model with TrainCharLM's default setup until
+ * the smoothed training loss reaches the target (0.72 by default, the final
+ * loss reported in the README) or the step budget runs out. The constant
+ * schedule runs at the usual Adam rate of 0.001; the decaying schedules
+ * start from a higher peak rate because they anneal it later in training.
+ *
+ * Options:
+ *   --steps N         step budget per schedule (default 5000); also the
+ *                     length the decaying schedules are planned over
+ *   --target-loss X   smoothed loss to reach (default 0.72)
+ *   --lr X            learning rate of the constant baseline (default 0.001)
+ *   --peak-lr X       peak learning rate of the other schedules
+ *                     (default 0.002)
+ *   --warmup N        warmup steps (default 200)
+ *   --schedules LIST  comma-separated schedules to run (default: all)
+ */
+public class ScheduleBenchmark {
+
+    /**
+     * Runs every requested schedule and prints a summary table.
+     *
+     * @param args command-line options
+     * @throws Exception if the training corpus cannot be read
+     */
+    public static void main(String[] args) throws Exception {
+        int steps = 5000;
+        double targetLoss = 0.72;
+        double lr = 0.001;
+        double peakLr = 0.002;
+        int warmup = 200;
+        String schedules = "constant,warmup-cosine,warmup-linear,one-cycle";
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--steps")) {
+                steps = Integer.parseInt(args[i + 1]);
+            }
+            if (args[i].equals("--target-loss")) {
+                targetLoss = Double.parseDouble(args[i + 1]);
+            }
+            if (args[i].equals("--lr")) {
+                lr = Double.parseDouble(args[i + 1]);
+            }
+            if (args[i].equals("--peak-lr")) {
+                peakLr = Double.parseDouble(args[i + 1]);
+            }
+            if (args[i].equals("--warmup")) {
+                warmup = Integer.parseInt(args[i + 1]);
+            }
+            if (args[i].equals("--schedules")) {
+                schedules = args[i + 1];
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        List<TrainCharLM.Result> results = new ArrayList<>();
+        for (String name : schedules.split(",")) {
+            TrainCharLM.Options opts = new TrainCharLM.Options();
+            opts.schedule = name;
+            opts.steps = steps;
+            opts.warmupSteps = warmup;
+            opts.learningRate = name.equals("constant") ? lr : peakLr;
+            opts.targetLoss = targetLoss;
+            opts.verbose = false;
+
+            System.out.printf("running %s (lr %.4f)...%n", name, opts.learningRate);
+            TrainCharLM.Result result = TrainCharLM.train(opts);
+            System.out.printf("  %d steps, %.1f s, smoothed loss %.4f%n",
+                result.steps, result.seconds, result.smoothedLoss);
+            names.add(name);
+            results.add(result);
+        }
+
+        System.out.println();
+        System.out.printf("target smoothed loss %.2f, budget %d steps%n", targetLoss, steps);
+        System.out.printf("%-14s %8s %10s %10s %8s%n", "schedule", "steps", "seconds", "loss", "reached");
+        for (int i = 0; i < names.size(); i++) {
+            TrainCharLM.Result r = results.get(i);
+            System.out.printf("%-14s %8d %10.1f %10.4f %8s%n",
+                names.get(i), r.steps, r.seconds, r.smoothedLoss, r.reachedTarget ? "yes" : "no");
+        }
+    }
+}
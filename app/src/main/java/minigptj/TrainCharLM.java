@@ -1,17 +1,51 @@
 package minigptj;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import minigptj.core.Linear;
 import minigptj.core.Matrix;
 import minigptj.core.ReLU;
+import minigptj.core.SparseRowGradient;
+import minigptj.data.BatchPrefetcher;
+import minigptj.data.BatchSampler;
+import minigptj.data.BpeTokenizer;
 import minigptj.data.CharTokenizer;
+import minigptj.data.CorpusEncoder;
+import minigptj.data.EpochSampler;
 import minigptj.data.TextDataset;
+import minigptj.data.TokenCache;
+import minigptj.data.TokenFile;
+import minigptj.data.TokenStore;
+import minigptj.data.Tokenizer;
+import minigptj.dist.Collective;
+import minigptj.dist.ParameterServer;
+import minigptj.dist.RingAllReduce;
+import minigptj.model.AdaptiveSoftmax;
 import minigptj.model.CausalSelfAttention;
 import minigptj.model.Embedding;
+import minigptj.model.TensorParallelFFN;
+import minigptj.model.TiedOutputProjection;
+import minigptj.optim.Adafactor;
 import minigptj.optim.Adam;
+import minigptj.optim.FusedAdam;
+import minigptj.optim.LearningRateSchedule;
+import minigptj.optim.MomentPrecision;
+import minigptj.optim.Optimizer;
+import minigptj.optim.SGD;
+import minigptj.optim.StepScheduler;
+import minigptj.optim.TreeAllReduce;
 import minigptj.ModelIO;
 
 /**
@@ -25,7 +59,7 @@ import minigptj.ModelIO;
  * - running the transformer block forward pass
  * - computing cross-entropy loss
  * - performing backpropagation
- * - updating parameters using the Adam optimiser
+ * - updating parameters using a fused Adam optimiser
  * - generating text samples during training
  *
  * The model is trained autoregressively using a next-character prediction
@@ -36,123 +70,397 @@ public class TrainCharLM {
     /**
      * Trains the character-level language model and periodically prints samples.
      *
-     * @param args command-line arguments, unused
+     * Options:
+     *   --adaptive-softmax  replace the output projection with a
+     *                       frequency-clustered adaptive softmax layer
+     *   --cutoffs A,B       adaptive softmax rank cutoffs (default: chosen
+     *                       from corpus token frequencies)
+     *   --tie-weights       reuse the token embedding matrix as the output
+     *                       projection instead of a separate Linear layer
+     *   --adam-moments P    store Adam moments as double (default), float
+     *                       or int8 (block-quantised)
+     *   --adafactor         use Adafactor (factored second moments) instead
+     *                       of Adam
+     *   --sgd               use plain SGD instead of Adam
+     *   --overlap-steps     update each layer on a worker thread as soon as
+     *                       its gradients are final, overlapping optimiser
+     *                       work with the rest of the backward pass
+     *   --steps N           number of training steps (default 5000)
+     *   --lr X              base optimiser learning rate (default 0.001)
+     *   --schedule NAME     learning-rate schedule: constant (default),
+     *                       warmup-cosine, warmup-linear or one-cycle
+     *   --warmup N          warmup steps for the warmup schedules
+     *                       (default 200)
+     *   --target-loss X     stop early once the smoothed loss reaches X
+     *   --time-limit S      stop after S seconds of training
+     *   --data-parallel N   split every batch across N replicas that run
+     *                       forward/backward on their own threads; their
+     *                       gradients are combined with a deterministic
+     *                       tree all-reduce before one optimiser step
+     *   --threads T         worker threads for the replicas (default N);
+     *                       --threads 1 gives the same result serially
+     *   --hogwild N         train asynchronously on N threads, each with
+     *                       its own batches and optimiser state, updating
+     *                       the shared weights without locks
+     *   --tensor-parallel T split the feed-forward network across T
+     *                       threads: ffn1 by columns and ffn2 by rows, so
+     *                       each thread holds 1/T of its weights and
+     *                       activations; combines with --data-parallel
+     *   --seed S            seed for weight initialisation
+     *   --corpus FILE       UTF-8 text to train on (default: the bundled
+     *                       Grimm samples)
+     *   --tokens FILE       train from a memory-mapped token file, creating
+     *                       it from the corpus on first use
+     *   --token-cache DIR   directory of cached token files, keyed by the
+     *                       corpus contents (default .token-cache)
+     *   --no-token-cache    tokenise the corpus on every run
+     *   --tokenizer NAME    char (default): one token per character; bpe:
+     *                       byte-pair merges learned from the corpus
+     *   --vocab-size N      vocabulary size of the BPE tokenizer
+     *                       (default 512)
+     *   --batch-size N      sequences per optimiser step (default 64)
+     *   --micro-batch M     run each batch in pieces of M sequences and
+     *                       accumulate their gradients, bounding activation
+     *                       memory by M rather than the batch size
+     *   --sampler NAME      random (default): windows drawn with
+     *                       replacement; epoch: every window once per epoch
+     *                       in shuffled order
+     *   --stride N          tokens between epoch windows (default: the
+     *                       context length, i.e. non-overlapping)
+     *   --prefetch D        batches sampled ahead on background threads
+     *                       (default 2); 0 samples on the training thread
+     *   --loader-threads P  threads sampling prefetched batches (default 1)
+     *   --rank R            rank of this process in a multi-process run
+     *   --world-size W      number of training processes (default 1)
+     *   --dist-mode M       how processes exchange gradients: ring
+     *                       (ring all-reduce, default) or server (rank 0
+     *                       acts as a parameter server)
+     *   --dist-host H       host the processes listen on (default 127.0.0.1)
+     *   --dist-port P       base port (default 29500); in ring mode rank r
+     *                       listens on P + r
+     *
+     * @param args command-line options
      * @throws Exception if the training corpus cannot be read
      */
     public static void main(String[] args) throws Exception {
-        // Load training corpus and build tokenizer
-        String text = Files.readString(Path.of(System.getProperty("user.dir"), "app/src/main/java/minigptj/data/grimm_samples.txt"));        Random sampleRng = new Random(42);
-        Random batchRng = new Random(123);
+        train(Options.parse(args));
+    }
 
-        CharTokenizer tok = CharTokenizer.fromText(text);
-        int[] tokens = tok.encode(text);
+    /**
+     * Runs one training session.
+     *
+     * The schedule multiplies both the optimiser's base learning rate and the
+     * positional-embedding SGD rate at every step.
+     *
+     * @param opts training options
+     * @return steps taken, elapsed time and final smoothed loss
+     * @throws Exception if the training corpus cannot be read
+     */
+    static Result train(Options opts) throws Exception {
+        boolean adaptive = opts.adaptive;
+        boolean tieWeights = opts.tieWeights;
+        if (adaptive && tieWeights) {
+            throw new IllegalArgumentException("--adaptive-softmax and --tie-weights cannot be combined");
+        }
+        if (opts.cutoffs != null && !adaptive) {
+            throw new IllegalArgumentException("--cutoffs requires --adaptive-softmax");
+        }
+        // Without --threads every replica gets its own thread.
+        int threads = (opts.threads < 0) ? opts.replicas : opts.threads;
+        if (opts.replicas < 1 || threads < 1) {
+            throw new IllegalArgumentException("--data-parallel and --threads must be >= 1");
+        }
+        if (opts.replicas > 1 && (adaptive || opts.overlapSteps)) {
+            throw new IllegalArgumentException(
+                "--data-parallel cannot be combined with --adaptive-softmax or --overlap-steps");
+        }
+        if (opts.tensorParallel < 1) {
+            throw new IllegalArgumentException("--tensor-parallel must be >= 1");
+        }
+        if (opts.batchSize < 1) {
+            throw new IllegalArgumentException("--batch-size must be >= 1");
+        }
+        if (opts.prefetch < 0 || opts.loaderThreads < 1) {
+            throw new IllegalArgumentException("--prefetch must be >= 0 and --loader-threads >= 1");
+        }
+        if (!opts.sampler.equals("random") && !opts.sampler.equals("epoch")) {
+            throw new IllegalArgumentException("Unknown sampler: " + opts.sampler);
+        }
+        if (opts.stride < 0) {
+            throw new IllegalArgumentException("--stride cannot be negative");
+        }
+        if (!opts.tokenizer.equals("char") && !opts.tokenizer.equals("bpe")) {
+            throw new IllegalArgumentException("Unknown tokenizer: " + opts.tokenizer);
+        }
+        if (opts.tokenizer.equals("bpe") && opts.tokenFile != null) {
+            // Token files store a character vocabulary.
+            throw new IllegalArgumentException("--tokenizer bpe cannot be combined with --tokens");
+        }
+        if (opts.sampler.equals("epoch") && opts.loaderThreads > 1) {
+            // An epoch is one sequence of windows, drawn by one thread.
+            throw new IllegalArgumentException("--sampler epoch cannot be combined with --loader-threads > 1");
+        }
+        if (opts.worldSize > 1 && opts.overlapSteps) {
+            throw new IllegalArgumentException("--world-size cannot be combined with --overlap-steps");
+        }
+        if (opts.worldSize > 1 && opts.timeLimit < Double.POSITIVE_INFINITY) {
+            // Ranks would stop after different numbers of steps.
+            throw new IllegalArgumentException("--world-size cannot be combined with --time-limit");
+        }
+        if (opts.hogwild < 1) {
+            throw new IllegalArgumentException("--hogwild must be >= 1");
+        }
+        if (opts.hogwild > 1 && (adaptive || opts.overlapSteps || opts.replicas > 1
+                || opts.microBatchSize > 0 || opts.worldSize > 1)) {
+            throw new IllegalArgumentException("--hogwild cannot be combined with --adaptive-softmax, "
+                + "--overlap-steps, --data-parallel, --micro-batch or --world-size");
+        }
+
+        // Join the other training processes, if any. Only rank 0 logs,
+        // samples and saves the model.
+        Collective collective = openCollective(opts);
+        boolean verbose = opts.verbose && opts.rank == 0;
+
+        // Load training corpus and build tokenizer. The corpus is tokenised
+        // once into a token file in the token cache, which later runs
+        // memory-map until the corpus changes; --tokens names the token file
+        // directly. Without a cache the corpus is tokenised in parallel
+        // chunks and packed one byte or short per token. A BPE tokenizer is
+        // learned from the whole text and encodes it in one pass; the cache
+        // keeps its merges and tokens for the same corpus and vocabulary size.
+        Path corpus = (opts.corpus != null)
+            ? Path.of(opts.corpus)
+            : Path.of(System.getProperty("user.dir"), "app/src/main/java/minigptj/data/grimm_samples.txt");
+        Tokenizer tok;
+        TokenStore tokens;
+        if (opts.tokenizer.equals("bpe") && opts.tokenCache != null) {
+            TokenCache.BpeCorpus cached = new TokenCache(Path.of(opts.tokenCache)).openBpe(corpus, opts.vocabSize);
+            tok = cached.getTokenizer();
+            tokens = cached.getTokens();
+        } else if (opts.tokenizer.equals("bpe")) {
+            String text = Files.readString(corpus);
+            BpeTokenizer bpe = BpeTokenizer.train(text, opts.vocabSize);
+            tok = bpe;
+            tokens = TokenStore.compact(bpe.encode(text), bpe.vocabSize());
+        } else if (opts.tokenFile != null) {
+            TokenFile file = TokenFile.openOrCreate(Path.of(opts.tokenFile), corpus);
+            tok = file.getTokenizer();
+            tokens = file;
+        } else if (opts.tokenCache != null) {
+            TokenFile file = new TokenCache(Path.of(opts.tokenCache)).open(corpus);
+            tok = file.getTokenizer();
+            tokens = file;
+        } else {
+            CorpusEncoder encoder = new CorpusEncoder();
+            CharTokenizer chars = encoder.buildTokenizer(corpus);
+            tok = chars;
+            tokens = encoder.encodeCompact(corpus, chars);
+        }
         int vocabSize = tok.vocabSize();
 
+        Random sampleRng = new Random(42);
+
         // Configure training hyperparameters
         int contextLen = 32;
         int dModel = 96;
 
         TextDataset ds = new TextDataset(tokens, contextLen);
 
-        int batchSize = 64;
-        int steps = 5000;
-        double learningRate = 0.02;
-
-        // Initialise model components
-        Embedding emb = new Embedding(vocabSize, dModel);
-        CausalSelfAttention attn = new CausalSelfAttention(dModel, contextLen);
-        Linear outProj = new Linear(dModel, vocabSize);
+        int batchSize = opts.batchSize;
+        int microBatchSize = (opts.microBatchSize > 0) ? Math.min(opts.microBatchSize, batchSize) : batchSize;
+        int steps = opts.steps;
+        double posLearningRate = 0.02;
+        LearningRateSchedule schedule = LearningRateSchedule.byName(opts.schedule, opts.warmupSteps, steps);
+
+        // Initialise model components. With --seed the weights are
+        // reproducible, which makes runs comparable bit for bit.
+        Random initRng = (opts.seed != null) ? new Random(opts.seed) : new Random();
+        Embedding emb = new Embedding(vocabSize, dModel, initRng);
+        CausalSelfAttention attn = new CausalSelfAttention(dModel, contextLen, initRng);
+
+        // Optional output projection sharing the embedding matrix.
+        TiedOutputProjection tiedOut = tieWeights ? new TiedOutputProjection(emb) : null;
+
+        // Optional adaptive softmax output, sized from corpus token frequencies.
+        AdaptiveSoftmax adaptiveOut = null;
+        if (adaptive) {
+            int[] counts = tok.countTokens(tokens);
+            int[] cutoffs = (opts.cutoffs != null) ? opts.cutoffs : AdaptiveSoftmax.defaultCutoffs(counts);
+            adaptiveOut = new AdaptiveSoftmax(dModel, counts, cutoffs);
+        }
 
-        Adam opt = new Adam(0.001);
+        // The untied dModel x vocab head is only allocated when it is used.
+        Linear outProj = (tiedOut == null && adaptiveOut == null)
+            ? new Linear(dModel, vocabSize, initRng)
+            : null;
 
         // Position-wise feed-forward network used after attention.
-        Linear ffn1 = new Linear(dModel, dModel * 4);
+        Linear ffn1 = new Linear(dModel, dModel * 4, initRng);
         ReLU ffnAct = new ReLU();
-        Linear ffn2 = new Linear(dModel * 4, dModel);
+        Linear ffn2 = new Linear(dModel * 4, dModel, initRng);
+
+        // With tensor parallelism the FFN is trained as per-thread shards;
+        // ffn1 and ffn2 only receive the weights back for sampling and saving.
+        TensorParallelFFN tpFfn = (opts.tensorParallel > 1)
+            ? new TensorParallelFFN(ffn1, ffn2, opts.tensorParallel)
+            : null;
 
         // Learned positional embeddings are updated manually because they are
         // stored as a raw Matrix rather than inside a layer class.
         Matrix pos = initPositionalEmbeddings(contextLen, dModel, new Random(123));
 
-        // -- Training loop --
-        for (int step = 1; step <= steps; step++) {
-            // Sample a mini-batch of context windows and target sequences.
-            SequenceBatch batch = sampleBatch(ds, contextLen, batchSize, batchRng);
-
-            // Convert token IDs into dense embedding vectors.
-            Matrix xSeq = emb.forwardSeq(batch.x);
-
-            // Add learned positional embeddings so the model can represent order.
-            addPositionalEmbeddings(xSeq, pos, batchSize, contextLen, dModel);
+        // Replica 0 owns the model. Data-parallel training adds replicas that
+        // share its parameters and each process one shard of every batch;
+        // Hogwild training runs one replica per thread.
+        Replica primary = new Replica(emb, attn, ffn1, ffnAct, ffn2, tpFfn, outProj, tiedOut, adaptiveOut);
+        List<Replica> replicas = new ArrayList<>(List.of(primary));
+        int replicaCount = Math.max(opts.replicas, opts.hogwild);
+        for (int r = 1; r < replicaCount; r++) {
+            replicas.add(primary.replicate());
+        }
 
-            if (step == 1) {
-                System.out.println("xSeq = " + xSeq.getRows() + " x " + xSeq.getCols());
-                System.out.println("expected = " + (batchSize * contextLen) + " x " + dModel);
+        // Batches larger than a micro-batch are processed in pieces whose
+        // gradients are summed before the optimiser step, so activation
+        // memory is bounded by the micro-batch size.
+        boolean accumulate = microBatchSize < batchSize;
+        if (accumulate) {
+            for (Replica replica : replicas) {
+                replica.setAccumulateGradients(true);
             }
+        }
 
-            // -- Forward pass through transformer-style block --
-
-            // Causal self-attention allows each token to attend only to previous
-            // tokens and itself.
-            Matrix attnOnly = attn.forward(xSeq);
-
-            // Residual connection around attention.
-            Matrix attnOutSeq = attnOnly.add(xSeq);
-
-            // Position-wise feed-forward network.
-            Matrix ffnHidden = ffn1.forward(attnOutSeq);
-            ffnHidden = ffnAct.forward(ffnHidden);
-            Matrix ffnOut = ffn2.forward(ffnHidden);
+        // Linear layers updated by the optimiser, alongside the embedding.
+        List<Linear> linears = primary.trainableLinears();
 
-            // Residual connection around feed-forward network.
-            Matrix blockOut = ffnOut.add(attnOutSeq);
+        // Start every process from rank 0's initial weights.
+        ProcessReducer reducer = null;
+        if (collective != null) {
+            List<Matrix> params = new ArrayList<>(List.of(emb.getWeights(), pos));
+            for (Linear layer : linears) {
+                params.add(layer.getWeights());
+                params.add(layer.getBias());
+            }
+            broadcastParameters(collective, params);
+            reducer = new ProcessReducer(collective, primary);
+        }
 
-            // Project transformer outputs into vocabulary logits.
-            Matrix logits = outProj.forward(blockOut);
-            Matrix probs = logits.softmaxRows();
+        // By default all trainable layers are packed into one buffer and
+        // updated in a single fused Adam sweep per step. The other
+        // optimisers step each layer separately.
+        FusedAdam fusedOpt = null;
+        Optimizer layerOpt = newLayerOptimizer(opts);
+        if (layerOpt == null) {
+            fusedOpt = new FusedAdam(opts.learningRate);
+            fusedOpt.register(emb);
+            for (Linear layer : linears) {
+                fusedOpt.register(layer);
+            }
+            fusedOpt.pack();
+        }
 
-            // -- Loss calculation --
+        // Optional worker that runs each layer's update during backward.
+        Optimizer optimizer = (layerOpt != null) ? layerOpt : fusedOpt;
+        StepScheduler scheduler = opts.overlapSteps ? new StepScheduler(optimizer) : null;
+
+        // Worker threads for the data-parallel shards and gradient reduction.
+        ExecutorService workers = (opts.replicas > 1) ? newWorkerPool(threads) : null;
+
+        // Batch buffers. By default producer threads sample batches ahead
+        // of the loop into a ring of reusable buffers; with --prefetch 0 one
+        // batch is allocated and refilled here every step. A single
+        // producer draws the same batches as sampling here would.
+        BatchPrefetcher prefetcher = null;
+        BatchSampler sampler = null;
+        SequenceBatch batch = null;
+        if (opts.prefetch > 0 && opts.hogwild <= 1) {
+            BatchSampler[] samplers = new BatchSampler[opts.loaderThreads];
+            for (int p = 0; p < samplers.length; p++) {
+                samplers[p] = newSampler(opts, ds, samplerSeed(opts.rank, p, samplers.length));
+            }
+            prefetcher = new BatchPrefetcher(samplers, batchSize * contextLen, opts.prefetch);
+        } else {
+            sampler = newSampler(opts, ds, samplerSeed(opts.rank, 0, 1));
+            batch = new SequenceBatch(batchSize, contextLen);
+        }
 
-            // Full-sequence supervision:
-            // logits shape = (batchSize * contextLen) x vocabSize
-            // targets are flattened to align with the flattened sequence rows.
-            int[] flatTargets = flattenTargets(batch.ySeq);
+        // Smoothed loss, loss curve and stopping conditions.
+        LossTracker tracker = new LossTracker(opts.targetLoss, opts.timeLimit, opts.curveEvery);
 
-            double loss = maskedCrossEntropy(probs, flatTargets, CharTokenizer.PAD_ID);
-            Matrix dLogits = maskedSoftmaxCrossEntropyGrad(probs, flatTargets, CharTokenizer.PAD_ID);
+        // Hogwild threads run their own training loops; the synchronous
+        // loop below is then skipped.
+        if (opts.hogwild > 1) {
+            trainHogwild(replicas, opts, ds, pos, schedule, posLearningRate, tracker, verbose);
+        }
 
-            // -- Backward pass --
+        // -- Training loop --
+        for (int step = 1; step <= steps && !tracker.isDone(); step++) {
+            // Scale both base learning rates for this step.
+            double lrFactor = schedule.factor(step);
+            optimizer.setLearningRate(opts.learningRate * lrFactor);
+
+            // Take the next prefetched batch, or refill the batch buffers
+            // with new context windows and targets.
+            BatchPrefetcher.Slot slot = null;
+            if (prefetcher != null) {
+                slot = prefetcher.take();
+                batch = new SequenceBatch(slot.inputs, slot.targets, contextLen);
+            } else {
+                sampler.nextBatch(batch.x, batch.y);
+            }
 
-            Matrix dBlockOut = outProj.backward(dLogits);
+            // The loss is averaged over every non-padding target in the batch,
+            // so each shard scales its gradient by the batch-wide count.
+            int targetCount = countTargets(batch.y, CharTokenizer.PAD_ID);
 
-            // blockOut = ffnOut + attnOutSeq
-            // The upstream gradient flows to both branches of the residual add.
-            Matrix dFfnOut = dBlockOut;
-            Matrix dAttnOutSeq = dBlockOut;
+            if (scheduler != null) {
+                scheduler.beginStep();
+            }
 
-            // Backprop through feed-forward network.
-            Matrix dHidden = ffn2.backward(dFfnOut);
-            dHidden = ffnAct.backward(dHidden);
-            Matrix dFfnInput = ffn1.backward(dHidden);
+            // -- Forward and backward passes --
+            if (accumulate) {
+                for (Replica replica : replicas) {
+                    replica.zeroGrad();
+                }
+            }
 
-            // Add gradient from FFN input path into the attention output path.
-            dAttnOutSeq = dAttnOutSeq.add(dFfnInput);
+            double lossSum = 0.0;
+            for (int start = 0; start < batchSize; start += microBatchSize) {
+                int end = Math.min(start + microBatchSize, batchSize);
+                SequenceBatch micro = accumulate ? batch.slice(start, end) : batch;
 
-            // attnOutSeq = attn.forward(xSeq) + xSeq
-            // Gradient flows through both attention and residual branch.
-            Matrix dXSeq = attn.backward(dAttnOutSeq).add(dAttnOutSeq);
+                if (workers == null) {
+                    // Layers can only be stepped early once their gradients
+                    // are final, i.e. during the last micro-batch.
+                    StepScheduler layerSteps = (end == batchSize) ? scheduler : null;
+                    lossSum += primary.forwardBackward(micro, pos, targetCount, layerSteps);
+                } else {
+                    lossSum += forwardBackwardShards(replicas, micro, pos, targetCount, workers);
+                }
+            }
+            if (workers != null) {
+                allReduceGradients(replicas, workers);
+            }
+            double loss = (targetCount == 0) ? 0.0 : lossSum / targetCount;
 
-            // Backprop into token embeddings.
-            emb.backwardSeq(dXSeq);
+            // The embedding read the token IDs during backward; the buffers
+            // can now be refilled.
+            if (slot != null) {
+                prefetcher.release(slot);
+            }
 
-            // Positional embeddings are updated manually.
-            Matrix gradPos = accumulatePosGradients(dXSeq, batchSize, contextLen, dModel);
+            // Average gradients and loss over the training processes.
+            if (reducer != null) {
+                loss = reducer.allReduce(loss);
+            }
+            Matrix gradPos = primary.gradPos;
 
             // Print diagnostic gradient norms on the first step.
-            if (step == 1) {
+            if (verbose && step == 1) {
                 System.out.println("grad norms step1:");
-                System.out.println("  outProj dW L2 = " + l2(outProj.getGradWeights()));
-                System.out.println("  outProj db L2 = " + l2(outProj.getGradBias()));
+                if (adaptiveOut == null && tiedOut == null) {
+                    System.out.println("  outProj dW L2 = " + l2(outProj.getGradWeights()));
+                    System.out.println("  outProj db L2 = " + l2(outProj.getGradBias()));
+                }
                 System.out.println("  Wq dW L2      = " + l2(attn.getWq().getGradWeights()));
                 System.out.println("  Wk dW L2      = " + l2(attn.getWk().getGradWeights()));
                 System.out.println("  Wv dW L2      = " + l2(attn.getWv().getGradWeights()));
@@ -162,22 +470,30 @@ public class TrainCharLM {
             }
 
             // -- Parameter updates --
-            opt.tick();
+            if (scheduler != null) {
+                // Layer updates were queued during backward.
+                scheduler.awaitStep();
+            } else if (fusedOpt != null) {
+                fusedOpt.tick();
+                fusedOpt.step();
+            } else {
+                layerOpt.tick();
+                layerOpt.step(emb);
+                for (Linear layer : linears) {
+                    layerOpt.step(layer);
+                }
+            }
 
-            opt.step(emb);
-            opt.step(attn.getWq());
-            opt.step(attn.getWk());
-            opt.step(attn.getWv());
-            opt.step(attn.getWo());
-            opt.step(outProj);
-            opt.step(ffn1);
-            opt.step(ffn2);
+            updatePositionalEmbeddings(pos, gradPos, posLearningRate * lrFactor);
 
-            updatePositionalEmbeddings(pos, gradPos, learningRate);
+            tracker.record(loss);
 
             // -- Progress logging and text generation --
-            if (step % 200 == 0) {
+            if (verbose && step % 200 == 0) {
                 System.out.printf("step %d | loss %.4f%n", step, loss);
+                if (tpFfn != null) {
+                    tpFfn.copyTo(ffn1, ffn2);
+                }
 
                 String sample = generate(
                     tok,
@@ -187,6 +503,8 @@ public class TrainCharLM {
                     ffnAct,
                     ffn2,
                     outProj,
+                    adaptiveOut,
+                    tiedOut,
                     pos,
                     contextLen,
                     dModel,
@@ -200,69 +518,442 @@ public class TrainCharLM {
                 System.out.println();
             }
         }
-        ModelIO.save("model.bin", emb, attn, ffn1, ffn2, outProj, pos);
-        System.out.println("Training complete. Model saved to model.bin");
+        Result result = tracker.toResult(batchSize, contextLen);
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        if (workers != null) {
+            workers.shutdown();
+        }
+        for (Replica replica : replicas) {
+            if (replica.tpFfn != null) {
+                replica.tpFfn.close();
+            }
+        }
+        if (tpFfn != null) {
+            tpFfn.copyTo(ffn1, ffn2);
+        }
+        if (collective != null) {
+            collective.close();
+        }
+
+        if (!verbose) {
+            return result;
+        }
+        if (result.reachedTarget) {
+            System.out.printf("Reached smoothed loss %.4f at step %d%n", result.smoothedLoss, result.steps);
+        }
+        System.out.printf("Throughput: %.0f tokens/s with %d %s%n",
+            result.tokensPerSecond(), replicas.size(),
+            (opts.hogwild > 1) ? "Hogwild thread(s)" : "replica(s)");
+
+        // BPE models get their own files, since their vocabulary differs.
+        String modelName = (adaptiveOut != null) ? "model-adaptive" : (tiedOut != null) ? "model-tied" : "model";
+        String modelPath = modelName + ((tok instanceof BpeTokenizer) ? "-bpe.bin" : ".bin");
+        if (adaptiveOut != null) {
+            ModelIO.save(modelPath, emb, attn, ffn1, ffn2, adaptiveOut, pos);
+        } else if (tiedOut != null) {
+            ModelIO.save(modelPath, emb, attn, ffn1, ffn2, pos);
+        } else {
+            ModelIO.save(modelPath, emb, attn, ffn1, ffn2, outProj, pos);
+        }
+        if (tok instanceof BpeTokenizer) {
+            ModelIO.saveTokenizer(ModelIO.tokenizerPath(modelPath), (BpeTokenizer) tok);
+        }
+        System.out.println("Training complete. Model saved to " + modelPath);
+        return result;
+    }
+
+    /**
+     * Runs the forward and backward passes of every replica on its own shard
+     * of the batch.
+     *
+     * The batch is split into contiguous shards, one per replica, with any
+     * remainder spread over the first shards. Each replica writes only its
+     * own caches and gradients, so shards can run concurrently.
+     *
+     * @param replicas replicas sharing the model parameters
+     * @param batch full training batch
+     * @param pos learned positional embeddings
+     * @param targetCount non-padding targets in the whole batch
+     * @param workers thread pool running the shards
+     * @return summed loss over the non-padding targets of the whole batch
+     */
+    private static double forwardBackwardShards(List<Replica> replicas,
+                                                SequenceBatch batch,
+                                                Matrix pos,
+                                                int targetCount,
+                                                ExecutorService workers) {
+        int n = replicas.size();
+        int batchSize = batch.size();
+        if (batchSize < n) {
+            throw new IllegalArgumentException("batch of " + batchSize + " cannot be split across " + n + " replicas");
+        }
+
+        List<Callable<Double>> shards = new ArrayList<>();
+        int start = 0;
+        for (int r = 0; r < n; r++) {
+            int end = start + batchSize / n + (r < batchSize % n ? 1 : 0);
+            Replica replica = replicas.get(r);
+            SequenceBatch shard = batch.slice(start, end);
+            shards.add(() -> replica.forwardBackward(shard, pos, targetCount, null));
+            start = end;
+        }
+
+        // Shard losses are summed in replica order so the total is deterministic.
+        double lossSum = 0.0;
+        for (Future<Double> shard : invokeAll(workers, shards)) {
+            lossSum += getResult(shard);
+        }
+        return lossSum;
+    }
+
+    /**
+     * Sums every replica's gradients into the primary replica.
+     *
+     * Each parameter is reduced with TreeAllReduce, so the additions happen in
+     * a fixed order regardless of which threads run them. Different
+     * parameters are reduced concurrently.
+     *
+     * @param replicas replicas whose gradients are reduced; replica 0 receives the sum
+     * @param workers thread pool running the reductions
+     */
+    private static void allReduceGradients(List<Replica> replicas, ExecutorService workers) {
+        List<Callable<Void>> reductions = new ArrayList<>();
+
+        List<List<Linear>> layers = new ArrayList<>();
+        for (Replica replica : replicas) {
+            layers.add(replica.trainableLinears());
+        }
+        for (int l = 0; l < layers.get(0).size(); l++) {
+            List<List<Matrix>> grads = new ArrayList<>();
+            for (List<Linear> replicaLayers : layers) {
+                grads.add(gradientsOf(replicaLayers.get(l)));
+            }
+            for (int g = 0; g < grads.get(0).size(); g++) {
+                List<Matrix> parts = new ArrayList<>();
+                for (List<Matrix> replicaGrads : grads) {
+                    parts.add(replicaGrads.get(g));
+                }
+                reductions.add(() -> {
+                    TreeAllReduce.sum(parts);
+                    return null;
+                });
+            }
+        }
+
+        List<SparseRowGradient> embGrads = new ArrayList<>();
+        List<Matrix> posGrads = new ArrayList<>();
+        for (Replica replica : replicas) {
+            embGrads.add(replica.emb.getSparseGradWeights());
+            posGrads.add(replica.gradPos);
+        }
+        reductions.add(() -> {
+            TreeAllReduce.sumSparse(embGrads);
+            return null;
+        });
+        reductions.add(() -> {
+            TreeAllReduce.sum(posGrads);
+            return null;
+        });
+
+        for (Future<Void> reduction : invokeAll(workers, reductions)) {
+            getResult(reduction);
+        }
+    }
+
+    /**
+     * Connects to the other training processes.
+     *
+     * @param opts training options
+     * @return collective for the configured mode, or null for a single process
+     * @throws IOException if the other ranks cannot be reached
+     */
+    private static Collective openCollective(Options opts) throws IOException {
+        if (opts.worldSize == 1) {
+            return null;
+        }
+        switch (opts.distMode) {
+            case "ring":   return RingAllReduce.connect(opts.rank, opts.worldSize, opts.distHost, opts.distPort);
+            case "server": return ParameterServer.connect(opts.rank, opts.worldSize, opts.distHost, opts.distPort);
+            default: throw new IllegalArgumentException("Unknown --dist-mode: " + opts.distMode);
+        }
+    }
+
+    /**
+     * Overwrites parameters on every process with rank 0's values.
+     *
+     * @param collective connection to the other processes
+     * @param params parameter matrices, in the same order on every rank
+     * @throws IOException if communication fails
+     */
+    private static void broadcastParameters(Collective collective, List<Matrix> params) throws IOException {
+        double[] buffer = new double[totalSize(params)];
+        int offset = 0;
+        for (Matrix p : params) {
+            p.copyTo(buffer, offset);
+            offset += p.getRows() * p.getCols();
+        }
+
+        collective.broadcast(buffer);
+
+        offset = 0;
+        for (Matrix p : params) {
+            p.copyFrom(buffer, offset);
+            offset += p.getRows() * p.getCols();
+        }
+    }
+
+    private static int totalSize(List<Matrix> matrices) {
+        int size = 0;
+        for (Matrix m : matrices) {
+            size += m.getRows() * m.getCols();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the gradients an optimiser reads from a Linear layer: the
+     * adapter gradients if LoRA is enabled, otherwise weights and bias.
+     */
+    private static List<Matrix> gradientsOf(Linear layer) {
+        if (layer.hasLora()) {
+            return List.of(layer.getGradLoraA(), layer.getGradLoraB());
+        }
+        return List.of(layer.getGradWeights(), layer.getGradBias());
+    }
+
+    /**
+     * Trains with Hogwild-style asynchronous updates.
+     *
+     * Each replica runs on its own thread and repeatedly samples a batch,
+     * runs forward and backward on its private caches, and applies its own
+     * optimiser's update directly to the shared weights. Parameter updates
+     * are not locked: updates from different threads can interleave and
+     * occasionally overwrite each other, which Hogwild accepts in exchange
+     * for threads never waiting on one another. Step numbers, and with them
+     * the learning-rate schedule, are shared across threads.
+     *
+     * Unlike the synchronous modes, runs are not reproducible.
+     *
+     * @param replicas one replica per thread, sharing the model parameters
+     * @param opts training options
+     * @param ds training dataset
+     * @param pos learned positional embeddings, also updated without locks
+     * @param schedule learning-rate schedule
+     * @param posLearningRate base SGD rate of the positional embeddings
+     * @param tracker loss tracker shared by the threads
+     * @param verbose whether to print progress
+     */
+    private static void trainHogwild(List<Replica> replicas,
+                                     Options opts,
+                                     TextDataset ds,
+                                     Matrix pos,
+                                     LearningRateSchedule schedule,
+                                     double posLearningRate,
+                                     LossTracker tracker,
+                                     boolean verbose) {
+        int contextLen = pos.getRows();
+        AtomicInteger nextStep = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int r = 0; r < replicas.size(); r++) {
+            Replica replica = replicas.get(r);
+            // Thread 0 draws the same batches as a single-threaded run.
+            BatchSampler sampler = newSampler(opts, ds, samplerSeed(opts.rank, r, replicas.size()));
+            tasks.add(() -> {
+                Optimizer optimizer = newLayerOptimizer(opts);
+                List<Linear> linears = replica.trainableLinears();
+                SequenceBatch batch = new SequenceBatch(opts.batchSize, contextLen);
+                int step;
+                while ((step = nextStep.incrementAndGet()) <= opts.steps && !tracker.isDone()) {
+                    double lrFactor = schedule.factor(step);
+                    optimizer.setLearningRate(opts.learningRate * lrFactor);
+
+                    sampler.nextBatch(batch.x, batch.y);
+                    int targetCount = countTargets(batch.y, CharTokenizer.PAD_ID);
+                    double lossSum = replica.forwardBackward(batch, pos, targetCount, null);
+                    double loss = (targetCount == 0) ? 0.0 : lossSum / targetCount;
+
+                    optimizer.tick();
+                    optimizer.step(replica.emb);
+                    for (Linear layer : linears) {
+                        optimizer.step(layer);
+                    }
+                    updatePositionalEmbeddings(pos, replica.gradPos, posLearningRate * lrFactor);
+
+                    tracker.record(loss);
+                    if (verbose && step % 200 == 0) {
+                        System.out.printf("step %d | loss %.4f%n", step, loss);
+                    }
+                }
+                return null;
+            });
+        }
+
+        ExecutorService threads = newWorkerPool(replicas.size());
+        try {
+            for (Future<Void> future : invokeAll(threads, tasks)) {
+                getResult(future);
+            }
+        } finally {
+            threads.shutdown();
+        }
+        tracker.finish();
+    }
+
+    /**
+     * Returns the seed of one batch sampler: sampler stream of streams on a
+     * training process.
+     *
+     * Every (rank, stream) pair gets its own seed, so no two samplers in a
+     * run draw the same batches; rank r + 1's first stream must not reuse
+     * rank r's second. Rank 0's stream 0 keeps seed 123, so a single sampler
+     * draws the same batches whatever the loader configuration.
+     *
+     * @param rank rank of the training process
+     * @param stream sampler index on that process, from 0 to streams - 1
+     * @param streams number of samplers on every process
+     * @return sampler seed
+     */
+    static long samplerSeed(int rank, int stream, int streams) {
+        return 123 + (long) rank * streams + stream;
+    }
+
+    /**
+     * Creates the batch sampler selected by --sampler: random windows drawn
+     * with replacement, or shuffled epochs of strided windows.
+     */
+    private static BatchSampler newSampler(Options opts, TextDataset ds, long seed) {
+        if (opts.sampler.equals("epoch")) {
+            int stride = (opts.stride > 0) ? opts.stride : ds.getContextLen();
+            return new EpochSampler(ds, stride, seed);
+        }
+        Random rng = new Random(seed);
+        return (inputs, targets) -> ds.sampleSequences(rng, inputs, targets);
+    }
+
+    /**
+     * Creates an optimiser that steps each layer separately, or returns null
+     * when the default fused Adam applies.
+     *
+     * Hogwild threads always get a per-layer optimiser, since the fused one
+     * repacks the shared weights into its own buffer.
+     *
+     * @param opts training options
+     * @return per-layer optimiser, or null for fused Adam
+     */
+    private static Optimizer newLayerOptimizer(Options opts) {
+        if (opts.adafactor) {
+            return new Adafactor(opts.learningRate);
+        }
+        if (opts.sgd) {
+            return new SGD(opts.learningRate);
+        }
+        if (opts.momentPrecision != MomentPrecision.DOUBLE || opts.hogwild > 1) {
+            return new Adam(opts.learningRate, opts.momentPrecision);
+        }
+        return null;
+    }
+
+    /**
+     * Creates the daemon thread pool used for data-parallel training.
+     *
+     * @param threads number of worker threads
+     * @return fixed-size thread pool
+     */
+    private static ExecutorService newWorkerPool(int threads) {
+        AtomicInteger next = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "data-parallel-" + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static <T> List<Future<T>> invokeAll(ExecutorService workers, List<Callable<T>> tasks) {
+        try {
+            return workers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for data-parallel workers", e);
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for data-parallel workers", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException("Data-parallel worker failed", cause);
+        }
     }
 
     /**
      * Generates text autoregressively from a prompt.
      *
-     * At each step, the most recent contextLen characters are encoded and passed
-     * through the model. The model predicts a probability distribution over the
-     * next character, one character is sampled, and that character is appended
-     * to the output.
+     * The prompt is encoded once. At each step, the most recent contextLen
+     * tokens are passed through the model. The model predicts a probability
+     * distribution over the next token, one token is sampled, and its text is
+     * appended to the output.
      *
-     * @param tok tokenizer used to convert between characters and token IDs
+     * @param tok tokenizer used to convert between text and token IDs
      * @param emb token embedding layer
      * @param attn causal self-attention layer
      * @param ffn1 first feed-forward layer
      * @param ffnAct ReLU activation for the feed-forward network
      * @param ffn2 second feed-forward layer
-     * @param outProj output projection layer
+     * @param outProj untied output projection, or null when adaptiveOut or tiedOut is set
+     * @param adaptiveOut adaptive softmax output layer, or null
+     * @param tiedOut output projection tied to the embedding, or null
      * @param pos learned positional embeddings
      * @param contextLen fixed context window length
      * @param dModel embedding dimension
      * @param prompt initial text prompt
-     * @param maxNewChars maximum number of characters to generate
+     * @param maxNewTokens maximum number of tokens to generate
      * @param temperature sampling temperature controlling randomness
      * @param rng random generator used for sampling
      * @return generated text including the original prompt
      */
-    private static String generate(CharTokenizer tok,
+    private static String generate(Tokenizer tok,
                                    Embedding emb,
                                    CausalSelfAttention attn,
                                    Linear ffn1,
                                    ReLU ffnAct,
                                    Linear ffn2,
                                    Linear outProj,
+                                   AdaptiveSoftmax adaptiveOut,
+                                   TiedOutputProjection tiedOut,
                                    Matrix pos,
                                    int contextLen,
                                    int dModel,
                                    String prompt,
-                                   int maxNewChars,
+                                   int maxNewTokens,
                                    double temperature,
                                    Random rng) {
 
         StringBuilder out = new StringBuilder(prompt);
-
-        for (int i = 0; i < maxNewChars; i++) {
-            int[] ctx = new int[contextLen];
-
-            // Build context from the most recent characters.
-            // If the prompt is shorter than contextLen, left-pad with PAD tokens.
-            int start = out.length() - contextLen;
-            for (int j = 0; j < contextLen; j++) {
-                int charIndex = start + j;
-                if (charIndex < 0) {
-                    ctx[j] = CharTokenizer.PAD_ID;
-                } else {
-                    ctx[j] = tok.charToId(out.charAt(charIndex));
-                }
-            }
-
-            int[][] ctxBatch = new int[][] { ctx };
-            Matrix xSeq = emb.forwardSeq(ctxBatch);
-            addPositionalEmbeddings(xSeq, pos, 1, contextLen, dModel);
+        int[] promptIds = tok.encode(prompt);
+        int[] history = Arrays.copyOf(promptIds, promptIds.length + maxNewTokens);
+        int length = promptIds.length;
+        int[] ctx = new int[contextLen];
+        int[][] ctxBatch = new int[][] { ctx };
+
+        for (int i = 0; i < maxNewTokens; i++) {
+            // Build context from the most recent tokens.
+            // If the history is shorter than contextLen, left-pad with PAD tokens.
+            int start = length - contextLen;
+            int pad = Math.max(-start, 0);
+            Arrays.fill(ctx, 0, pad, CharTokenizer.PAD_ID);
+            System.arraycopy(history, start + pad, ctx, pad, contextLen - pad);
+
+            Matrix xSeq = emb.forwardSeq(ctxBatch, pos);
 
             Matrix attnOnly = attn.forward(xSeq);
             Matrix attnOutSeq = attnOnly.add(xSeq);
@@ -271,25 +962,30 @@ public class TrainCharLM {
             ffnHidden = ffnAct.forward(ffnHidden);
             Matrix blockOut = ffn2.forward(ffnHidden).add(attnOutSeq);
 
-            // Only the final token position is used to predict the next character.
+            // Only the final token position is used to predict the next token.
             Matrix last = takeLastToken(blockOut, 1, contextLen, dModel);
 
-            Matrix logits = outProj.forward(last);
-            Matrix probs = softmaxWithTemperature(logits, temperature);
-
-            int nextId = sampleRow(probs, 0, rng);
+            int nextId;
+            if (adaptiveOut != null) {
+                nextId = adaptiveOut.sample(last, temperature, rng)[0];
+            } else {
+                Matrix logits = (tiedOut != null) ? tiedOut.forward(last) : outProj.forward(last);
+                Matrix probs = softmaxWithTemperature(logits, temperature);
+                nextId = sampleRow(probs, 0, rng);
+            }
 
-            Character nextChar = tok.idToChar(nextId);
+            String next = tok.tokenText(nextId);
 
             // Stop if the model predicts a special token.
-            if (nextChar == null) {
+            if (next == null) {
                 break;
             }
 
-            out.append(nextChar);
+            history[length++] = nextId;
+            out.append(next);
 
             // Stop early at a newline to keep samples readable.
-            if (nextChar == '\n') {
+            if (next.indexOf('\n') >= 0) {
                 break;
             }
         }
@@ -317,31 +1013,6 @@ public class TrainCharLM {
         return pos;
     }
 
-    /**
-     * Adds learned positional embeddings to token embeddings in-place.
-     *
-     * Self-attention alone has no built-in understanding of token order, so
-     * positional embeddings provide a learned representation of each position
-     * in the context window.
-     *
-     * @param xSeq sequence embeddings of shape (batchSize * contextLen) x dModel
-     * @param pos positional embeddings of shape contextLen x dModel
-     * @param batchSize number of sequences in the batch
-     * @param contextLen number of tokens per sequence
-     * @param dModel embedding dimension
-     */
-    private static void addPositionalEmbeddings(Matrix xSeq, Matrix pos, int batchSize, int contextLen, int dModel) {
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < contextLen; t++) {
-                int row = b * contextLen + t;
-
-                for (int j = 0; j < dModel; j++) {
-                    xSeq.set(row, j, xSeq.get(row, j) + pos.get(t, j));
-                }
-            }
-        }
-    }
-
     /**
      * Accumulates gradients for positional embeddings.
      *
@@ -464,44 +1135,38 @@ public class TrainCharLM {
     }
 
     /**
-     * Flattens a batch of target sequences into a single vector.
-     *
-     * This aligns the target IDs with the flattened model output layout:
-     * (batchSize * contextLen) x vocabSize.
+     * Counts the non-padding targets in a batch.
      *
-     * @param ySeq target sequences of shape batchSize x contextLen
-     * @return flattened target IDs of length batchSize * contextLen
+     * @param targets flat target IDs
+     * @param padId token ID used for padding
+     * @return number of targets that contribute to the loss
      */
-    private static int[] flattenTargets(int[][] ySeq) {
-        int batchSize = ySeq.length;
-        int contextLen = ySeq[0].length;
-        int[] flat = new int[batchSize * contextLen];
-
-        int idx = 0;
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < contextLen; t++) {
-                flat[idx++] = ySeq[b][t];
+    private static int countTargets(int[] targets, int padId) {
+        int count = 0;
+        for (int target : targets) {
+            if (target != padId) {
+                count++;
             }
         }
-
-        return flat;
+        return count;
     }
 
     /**
-     * Computes cross-entropy loss while ignoring padding targets.
+     * Computes the summed cross-entropy loss while ignoring padding targets.
      *
      * Padding positions are excluded so that left-padding at the start of
-     * sequences does not affect the training signal.
+     * sequences does not affect the training signal. The caller divides by
+     * the number of non-padding targets in the whole batch, which may span
+     * several data-parallel shards.
      *
      * @param probs predicted probabilities from softmax
      * @param targets flattened target token IDs
      * @param padId token ID used for padding
-     * @return average cross-entropy loss over non-padding targets
+     * @return summed cross-entropy loss over non-padding targets
      */
-    private static double maskedCrossEntropy(Matrix probs, int[] targets, int padId) {
+    private static double maskedCrossEntropySum(Matrix probs, int[] targets, int padId) {
         double eps = 1e-12;
         double loss = 0.0;
-        int count = 0;
 
         for (int i = 0; i < targets.length; i++) {
             int target = targets[i];
@@ -512,10 +1177,9 @@ public class TrainCharLM {
 
             double p = probs.get(i, target);
             loss += -Math.log(Math.max(p, eps));
-            count++;
         }
 
-        return count == 0 ? 0.0 : loss / count;
+        return loss;
     }
 
     /**
@@ -525,23 +1189,19 @@ public class TrainCharLM {
      *   probs - oneHot(target)
      *
      * The result is divided by the number of non-padding targets so the gradient
-     * scale is independent of how many valid positions are in the batch.
+     * scale is independent of how many valid positions are in the batch. The
+     * count covers the whole batch, so shards of one batch produce gradients
+     * that sum to the full-batch gradient.
      *
      * @param probs predicted probabilities from softmax
      * @param targets flattened target token IDs
      * @param padId token ID used for padding
+     * @param count number of non-padding targets in the whole batch
      * @return gradient with respect to logits
      */
-    private static Matrix maskedSoftmaxCrossEntropyGrad(Matrix probs, int[] targets, int padId) {
+    private static Matrix maskedSoftmaxCrossEntropyGrad(Matrix probs, int[] targets, int padId, int count) {
         Matrix grad = new Matrix(probs.getRows(), probs.getCols());
 
-        int count = 0;
-        for (int target : targets) {
-            if (target != padId) {
-                count++;
-            }
-        }
-
         if (count == 0) {
             return grad;
         }
@@ -649,70 +1309,690 @@ public class TrainCharLM {
      * @return full sequence batch
      */
     private static SequenceBatch buildFullSequenceBatch(TextDataset ds, int contextLen) {
-        int size = ds.size();
-        int[][] x = new int[size][];
-        int[][] ySeq = new int[size][contextLen];
+        SequenceBatch batch = new SequenceBatch(Math.toIntExact(ds.size()), contextLen);
+        for (int i = 0; i < ds.size(); i++) {
+            ds.copySequence(i, batch.x, batch.y, i * contextLen);
+        }
+        return batch;
+    }
+
+    /**
+     * Layers that run the forward and backward pass for one batch.
+     *
+     * The primary replica owns the model. Data-parallel replicas are created
+     * with replicate(): they share the primary's parameters but keep their own
+     * layer caches and gradients, so each can process a shard of the batch on
+     * its own thread.
+     */
+    private static class Replica {
+        final Embedding emb;
+        final CausalSelfAttention attn;
+        final Linear ffn1;
+        final ReLU ffnAct;
+        final Linear ffn2;
+        // Sharded FFN used instead of ffn1/ffn2 when tensor parallelism is on.
+        final TensorParallelFFN tpFfn;
+        // Untied output head; null when tiedOut or adaptiveOut is used.
+        final Linear outProj;
+        final TiedOutputProjection tiedOut;
+        final AdaptiveSoftmax adaptiveOut;
+
+        // Positional-embedding gradient from the most recent backward pass,
+        // or the running sum over micro-batches in accumulate mode.
+        Matrix gradPos;
+        boolean accumulate;
+
+        Replica(Embedding emb,
+                CausalSelfAttention attn,
+                Linear ffn1,
+                ReLU ffnAct,
+                Linear ffn2,
+                TensorParallelFFN tpFfn,
+                Linear outProj,
+                TiedOutputProjection tiedOut,
+                AdaptiveSoftmax adaptiveOut) {
+            this.emb = emb;
+            this.attn = attn;
+            this.ffn1 = ffn1;
+            this.ffnAct = ffnAct;
+            this.ffn2 = ffn2;
+            this.tpFfn = tpFfn;
+            this.outProj = outProj;
+            this.tiedOut = tiedOut;
+            this.adaptiveOut = adaptiveOut;
+        }
 
-        for (int i = 0; i < size; i++) {
-            int[] ctx = ds.getContext(i);
-            x[i] = ctx;
+        /**
+         * Creates a replica sharing this replica's parameters. Adaptive
+         * softmax outputs are not replicated.
+         *
+         * @return new replica with its own caches and gradients
+         */
+        Replica replicate() {
+            if (adaptiveOut != null) {
+                throw new IllegalStateException("Adaptive softmax outputs cannot be replicated");
+            }
+            Embedding embReplica = emb.replicate();
+            return new Replica(
+                embReplica,
+                attn.replicate(),
+                ffn1.replicate(),
+                new ReLU(),
+                ffn2.replicate(),
+                (tpFfn != null) ? tpFfn.replicate() : null,
+                (outProj != null) ? outProj.replicate() : null,
+                (tiedOut != null) ? new TiedOutputProjection(embReplica) : null,
+                null
+            );
+        }
 
-            for (int t = 0; t < contextLen - 1; t++) {
-                ySeq[i][t] = ctx[t + 1];
+        /**
+         * Switches gradient accumulation on or off for every layer.
+         *
+         * @param accumulate true to sum gradients over micro-batches until
+         *                   zeroGrad()
+         */
+        void setAccumulateGradients(boolean accumulate) {
+            this.accumulate = accumulate;
+            emb.setAccumulateGradients(accumulate);
+            for (Linear layer : trainableLinears()) {
+                layer.setAccumulateGradients(accumulate);
             }
+        }
 
-            ySeq[i][contextLen - 1] = ds.getTarget(i);
+        /**
+         * Resets every gradient, including the positional one, to zero.
+         */
+        void zeroGrad() {
+            emb.zeroGrad();
+            for (Linear layer : trainableLinears()) {
+                layer.zeroGrad();
+            }
+            gradPos = null;
         }
 
-        return new SequenceBatch(x, ySeq);
+        /**
+         * Returns the Linear layers updated by the optimiser, in a fixed
+         * order shared by all replicas.
+         *
+         * @return trainable Linear layers
+         */
+        List<Linear> trainableLinears() {
+            List<Linear> linears = new ArrayList<>(
+                List.of(attn.getWq(), attn.getWk(), attn.getWv(), attn.getWo()));
+            if (adaptiveOut != null) {
+                linears.addAll(adaptiveOut.getLayers());
+            } else if (tiedOut == null) {
+                linears.add(outProj);
+            }
+            if (tpFfn != null) {
+                linears.addAll(tpFfn.getShardLayers());
+            } else {
+                linears.add(ffn1);
+                linears.add(ffn2);
+            }
+            return linears;
+        }
+
+        /**
+         * Runs the forward pass, loss and backward pass for a batch.
+         *
+         * Afterwards every layer holds its gradients and gradPos holds the
+         * positional-embedding gradient.
+         *
+         * @param batch input context windows and targets
+         * @param pos learned positional embeddings
+         * @param targetCount non-padding targets in the whole batch, used to
+         *                    average the loss
+         * @param scheduler optional scheduler stepping layers during backward,
+         *                  or null
+         * @return summed loss over this batch's non-padding targets
+         */
+        double forwardBackward(SequenceBatch batch, Matrix pos, int targetCount, StepScheduler scheduler) {
+            int batchSize = batch.size();
+            int contextLen = pos.getRows();
+            int dModel = pos.getCols();
+
+            // Convert token IDs into dense embedding vectors and add learned
+            // positional embeddings (so the model can represent order) in one pass.
+            Matrix xSeq = emb.forwardSeq(batch.x, pos);
+
+            // -- Forward pass through transformer-style block --
+
+            // Causal self-attention allows each token to attend only to previous
+            // tokens and itself.
+            Matrix attnOnly = attn.forward(xSeq);
+
+            // Residual connection around attention.
+            Matrix attnOutSeq = attnOnly.add(xSeq);
+
+            // Position-wise feed-forward network.
+            Matrix ffnOut;
+            if (tpFfn != null) {
+                ffnOut = tpFfn.forward(attnOutSeq);
+            } else {
+                Matrix ffnHidden = ffn1.forward(attnOutSeq);
+                ffnHidden = ffnAct.forward(ffnHidden);
+                ffnOut = ffn2.forward(ffnHidden);
+            }
+
+            // Residual connection around feed-forward network.
+            Matrix blockOut = ffnOut.add(attnOutSeq);
+
+            // -- Loss calculation --
+
+            // Full-sequence supervision:
+            // logits shape = (batchSize * contextLen) x vocabSize
+            // the flat targets line up with the flattened sequence rows.
+            int[] flatTargets = batch.y;
+
+            // The output layer computes the loss and starts the backward pass.
+            double lossSum;
+            Matrix dBlockOut;
+
+            if (adaptiveOut != null) {
+                // Adaptive softmax only scores the head and the clusters that
+                // contain targets, and handles padding internally.
+                double meanLoss = adaptiveOut.forward(blockOut, flatTargets, CharTokenizer.PAD_ID);
+                lossSum = meanLoss * countTargets(flatTargets, CharTokenizer.PAD_ID);
+                dBlockOut = adaptiveOut.backward(targetCount);
+                if (scheduler != null) {
+                    for (Linear layer : adaptiveOut.getLayers()) {
+                        scheduler.submit(layer);
+                    }
+                }
+            } else {
+                // Project transformer outputs into vocabulary logits.
+                Matrix logits = (tiedOut != null) ? tiedOut.forward(blockOut) : outProj.forward(blockOut);
+                Matrix probs = logits.softmaxRows();
+
+                lossSum = maskedCrossEntropySum(probs, flatTargets, CharTokenizer.PAD_ID);
+                Matrix dLogits = maskedSoftmaxCrossEntropyGrad(probs, flatTargets, CharTokenizer.PAD_ID, targetCount);
+
+                // A tied projection adds its gradient into the embedding here.
+                dBlockOut = (tiedOut != null) ? tiedOut.backward(dLogits) : outProj.backward(dLogits);
+                if (scheduler != null && tiedOut == null) {
+                    scheduler.submit(outProj);
+                }
+            }
+
+            // -- Backward pass --
+
+            // blockOut = ffnOut + attnOutSeq
+            // The upstream gradient flows to both branches of the residual add.
+            Matrix dFfnOut = dBlockOut;
+            Matrix dAttnOutSeq = dBlockOut;
+
+            // Backprop through feed-forward network.
+            Matrix dFfnInput;
+            if (tpFfn != null) {
+                dFfnInput = tpFfn.backward(dFfnOut);
+                if (scheduler != null) {
+                    for (Linear shard : tpFfn.getShardLayers()) {
+                        scheduler.submit(shard);
+                    }
+                }
+            } else {
+                Matrix dHidden = ffn2.backward(dFfnOut);
+                if (scheduler != null) {
+                    scheduler.submit(ffn2);
+                }
+                dHidden = ffnAct.backward(dHidden);
+                dFfnInput = ffn1.backward(dHidden);
+                if (scheduler != null) {
+                    scheduler.submit(ffn1);
+                }
+            }
+
+            // Add gradient from FFN input path into the attention output path.
+            dAttnOutSeq = dAttnOutSeq.add(dFfnInput);
+
+            // attnOutSeq = attn.forward(xSeq) + xSeq
+            // Gradient flows through both attention and residual branch.
+            Matrix dXSeq = attn.backward(dAttnOutSeq).add(dAttnOutSeq);
+            if (scheduler != null) {
+                scheduler.submit(attn);
+            }
+
+            // Backprop into token embeddings. The embedding is stepped last
+            // because a tied output projection also contributes to its gradient.
+            emb.backwardSeq(dXSeq);
+            if (scheduler != null) {
+                scheduler.submit(emb);
+            }
+
+            // Positional embeddings are updated manually.
+            Matrix dPos = accumulatePosGradients(dXSeq, batchSize, contextLen, dModel);
+            if (accumulate && gradPos != null) {
+                gradPos.addInPlace(dPos);
+            } else {
+                gradPos = dPos;
+            }
+
+            return lossSum;
+        }
     }
 
     /**
-     * Samples a random mini-batch for full-sequence supervision.
+     * Averages the primary replica's gradients and the step loss over all
+     * training processes.
      *
-     * Each input row is a context window. Each target row is the same sequence
-     * shifted one position to the left, with the final target supplied by the
-     * dataset's next-token label.
+     * Each step takes two all-reduces. The first sums the dense gradients,
+     * the loss and a mask with one entry per vocabulary row that a rank sets
+     * when it touched that embedding row. The union of touched rows is then
+     * the same on every rank, so the second all-reduce sums just those rows
+     * of the embedding gradient, packed back to back. Everything is divided
+     * by the world size, so every rank steps with the same gradient and sees
+     * the same loss, which keeps early stopping in step across processes.
      *
-     * @param ds source text dataset
-     * @param contextLen context window length
-     * @param batchSize number of examples to sample
-     * @param rng random generator
-     * @return sampled sequence batch
+     * A row touched by any rank stays touched after the reduce even if its
+     * average is zero, as it would in a single process training on the whole
+     * batch. Buffers are kept across steps.
      */
-    private static SequenceBatch sampleBatch(TextDataset ds, int contextLen, int batchSize, Random rng) {
-        int[][] x = new int[batchSize][];
-        int[][] ySeq = new int[batchSize][contextLen];
+    private static final class ProcessReducer {
+        private final Collective collective;
+        private final Replica primary;
+        private final int[] unionRows;
+        private double[] dense = new double[0];
+        private double[] rowValues = new double[0];
+
+        ProcessReducer(Collective collective, Replica primary) {
+            this.collective = collective;
+            this.primary = primary;
+            this.unionRows = new int[primary.emb.getSparseGradWeights().getRows()];
+        }
 
-        for (int b = 0; b < batchSize; b++) {
-            int idx = rng.nextInt(ds.size());
+        /**
+         * Averages this step's gradients and loss in place.
+         *
+         * @param loss this process's loss for the step
+         * @return loss averaged over all processes
+         * @throws IOException if communication fails
+         */
+        double allReduce(double loss) throws IOException {
+            List<Matrix> grads = new ArrayList<>();
+            for (Linear layer : primary.trainableLinears()) {
+                grads.addAll(gradientsOf(layer));
+            }
+            grads.add(primary.gradPos);
+            SparseRowGradient embGrad = primary.emb.getSparseGradWeights();
 
-            int[] ctx = ds.getContext(idx);
-            x[b] = ctx;
+            int size = totalSize(grads);
+            int vocab = unionRows.length;
+            if (dense.length != size + 1 + vocab) {
+                dense = new double[size + 1 + vocab];
+            }
+            int offset = 0;
+            for (Matrix g : grads) {
+                g.copyTo(dense, offset);
+                offset += g.getRows() * g.getCols();
+            }
+            dense[size] = loss;
+            Arrays.fill(dense, size + 1, dense.length, 0.0);
+            for (int k = 0; k < embGrad.size(); k++) {
+                dense[size + 1 + embGrad.rowIndex(k)] = 1.0;
+            }
+
+            collective.allReduce(dense);
 
-            for (int t = 0; t < contextLen - 1; t++) {
-                ySeq[b][t] = ctx[t + 1];
+            double scale = 1.0 / collective.worldSize();
+            for (int i = 0; i <= size; i++) {
+                dense[i] *= scale;
+            }
+            offset = 0;
+            for (Matrix g : grads) {
+                g.copyFrom(dense, offset);
+                offset += g.getRows() * g.getCols();
             }
 
-            ySeq[b][contextLen - 1] = ds.getTarget(idx);
-        }
+            int count = 0;
+            for (int row = 0; row < vocab; row++) {
+                if (dense[size + 1 + row] != 0.0) {
+                    unionRows[count++] = row;
+                }
+            }
+            if (count > 0) {
+                int cols = embGrad.getCols();
+                int packed = count * cols;
+                if (rowValues.length < packed) {
+                    rowValues = new double[Math.max(packed, 2 * rowValues.length)];
+                }
+                embGrad.copyRowsTo(unionRows, count, rowValues, 0);
+                collective.allReduce(rowValues, packed);
+                for (int i = 0; i < packed; i++) {
+                    rowValues[i] *= scale;
+                }
+                embGrad.setRows(unionRows, count, rowValues, 0);
+            }
 
-        return new SequenceBatch(x, ySeq);
+            return dense[size];
+        }
     }
 
     /**
-     * Simple container for sequence training batches.
+     * Flat buffers for a batch of training sequences.
      *
-     * x contains input context windows.
-     * ySeq contains a target token for each position in each context window.
+     * x contains the input context windows and y a target token for each
+     * position in each window, both row-major with contextLen entries per
+     * sequence. The training loop allocates one batch and refills it with
+     * TextDataset.sampleSequences() every step.
      */
     private static class SequenceBatch {
-        int[][] x;
-        int[][] ySeq;
+        final int[] x;
+        final int[] y;
+        final int contextLen;
+
+        SequenceBatch(int batchSize, int contextLen) {
+            this(new int[batchSize * contextLen], new int[batchSize * contextLen], contextLen);
+        }
 
-        SequenceBatch(int[][] x, int[][] ySeq) {
+        private SequenceBatch(int[] x, int[] y, int contextLen) {
             this.x = x;
-            this.ySeq = ySeq;
+            this.y = y;
+            this.contextLen = contextLen;
+        }
+
+        /**
+         * Returns the number of sequences.
+         */
+        int size() {
+            return x.length / contextLen;
+        }
+
+        /**
+         * Returns a copy of the sequences from index from (inclusive) to to
+         * (exclusive).
+         */
+        SequenceBatch slice(int from, int to) {
+            return new SequenceBatch(
+                Arrays.copyOfRange(x, from * contextLen, to * contextLen),
+                Arrays.copyOfRange(y, from * contextLen, to * contextLen),
+                contextLen);
+        }
+    }
+
+    /**
+     * Smoothed training loss and stopping conditions.
+     *
+     * The smoothed loss is an exponential moving average of the per-step
+     * loss, used for early stopping. Every curveEvery steps it is recorded
+     * with the elapsed wall-clock time to form a loss curve. Hogwild threads
+     * share one tracker, so its methods are synchronised.
+     */
+    private static class LossTracker {
+        private final double targetLoss;
+        private final double timeLimit;
+        private final int curveEvery;
+        private final long startTime = System.nanoTime();
+        private final List<double[]> curve = new ArrayList<>();
+        private double smoothedLoss = Double.NaN;
+        private int steps;
+        private boolean reachedTarget;
+        private volatile boolean done;
+
+        LossTracker(double targetLoss, double timeLimit, int curveEvery) {
+            this.targetLoss = targetLoss;
+            this.timeLimit = timeLimit;
+            this.curveEvery = curveEvery;
+        }
+
+        /**
+         * Records the loss of a finished step and checks whether training
+         * should stop.
+         *
+         * @param loss mean loss of the step
+         */
+        synchronized void record(double loss) {
+            steps++;
+            smoothedLoss = Double.isNaN(smoothedLoss) ? loss : 0.95 * smoothedLoss + 0.05 * loss;
+            double seconds = elapsedSeconds();
+            if (steps % curveEvery == 0) {
+                curve.add(new double[] {seconds, smoothedLoss});
+            }
+            if (smoothedLoss <= targetLoss) {
+                reachedTarget = true;
+            }
+            if (reachedTarget || seconds >= timeLimit) {
+                done = true;
+            }
+        }
+
+        /**
+         * Returns whether the target loss or the time limit was reached, or
+         * finish() was called.
+         */
+        boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Stops training.
+         */
+        void finish() {
+            done = true;
+        }
+
+        synchronized Result toResult(int batchSize, int contextLen) {
+            long tokens = (long) steps * batchSize * contextLen;
+            return new Result(steps, elapsedSeconds(), tokens, smoothedLoss, reachedTarget, new ArrayList<>(curve));
+        }
+
+        private double elapsedSeconds() {
+            return (System.nanoTime() - startTime) / 1e9;
+        }
+    }
+
+    /**
+     * Command-line options for a training run.
+     */
+    static class Options {
+        boolean adaptive = false;
+        // Adaptive softmax cutoffs; null chooses them from token frequencies.
+        int[] cutoffs = null;
+        boolean tieWeights = false;
+        MomentPrecision momentPrecision = MomentPrecision.DOUBLE;
+        boolean adafactor = false;
+        boolean sgd = false;
+        boolean overlapSteps = false;
+        int steps = 5000;
+        double learningRate = 0.001;
+        String schedule = "constant";
+        int warmupSteps = 200;
+        // Disabled by default: the smoothed loss never drops below -infinity.
+        double targetLoss = Double.NEGATIVE_INFINITY;
+        // Wall-clock budget in seconds.
+        double timeLimit = Double.POSITIVE_INFINITY;
+        // Steps between points of the recorded loss curve.
+        int curveEvery = 20;
+        // Print progress and samples, and save the trained model.
+        boolean verbose = true;
+        // Data-parallel replicas, and the threads that run them.
+        int replicas = 1;
+        // -1 runs one thread per replica.
+        int threads = -1;
+        // Asynchronous Hogwild threads.
+        int hogwild = 1;
+        // FFN shards, each run on its own thread.
+        int tensorParallel = 1;
+        // Seed for weight initialisation, or null for a random one.
+        Long seed = null;
+        // Training text, or null for the bundled Grimm samples.
+        String corpus = null;
+        // Token file to memory-map instead of tokenising the corpus.
+        String tokenFile = null;
+        // Directory of cached token files, or null to tokenise every run.
+        String tokenCache = ".token-cache";
+        // Tokenizer, and the vocabulary size of a BPE tokenizer.
+        String tokenizer = "char";
+        int vocabSize = 512;
+        // Sequences per optimiser step, and per forward/backward pass.
+        int batchSize = 64;
+        int microBatchSize = 0;
+        // How batches are sampled, and the stride between epoch windows
+        // (0 uses the context length).
+        String sampler = "random";
+        int stride = 0;
+        // Batches sampled ahead of the training loop, and the threads that
+        // sample them.
+        int prefetch = 2;
+        int loaderThreads = 1;
+        // Multi-process training: this process's rank, the number of
+        // processes, and how they exchange gradients.
+        int rank = 0;
+        int worldSize = 1;
+        String distMode = "ring";
+        String distHost = "127.0.0.1";
+        int distPort = 29500;
+
+        /**
+         * Parses training options. Unknown arguments are ignored.
+         *
+         * @param args command-line arguments
+         * @return parsed options
+         */
+        static Options parse(String[] args) {
+            Options opts = new Options();
+            for (int i = 0; i < args.length; i++) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].equals("--adaptive-softmax")) {
+                    opts.adaptive = true;
+                }
+                if (args[i].equals("--cutoffs") && hasValue) {
+                    opts.cutoffs = AdaptiveSoftmax.parseCutoffs(args[i + 1]);
+                }
+                if (args[i].equals("--tie-weights")) {
+                    opts.tieWeights = true;
+                }
+                if (args[i].equals("--adam-moments") && hasValue) {
+                    opts.momentPrecision = MomentPrecision.valueOf(args[i + 1].toUpperCase());
+                }
+                if (args[i].equals("--adafactor")) {
+                    opts.adafactor = true;
+                }
+                if (args[i].equals("--sgd")) {
+                    opts.sgd = true;
+                }
+                if (args[i].equals("--overlap-steps")) {
+                    opts.overlapSteps = true;
+                }
+                if (args[i].equals("--steps") && hasValue) {
+                    opts.steps = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--lr") && hasValue) {
+                    opts.learningRate = Double.parseDouble(args[i + 1]);
+                }
+                if (args[i].equals("--schedule") && hasValue) {
+                    opts.schedule = args[i + 1];
+                }
+                if (args[i].equals("--warmup") && hasValue) {
+                    opts.warmupSteps = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--target-loss") && hasValue) {
+                    opts.targetLoss = Double.parseDouble(args[i + 1]);
+                }
+                if (args[i].equals("--time-limit") && hasValue) {
+                    opts.timeLimit = Double.parseDouble(args[i + 1]);
+                }
+                if (args[i].equals("--data-parallel") && hasValue) {
+                    opts.replicas = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--threads") && hasValue) {
+                    opts.threads = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--hogwild") && hasValue) {
+                    opts.hogwild = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--tensor-parallel") && hasValue) {
+                    opts.tensorParallel = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--seed") && hasValue) {
+                    opts.seed = Long.parseLong(args[i + 1]);
+                }
+                if (args[i].equals("--corpus") && hasValue) {
+                    opts.corpus = args[i + 1];
+                }
+                if (args[i].equals("--tokens") && hasValue) {
+                    opts.tokenFile = args[i + 1];
+                }
+                if (args[i].equals("--token-cache") && hasValue) {
+                    opts.tokenCache = args[i + 1];
+                }
+                if (args[i].equals("--no-token-cache")) {
+                    opts.tokenCache = null;
+                }
+                if (args[i].equals("--tokenizer") && hasValue) {
+                    opts.tokenizer = args[i + 1];
+                }
+                if (args[i].equals("--vocab-size") && hasValue) {
+                    opts.vocabSize = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--batch-size") && hasValue) {
+                    opts.batchSize = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--micro-batch") && hasValue) {
+                    opts.microBatchSize = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--sampler") && hasValue) {
+                    opts.sampler = args[i + 1];
+                }
+                if (args[i].equals("--stride") && hasValue) {
+                    opts.stride = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--prefetch") && hasValue) {
+                    opts.prefetch = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--loader-threads") && hasValue) {
+                    opts.loaderThreads = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--rank") && hasValue) {
+                    opts.rank = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--world-size") && hasValue) {
+                    opts.worldSize = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("--dist-mode") && hasValue) {
+                    opts.distMode = args[i + 1];
+                }
+                if (args[i].equals("--dist-host") && hasValue) {
+                    opts.distHost = args[i + 1];
+                }
+                if (args[i].equals("--dist-port") && hasValue) {
+                    opts.distPort = Integer.parseInt(args[i + 1]);
+                }
+            }
+            return opts;
+        }
+    }
+
+    /**
+     * Outcome of a training run.
+     */
+    static class Result {
+        final int steps;
+        final double seconds;
+        final long tokens;
+        final double smoothedLoss;
+        final boolean reachedTarget;
+        // (seconds, smoothed loss) pairs recorded every curveEvery steps.
+        final List<double[]> lossCurve;
+
+        Result(int steps, double seconds, long tokens, double smoothedLoss, boolean reachedTarget,
+               List<double[]> lossCurve) {
+            this.steps = steps;
+            this.seconds = seconds;
+            this.tokens = tokens;
+            this.smoothedLoss = smoothedLoss;
+            this.reachedTarget = reachedTarget;
+            this.lossCurve = lossCurve;
+        }
+
+        /**
+         * Returns the training throughput.
+         *
+         * @return tokens processed per second of training
+         */
+        double tokensPerSecond() {
+            return tokens / seconds;
         }
     }
 }
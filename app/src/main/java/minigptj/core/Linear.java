@@ -10,6 +10,23 @@ import java.util.Random;
  *
  * This class stores the most recent input during the forward pass so that
  * gradients can be calculated manually during backpropagation.
+ *
+ * Low-rank adaptation (LoRA):
+ * enableLora() freezes the weights and bias and attaches two trainable
+ * adapter matrices A (inputSize x rank) and B (rank x outputSize):
+ *
+ *     output = input * weights + bias + (alpha / rank) * (input * A) * B
+ *
+ * B starts at zero, so attaching adapters does not change the output. While
+ * adapters are attached, backward() only computes gradients for A and B, and
+ * optimisers update only the adapters. mergeLora() folds the adapters back
+ * into the weights.
+ *
+ * Gradient accumulation:
+ * backward() normally replaces the previous gradients. In accumulate mode
+ * (setAccumulateGradients(true)) it adds to them instead, so one optimiser
+ * step can use the summed gradient of several micro-batches. Call
+ * zeroGrad() before the first micro-batch of each step.
  */
 public class Linear {
 
@@ -23,6 +40,17 @@ public class Linear {
     private Matrix gradWeights;
     private Matrix gradBias;
 
+    // LoRA adapters (null unless enableLora() has been called)
+    private Matrix loraA;           // shape: inputSize x rank
+    private Matrix loraB;           // shape: rank x outputSize
+    private double loraAlpha;
+    private Matrix lastLoraHidden;  // input * A from the most recent forward pass
+    private Matrix gradLoraA;
+    private Matrix gradLoraB;
+
+    // When true, backward() adds to the existing gradients.
+    private boolean accumulateGradients;
+
     /**
      * Creates a linear layer with randomly initialised weights and zero bias.
      *
@@ -33,10 +61,21 @@ public class Linear {
      * @param outputSize number of output features
      */
     public Linear(int inputSize, int outputSize) {
+        this(inputSize, outputSize, new Random());
+    }
+
+    /**
+     * Creates a linear layer whose weights are drawn from the given random
+     * generator, so that initialisation is reproducible.
+     *
+     * @param inputSize number of input features
+     * @param outputSize number of output features
+     * @param rand random generator used for the weights
+     */
+    public Linear(int inputSize, int outputSize, Random rand) {
         this.inputSize = inputSize;
         this.outputSize = outputSize;
 
-        Random rand = new Random();
         weights = new Matrix(inputSize, outputSize);
         bias = new Matrix(1, outputSize);
 
@@ -49,6 +88,34 @@ public class Linear {
         }
     }
 
+    /**
+     * Creates a replica that shares the parameters of another layer.
+     */
+    private Linear(Linear source) {
+        this.inputSize = source.inputSize;
+        this.outputSize = source.outputSize;
+        this.weights = source.weights;
+        this.bias = source.bias;
+        this.loraA = source.loraA;
+        this.loraB = source.loraB;
+        this.loraAlpha = source.loraAlpha;
+        this.accumulateGradients = source.accumulateGradients;
+    }
+
+    /**
+     * Creates a replica of this layer for data-parallel training.
+     *
+     * The replica shares the weights, bias and any LoRA adapters, but keeps
+     * its own forward cache and gradients, so several replicas can run
+     * forward and backward on different batch shards at the same time.
+     * Adapters must be enabled before replicating.
+     *
+     * @return layer sharing this layer's parameters
+     */
+    public Linear replicate() {
+        return new Linear(this);
+    }
+
     /**
      * Forward pass through the layer.
      *
@@ -71,6 +138,12 @@ public class Linear {
             }
         }
 
+        if (loraA != null) {
+            // Low-rank update: scale * (X * A) * B
+            this.lastLoraHidden = input.dot(loraA);
+            out = out.add(lastLoraHidden.dot(loraB).multiply(getLoraScale()));
+        }
+
         return out;
     }
 
@@ -80,6 +153,9 @@ public class Linear {
      * Calculates gradients for weights and bias, and returns the gradient
      * with respect to the input so earlier layers can continue backpropagation.
      *
+     * When LoRA adapters are attached the frozen weights and bias receive no
+     * gradient; only the adapter gradients are computed.
+     *
      * @param dOut upstream gradient of shape batchSize x outputSize
      * @return gradient with respect to input, shape batchSize x inputSize
      */
@@ -89,24 +165,236 @@ public class Linear {
         }
 
         // 1) dX = dOut * W^T
-        Matrix dX = dOut.dot(weights.transpose());
+        Matrix dX = dOut.dotTransposed(weights);
+
+        if (loraA != null) {
+            return backwardLora(dOut, dX);
+        }
 
         // 2) dW = X^T * dOut
-        this.gradWeights = lastInput.transpose().dot(dOut);
+        this.gradWeights = accumulate(gradWeights, lastInput.transposeDot(dOut));
 
         // 3) db = sum over batch rows
-        this.gradBias = new Matrix(1, outputSize);
+        Matrix db = new Matrix(1, outputSize);
         for (int j = 0; j < outputSize; j++) {
             double sum = 0.0;
             for (int i = 0; i < dOut.getRows(); i++) {
                 sum += dOut.get(i, j);
             }
-            gradBias.set(0, j, sum);
+            db.set(0, j, sum);
         }
+        this.gradBias = accumulate(gradBias, db);
 
         return dX;
     }
 
+    /**
+     * Adapter part of the backward pass.
+     *
+     * With H = X * A and s = alpha / rank:
+     *     dH = s * dOut * B^T
+     *     dB = s * H^T * dOut
+     *     dA = X^T * dH
+     *     dX += dH * A^T
+     */
+    private Matrix backwardLora(Matrix dOut, Matrix dX) {
+        double scale = getLoraScale();
+
+        Matrix dHidden = dOut.dotTransposed(loraB).multiply(scale);
+        this.gradLoraB = accumulate(gradLoraB, lastLoraHidden.transposeDot(dOut).multiply(scale));
+        this.gradLoraA = accumulate(gradLoraA, lastInput.transposeDot(dHidden));
+
+        return dX.add(dHidden.dotTransposed(loraA));
+    }
+
+    /**
+     * Returns the new value of a gradient: the fresh gradient, or the sum
+     * with the existing one in accumulate mode.
+     */
+    private Matrix accumulate(Matrix current, Matrix fresh) {
+        if (!accumulateGradients || current == null) {
+            return fresh;
+        }
+        current.addInPlace(fresh);
+        return current;
+    }
+
+    /**
+     * Switches gradient accumulation on or off.
+     *
+     * @param accumulate true to add each backward pass to the existing
+     *                   gradients, false to replace them
+     */
+    public void setAccumulateGradients(boolean accumulate) {
+        this.accumulateGradients = accumulate;
+    }
+
+    /**
+     * Returns whether backward() adds to the existing gradients.
+     *
+     * @return true in accumulate mode
+     */
+    public boolean isAccumulatingGradients() {
+        return accumulateGradients;
+    }
+
+    /**
+     * Resets the gradients of the trainable parameters to zero.
+     *
+     * Only the adapter gradients are reset while LoRA is enabled, since the
+     * frozen weights have none.
+     */
+    public void zeroGrad() {
+        if (loraA != null) {
+            gradLoraA = new Matrix(loraA.getRows(), loraA.getCols());
+            gradLoraB = new Matrix(loraB.getRows(), loraB.getCols());
+            return;
+        }
+        gradWeights = new Matrix(inputSize, outputSize);
+        gradBias = new Matrix(1, outputSize);
+    }
+
+    /**
+     * Attaches trainable low-rank adapters and freezes the base weights.
+     *
+     * A is initialised with small random values and B with zeros, so the
+     * layer output is unchanged until the adapters are trained.
+     *
+     * @param rank adapter rank r, between 1 and min(inputSize, outputSize)
+     * @param alpha scaling numerator; the update is scaled by alpha / rank
+     */
+    public void enableLora(int rank, double alpha) {
+        enableLora(rank, alpha, new Random());
+    }
+
+    /**
+     * Attaches trainable low-rank adapters whose A matrix is drawn from the
+     * given random generator, so that initialisation is reproducible.
+     *
+     * @param rank adapter rank r, between 1 and min(inputSize, outputSize)
+     * @param alpha scaling numerator; the update is scaled by alpha / rank
+     * @param rand random generator used for A
+     */
+    public void enableLora(int rank, double alpha, Random rand) {
+        if (rank < 1 || rank > Math.min(inputSize, outputSize)) {
+            throw new IllegalArgumentException("rank must be in [1, " + Math.min(inputSize, outputSize) + "]");
+        }
+        if (loraA != null) {
+            throw new IllegalStateException("LoRA adapters are already attached.");
+        }
+
+        Matrix a = new Matrix(inputSize, rank);
+        double std = 1.0 / Math.sqrt(inputSize);
+        for (int i = 0; i < inputSize; i++) {
+            for (int j = 0; j < rank; j++) {
+                a.set(i, j, rand.nextGaussian() * std);
+            }
+        }
+
+        this.loraA = a;
+        this.loraB = new Matrix(rank, outputSize);
+        this.loraAlpha = alpha;
+        this.gradWeights = null;
+        this.gradBias = null;
+    }
+
+    /**
+     * Folds the adapters into the weights and detaches them.
+     *
+     * Afterwards the layer behaves as a plain Linear layer whose weights
+     * include the learned low-rank update.
+     */
+    public void mergeLora() {
+        if (loraA == null) {
+            throw new IllegalStateException("No LoRA adapters are attached.");
+        }
+
+        Matrix delta = loraA.dot(loraB).multiply(getLoraScale());
+        for (int i = 0; i < inputSize; i++) {
+            for (int j = 0; j < outputSize; j++) {
+                weights.set(i, j, weights.get(i, j) + delta.get(i, j));
+            }
+        }
+
+        this.loraA = null;
+        this.loraB = null;
+        this.lastLoraHidden = null;
+        this.gradLoraA = null;
+        this.gradLoraB = null;
+    }
+
+    /**
+     * Returns true if LoRA adapters are attached.
+     *
+     * @return whether the base weights are frozen behind adapters
+     */
+    public boolean hasLora() {
+        return loraA != null;
+    }
+
+    /**
+     * Returns the adapter rank.
+     *
+     * @return rank r, or 0 if no adapters are attached
+     */
+    public int getLoraRank() {
+        return loraA == null ? 0 : loraA.getCols();
+    }
+
+    /**
+     * Returns the adapter scaling numerator.
+     *
+     * @return alpha, as passed to enableLora()
+     */
+    public double getLoraAlpha() {
+        return loraAlpha;
+    }
+
+    /**
+     * Returns the factor applied to the low-rank update.
+     *
+     * @return alpha / rank
+     */
+    public double getLoraScale() {
+        return loraAlpha / loraA.getCols();
+    }
+
+    /**
+     * Returns the down-projection adapter.
+     *
+     * @return A with shape inputSize x rank, or null
+     */
+    public Matrix getLoraA() {
+        return loraA;
+    }
+
+    /**
+     * Returns the up-projection adapter.
+     *
+     * @return B with shape rank x outputSize, or null
+     */
+    public Matrix getLoraB() {
+        return loraB;
+    }
+
+    /**
+     * Returns the most recent gradient for adapter A.
+     *
+     * @return gradient matrix for A
+     */
+    public Matrix getGradLoraA() {
+        return gradLoraA;
+    }
+
+    /**
+     * Returns the most recent gradient for adapter B.
+     *
+     * @return gradient matrix for B
+     */
+    public Matrix getGradLoraB() {
+        return gradLoraB;
+    }
+
     /**
      * Returns the trainable weight matrix.
      *
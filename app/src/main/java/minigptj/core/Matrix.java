@@ -8,11 +8,17 @@ import java.util.function.Function;
  * This class provides the core numerical operations needed for the model,
  * including matrix addition, scalar multiplication, matrix multiplication,
  * transposition, element-wise function application, and row-wise softmax.
+ *
+ * Values are stored row-major in a flat double[] starting at an offset.
+ * A matrix normally owns its array, but bindTo() can move it into a region
+ * of a larger shared buffer so that optimisers can update many parameter
+ * matrices in one contiguous sweep.
  */
 public class Matrix {
     private final int rows;
     private final int cols;
-    private final double[][] data;
+    private double[] data;
+    private int offset;
 
     /**
      * Creates a zero-initialised matrix with the given shape.
@@ -23,7 +29,7 @@ public class Matrix {
     public Matrix(int rows, int cols) {
         this.rows = rows;
         this.cols = cols;
-        this.data = new double[rows][cols];
+        this.data = new double[rows * cols];
     }
 
     /**
@@ -36,13 +42,13 @@ public class Matrix {
     public Matrix(double[][] data) {
         this.rows = data.length;
         this.cols = data[0].length;
-        this.data = new double[rows][cols];
+        this.data = new double[rows * cols];
 
         for (int i = 0; i < rows; i++) {
             if (data[i].length != cols) {
                 throw new IllegalArgumentException("All rows must have same length");
             }
-            System.arraycopy(data[i], 0, this.data[i], 0, cols);
+            System.arraycopy(data[i], 0, this.data, i * cols, cols);
         }
     }
 
@@ -73,7 +79,7 @@ public class Matrix {
      * @return value stored at the requested position
      */
     public double get(int row, int col) {
-        return data[row][col];
+        return data[offset + row * cols + col];
     }
 
     /**
@@ -84,7 +90,69 @@ public class Matrix {
      * @param value value to store
      */
     public void set(int row, int col, double value) {
-        data[row][col] = value;
+        data[offset + row * cols + col] = value;
+    }
+
+    /**
+     * Moves this matrix's storage into a region of a shared buffer.
+     *
+     * The current values are copied to buffer[offset, offset + rows * cols)
+     * and all later reads and writes go to that region. Used to pack many
+     * parameter matrices into one contiguous array.
+     *
+     * @param buffer destination buffer
+     * @param offset start index of this matrix in the buffer
+     */
+    public void bindTo(double[] buffer, int offset) {
+        if (offset < 0 || offset + rows * cols > buffer.length) {
+            throw new IllegalArgumentException("buffer region out of range");
+        }
+        System.arraycopy(this.data, this.offset, buffer, offset, rows * cols);
+        this.data = buffer;
+        this.offset = offset;
+    }
+
+    /**
+     * Copies all values, row-major, into an array.
+     *
+     * @param dst destination array
+     * @param dstOffset index in dst of the first value
+     */
+    public void copyTo(double[] dst, int dstOffset) {
+        System.arraycopy(data, offset, dst, dstOffset, rows * cols);
+    }
+
+    /**
+     * Overwrites all values, row-major, from an array.
+     *
+     * @param src source array
+     * @param srcOffset index in src of the first value
+     */
+    public void copyFrom(double[] src, int srcOffset) {
+        System.arraycopy(src, srcOffset, data, offset, rows * cols);
+    }
+
+    /**
+     * Returns the backing array.
+     *
+     * Package-private so that kernels in this package can work on whole rows
+     * without going through get/set for every element. Row r starts at
+     * rowStart(r).
+     *
+     * @return live backing array, not a copy
+     */
+    double[] array() {
+        return data;
+    }
+
+    /**
+     * Returns the index of a row's first value in array().
+     *
+     * @param row row index
+     * @return start index of the row
+     */
+    int rowStart(int row) {
+        return offset + row * cols;
     }
 
     /**
@@ -97,7 +165,7 @@ public class Matrix {
         for (int i = 0; i < rows; i++) {
             sb.append("[ ");
             for (int j = 0; j < cols; j++) {
-                sb.append(String.format("%.3f ", data[i][j]));
+                sb.append(String.format("%.3f ", get(i, j)));
             }
             sb.append("]\n");
         }
@@ -116,14 +184,29 @@ public class Matrix {
         }
 
         Matrix result = new Matrix(this.rows, this.cols);
-        for (int i = 0; i < this.rows; i++) {
-            for (int j = 0; j < this.cols; j++) {
-                result.set(i, j, this.get(i, j) + other.get(i, j));
-            }
+        int n = rows * cols;
+        for (int k = 0; k < n; k++) {
+            result.data[k] = this.data[this.offset + k] + other.data[other.offset + k];
         }
         return result;
     }
 
+    /**
+     * Adds another matrix into this one element-wise.
+     *
+     * @param other matrix with the same shape
+     */
+    public void addInPlace(Matrix other) {
+        if (this.rows != other.rows || this.cols != other.cols) {
+            throw new IllegalArgumentException("Matrix dimensions must match for addition");
+        }
+
+        int n = rows * cols;
+        for (int k = 0; k < n; k++) {
+            this.data[this.offset + k] += other.data[other.offset + k];
+        }
+    }
+
     /**
      * Multiplies every matrix value by a scalar.
      *
@@ -132,10 +215,9 @@ public class Matrix {
      */
     public Matrix multiply(double scalar) {
         Matrix result = new Matrix(rows, cols);
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                result.data[i][j] = this.data[i][j] * scalar;
-            }
+        int n = rows * cols;
+        for (int k = 0; k < n; k++) {
+            result.data[k] = this.data[offset + k] * scalar;
         }
         return result;
     }
@@ -146,6 +228,10 @@ public class Matrix {
      * If this matrix has shape A x B, the other matrix must have shape B x C.
      * The returned matrix has shape A x C.
      *
+     * The loops run in i-k-j order so the inner loop streams along rows of
+     * both the right-hand matrix and the result. Each result value is still
+     * summed over k in ascending order.
+     *
      * @param other right-hand matrix
      * @return matrix product
      */
@@ -155,14 +241,92 @@ public class Matrix {
         }
 
         Matrix result = new Matrix(this.rows, other.cols);
+        double[] a = this.data;
+        double[] b = other.data;
+        double[] r = result.data;
+        int n = other.cols;
 
         for (int i = 0; i < this.rows; i++) {
-            for (int j = 0; j < other.cols; j++) {
+            int aRow = this.rowStart(i);
+            int rRow = i * n;
+            for (int k = 0; k < this.cols; k++) {
+                double aik = a[aRow + k];
+                int bRow = other.rowStart(k);
+                for (int j = 0; j < n; j++) {
+                    r[rRow + j] += aik * b[bRow + j];
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Multiplies this matrix by the transpose of another without building the
+     * transpose.
+     *
+     * If this matrix has shape A x B, the other matrix must have shape C x B.
+     * The returned matrix has shape A x C. Both operands are read row by row,
+     * which keeps memory access sequential.
+     *
+     * @param other right-hand matrix, used transposed
+     * @return this * other^T
+     */
+    public Matrix dotTransposed(Matrix other) {
+        if (this.cols != other.cols) {
+            throw new IllegalArgumentException("Incompatible matrix dimensions for transposed dot product");
+        }
+
+        Matrix result = new Matrix(this.rows, other.rows);
+        double[] a = this.data;
+        double[] b = other.data;
+
+        for (int i = 0; i < this.rows; i++) {
+            int aRow = this.rowStart(i);
+            for (int j = 0; j < other.rows; j++) {
+                int bRow = other.rowStart(j);
                 double sum = 0;
                 for (int k = 0; k < this.cols; k++) {
-                    sum += this.data[i][k] * other.data[k][j];
+                    sum += a[aRow + k] * b[bRow + k];
+                }
+                result.data[i * other.rows + j] = sum;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Multiplies the transpose of this matrix by another without building the
+     * transpose.
+     *
+     * If this matrix has shape B x A, the other matrix must have shape B x C.
+     * The returned matrix has shape A x C. This is the weight-gradient product
+     * X^T * dOut used in backpropagation.
+     *
+     * @param other right-hand matrix
+     * @return this^T * other
+     */
+    public Matrix transposeDot(Matrix other) {
+        if (this.rows != other.rows) {
+            throw new IllegalArgumentException("Incompatible matrix dimensions for transposed dot product");
+        }
+
+        Matrix result = new Matrix(this.cols, other.cols);
+        double[] a = this.data;
+        double[] b = other.data;
+        double[] r = result.data;
+        int n = other.cols;
+
+        for (int k = 0; k < this.rows; k++) {
+            int aRow = this.rowStart(k);
+            int bRow = other.rowStart(k);
+            for (int i = 0; i < this.cols; i++) {
+                double aik = a[aRow + i];
+                int rRow = i * n;
+                for (int j = 0; j < n; j++) {
+                    r[rRow + j] += aik * b[bRow + j];
                 }
-                result.data[i][j] = sum;
             }
         }
 
@@ -179,9 +343,55 @@ public class Matrix {
      */
     public Matrix apply(Function<Double, Double> func) {
         Matrix result = new Matrix(rows, cols);
-        for (int i = 0; i < rows; i++) {
+        int n = rows * cols;
+        for (int k = 0; k < n; k++) {
+            result.data[k] = func.apply(this.data[offset + k]);
+        }
+        return result;
+    }
+
+    /**
+     * Gathers rows into a new contiguous matrix.
+     *
+     * Row k of the result is a copy of row rowIds[k] of this matrix. This is
+     * the lookup primitive used by embedding layers; each row is copied in bulk
+     * with System.arraycopy.
+     *
+     * @param rowIds row indices to copy, in output order
+     * @return matrix of shape rowIds.length x cols
+     */
+    public Matrix gatherRows(int[] rowIds) {
+        Matrix result = new Matrix(rowIds.length, cols);
+        for (int k = 0; k < rowIds.length; k++) {
+            System.arraycopy(data, rowStart(rowIds[k]), result.data, k * cols, cols);
+        }
+        return result;
+    }
+
+    /**
+     * Gathers rows and adds a repeating pattern of offset rows in one pass.
+     *
+     * Row k of the result is row rowIds[k] of this matrix plus row
+     * (k % offsets.getRows()) of offsets. With sequence-layout token IDs this
+     * fuses an embedding lookup with the positional embedding addition.
+     *
+     * @param rowIds row indices to copy, in output order
+     * @param offsets matrix with the same number of columns, added cyclically
+     * @return matrix of shape rowIds.length x cols
+     */
+    public Matrix gatherRows(int[] rowIds, Matrix offsets) {
+        if (offsets.cols != cols) {
+            throw new IllegalArgumentException("offsets must have the same number of columns");
+        }
+
+        Matrix result = new Matrix(rowIds.length, cols);
+        int period = offsets.rows;
+        for (int k = 0; k < rowIds.length; k++) {
+            int src = rowStart(rowIds[k]);
+            int off = offsets.rowStart(k % period);
+            int dst = k * cols;
             for (int j = 0; j < cols; j++) {
-                result.data[i][j] = func.apply(this.data[i][j]);
+                result.data[dst + j] = data[src + j] + offsets.data[off + j];
             }
         }
         return result;
@@ -196,7 +406,7 @@ public class Matrix {
         Matrix result = new Matrix(cols, rows);
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < cols; j++) {
-                result.set(j, i, this.data[i][j]);
+                result.set(j, i, this.get(i, j));
             }
         }
         return result;
@@ -215,22 +425,25 @@ public class Matrix {
         Matrix result = new Matrix(rows, cols);
 
         for (int i = 0; i < rows; i++) {
+            int src = rowStart(i);
+            int dst = i * cols;
+
             double max = Double.NEGATIVE_INFINITY;
             for (int j = 0; j < cols; j++) {
-                if (data[i][j] > max) {
-                    max = data[i][j];
+                if (data[src + j] > max) {
+                    max = data[src + j];
                 }
             }
 
             double sumExp = 0.0;
             for (int j = 0; j < cols; j++) {
-                double exp = Math.exp(data[i][j] - max);
-                result.data[i][j] = exp;
+                double exp = Math.exp(data[src + j] - max);
+                result.data[dst + j] = exp;
                 sumExp += exp;
             }
 
             for (int j = 0; j < cols; j++) {
-                result.data[i][j] /= sumExp;
+                result.data[dst + j] /= sumExp;
             }
         }
 
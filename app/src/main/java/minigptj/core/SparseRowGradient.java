@@ -0,0 +1,331 @@
+package minigptj.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Row-sparse gradient for large lookup-table parameters.
+ *
+ * An embedding lookup only touches the rows of the tokens present in a batch,
+ * so its gradient is zero everywhere else. This class stores just the touched
+ * rows: a list of row indices plus one dense value row for each.
+ *
+ * Storage uses primitive arrays only:
+ * - slotOfRow maps a parameter row to its slot (-1 when untouched)
+ * - rows lists the parameter row held by each slot, in first-touch order
+ * - values holds the slot rows back to back, slot k at [k * cols, (k + 1) * cols)
+ *
+ * Clearing only resets the slots that were used, so the cost of a training
+ * step scales with the number of distinct rows touched rather than the total
+ * number of rows.
+ */
+public class SparseRowGradient {
+    // Below this many values a scatter is cheaper to run on the calling thread.
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+
+    private final int numRows;
+    private final int cols;
+
+    private final int[] slotOfRow;
+    private int[] rows;
+    private double[] values;
+    private int size;
+
+    /**
+     * Creates an empty gradient for a parameter of shape numRows x cols.
+     *
+     * @param numRows number of rows in the parameter matrix
+     * @param cols number of columns in the parameter matrix
+     */
+    public SparseRowGradient(int numRows, int cols) {
+        if (numRows < 1) throw new IllegalArgumentException("numRows must be >= 1");
+        if (cols < 1) throw new IllegalArgumentException("cols must be >= 1");
+
+        this.numRows = numRows;
+        this.cols = cols;
+        this.slotOfRow = new int[numRows];
+        Arrays.fill(slotOfRow, -1);
+
+        int initialSlots = Math.min(numRows, 16);
+        this.rows = new int[initialSlots];
+        this.values = new double[initialSlots * cols];
+    }
+
+    /**
+     * Removes all touched rows, making the gradient zero again.
+     */
+    public void clear() {
+        for (int k = 0; k < size; k++) {
+            slotOfRow[rows[k]] = -1;
+        }
+        Arrays.fill(values, 0, size * cols, 0.0);
+        size = 0;
+    }
+
+    /**
+     * Adds one row of a matrix into a parameter row of this gradient.
+     *
+     * @param row parameter row to accumulate into
+     * @param src matrix with cols columns
+     * @param srcRow row of src to add
+     */
+    public void addRow(int row, Matrix src, int srcRow) {
+        int base = slot(row) * cols;
+        for (int j = 0; j < cols; j++) {
+            values[base + j] += src.get(srcRow, j);
+        }
+    }
+
+    /**
+     * Scatter-adds every row of a matrix into the gradient.
+     *
+     * Row k of src is added to parameter row rowIds[k]. This is the backward
+     * counterpart of Matrix.gatherRows().
+     *
+     * Slots are assigned serially first. Large scatters are then split across
+     * the common fork/join pool with striped slot ownership: worker w only
+     * writes slots where slot % workers == w, so no two threads touch the same
+     * row and each row is still summed in input order, giving the same result
+     * as the serial loop.
+     *
+     * @param rowIds parameter row for each row of src
+     * @param src matrix of shape rowIds.length x cols
+     */
+    public void scatterAddRows(int[] rowIds, Matrix src) {
+        if (src.getRows() != rowIds.length || src.getCols() != cols) {
+            throw new IllegalArgumentException("src must have one row per row id and " + cols + " columns");
+        }
+
+        int n = rowIds.length;
+        int[] slots = new int[n];
+        for (int k = 0; k < n; k++) {
+            slots[k] = slot(rowIds[k]);
+        }
+
+        int workers = Math.min(size, ForkJoinPool.getCommonPoolParallelism());
+        if (workers <= 1 || (long) n * cols < PARALLEL_THRESHOLD) {
+            for (int k = 0; k < n; k++) {
+                addToSlot(slots[k], src, k);
+            }
+            return;
+        }
+
+        IntStream.range(0, workers).parallel().forEach(w -> {
+            for (int k = 0; k < n; k++) {
+                if (slots[k] % workers == w) {
+                    addToSlot(slots[k], src, k);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a dense gradient for the whole parameter.
+     *
+     * Used when a parameter is shared with a layer that produces dense
+     * gradients, such as an output projection tied to an embedding. Every
+     * row becomes touched.
+     *
+     * @param dense matrix of shape numRows x cols
+     */
+    public void addDense(Matrix dense) {
+        if (dense.getRows() != numRows || dense.getCols() != cols) {
+            throw new IllegalArgumentException("dense gradient must have shape " + numRows + "x" + cols);
+        }
+        for (int row = 0; row < numRows; row++) {
+            addToSlot(slot(row), dense, row);
+        }
+    }
+
+    /**
+     * Adds another sparse gradient for the same parameter into this one.
+     *
+     * Rows are added in the other gradient's touch order; rows not yet
+     * touched here are appended in that order.
+     *
+     * @param other gradient of shape numRows x cols
+     */
+    public void addAll(SparseRowGradient other) {
+        if (other.numRows != numRows || other.cols != cols) {
+            throw new IllegalArgumentException("gradient must have shape " + numRows + "x" + cols);
+        }
+        for (int k = 0; k < other.size; k++) {
+            int base = slot(other.rows[k]) * cols;
+            int srcBase = k * cols;
+            for (int j = 0; j < cols; j++) {
+                values[base + j] += other.values[srcBase + j];
+            }
+        }
+    }
+
+    /**
+     * Adds a value to a single gradient entry.
+     *
+     * @param row parameter row
+     * @param col parameter column
+     * @param value value to add
+     */
+    public void add(int row, int col, double value) {
+        int k = slot(row);
+        values[k * cols + col] += value;
+    }
+
+    /**
+     * Returns whether a parameter row has been touched since the last clear().
+     *
+     * @param row parameter row
+     * @return true if the row holds a gradient slot
+     */
+    public boolean isTouched(int row) {
+        if (row < 0 || row >= numRows) {
+            throw new IllegalArgumentException("row out of range: " + row);
+        }
+        return slotOfRow[row] >= 0;
+    }
+
+    /**
+     * Copies selected parameter rows into a flat buffer, back to back.
+     * Untouched rows are written as zeros.
+     *
+     * @param rowIds parameter rows to copy
+     * @param count number of entries of rowIds to use
+     * @param dst destination buffer
+     * @param offset index of dst to start writing at
+     */
+    public void copyRowsTo(int[] rowIds, int count, double[] dst, int offset) {
+        for (int i = 0; i < count; i++) {
+            int row = rowIds[i];
+            if (row < 0 || row >= numRows) {
+                throw new IllegalArgumentException("row out of range: " + row);
+            }
+            int k = slotOfRow[row];
+            int base = offset + i * cols;
+            if (k >= 0) {
+                System.arraycopy(values, k * cols, dst, base, cols);
+            } else {
+                Arrays.fill(dst, base, base + cols, 0.0);
+            }
+        }
+    }
+
+    /**
+     * Replaces the gradient with selected rows read from a flat buffer, the
+     * inverse of copyRowsTo(). Every listed row becomes touched, even if its
+     * values are all zero.
+     *
+     * @param rowIds parameter rows to set
+     * @param count number of entries of rowIds to use
+     * @param src source buffer
+     * @param offset index of src to start reading at
+     */
+    public void setRows(int[] rowIds, int count, double[] src, int offset) {
+        clear();
+        for (int i = 0; i < count; i++) {
+            int k = slot(rowIds[i]);
+            System.arraycopy(src, offset + i * cols, values, k * cols, cols);
+        }
+    }
+
+    /**
+     * Returns the number of distinct rows touched since the last clear().
+     *
+     * @return touched row count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the parameter row stored in a slot.
+     *
+     * @param k slot index in [0, size())
+     * @return parameter row index
+     */
+    public int rowIndex(int k) {
+        return rows[k];
+    }
+
+    /**
+     * Returns a gradient value stored in a slot.
+     *
+     * @param k slot index in [0, size())
+     * @param col column index
+     * @return accumulated gradient value
+     */
+    public double get(int k, int col) {
+        return values[k * cols + col];
+    }
+
+    /**
+     * Returns the number of rows in the parameter this gradient belongs to.
+     *
+     * @return parameter row count
+     */
+    public int getRows() {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns in each gradient row.
+     *
+     * @return column count
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Materialises the gradient as a dense matrix.
+     *
+     * Intended for diagnostics and tests; optimisers should iterate the
+     * touched rows instead.
+     *
+     * @return dense matrix of shape numRows x cols
+     */
+    public Matrix toDense() {
+        Matrix dense = new Matrix(numRows, cols);
+        for (int k = 0; k < size; k++) {
+            int row = rows[k];
+            for (int j = 0; j < cols; j++) {
+                dense.set(row, j, values[k * cols + j]);
+            }
+        }
+        return dense;
+    }
+
+    /**
+     * Adds a full row of a matrix into an existing slot.
+     */
+    private void addToSlot(int k, Matrix src, int srcRow) {
+        double[] a = src.array();
+        int start = src.rowStart(srcRow);
+        int base = k * cols;
+        for (int j = 0; j < cols; j++) {
+            values[base + j] += a[start + j];
+        }
+    }
+
+    /**
+     * Returns the slot for a parameter row, creating it if needed.
+     */
+    private int slot(int row) {
+        if (row < 0 || row >= numRows) {
+            throw new IllegalArgumentException("row out of range: " + row);
+        }
+
+        int k = slotOfRow[row];
+        if (k >= 0) return k;
+
+        if (size == rows.length) {
+            int grown = Math.min(numRows, rows.length * 2);
+            rows = Arrays.copyOf(rows, grown);
+            values = Arrays.copyOf(values, grown * cols);
+        }
+
+        k = size++;
+        rows[k] = row;
+        slotOfRow[row] = k;
+        return k;
+    }
+}
@@ -0,0 +1,216 @@
+package minigptj.data;
+
+import java.util.Random;
+
+/**
+ * Samples training batches on background threads ahead of the training
+ * loop.
+ *
+ * Batches are written into a fixed ring of depth reusable slots, each
+ * holding flat input and target buffers as filled by a BatchSampler.
+ * Batch k always goes into slot k mod depth:
+ *
+ *   producer   waits until the slot is free, fills it, marks it filled
+ *   take()     waits until the slot holds batch k, hands it out
+ *   release()  frees the slot for batch k + depth
+ *
+ * so producers run at most depth batches ahead and then block
+ * (backpressure), and nothing is allocated after construction.
+ *
+ * With P producers, batch k is drawn by producer k mod P from its own
+ * sampler, so the sequence of batches never depends on thread timing. For
+ * random sampling each producer gets a Random seeded with seed + p; with a
+ * single producer the batches are the same as calling sampleSequences()
+ * with new Random(seed) on the training thread.
+ *
+ * A slot must not be released while anything still reads its buffers.
+ * Embedding.forwardSeq(int[], Matrix) keeps a reference to the input IDs
+ * for backward, so the training loop releases a batch only after its
+ * backward pass.
+ */
+public class BatchPrefetcher implements AutoCloseable {
+    private final Slot[] slots;
+    private final Thread[] producers;
+
+    // Guarded by this.
+    private long nextTake;
+    private boolean closed;
+    private Throwable failure;
+
+    /**
+     * Starts producer threads that sample random batches.
+     *
+     * @param ds dataset to sample from
+     * @param batchSize sequences per batch
+     * @param depth number of batch slots, i.e. how far producers may run ahead
+     * @param producerCount number of producer threads
+     * @param seed seed of the first producer's random number generator
+     */
+    public BatchPrefetcher(TextDataset ds, int batchSize, int depth, int producerCount, long seed) {
+        this(randomSamplers(ds, producerCount, seed), checkBatchSize(batchSize) * ds.getContextLen(), depth);
+    }
+
+    /**
+     * Starts one producer thread per sampler.
+     *
+     * @param samplers producer p fills batches p, p + P, p + 2P, ... from
+     *                 samplers[p]
+     * @param batchLength length of each flat buffer, batchSize * contextLen
+     * @param depth number of batch slots, i.e. how far producers may run ahead
+     */
+    public BatchPrefetcher(BatchSampler[] samplers, int batchLength, int depth) {
+        if (samplers == null || samplers.length == 0) throw new IllegalArgumentException("need at least one sampler");
+        if (batchLength < 1) throw new IllegalArgumentException("batchLength must be >= 1");
+        if (depth < 1) throw new IllegalArgumentException("depth must be >= 1");
+
+        this.slots = new Slot[depth];
+        for (int s = 0; s < depth; s++) {
+            slots[s] = new Slot(batchLength, s);
+        }
+
+        this.producers = new Thread[samplers.length];
+        for (int p = 0; p < samplers.length; p++) {
+            int producer = p;
+            BatchSampler sampler = samplers[p];
+            producers[p] = new Thread(() -> produce(sampler, producer), "batch-prefetch-" + p);
+            producers[p].setDaemon(true);
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+    }
+
+    /**
+     * Returns one random sampler per producer, seeded with seed + p.
+     */
+    private static BatchSampler[] randomSamplers(TextDataset ds, int producerCount, long seed) {
+        if (ds == null) throw new IllegalArgumentException("ds cannot be null");
+        if (producerCount < 1) throw new IllegalArgumentException("producerCount must be >= 1");
+
+        BatchSampler[] samplers = new BatchSampler[producerCount];
+        for (int p = 0; p < producerCount; p++) {
+            Random rng = new Random(seed + p);
+            samplers[p] = (inputs, targets) -> ds.sampleSequences(rng, inputs, targets);
+        }
+        return samplers;
+    }
+
+    private static int checkBatchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be >= 1");
+        return batchSize;
+    }
+
+    /**
+     * Returns the next batch, waiting until a producer has filled it.
+     *
+     * @return slot holding the next batch; pass it to release() when done
+     */
+    public synchronized Slot take() {
+        Slot slot = slots[(int) (nextTake % slots.length)];
+        try {
+            while (failure == null && !closed && !(slot.batch == nextTake && slot.filled && !slot.taken)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batch", e);
+        }
+        if (failure != null) throw new IllegalStateException("Batch producer failed", failure);
+        if (closed) throw new IllegalStateException("prefetcher is closed");
+
+        slot.taken = true;
+        nextTake++;
+        return slot;
+    }
+
+    /**
+     * Hands a slot back so a producer can refill it.
+     *
+     * @param slot slot returned by take()
+     */
+    public synchronized void release(Slot slot) {
+        if (slot == null || !slot.taken) throw new IllegalArgumentException("slot is not taken");
+        slot.taken = false;
+        slot.filled = false;
+        slot.batch += slots.length;
+        notifyAll();
+    }
+
+    /**
+     * Stops the producer threads.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            for (Thread producer : producers) {
+                producer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fills the slots of batches producer, producer + P, producer + 2P, ...
+     */
+    private void produce(BatchSampler sampler, int producer) {
+        try {
+            for (long k = producer; ; k += producers.length) {
+                Slot slot = slots[(int) (k % slots.length)];
+                synchronized (this) {
+                    while (!closed && !(slot.batch == k && !slot.filled)) {
+                        wait();
+                    }
+                    if (closed) return;
+                }
+
+                // The slot belongs to this producer until it is marked filled.
+                sampler.nextBatch(slot.inputs, slot.targets);
+
+                synchronized (this) {
+                    slot.filled = true;
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // Errors are recorded too, so that take() fails instead of
+            // waiting forever for a batch that will not come.
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reusable buffers for one batch.
+     *
+     * Both buffers are flat and row-major with contextLen entries per
+     * sequence, as written by a BatchSampler.
+     */
+    public static class Slot {
+        /** Context windows. */
+        public final int[] inputs;
+
+        /** Targets for every position of every window. */
+        public final int[] targets;
+
+        // Batch this slot holds or will hold next, and its state; guarded
+        // by the prefetcher.
+        private long batch;
+        private boolean filled;
+        private boolean taken;
+
+        private Slot(int length, long batch) {
+            this.inputs = new int[length];
+            this.targets = new int[length];
+            this.batch = batch;
+        }
+    }
+}
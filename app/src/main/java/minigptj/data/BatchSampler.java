@@ -0,0 +1,21 @@
+package minigptj.data;
+
+/**
+ * Source of training batches in full-sequence form.
+ *
+ * Each call fills caller-owned flat buffers in the layout written by
+ * TextDataset.sampleSequences(): sequence b occupies indices
+ * [b * contextLen, (b + 1) * contextLen) of both buffers, and the batch size
+ * is inputs.length / contextLen. Samplers are stateful and are used by one
+ * thread at a time.
+ */
+public interface BatchSampler {
+
+    /**
+     * Fills the buffers with the next batch.
+     *
+     * @param inputs destination for the context windows
+     * @param targets destination for the shifted targets, same length
+     */
+    void nextBatch(int[] inputs, int[] targets);
+}
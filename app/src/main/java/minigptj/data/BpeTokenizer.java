@@ -0,0 +1,344 @@
+package minigptj.data;
+
+import java.util.*;
+
+/**
+ * Byte-pair-encoding tokenizer built on top of the character vocabulary.
+ *
+ * Training starts from CharTokenizer.fromText() and repeatedly merges the
+ * most frequent pair of adjacent tokens into a new token, until the
+ * vocabulary reaches the requested size or no pair occurs twice. Merge r
+ * gets ID charVocabSize + r, so IDs 0 and 1 keep their PAD and UNK meaning
+ * and the character IDs are the same as CharTokenizer's.
+ *
+ * Text is first split into words that merges never cross: a run of letters
+ * and digits together with at most one space before it, or any other single
+ * character. " princess" can become one token; " princess," cannot.
+ *
+ * Encoding applies merges to each word in rank order with a priority queue
+ * of adjacent pairs over a linked list of tokens, so a word of n characters
+ * takes O(n log n) instead of rescanning it once per merge. Repeated words
+ * are encoded once per call and looked up afterwards, which makes encoding
+ * a corpus close to linear in its length.
+ */
+public class BpeTokenizer implements Tokenizer {
+
+    // Replaces UNK and out-of-range IDs when decoding.
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final CharTokenizer chars;
+    private final int[] mergeLeft;   // merge rank -> left token ID
+    private final int[] mergeRight;  // merge rank -> right token ID
+    private final Map<Long, Integer> rankByPair;
+    private final String[] textById; // ID -> text; null for PAD and UNK
+
+    private BpeTokenizer(CharTokenizer chars, int[] mergeLeft, int[] mergeRight) {
+        this.chars = chars;
+        this.mergeLeft = mergeLeft;
+        this.mergeRight = mergeRight;
+
+        int base = chars.vocabSize();
+        this.rankByPair = new HashMap<>();
+        this.textById = new String[base + mergeLeft.length];
+        for (int id = CharTokenizer.UNK_ID + 1; id < base; id++) {
+            textById[id] = chars.tokenText(id);
+        }
+        for (int r = 0; r < mergeLeft.length; r++) {
+            int left = mergeLeft[r];
+            int right = mergeRight[r];
+            if (left <= CharTokenizer.UNK_ID || right <= CharTokenizer.UNK_ID
+                    || left >= base + r || right >= base + r) {
+                throw new IllegalArgumentException("merge " + r + " refers to an unknown token");
+            }
+            if (rankByPair.putIfAbsent(pairKey(left, right), r) != null) {
+                throw new IllegalArgumentException("duplicate merge at rank " + r);
+            }
+            textById[base + r] = textById[left] + textById[right];
+        }
+    }
+
+    /**
+     * Learns merges from training text.
+     *
+     * Ties between equally frequent pairs go to the pair with the smaller
+     * token IDs, so training is deterministic.
+     *
+     * @param text training corpus text
+     * @param vocabSize largest vocabulary to build, including special and
+     *                  character tokens
+     * @return trained tokenizer
+     */
+    public static BpeTokenizer train(String text, int vocabSize) {
+        if (text == null) throw new IllegalArgumentException("text cannot be null");
+        CharTokenizer chars = CharTokenizer.fromText(text);
+        int base = chars.vocabSize();
+        if (vocabSize < base) {
+            throw new IllegalArgumentException(
+                "vocabSize must be at least the " + base + " character tokens of the text");
+        }
+
+        // Distinct words and their frequencies; single characters never merge.
+        Map<String, Integer> wordCounts = new HashMap<>();
+        int[] bounds = new int[2];
+        for (int at = 0; at < text.length(); at = bounds[1]) {
+            nextWord(text, at, bounds);
+            if (bounds[1] - bounds[0] > 1) {
+                wordCounts.merge(text.substring(bounds[0], bounds[1]), 1, Integer::sum);
+            }
+        }
+        List<String> words = new ArrayList<>(wordCounts.keySet());
+        Collections.sort(words);
+        int[][] symbols = new int[words.size()][];
+        int[] freq = new int[words.size()];
+        for (int w = 0; w < symbols.length; w++) {
+            symbols[w] = chars.encode(words.get(w));
+            freq[w] = wordCounts.get(words.get(w));
+        }
+
+        // Pair counts, the words each pair may occur in, and a max-heap of
+        // (count, pair) entries. An entry is stale once its pair's count has
+        // changed; the current count always has an entry of its own.
+        Map<Long, Long> pairCounts = new HashMap<>();
+        Map<Long, Set<Integer>> pairWords = new HashMap<>();
+        for (int w = 0; w < symbols.length; w++) {
+            addPairs(symbols[w], freq[w], w, pairCounts, pairWords, null);
+        }
+        PriorityQueue<long[]> heap = new PriorityQueue<>((a, b) ->
+            (a[0] != b[0]) ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+        for (Map.Entry<Long, Long> e : pairCounts.entrySet()) {
+            heap.add(new long[] { e.getValue(), e.getKey() });
+        }
+
+        int maxMerges = vocabSize - base;
+        int[] mergeLeft = new int[maxMerges];
+        int[] mergeRight = new int[maxMerges];
+        int merges = 0;
+        while (merges < maxMerges && !heap.isEmpty()) {
+            long[] top = heap.poll();
+            long key = top[1];
+            if (top[0] != pairCounts.getOrDefault(key, 0L)) continue;
+            if (top[0] < 2) break;
+
+            int left = (int) (key >>> 32);
+            int right = (int) key;
+            int merged = base + merges;
+            mergeLeft[merges] = left;
+            mergeRight[merges] = right;
+            merges++;
+
+            Set<Long> touched = new HashSet<>();
+            for (int w : pairWords.remove(key)) {
+                int[] old = symbols[w];
+                removePairs(old, freq[w], pairCounts, touched);
+                symbols[w] = applyMerge(old, left, right, merged);
+                addPairs(symbols[w], freq[w], w, pairCounts, pairWords, touched);
+            }
+            pairCounts.remove(key);
+            touched.remove(key);
+            for (long pair : touched) {
+                long count = pairCounts.getOrDefault(pair, 0L);
+                if (count > 0) heap.add(new long[] { count, pair });
+            }
+        }
+        return new BpeTokenizer(chars,
+            Arrays.copyOf(mergeLeft, merges), Arrays.copyOf(mergeRight, merges));
+    }
+
+    /**
+     * Rebuilds a tokenizer from getAlphabet() and getMerges().
+     *
+     * @param alphabet characters in ID order, starting at ID 2
+     * @param merges left and right token IDs of every merge, in rank order
+     * @return tokenizer with the same ID assignment
+     */
+    public static BpeTokenizer fromMerges(String alphabet, int[] merges) {
+        if (merges == null || merges.length % 2 != 0) {
+            throw new IllegalArgumentException("merges must hold pairs of token IDs");
+        }
+        int[] left = new int[merges.length / 2];
+        int[] right = new int[merges.length / 2];
+        for (int r = 0; r < left.length; r++) {
+            left[r] = merges[2 * r];
+            right[r] = merges[2 * r + 1];
+        }
+        return new BpeTokenizer(CharTokenizer.fromVocabulary(alphabet), left, right);
+    }
+
+    /**
+     * Returns the base characters in ID order, starting at ID 2.
+     *
+     * @return one character per character token
+     */
+    public String getAlphabet() {
+        return chars.getVocabulary();
+    }
+
+    /**
+     * Returns the merges in rank order as (left, right) token ID pairs.
+     *
+     * @return flat array of 2 * number of merges IDs
+     */
+    public int[] getMerges() {
+        int[] merges = new int[2 * mergeLeft.length];
+        for (int r = 0; r < mergeLeft.length; r++) {
+            merges[2 * r] = mergeLeft[r];
+            merges[2 * r + 1] = mergeRight[r];
+        }
+        return merges;
+    }
+
+    @Override
+    public int vocabSize() {
+        return textById.length;
+    }
+
+    /**
+     * Encodes a string into token IDs.
+     *
+     * Unknown characters are mapped to UNK_ID and never merged.
+     *
+     * @param s input string
+     * @return token ID array, at most one token per character
+     */
+    @Override
+    public int[] encode(String s) {
+        if (s == null) throw new IllegalArgumentException("input string cannot be null");
+
+        int[] ids = new int[s.length()];
+        int n = 0;
+        Map<String, int[]> encodedWords = new HashMap<>();
+        int[] bounds = new int[2];
+        for (int at = 0; at < s.length(); at = bounds[1]) {
+            nextWord(s, at, bounds);
+            if (bounds[1] - bounds[0] == 1) {
+                ids[n++] = chars.charToId(s.charAt(bounds[0]));
+                continue;
+            }
+            String word = s.substring(bounds[0], bounds[1]);
+            int[] wordIds = encodedWords.computeIfAbsent(word, this::encodeWord);
+            System.arraycopy(wordIds, 0, ids, n, wordIds.length);
+            n += wordIds.length;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    @Override
+    public String decode(int[] ids) {
+        if (ids == null) throw new IllegalArgumentException("ids cannot be null");
+
+        StringBuilder text = new StringBuilder();
+        for (int id : ids) {
+            if (id == CharTokenizer.PAD_ID) continue; // skip padding
+            String piece = tokenText(id);
+            if (piece == null) text.append(REPLACEMENT);
+            else text.append(piece);
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String tokenText(int id) {
+        if (id <= CharTokenizer.UNK_ID || id >= textById.length) return null;
+        return textById[id];
+    }
+
+    /**
+     * Applies the merges to one word, lowest rank first and leftmost first
+     * among equal ranks, which gives the same tokens as applying each merge
+     * in turn across the whole word.
+     */
+    private int[] encodeWord(String word) {
+        int n = word.length();
+        int[] ids = chars.encode(word);
+        int[] next = new int[n];
+        int[] prev = new int[n];
+        for (int i = 0; i < n; i++) {
+            next[i] = i + 1;
+            prev[i] = i - 1;
+        }
+
+        // Entries are (rank << 32 | position of the left token); an entry is
+        // stale once either token at that position has changed.
+        PriorityQueue<Long> heap = new PriorityQueue<>();
+        for (int i = 0; i + 1 < n; i++) {
+            pushPair(heap, ids, next, i);
+        }
+        int base = chars.vocabSize();
+        while (!heap.isEmpty()) {
+            long entry = heap.poll();
+            int rank = (int) (entry >>> 32);
+            int i = (int) entry;
+            if (ids[i] < 0 || next[i] >= n) continue;
+            int j = next[i];
+            if (ids[i] != mergeLeft[rank] || ids[j] != mergeRight[rank]) continue;
+
+            ids[i] = base + rank;
+            ids[j] = -1;
+            next[i] = next[j];
+            if (next[j] < n) prev[next[j]] = i;
+            if (prev[i] >= 0) pushPair(heap, ids, next, prev[i]);
+            pushPair(heap, ids, next, i);
+        }
+
+        int count = 0;
+        for (int id : ids) {
+            if (id >= 0) ids[count++] = id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private void pushPair(PriorityQueue<Long> heap, int[] ids, int[] next, int i) {
+        if (next[i] >= ids.length) return;
+        Integer rank = rankByPair.get(pairKey(ids[i], ids[next[i]]));
+        if (rank != null) heap.add(((long) rank << 32) | i);
+    }
+
+    /**
+     * Finds the word starting at text[at]: an optional space followed by
+     * letters and digits, or else a single character. Writes [start, end)
+     * into bounds.
+     */
+    private static void nextWord(String text, int at, int[] bounds) {
+        int letters = (text.charAt(at) == ' ') ? at + 1 : at;
+        int end = letters;
+        while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) end++;
+        bounds[0] = at;
+        bounds[1] = (end > letters) ? end : at + 1;
+    }
+
+    private static long pairKey(int left, int right) {
+        return ((long) left << 32) | right;
+    }
+
+    private static int[] applyMerge(int[] ids, int left, int right, int merged) {
+        int[] out = new int[ids.length];
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i + 1 < ids.length && ids[i] == left && ids[i + 1] == right) {
+                out[n++] = merged;
+                i++;
+            } else {
+                out[n++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static void addPairs(int[] ids, int freq, int word, Map<Long, Long> pairCounts,
+                                 Map<Long, Set<Integer>> pairWords, Set<Long> touched) {
+        for (int i = 0; i + 1 < ids.length; i++) {
+            long key = pairKey(ids[i], ids[i + 1]);
+            pairCounts.merge(key, (long) freq, Long::sum);
+            pairWords.computeIfAbsent(key, k -> new HashSet<>()).add(word);
+            if (touched != null) touched.add(key);
+        }
+    }
+
+    private static void removePairs(int[] ids, int freq, Map<Long, Long> pairCounts, Set<Long> touched) {
+        for (int i = 0; i + 1 < ids.length; i++) {
+            long key = pairKey(ids[i], ids[i + 1]);
+            pairCounts.merge(key, (long) -freq, Long::sum);
+            touched.add(key);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package minigptj.data;
+
+/**
+ * Token store keeping one unsigned byte per token, for vocabularies of at
+ * most 256 IDs. Tokens are widened to int only when they are copied out.
+ */
+public class ByteTokenStore implements TokenStore {
+    private final byte[] tokens;
+
+    /**
+     * Wraps packed token IDs. The array is not copied.
+     *
+     * @param tokens token IDs, each read as an unsigned byte
+     */
+    public ByteTokenStore(byte[] tokens) {
+        if (tokens == null) throw new IllegalArgumentException("tokens cannot be null");
+        this.tokens = tokens;
+    }
+
+    @Override
+    public long length() {
+        return tokens.length;
+    }
+
+    @Override
+    public int get(long index) {
+        if (index < 0 || index >= tokens.length) {
+            throw new IllegalArgumentException("index out of range: " + index);
+        }
+        return tokens[(int) index] & 0xFF;
+    }
+
+    @Override
+    public void copy(long from, int[] dst, int offset, int count) {
+        if (from < 0 || count < 0 || from + count > tokens.length) {
+            throw new IllegalArgumentException("token range out of bounds: " + from + " + " + count);
+        }
+        int start = (int) from;
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = tokens[start + i] & 0xFF;
+        }
+    }
+}
@@ -14,7 +14,7 @@ import java.util.*;
  *
  * All other characters are assigned IDs starting from 2.
  */
-public class CharTokenizer {
+public class CharTokenizer implements Tokenizer {
 
     /** String representation of the padding token. */
     public static final String PAD_TOKEN = "<PAD>";
@@ -28,17 +28,40 @@ public class CharTokenizer {
     /** Token ID reserved for unknown characters. */
     public static final int UNK_ID = 1;
 
+    // Replaces UNK and out-of-range IDs when decoding.
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final int[] idByChar;  // char -> ID, UNK_ID if not in the vocabulary
+    private final char[] charById; // ID -> char; REPLACEMENT for PAD and UNK
     private final Map<Character, Integer> charToId;
-    private final List<Character> idToChar; // index -> char (null for specials)
-    private final Set<Character> vocabChars; // optional convenience
 
     /**
-     * Creates an immutable tokenizer instance.
+     * Creates an immutable tokenizer assigning IDs from 2 upwards to the
+     * vocabulary characters in order.
+     *
+     * Encoding and decoding go through two dense tables rather than the
+     * map: idByChar has one entry per UTF-16 code unit, so a lookup is a
+     * single array read without boxing or hashing.
      */
-    private CharTokenizer(Map<Character, Integer> charToId, List<Character> idToChar) {
-        this.charToId = Collections.unmodifiableMap(charToId);
-        this.idToChar = Collections.unmodifiableList(idToChar);
-        this.vocabChars = Collections.unmodifiableSet(new HashSet<>(charToId.keySet()));
+    private CharTokenizer(String vocabulary) {
+        this.idByChar = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(idByChar, UNK_ID);
+        this.charById = new char[vocabulary.length() + 2];
+        charById[PAD_ID] = REPLACEMENT;
+        charById[UNK_ID] = REPLACEMENT;
+
+        Map<Character, Integer> c2i = new HashMap<>();
+        for (int i = 0; i < vocabulary.length(); i++) {
+            char c = vocabulary.charAt(i);
+            if (idByChar[c] != UNK_ID) {
+                throw new IllegalArgumentException("duplicate vocabulary character at index " + i);
+            }
+            int id = i + 2;
+            idByChar[c] = id;
+            charById[id] = c;
+            c2i.put(c, id);
+        }
+        this.charToId = Collections.unmodifiableMap(c2i);
     }
 
     /**
@@ -53,40 +76,44 @@ public class CharTokenizer {
     public static CharTokenizer fromText(String text) {
         if (text == null) throw new IllegalArgumentException("text cannot be null");
 
-        // Collect unique chars
-        Set<Character> chars = new HashSet<>();
+        // Mark the chars that occur; scanning the marks in order sorts them.
+        boolean[] seen = new boolean[Character.MAX_VALUE + 1];
         for (int i = 0; i < text.length(); i++) {
-            chars.add(text.charAt(i));
+            seen[text.charAt(i)] = true;
         }
 
-        // Sort for deterministic IDs
-        List<Character> sorted = new ArrayList<>(chars);
-        sorted.sort(Comparator.naturalOrder());
-
-        Map<Character, Integer> c2i = new HashMap<>();
-        // idToChar: index 0 and 1 reserved for PAD/UNK
-        List<Character> i2c = new ArrayList<>();
-        i2c.add(null); // 0 -> PAD
-        i2c.add(null); // 1 -> UNK
-
-        int nextId = 2;
-
-        for (Character ch : sorted) {
-            c2i.put(ch, nextId);
-            i2c.add(ch);
-            nextId++;
+        StringBuilder sorted = new StringBuilder();
+        for (int c = 0; c < seen.length; c++) {
+            if (seen[c]) sorted.append((char) c);
         }
-
-        return new CharTokenizer(c2i, i2c);
+        return new CharTokenizer(sorted.toString());
     }
 
     /**
-     * Returns vocabulary size including special tokens.
+     * Rebuilds a tokenizer from a vocabulary saved with getVocabulary().
      *
-     * @return number of token IDs known by this tokenizer
+     * @param vocabulary characters in ID order, starting at ID 2
+     * @return tokenizer with the same ID assignment
      */
+    public static CharTokenizer fromVocabulary(String vocabulary) {
+        if (vocabulary == null) throw new IllegalArgumentException("vocabulary cannot be null");
+        return new CharTokenizer(vocabulary);
+    }
+
+    @Override
     public int vocabSize() {
-        return idToChar.size();
+        return charById.length;
+    }
+
+    /**
+     * Returns the vocabulary characters in ID order, starting at ID 2.
+     *
+     * Passing the result to fromVocabulary() recreates this tokenizer.
+     *
+     * @return one character per non-special token ID
+     */
+    public String getVocabulary() {
+        return new String(charById, UNK_ID + 1, charById.length - UNK_ID - 1);
     }
 
     /**
@@ -96,7 +123,7 @@ public class CharTokenizer {
      * @return true if c is present in the learned vocabulary
      */
     public boolean hasChar(char c) {
-        return vocabChars.contains(c);
+        return idByChar[c] != UNK_ID;
     }
 
     /**
@@ -107,18 +134,60 @@ public class CharTokenizer {
      * @param s input string
      * @return token ID array
      */
+    @Override
     public int[] encode(String s) {
         if (s == null) throw new IllegalArgumentException("input string cannot be null");
 
         int[] ids = new int[s.length()];
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            Integer id = charToId.get(c);
-            ids[i] = (id == null) ? UNK_ID : id;
-        }
+        encode(s, 0, s.length(), ids, 0);
         return ids;
     }
 
+    /**
+     * Encodes characters [start, end) of a text into a caller-owned buffer.
+     *
+     * Unknown characters are mapped to UNK_ID.
+     *
+     * @param text input text
+     * @param start index of the first character to encode
+     * @param end index after the last character to encode
+     * @param dst destination buffer
+     * @param offset position in dst of the first token
+     */
+    public void encode(CharSequence text, int start, int end, int[] dst, int offset) {
+        if (start < 0 || end > text.length() || start > end) {
+            throw new IllegalArgumentException("invalid text range: [" + start + ", " + end + ")");
+        }
+        if (offset < 0 || offset + (end - start) > dst.length) {
+            throw new IllegalArgumentException("destination too small");
+        }
+        for (int i = start; i < end; i++) {
+            dst[offset++] = idByChar[text.charAt(i)];
+        }
+    }
+
+    /**
+     * Encodes characters [start, end) of a char array into a caller-owned
+     * buffer.
+     *
+     * @param text input characters
+     * @param start index of the first character to encode
+     * @param end index after the last character to encode
+     * @param dst destination buffer
+     * @param offset position in dst of the first token
+     */
+    public void encode(char[] text, int start, int end, int[] dst, int offset) {
+        if (start < 0 || end > text.length || start > end) {
+            throw new IllegalArgumentException("invalid text range: [" + start + ", " + end + ")");
+        }
+        if (offset < 0 || offset + (end - start) > dst.length) {
+            throw new IllegalArgumentException("destination too small");
+        }
+        for (int i = start; i < end; i++) {
+            dst[offset++] = idByChar[text[i]];
+        }
+    }
+
     /**
      * Decodes token IDs back into a string.
      *
@@ -128,24 +197,42 @@ public class CharTokenizer {
      * @param ids token ID array
      * @return decoded string
      */
+    @Override
     public String decode(int[] ids) {
         if (ids == null) throw new IllegalArgumentException("ids cannot be null");
 
-        StringBuilder sb = new StringBuilder();
-        for (int id : ids) {
+        char[] chars = new char[ids.length];
+        int n = decode(ids, 0, ids.length, chars, 0);
+        return new String(chars, 0, n);
+    }
+
+    /**
+     * Decodes token IDs [start, end) into a caller-owned buffer, with the
+     * same rules as decode(int[]).
+     *
+     * @param ids token IDs
+     * @param start index of the first ID to decode
+     * @param end index after the last ID to decode
+     * @param dst destination buffer, with room for end - start characters
+     * @param offset position in dst of the first character
+     * @return number of characters written, fewer than end - start if
+     *         there were PAD tokens
+     */
+    public int decode(int[] ids, int start, int end, char[] dst, int offset) {
+        if (start < 0 || end > ids.length || start > end) {
+            throw new IllegalArgumentException("invalid id range: [" + start + ", " + end + ")");
+        }
+        if (offset < 0 || offset + (end - start) > dst.length) {
+            throw new IllegalArgumentException("destination too small");
+        }
+
+        int n = offset;
+        for (int i = start; i < end; i++) {
+            int id = ids[i];
             if (id == PAD_ID) continue; // skip padding
-            if (id == UNK_ID) {
-                sb.append('�');
-                continue;
-            }
-            if (id < 0 || id >= idToChar.size()) {
-                sb.append('�');
-                continue;
-            }
-            Character c = idToChar.get(id);
-            sb.append(c == null ? '�' : c);
+            dst[n++] = (id < 0 || id >= charById.length) ? REPLACEMENT : charById[id];
         }
-        return sb.toString();
+        return n - offset;
     }
 
     /**
@@ -157,8 +244,14 @@ public class CharTokenizer {
      * @return corresponding character or null
      */
     public Character idToChar(int id) {
-        if (id <= UNK_ID || id >= idToChar.size()) return null;
-        return idToChar.get(id);
+        if (id <= UNK_ID || id >= charById.length) return null;
+        return charById[id];
+    }
+
+    @Override
+    public String tokenText(int id) {
+        Character c = idToChar(id);
+        return (c == null) ? null : String.valueOf(c);
     }
 
     /**
@@ -170,7 +263,29 @@ public class CharTokenizer {
      * @return token ID
      */
     public int charToId(char c) {
-        return charToId.getOrDefault(c, UNK_ID);
+        return idByChar[c];
+    }
+
+    /**
+     * Counts how often each token ID occurs in an encoded sequence.
+     *
+     * The counts are used to size frequency-based output layers such as
+     * adaptive softmax.
+     *
+     * @param ids encoded token IDs
+     * @return frequency of each token ID, length vocabSize()
+     */
+    public int[] countTokens(int[] ids) {
+        if (ids == null) throw new IllegalArgumentException("ids cannot be null");
+
+        int[] counts = new int[vocabSize()];
+        for (int id : ids) {
+            if (id < 0 || id >= counts.length) {
+                throw new IllegalArgumentException("token id out of range: " + id);
+            }
+            counts[id]++;
+        }
+        return counts;
     }
 
     /**
@@ -0,0 +1,412 @@
+package minigptj.data;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tokenises a UTF-8 text file in parallel chunks.
+ *
+ * The file is read through a FileChannel in chunks of about chunkBytes
+ * bytes, with every boundary moved forward to the start of a UTF-8
+ * character, so the corpus is never held in memory as one String. Each
+ * chunk is decoded on its own worker thread and processed in two passes:
+ *
+ *   1. count how often each character occurs in the chunk; the counts of
+ *      all chunks are merged into the vocabulary
+ *   2. encode the chunk into its slice of the output, which starts at the
+ *      total length of the chunks before it
+ *
+ * When the vocabulary is already known, the chunk lengths are counted from
+ * the raw bytes instead of from pass 1.
+ *
+ * The result is the same tokenizer and token sequence as
+ * CharTokenizer.fromText() and encode() on the whole text.
+ */
+public class CorpusEncoder {
+    private static final int DEFAULT_CHUNK_BYTES = 1 << 23;
+
+    private final int threads;
+    private final int chunkBytes;
+
+    /**
+     * Creates an encoder using one thread per available processor and
+     * 8 MB chunks.
+     */
+    public CorpusEncoder() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Creates an encoder.
+     *
+     * @param threads worker threads
+     * @param chunkBytes approximate bytes of text per chunk
+     */
+    public CorpusEncoder(int threads, int chunkBytes) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        // Four bytes per token must still fit in one mapping.
+        if (chunkBytes < 4 || chunkBytes > 1 << 28) {
+            throw new IllegalArgumentException("chunkBytes must be in [4, 2^28]");
+        }
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Builds a character tokenizer from the characters of a text file.
+     *
+     * @param corpus UTF-8 text file
+     * @return tokenizer with the same IDs as CharTokenizer.fromText()
+     * @throws IOException if the file cannot be read or is not valid UTF-8
+     */
+    public CharTokenizer buildTokenizer(Path corpus) throws IOException {
+        try (FileChannel in = FileChannel.open(corpus, StandardOpenOption.READ)) {
+            return scan(in, split(in)).tokenizer;
+        }
+    }
+
+    /**
+     * Encodes a text file into a token array on the heap.
+     *
+     * @param corpus UTF-8 text file
+     * @param tokenizer tokenizer to encode with
+     * @return token IDs, one per char of the text
+     * @throws IOException if the file cannot be read or is not valid UTF-8
+     */
+    public int[] encode(Path corpus, CharTokenizer tokenizer) throws IOException {
+        if (tokenizer == null) throw new IllegalArgumentException("tokenizer cannot be null");
+
+        try (FileChannel in = FileChannel.open(corpus, StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(in);
+            long[] starts = countChars(in, chunks);
+            int[] tokens = new int[arrayLength(starts[chunks.size()])];
+            encodeChunks(in, chunks, starts, tokenizer, (c, ids) ->
+                System.arraycopy(ids, 0, tokens, (int) starts[c], ids.length));
+            return tokens;
+        }
+    }
+
+    /**
+     * Encodes a text file into the narrowest heap token store for the
+     * vocabulary, as TokenStore.compact() would pack it. Each chunk writes
+     * its tokens straight into its slice of the packed array, so the corpus
+     * is never held as one int array.
+     *
+     * @param corpus UTF-8 text file
+     * @param tokenizer tokenizer to encode with
+     * @return byte-, short- or int-backed token store
+     * @throws IOException if the file cannot be read or is not valid UTF-8
+     */
+    public TokenStore encodeCompact(Path corpus, CharTokenizer tokenizer) throws IOException {
+        if (tokenizer == null) throw new IllegalArgumentException("tokenizer cannot be null");
+
+        try (FileChannel in = FileChannel.open(corpus, StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(in);
+            long[] starts = countChars(in, chunks);
+            int total = arrayLength(starts[chunks.size()]);
+            int width = TokenFile.tokenWidth(tokenizer.vocabSize());
+            if (width == 1) {
+                byte[] tokens = new byte[total];
+                encodeChunks(in, chunks, starts, tokenizer, (c, ids) -> {
+                    int start = (int) starts[c];
+                    for (int i = 0; i < ids.length; i++) tokens[start + i] = (byte) ids[i];
+                });
+                return new ByteTokenStore(tokens);
+            }
+            if (width == 2) {
+                short[] tokens = new short[total];
+                encodeChunks(in, chunks, starts, tokenizer, (c, ids) -> {
+                    int start = (int) starts[c];
+                    for (int i = 0; i < ids.length; i++) tokens[start + i] = (short) ids[i];
+                });
+                return new ShortTokenStore(tokens);
+            }
+            int[] tokens = new int[total];
+            encodeChunks(in, chunks, starts, tokenizer, (c, ids) ->
+                System.arraycopy(ids, 0, tokens, (int) starts[c], ids.length));
+            return new IntTokenStore(tokens);
+        }
+    }
+
+    /**
+     * Builds the vocabulary of a text file and writes the encoded text as a
+     * TokenFile. Every chunk maps its own slice of the output file and
+     * writes its tokens there directly.
+     *
+     * @param corpus UTF-8 text file
+     * @param tokenFile destination token file
+     * @throws IOException if a file cannot be read or written
+     */
+    public void writeTokenFile(Path corpus, Path tokenFile) throws IOException {
+        Path tmp = TokenFile.tempPath(tokenFile);
+        try (FileChannel in = FileChannel.open(corpus, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            List<Chunk> chunks = split(in);
+            Scan scan = scan(in, chunks);
+            CharTokenizer tokenizer = scan.tokenizer;
+            int width = TokenFile.tokenWidth(tokenizer.vocabSize());
+
+            long[] starts = new long[chunks.size() + 1];
+            for (int c = 0; c < chunks.size(); c++) {
+                starts[c + 1] = starts[c] + scan.lengths[c];
+            }
+            long count = starts[chunks.size()];
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            TokenFile.writeHeader(new DataOutputStream(header), tokenizer, count);
+            ByteBuffer headerBytes = ByteBuffer.wrap(header.toByteArray());
+            while (headerBytes.hasRemaining()) {
+                out.write(headerBytes, headerBytes.position());
+            }
+
+            // Size the file up front so that the chunks only map existing bytes.
+            long dataStart = TokenFile.dataStart(tokenizer.vocabSize());
+            if (count > 0) {
+                out.write(ByteBuffer.allocate(1), dataStart + count * width - 1);
+            }
+            encodeChunks(in, chunks, starts, tokenizer, (c, ids) -> {
+                MappedByteBuffer slice = out.map(FileChannel.MapMode.READ_WRITE,
+                    dataStart + starts[c] * width, (long) ids.length * width);
+                for (int i = 0; i < ids.length; i++) {
+                    if (width == 1) slice.put(i, (byte) ids[i]);
+                    else if (width == 2) slice.putShort(2 * i, (short) ids[i]);
+                    else slice.putInt(4 * i, ids[i]);
+                }
+                slice.force();
+            });
+            if (out.size() != dataStart + count * width) {
+                throw new IOException("Token file size does not match its header: " + tmp);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Splits a file into chunks of about chunkBytes bytes that start on
+     * UTF-8 character boundaries.
+     */
+    private List<Chunk> split(FileChannel in) throws IOException {
+        long size = in.size();
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + chunkBytes, size);
+            // Continuation bytes look like 10xxxxxx; step over them.
+            while (end < size) {
+                one.clear();
+                in.read(one, end);
+                if ((one.get(0) & 0xC0) != 0x80) break;
+                end++;
+            }
+            chunks.add(new Chunk(start, (int) (end - start)));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Counts the characters of every chunk and merges the counts into a
+     * tokenizer.
+     */
+    private Scan scan(FileChannel in, List<Chunk> chunks) throws IOException {
+        long[] counts = new long[Character.MAX_VALUE + 1];
+        List<Integer> chunkLengths = run(chunks, chunk -> {
+            CharBuffer text = decode(in, chunk);
+            int length = text.remaining();
+            int[] chunkCounts = new int[counts.length];
+            while (text.hasRemaining()) {
+                chunkCounts[text.get()]++;
+            }
+            synchronized (counts) {
+                for (int ch = 0; ch < counts.length; ch++) {
+                    counts[ch] += chunkCounts[ch];
+                }
+            }
+            return length;
+        });
+
+        int[] lengths = new int[chunks.size()];
+        for (int c = 0; c < lengths.length; c++) {
+            lengths[c] = chunkLengths.get(c);
+        }
+
+        // Ascending char order gives the same IDs as fromText().
+        StringBuilder vocabulary = new StringBuilder();
+        for (int ch = 0; ch < counts.length; ch++) {
+            if (counts[ch] > 0) vocabulary.append((char) ch);
+        }
+        return new Scan(CharTokenizer.fromVocabulary(vocabulary.toString()), lengths);
+    }
+
+    /**
+     * Returns the token offset of every chunk, followed by the total token
+     * count. Chars are counted from the raw bytes without decoding: every
+     * byte that is not a continuation byte starts one char, and a four-byte
+     * sequence decodes to a surrogate pair. Malformed input is caught when
+     * the chunks are decoded.
+     */
+    private long[] countChars(FileChannel in, List<Chunk> chunks) throws IOException {
+        List<Integer> lengths = run(chunks, chunk -> {
+            ByteBuffer bytes = read(in, chunk);
+            int length = 0;
+            while (bytes.hasRemaining()) {
+                int b = bytes.get() & 0xFF;
+                if ((b & 0xC0) != 0x80) length++;
+                if (b >= 0xF0) length++;
+            }
+            return length;
+        });
+
+        long[] starts = new long[chunks.size() + 1];
+        for (int c = 0; c < chunks.size(); c++) {
+            starts[c + 1] = starts[c] + lengths.get(c);
+        }
+        return starts;
+    }
+
+    private static int arrayLength(long count) {
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("corpus has too many tokens for an array; use a token file");
+        }
+        return (int) count;
+    }
+
+    /**
+     * Encodes every chunk on the worker threads and hands its tokens to the
+     * sink together with the chunk index. Chunk c fills tokens
+     * [starts[c], starts[c + 1]), so the sinks write disjoint slices and
+     * need no locking.
+     */
+    private void encodeChunks(FileChannel in, List<Chunk> chunks, long[] starts, CharTokenizer tokenizer,
+                              ChunkSink sink) throws IOException {
+        List<Integer> indices = new ArrayList<>();
+        for (int c = 0; c < chunks.size(); c++) {
+            indices.add(c);
+        }
+        run(indices, c -> {
+            int[] ids = encodeChunk(in, chunks.get(c), tokenizer);
+            if (ids.length != starts[c + 1] - starts[c]) {
+                throw new IOException("Corpus changed while it was being read");
+            }
+            sink.accept(c, ids);
+            return null;
+        });
+    }
+
+    private static int[] encodeChunk(FileChannel in, Chunk chunk, CharTokenizer tokenizer) throws IOException {
+        CharBuffer text = decode(in, chunk);
+        int[] ids = new int[text.remaining()];
+        int from = text.arrayOffset() + text.position();
+        tokenizer.encode(text.array(), from, from + ids.length, ids, 0);
+        return ids;
+    }
+
+    /**
+     * Reads and decodes one chunk. Malformed UTF-8 is reported rather than
+     * replaced, as Files.readString() does.
+     */
+    private static CharBuffer decode(FileChannel in, Chunk chunk) throws IOException {
+        return StandardCharsets.UTF_8.newDecoder().decode(read(in, chunk));
+    }
+
+    private static ByteBuffer read(FileChannel in, Chunk chunk) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(chunk.length);
+        while (bytes.hasRemaining()) {
+            if (in.read(bytes, chunk.start + bytes.position()) < 0) {
+                throw new EOFException("Corpus changed while it was being read");
+            }
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Runs one task per item on the worker threads and returns the results
+     * in item order.
+     */
+    private <T, R> List<R> run(List<T> items, ChunkTask<T, R> task) throws IOException {
+        List<Callable<R>> tasks = new ArrayList<>();
+        for (T item : items) {
+            tasks.add(() -> task.apply(item));
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "corpus-encoder-" + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<R> results = new ArrayList<>();
+            for (Future<R> future : workers.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while encoding corpus", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException("Corpus encoding failed", cause);
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private interface ChunkTask<T, R> {
+        R apply(T item) throws IOException;
+    }
+
+    private interface ChunkSink {
+        void accept(int chunk, int[] ids) throws IOException;
+    }
+
+    /**
+     * Byte range [start, start + length) of the corpus file.
+     */
+    private static class Chunk {
+        final long start;
+        final int length;
+
+        Chunk(long start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Merged vocabulary and the number of chars in each chunk.
+     */
+    private static class Scan {
+        final CharTokenizer tokenizer;
+        final int[] lengths;
+
+        Scan(CharTokenizer tokenizer, int[] lengths) {
+            this.tokenizer = tokenizer;
+            this.lengths = lengths;
+        }
+    }
+}
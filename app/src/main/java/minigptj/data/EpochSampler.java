@@ -0,0 +1,110 @@
+package minigptj.data;
+
+import java.util.Random;
+
+/**
+ * Samples every window of the corpus once per epoch, in shuffled order.
+ *
+ * Random sampling (TextDataset.sampleSequences()) draws start positions
+ * with replacement, so consecutive windows overlap in contextLen - 1 tokens
+ * and some text is seen many times before other text is seen at all. This
+ * sampler instead tiles the corpus into windows whose last context token is
+ *
+ *   phase, phase + stride, phase + 2 * stride, ...
+ *
+ * With stride == contextLen the windows do not overlap, and every token is
+ * a target exactly once per epoch. At the start of each epoch a seeded
+ * Random draws a new phase in [0, stride), so window boundaries move
+ * between epochs, and shuffles the windows with a Fisher-Yates
+ * permutation. Each window is then read as one contiguous slice of the
+ * token store.
+ *
+ * A batch may span two epochs. The window order is held as an int per
+ * window, i.e. 1/stride of the memory of an int token array.
+ */
+public class EpochSampler implements BatchSampler {
+    private final TextDataset ds;
+    private final int stride;
+    private final Random rng;
+    private final int[] order;
+
+    private long phase;
+    private int windowCount;
+    private int next;
+    private int epoch = -1;
+
+    /**
+     * Creates a sampler. The first epoch starts with the first batch.
+     *
+     * @param ds dataset to read windows from
+     * @param stride tokens between the starts of consecutive windows;
+     *               contextLen gives non-overlapping windows
+     * @param seed seed for the phases and permutations
+     */
+    public EpochSampler(TextDataset ds, int stride, long seed) {
+        if (ds == null) throw new IllegalArgumentException("ds cannot be null");
+        if (stride < 1) throw new IllegalArgumentException("stride must be >= 1");
+
+        long maxWindows = (ds.size() - 1) / stride + 1;
+        if (maxWindows > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many windows per epoch; use a larger stride");
+        }
+        this.ds = ds;
+        this.stride = stride;
+        this.rng = new Random(seed);
+        this.order = new int[(int) maxWindows];
+    }
+
+    @Override
+    public void nextBatch(int[] inputs, int[] targets) {
+        int contextLen = ds.getContextLen();
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("inputs and targets must have the same length");
+        }
+        if (inputs.length == 0 || inputs.length % contextLen != 0) {
+            throw new IllegalArgumentException("buffer length must be a positive multiple of contextLen");
+        }
+
+        for (int offset = 0; offset < inputs.length; offset += contextLen) {
+            if (next == windowCount) {
+                startEpoch();
+            }
+            ds.copySequence(phase + (long) order[next++] * stride, inputs, targets, offset);
+        }
+    }
+
+    /**
+     * Returns the number of the epoch being sampled, starting at 0, or -1
+     * before the first batch.
+     *
+     * @return current epoch
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the number of windows in the current epoch.
+     *
+     * @return windows per epoch for the current phase
+     */
+    public int getWindowCount() {
+        return windowCount;
+    }
+
+    private void startEpoch() {
+        epoch++;
+        phase = rng.nextInt((int) Math.min(stride, ds.size()));
+        windowCount = (int) ((ds.size() - 1 - phase) / stride + 1);
+        for (int i = 0; i < windowCount; i++) {
+            order[i] = i;
+        }
+        for (int i = windowCount - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        next = 0;
+    }
+}
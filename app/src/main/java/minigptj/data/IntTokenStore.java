@@ -0,0 +1,39 @@
+package minigptj.data;
+
+/**
+ * Token store backed by an int array on the heap.
+ */
+public class IntTokenStore implements TokenStore {
+    private final int[] tokens;
+
+    /**
+     * Wraps a token array. The array is not copied.
+     *
+     * @param tokens token IDs
+     */
+    public IntTokenStore(int[] tokens) {
+        if (tokens == null) throw new IllegalArgumentException("tokens cannot be null");
+        this.tokens = tokens;
+    }
+
+    @Override
+    public long length() {
+        return tokens.length;
+    }
+
+    @Override
+    public int get(long index) {
+        if (index < 0 || index >= tokens.length) {
+            throw new IllegalArgumentException("index out of range: " + index);
+        }
+        return tokens[(int) index];
+    }
+
+    @Override
+    public void copy(long from, int[] dst, int offset, int count) {
+        if (from < 0 || count < 0 || from + count > tokens.length) {
+            throw new IllegalArgumentException("token range out of bounds: " + from + " + " + count);
+        }
+        System.arraycopy(tokens, (int) from, dst, offset, count);
+    }
+}
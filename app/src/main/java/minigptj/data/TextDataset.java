@@ -1,5 +1,6 @@
 package minigptj.data;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -9,15 +10,34 @@ import java.util.Random;
  *
  *     given a fixed-length context window, predict the next token
  *
- * For example, with text "hello" and context length 3:
+ * Tokens may come from any Tokenizer; character and BPE tokenizers both
+ * reserve CharTokenizer.PAD_ID, the default padding token. With a character
+ * tokenizer and text "hello" and context length 3:
  *
  *     context: [PAD, PAD, h] -> target: e
  *     context: [PAD, h, e]   -> target: l
  *     context: [h, e, l]     -> target: l
  *     context: [e, l, l]     -> target: o
+ *
+ * For full-sequence supervision every position of a window is trained to
+ * predict the token after it, so the targets are the same window shifted one
+ * token to the left:
+ *
+ *     inputs:  [PAD, h, e]  targets: [h, e, l]
+ *
+ * sampleSequences() writes such windows straight from the token array into
+ * caller-owned flat buffers, so the training loop can reuse the same two
+ * arrays for every batch.
+ *
+ * The tokens are read through a TokenStore, so they can come from a heap
+ * array or from a memory-mapped TokenFile larger than the heap. Example
+ * indices are long for the same reason. Heap corpora are best packed with
+ * TokenStore.compact(), which keeps one byte or short per token for small
+ * vocabularies; windows are widened to int IDs as they are copied into
+ * the batch buffers, so the embedding lookup is unchanged.
  */
 public class TextDataset {
-    private final int[] tokens;
+    private final TokenStore tokens;
     private final int contextLen;
     private final int padId;
 
@@ -29,8 +49,19 @@ public class TextDataset {
      * @param padId token ID used for left padding
      */
     public TextDataset(int[] tokens, int contextLen, int padId) {
+        this(new IntTokenStore(tokens), contextLen, padId);
+    }
+
+    /**
+     * Creates a dataset reading its tokens from a token store.
+     *
+     * @param tokens full tokenised text
+     * @param contextLen number of previous tokens used as context
+     * @param padId token ID used for left padding
+     */
+    public TextDataset(TokenStore tokens, int contextLen, int padId) {
         if (tokens == null) throw new IllegalArgumentException("tokens cannot be null");
-        if (tokens.length < 2) throw new IllegalArgumentException("need at least 2 tokens to form training pairs");
+        if (tokens.length() < 2) throw new IllegalArgumentException("need at least 2 tokens to form training pairs");
         if (contextLen < 1) throw new IllegalArgumentException("contextLen must be >= 1");
 
         this.tokens = tokens;
@@ -48,6 +79,17 @@ public class TextDataset {
         this(tokens, contextLen, CharTokenizer.PAD_ID);
     }
 
+    /**
+     * Creates a dataset over a token store using CharTokenizer.PAD_ID as
+     * the padding token.
+     *
+     * @param tokens full tokenised text
+     * @param contextLen number of previous tokens used as context
+     */
+    public TextDataset(TokenStore tokens, int contextLen) {
+        this(tokens, contextLen, CharTokenizer.PAD_ID);
+    }
+
     /**
      * Returns the number of available training examples.
      *
@@ -55,8 +97,17 @@ public class TextDataset {
      *
      * @return number of context-target pairs
      */
-    public int size() {
-        return tokens.length - 1;
+    public long size() {
+        return tokens.length() - 1;
+    }
+
+    /**
+     * Returns the number of tokens in each context window.
+     *
+     * @return context length
+     */
+    public int getContextLen() {
+        return contextLen;
     }
 
     /**
@@ -68,23 +119,71 @@ public class TextDataset {
      * @param index training example index
      * @return context token IDs of length contextLen
      */
-    public int[] getContext(int index) {
+    public int[] getContext(long index) {
         if (index < 0 || index >= size()) {
             throw new IllegalArgumentException("index out of range: " + index);
         }
 
         int[] x = new int[contextLen];
+        copyContext(index, x, 0);
+        return x;
+    }
 
+    /**
+     * Copies the context window of a training example into a caller-owned
+     * buffer.
+     *
+     * @param index training example index
+     * @param dst destination buffer
+     * @param offset position in dst of the first context token
+     */
+    public void copyContext(long index, int[] dst, int offset) {
+        if (index < 0 || index >= size()) {
+            throw new IllegalArgumentException("index out of range: " + index);
+        }
         // Context ends at position 'index' (predicting index+1)
-        int end = index;
-        int start = end - contextLen + 1;
+        copyWindow(index - contextLen + 1, dst, offset);
+    }
 
-        for (int j = 0; j < contextLen; j++) {
-            int srcIndex = start + j;
-            x[j] = (srcIndex < 0) ? padId : tokens[srcIndex];
+    /**
+     * Copies a training example in full-sequence form: the context window
+     * and the targets for each of its positions, i.e. the window shifted one
+     * token to the left. The last target is getTarget(index).
+     *
+     * @param index training example index
+     * @param inputs destination for the context window
+     * @param targets destination for the shifted targets
+     * @param offset position in both buffers of the first token
+     */
+    public void copySequence(long index, int[] inputs, int[] targets, int offset) {
+        copyContext(index, inputs, offset);
+        copyWindow(index - contextLen + 2, targets, offset);
+    }
+
+    /**
+     * Samples a random batch for full-sequence supervision into caller-owned
+     * buffers, with replacement and without allocating.
+     *
+     * Both buffers are flat and row-major: sequence b occupies indices
+     * [b * contextLen, (b + 1) * contextLen). The batch size is
+     * inputs.length / contextLen.
+     *
+     * @param rng random number generator
+     * @param inputs destination for the context windows
+     * @param targets destination for the shifted targets, same length
+     */
+    public void sampleSequences(Random rng, int[] inputs, int[] targets) {
+        if (rng == null) throw new IllegalArgumentException("rng cannot be null");
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("inputs and targets must have the same length");
+        }
+        if (inputs.length == 0 || inputs.length % contextLen != 0) {
+            throw new IllegalArgumentException("buffer length must be a positive multiple of contextLen");
         }
 
-        return x;
+        for (int offset = 0; offset < inputs.length; offset += contextLen) {
+            copySequence(randomIndex(rng), inputs, targets, offset);
+        }
     }
 
     /**
@@ -95,11 +194,11 @@ public class TextDataset {
      * @param index training example index
      * @return target token ID
      */
-    public int getTarget(int index) {
+    public int getTarget(long index) {
         if (index < 0 || index >= size()) {
             throw new IllegalArgumentException("index out of range: " + index);
         }
-        return tokens[index + 1];
+        return tokens.get(index + 1);
     }
 
     /**
@@ -117,14 +216,34 @@ public class TextDataset {
         int[] yBatch = new int[batchSize];
 
         for (int i = 0; i < batchSize; i++) {
-            int idx = rng.nextInt(size());
-            xBatch[i] = getContext(idx);
+            long idx = randomIndex(rng);
+            copyContext(idx, xBatch[i], 0);
             yBatch[i] = getTarget(idx);
         }
 
         return new Batch(xBatch, yBatch);
     }
 
+    /**
+     * Draws a uniformly random example index. nextInt() is used whenever the
+     * size fits in an int, so a seed draws the same examples whether the
+     * tokens are in an array or a mapped file.
+     */
+    private long randomIndex(Random rng) {
+        long n = size();
+        return (n <= Integer.MAX_VALUE) ? rng.nextInt((int) n) : rng.nextLong(n);
+    }
+
+    /**
+     * Copies contextLen tokens starting at token position start, using padId
+     * for positions before the start of the text.
+     */
+    private void copyWindow(long start, int[] dst, int offset) {
+        int pad = (int) Math.min(Math.max(-start, 0), contextLen);
+        Arrays.fill(dst, offset, offset + pad, padId);
+        tokens.copy(start + pad, dst, offset + pad, contextLen - pad);
+    }
+
     /**
      * Immutable container for a batch of training examples.
      */
@@ -0,0 +1,348 @@
+package minigptj.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Directory of token files for tokenised corpora, so that a corpus is only
+ * tokenised again after it changes.
+ *
+ * Each entry is a TokenFile named after the corpus and a key:
+ *
+ *   grimm_samples.txt-3f2a...e1.tokens
+ *
+ * The key is a SHA-256 hash of the tokenizer settings followed by the bytes
+ * of the corpus, so editing the corpus, switching tokenizer or changing the
+ * token file format selects a different entry and the stale one is rebuilt
+ * from scratch. When an entry is created, older entries for the same corpus
+ * name are deleted.
+ *
+ * BPE corpora are cached the same way in .bpe entries, keyed by the
+ * requested vocabulary size. Each holds the learned merges followed by the
+ * encoded corpus, packed like a token file:
+ *
+ *   int   magic "MGJB"
+ *   int   format version
+ *   int   alphabet length, then one char per character token
+ *   int   merge ID count, then the (left, right) ID pairs in rank order
+ *   int   token width in bytes
+ *   int   token count, then the token IDs, unsigned, width bytes each
+ *
+ * They are read back onto the heap rather than mapped, like a BPE corpus
+ * encoded in memory.
+ *
+ * Entries are written under a unique temporary name and moved into place,
+ * so several processes can open the same cache at once; if two of them
+ * build the same entry, both write identical files.
+ */
+public class TokenCache {
+    // Tokenizer and token file format the entries were built with.
+    private static final String CHAR_SETTINGS = "char-tokenizer;token-file-v" + TokenFile.VERSION;
+    private static final String SUFFIX = ".tokens";
+    private static final int BPE_MAGIC = 0x4D474A42; // "MGJB"
+    private static final int BPE_VERSION = 1;
+    private static final String BPE_SUFFIX = ".bpe";
+
+    private final Path dir;
+
+    /**
+     * Creates a cache in a directory. The directory is created when the
+     * first entry is written.
+     *
+     * @param dir cache directory
+     */
+    public TokenCache(Path dir) {
+        if (dir == null) throw new IllegalArgumentException("dir cannot be null");
+        this.dir = dir;
+    }
+
+    /**
+     * Opens the cached token file of a corpus, tokenising the corpus with
+     * CorpusEncoder first if it has no valid entry.
+     *
+     * @param corpus UTF-8 text file
+     * @return mapped token file with the corpus vocabulary
+     * @throws IOException if the corpus cannot be read or the entry cannot be written
+     */
+    public TokenFile open(Path corpus) throws IOException {
+        Path entry = entryPath(corpus);
+        if (Files.exists(entry)) {
+            try {
+                return TokenFile.open(entry);
+            } catch (IOException e) {
+                // A damaged entry is rebuilt like a missing one.
+            }
+        }
+
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, entry.getFileName().toString(), ".part");
+        try {
+            new CorpusEncoder().writeTokenFile(corpus, tmp);
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        deleteStaleEntries(corpus, entry, SUFFIX);
+        return TokenFile.open(entry);
+    }
+
+    /**
+     * Opens the cached BPE encoding of a corpus, learning a tokenizer with
+     * BpeTokenizer.train() and encoding the corpus first if it has no valid
+     * entry.
+     *
+     * @param corpus UTF-8 text file
+     * @param vocabSize requested vocabulary size
+     * @return learned tokenizer and encoded corpus
+     * @throws IOException if the corpus cannot be read or the entry cannot be written
+     */
+    public BpeCorpus openBpe(Path corpus, int vocabSize) throws IOException {
+        return openBpe(corpus, vocabSize, null);
+    }
+
+    /**
+     * Encodes a corpus with an existing BPE tokenizer, such as one saved
+     * with a model, reusing the entry for the tokenizer's vocabulary size if
+     * it was learned with the same merges. Otherwise the corpus is encoded
+     * in memory; entries only ever hold merges learned from their corpus, so
+     * no entry is written.
+     *
+     * @param corpus UTF-8 text file
+     * @param tokenizer tokenizer to encode with
+     * @return the tokenizer and the encoded corpus
+     * @throws IOException if the corpus cannot be read or the entry cannot be written
+     */
+    public BpeCorpus openBpe(Path corpus, BpeTokenizer tokenizer) throws IOException {
+        if (tokenizer == null) throw new IllegalArgumentException("tokenizer cannot be null");
+        return openBpe(corpus, tokenizer.vocabSize(), tokenizer);
+    }
+
+    /**
+     * Opens the BPE entry for a vocabulary size, learning the tokenizer if
+     * given is null and otherwise only reading entries with given's merges.
+     */
+    private BpeCorpus openBpe(Path corpus, int vocabSize, BpeTokenizer given) throws IOException {
+        Path entry = bpeEntryPath(corpus, vocabSize);
+        if (Files.exists(entry)) {
+            try {
+                BpeCorpus cached = readBpeEntry(entry);
+                if (given == null || sameMerges(cached.getTokenizer(), given)) {
+                    return cached;
+                }
+            } catch (IOException e) {
+                // A damaged entry is rebuilt like a missing one.
+            }
+        }
+
+        String text = Files.readString(corpus);
+        if (given != null) {
+            return new BpeCorpus(given, TokenStore.compact(given.encode(text), given.vocabSize()));
+        }
+        BpeTokenizer tokenizer = BpeTokenizer.train(text, vocabSize);
+        int[] ids = tokenizer.encode(text);
+
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, entry.getFileName().toString(), ".part");
+        try {
+            writeBpeEntry(tmp, tokenizer, ids);
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        deleteStaleEntries(corpus, entry, BPE_SUFFIX);
+        return new BpeCorpus(tokenizer, TokenStore.compact(ids, tokenizer.vocabSize()));
+    }
+
+    /**
+     * Returns the path of the entry for the current contents of a corpus.
+     *
+     * @param corpus UTF-8 text file
+     * @return entry path inside the cache directory
+     * @throws IOException if the corpus cannot be read
+     */
+    public Path entryPath(Path corpus) throws IOException {
+        return dir.resolve(corpus.getFileName() + "-" + key(corpus, CHAR_SETTINGS) + SUFFIX);
+    }
+
+    /**
+     * Returns the path of the BPE entry for the current contents of a corpus.
+     *
+     * @param corpus UTF-8 text file
+     * @param vocabSize requested vocabulary size
+     * @return entry path inside the cache directory
+     * @throws IOException if the corpus cannot be read
+     */
+    public Path bpeEntryPath(Path corpus, int vocabSize) throws IOException {
+        String settings = "bpe;vocab=" + vocabSize + ";bpe-entry-v" + BPE_VERSION;
+        return dir.resolve(corpus.getFileName() + "-" + key(corpus, settings) + BPE_SUFFIX);
+    }
+
+    /**
+     * Hashes the tokenizer settings and the contents of a corpus.
+     *
+     * @return lowercase hex SHA-256 digest
+     */
+    static String key(Path corpus, String settings) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(corpus)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void writeBpeEntry(Path path, BpeTokenizer tokenizer, int[] ids) throws IOException {
+        int width = TokenFile.tokenWidth(tokenizer.vocabSize());
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path)))) {
+            dos.writeInt(BPE_MAGIC);
+            dos.writeInt(BPE_VERSION);
+            String alphabet = tokenizer.getAlphabet();
+            dos.writeInt(alphabet.length());
+            dos.writeChars(alphabet);
+            int[] merges = tokenizer.getMerges();
+            dos.writeInt(merges.length);
+            for (int id : merges) dos.writeInt(id);
+            dos.writeInt(width);
+            dos.writeInt(ids.length);
+            for (int id : ids) {
+                if (width == 1) dos.writeByte(id);
+                else if (width == 2) dos.writeShort(id);
+                else dos.writeInt(id);
+            }
+        }
+    }
+
+    private static BpeCorpus readBpeEntry(Path path) throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (dis.readInt() != BPE_MAGIC) throw new IOException("Not a BPE cache entry: " + path);
+            int version = dis.readInt();
+            if (version != BPE_VERSION) throw new IOException("Unsupported BPE cache entry version: " + version);
+
+            int length = dis.readInt();
+            if (length < 0) throw new IOException("Corrupt BPE cache entry: " + path);
+            char[] alphabet = new char[length];
+            for (int i = 0; i < length; i++) {
+                alphabet[i] = dis.readChar();
+            }
+            int mergeCount = dis.readInt();
+            if (mergeCount < 0) throw new IOException("Corrupt BPE cache entry: " + path);
+            int[] merges = new int[mergeCount];
+            for (int i = 0; i < mergeCount; i++) {
+                merges[i] = dis.readInt();
+            }
+            BpeTokenizer tokenizer;
+            try {
+                tokenizer = BpeTokenizer.fromMerges(new String(alphabet), merges);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt BPE cache entry: " + e.getMessage(), e);
+            }
+
+            int width = dis.readInt();
+            int count = dis.readInt();
+            if (width != TokenFile.tokenWidth(tokenizer.vocabSize()) || count < 0) {
+                throw new IOException("Corrupt BPE cache entry: " + path);
+            }
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (width == 1) ids[i] = dis.readUnsignedByte();
+                else if (width == 2) ids[i] = dis.readUnsignedShort();
+                else ids[i] = dis.readInt();
+            }
+            if (dis.read() != -1) throw new IOException("Trailing data in BPE cache entry: " + path);
+            try {
+                return new BpeCorpus(tokenizer, TokenStore.compact(ids, tokenizer.vocabSize()));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt BPE cache entry: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static boolean sameMerges(BpeTokenizer a, BpeTokenizer b) {
+        return a.getAlphabet().equals(b.getAlphabet()) && Arrays.equals(a.getMerges(), b.getMerges());
+    }
+
+    /**
+     * Deletes the entries with a suffix built from earlier contents of a
+     * corpus. Entries still mapped by another process stay readable on
+     * POSIX systems; elsewhere they are left for a later run to delete.
+     */
+    private void deleteStaleEntries(Path corpus, Path current, String suffix) {
+        String prefix = corpus.getFileName() + "-";
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix) && !entry.equals(current)
+                        && name.length() == prefix.length() + 64 + suffix.length()) {
+                    try {
+                        Files.deleteIfExists(entry);
+                    } catch (IOException e) {
+                        // In use elsewhere; try again next time.
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Stale entries only cost disk space.
+        }
+    }
+
+    /**
+     * BPE tokenizer together with the corpus it encoded.
+     */
+    public static final class BpeCorpus {
+        private final BpeTokenizer tokenizer;
+        private final TokenStore tokens;
+
+        BpeCorpus(BpeTokenizer tokenizer, TokenStore tokens) {
+            this.tokenizer = tokenizer;
+            this.tokens = tokens;
+        }
+
+        /**
+         * Returns the tokenizer the corpus was encoded with.
+         *
+         * @return BPE tokenizer
+         */
+        public BpeTokenizer getTokenizer() {
+            return tokenizer;
+        }
+
+        /**
+         * Returns the encoded corpus.
+         *
+         * @return token IDs
+         */
+        public TokenStore getTokens() {
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package minigptj.data;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tokenised corpus stored on disk and memory-mapped for reading.
+ *
+ * The corpus is tokenised once and written as a flat array of token IDs,
+ * each stored in the smallest width that holds the vocabulary:
+ *
+ *   vocabSize <= 256      1 byte per token
+ *   vocabSize <= 65536    2 bytes per token
+ *   otherwise             4 bytes per token
+ *
+ * File layout (big-endian, like ModelIO):
+ *
+ *   int   magic "MGJT"
+ *   int   format version
+ *   int   token width in bytes
+ *   int   vocabSize
+ *   long  token count
+ *   char  vocabulary, one char per ID from 2 to vocabSize - 1
+ *   ...   token IDs, unsigned, token width bytes each
+ *
+ * open() maps the token section with FileChannel.map instead of reading it,
+ * so opening a multi-gigabyte corpus is immediate and its tokens are paged
+ * in by the operating system as windows are read, without using heap. A
+ * single mapping is limited to 2 GB, so the section is mapped as several
+ * regions; their size is a multiple of every token width, so no token
+ * straddles two regions.
+ */
+public class TokenFile implements TokenStore {
+    static final int MAGIC = 0x4D474A54; // "MGJT"
+    static final int VERSION = 1;
+
+    // magic, version, width, vocabSize and count
+    private static final int HEADER_BYTES = 24;
+    private static final long REGION_BYTES = 1L << 30;
+
+    private final CharTokenizer tokenizer;
+    private final int width;
+    private final long count;
+    private final long regionBytes;
+    private final MappedByteBuffer[] regions;
+
+    private TokenFile(CharTokenizer tokenizer, int width, long count, long regionBytes, MappedByteBuffer[] regions) {
+        this.tokenizer = tokenizer;
+        this.width = width;
+        this.count = count;
+        this.regionBytes = regionBytes;
+        this.regions = regions;
+    }
+
+    /**
+     * Returns the number of bytes used to store each token for a vocabulary.
+     *
+     * @param vocabSize number of token IDs
+     * @return 1, 2 or 4
+     */
+    public static int tokenWidth(int vocabSize) {
+        if (vocabSize < 1) throw new IllegalArgumentException("vocabSize must be >= 1");
+        if (vocabSize <= 1 << 8) return 1;
+        if (vocabSize <= 1 << 16) return 2;
+        return 4;
+    }
+
+    /**
+     * Writes an encoded corpus and its vocabulary to a token file.
+     *
+     * The file is written under a temporary name and moved into place, so
+     * an interrupted write never leaves a truncated token file behind.
+     *
+     * @param path destination file
+     * @param tokenizer tokenizer that produced the tokens
+     * @param tokens encoded corpus
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, CharTokenizer tokenizer, int[] tokens) throws IOException {
+        if (tokenizer == null) throw new IllegalArgumentException("tokenizer cannot be null");
+        if (tokens == null) throw new IllegalArgumentException("tokens cannot be null");
+
+        int vocabSize = tokenizer.vocabSize();
+        int width = tokenWidth(vocabSize);
+
+        Path tmp = tempPath(path);
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            writeHeader(dos, tokenizer, tokens.length);
+            for (int id : tokens) {
+                if (id < 0 || id >= vocabSize) {
+                    throw new IllegalArgumentException("token id out of range: " + id);
+                }
+                if (width == 1) dos.writeByte(id);
+                else if (width == 2) dos.writeShort(id);
+                else dos.writeInt(id);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the header and vocabulary that precede the tokens.
+     */
+    static void writeHeader(DataOutput out, CharTokenizer tokenizer, long count) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(tokenWidth(tokenizer.vocabSize()));
+        out.writeInt(tokenizer.vocabSize());
+        out.writeLong(count);
+        out.writeChars(tokenizer.getVocabulary());
+    }
+
+    /**
+     * Returns the file offset of the first token.
+     */
+    static long dataStart(int vocabSize) {
+        return HEADER_BYTES + 2L * (vocabSize - 2);
+    }
+
+    /**
+     * Returns the name a token file is written under before it is moved
+     * into place.
+     */
+    static Path tempPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Opens a token file and maps its tokens into memory.
+     *
+     * @param path token file
+     * @return mapped token file
+     * @throws IOException if the file cannot be read or is not a valid token file
+     */
+    public static TokenFile open(Path path) throws IOException {
+        return open(path, REGION_BYTES);
+    }
+
+    /**
+     * Opens a token file, mapping its tokens in regions of at most
+     * regionBytes bytes.
+     */
+    static TokenFile open(Path path, long regionBytes) throws IOException {
+        if (regionBytes % 4 != 0 || regionBytes <= 0 || regionBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("regionBytes must be a positive multiple of 4 below 2^31");
+        }
+
+        int width;
+        int vocabSize;
+        long count;
+        CharTokenizer tokenizer;
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (dis.readInt() != MAGIC) throw new IOException("Not a token file: " + path);
+            int version = dis.readInt();
+            if (version != VERSION) throw new IOException("Unsupported token file version: " + version);
+            width = dis.readInt();
+            vocabSize = dis.readInt();
+            count = dis.readLong();
+            if (vocabSize < 2 || width != tokenWidth(vocabSize) || count < 0) {
+                throw new IOException("Corrupt token file header: " + path);
+            }
+
+            char[] vocabulary = new char[vocabSize - 2];
+            for (int i = 0; i < vocabulary.length; i++) {
+                vocabulary[i] = dis.readChar();
+            }
+            tokenizer = CharTokenizer.fromVocabulary(new String(vocabulary));
+        }
+
+        long dataStart = dataStart(vocabSize);
+        long dataBytes = count * width;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != dataStart + dataBytes) {
+                throw new IOException(String.format(
+                    "Token file %s should be %d bytes but is %d", path, dataStart + dataBytes, channel.size()));
+            }
+
+            // Mappings stay valid after the channel is closed.
+            int regionCount = (int) ((dataBytes + regionBytes - 1) / regionBytes);
+            MappedByteBuffer[] regions = new MappedByteBuffer[regionCount];
+            for (int r = 0; r < regionCount; r++) {
+                long from = (long) r * regionBytes;
+                long size = Math.min(regionBytes, dataBytes - from);
+                regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + from, size);
+            }
+            return new TokenFile(tokenizer, width, count, regionBytes, regions);
+        }
+    }
+
+    /**
+     * Opens a token file, first creating it from a text corpus if it does
+     * not exist yet. The corpus is tokenised in parallel chunks by
+     * CorpusEncoder. Delete the token file to rebuild it after the corpus
+     * changes.
+     *
+     * @param path token file
+     * @param corpus text corpus to tokenise if the token file is missing
+     * @return mapped token file
+     * @throws IOException if either file cannot be read or written
+     */
+    public static TokenFile openOrCreate(Path path, Path corpus) throws IOException {
+        if (!Files.exists(path)) {
+            new CorpusEncoder().writeTokenFile(corpus, path);
+        }
+        return open(path);
+    }
+
+    /**
+     * Returns the tokenizer whose vocabulary the tokens were encoded with.
+     *
+     * @return tokenizer rebuilt from the stored vocabulary
+     */
+    public CharTokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * Returns the number of bytes each token occupies in the file.
+     *
+     * @return 1, 2 or 4
+     */
+    public int getTokenWidth() {
+        return width;
+    }
+
+    @Override
+    public long length() {
+        return count;
+    }
+
+    @Override
+    public int get(long index) {
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("index out of range: " + index);
+        }
+        long byteOffset = index * width;
+        return read(regions[(int) (byteOffset / regionBytes)], (int) (byteOffset % regionBytes));
+    }
+
+    @Override
+    public void copy(long from, int[] dst, int offset, int count) {
+        if (from < 0 || count < 0 || from + count > this.count) {
+            throw new IllegalArgumentException("token range out of bounds: " + from + " + " + count);
+        }
+        if (offset < 0 || offset + count > dst.length) {
+            throw new IllegalArgumentException("destination range out of bounds: " + offset + " + " + count);
+        }
+
+        // Copy region by region; only windows that cross a region boundary
+        // take more than one pass.
+        while (count > 0) {
+            long byteOffset = from * width;
+            MappedByteBuffer region = regions[(int) (byteOffset / regionBytes)];
+            int pos = (int) (byteOffset % regionBytes);
+            int n = Math.min(count, (region.limit() - pos) / width);
+            if (width == 1) {
+                for (int i = 0; i < n; i++) dst[offset + i] = region.get(pos + i) & 0xFF;
+            } else if (width == 2) {
+                for (int i = 0; i < n; i++) dst[offset + i] = region.getShort(pos + 2 * i) & 0xFFFF;
+            } else {
+                for (int i = 0; i < n; i++) dst[offset + i] = region.getInt(pos + 4 * i);
+            }
+            from += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    private int read(MappedByteBuffer region, int pos) {
+        switch (width) {
+            case 1:  return region.get(pos) & 0xFF;
+            case 2:  return region.getShort(pos) & 0xFFFF;
+            default: return region.getInt(pos);
+        }
+    }
+}
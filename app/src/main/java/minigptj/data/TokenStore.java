@@ -0,0 +1,78 @@
+package minigptj.data;
+
+/**
+ * Read-only sequence of token IDs backing a TextDataset.
+ *
+ * Positions are long so that a corpus is not limited to 2^31 tokens. The
+ * tokens may live in a heap array or in a memory-mapped token file
+ * (TokenFile), in which case they never occupy heap memory.
+ *
+ * Heap stores come in three widths: compact() packs a corpus into bytes or
+ * shorts when the vocabulary allows, cutting its memory to a quarter or a
+ * half of an int array. Tokens are widened back to int only when windows
+ * are copied out for the embedding lookup.
+ *
+ * Implementations must allow concurrent reads from several threads.
+ */
+public interface TokenStore {
+
+    /**
+     * Packs token IDs into the narrowest heap store that holds every ID of
+     * the vocabulary: ByteTokenStore up to 256 IDs, ShortTokenStore up to
+     * 65536, otherwise IntTokenStore over the array itself.
+     *
+     * @param tokens token IDs in [0, vocabSize)
+     * @param vocabSize number of token IDs
+     * @return compact token store
+     */
+    static TokenStore compact(int[] tokens, int vocabSize) {
+        if (tokens == null) throw new IllegalArgumentException("tokens cannot be null");
+        for (int id : tokens) {
+            if (id < 0 || id >= vocabSize) {
+                throw new IllegalArgumentException("token id out of range: " + id);
+            }
+        }
+
+        int width = TokenFile.tokenWidth(vocabSize);
+        if (width == 1) {
+            byte[] packed = new byte[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                packed[i] = (byte) tokens[i];
+            }
+            return new ByteTokenStore(packed);
+        }
+        if (width == 2) {
+            short[] packed = new short[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                packed[i] = (short) tokens[i];
+            }
+            return new ShortTokenStore(packed);
+        }
+        return new IntTokenStore(tokens);
+    }
+
+    /**
+     * Returns the number of tokens.
+     *
+     * @return token count
+     */
+    long length();
+
+    /**
+     * Returns one token.
+     *
+     * @param index token position in [0, length())
+     * @return token ID
+     */
+    int get(long index);
+
+    /**
+     * Copies a contiguous run of tokens into a caller-owned buffer.
+     *
+     * @param from position of the first token to copy
+     * @param dst destination buffer
+     * @param offset position in dst of the first copied token
+     * @param count number of tokens to copy
+     */
+    void copy(long from, int[] dst, int offset, int count);
+}
@@ -0,0 +1,68 @@
+package minigptj.data;
+
+/**
+ * Maps text to token IDs and back.
+ *
+ * Every tokenizer reserves CharTokenizer.PAD_ID for padding and
+ * CharTokenizer.UNK_ID for text outside its vocabulary, so datasets,
+ * losses and models work the same whichever tokenizer produced the IDs.
+ */
+public interface Tokenizer {
+
+    /**
+     * Returns vocabulary size including special tokens.
+     *
+     * @return number of token IDs known by this tokenizer
+     */
+    int vocabSize();
+
+    /**
+     * Encodes a string into token IDs.
+     *
+     * @param s input string
+     * @return token ID array
+     */
+    int[] encode(String s);
+
+    /**
+     * Decodes token IDs back into a string, skipping PAD tokens.
+     *
+     * @param ids token ID array
+     * @return decoded string
+     */
+    String decode(int[] ids);
+
+    /**
+     * Returns the text a token ID stands for.
+     *
+     * @param id token ID
+     * @return token text, or null for special or invalid token IDs
+     */
+    String tokenText(int id);
+
+    /**
+     * Counts how often each token ID occurs in a token store, such as a
+     * memory-mapped token file. Counts saturate at Integer.MAX_VALUE.
+     *
+     * @param tokens encoded token IDs
+     * @return frequency of each token ID, length vocabSize()
+     */
+    default int[] countTokens(TokenStore tokens) {
+        if (tokens == null) throw new IllegalArgumentException("tokens cannot be null");
+
+        int[] counts = new int[vocabSize()];
+        int[] chunk = new int[8192];
+        for (long from = 0; from < tokens.length(); from += chunk.length) {
+            int n = (int) Math.min(chunk.length, tokens.length() - from);
+            tokens.copy(from, chunk, 0, n);
+            for (int i = 0; i < n; i++) {
+                int id = chunk[i];
+                if (id < 0 || id >= counts.length) {
+                    throw new IllegalArgumentException("token id out of range: " + id);
+                }
+                if (counts[id] < Integer.MAX_VALUE) counts[id]++;
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,147 @@
+package minigptj.dist;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking socket helpers shared by the collectives.
+ *
+ * Connections start with a handshake in which the connecting rank sends its
+ * rank and the world size, so the accepting side can tell peers apart and
+ * reject processes started with a different configuration.
+ */
+final class ChannelIO {
+    // How long to keep retrying while a peer's listening socket is not up yet.
+    private static final long CONNECT_TIMEOUT_MS = 60_000;
+    private static final long RETRY_DELAY_MS = 50;
+
+    private ChannelIO() {
+    }
+
+    /**
+     * Connects to a peer, retrying until it starts listening, and sends the
+     * handshake.
+     *
+     * @param address peer address
+     * @param rank rank of this process
+     * @param worldSize world size of this process
+     * @return connected blocking channel
+     * @throws IOException if the peer cannot be reached before the timeout
+     */
+    static SocketChannel connect(InetSocketAddress address, int rank, int worldSize) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (true) {
+            try {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.socket().setTcpNoDelay(true);
+                ByteBuffer hello = ByteBuffer.allocateDirect(2 * Integer.BYTES);
+                hello.putInt(rank).putInt(worldSize).flip();
+                writeFully(channel, hello);
+                return channel;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Could not connect to rank at " + address, e);
+                }
+                sleep(RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Accepts one peer connection and reads its handshake.
+     *
+     * @param server listening channel
+     * @param worldSize expected world size
+     * @return accepted channel and the peer's rank
+     * @throws IOException if the peer reports a different world size
+     */
+    static Peer accept(ServerSocketChannel server, int worldSize) throws IOException {
+        SocketChannel channel = server.accept();
+        channel.socket().setTcpNoDelay(true);
+        ByteBuffer hello = ByteBuffer.allocateDirect(2 * Integer.BYTES);
+        readFully(channel, hello);
+        hello.flip();
+        int peerRank = hello.getInt();
+        int peerWorld = hello.getInt();
+        if (peerWorld != worldSize) {
+            channel.close();
+            throw new IOException("Rank " + peerRank + " uses world size " + peerWorld + ", expected " + worldSize);
+        }
+        return new Peer(peerRank, channel);
+    }
+
+    /**
+     * Opens a listening channel on a local port.
+     *
+     * @param address address to bind
+     * @return bound server channel
+     * @throws IOException if the port is unavailable
+     */
+    static ServerSocketChannel listen(InetSocketAddress address) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.bind(address);
+        return server;
+    }
+
+    static void writeFully(SocketChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    static void readFully(SocketChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new IOException("Peer closed the connection");
+            }
+        }
+    }
+
+    /**
+     * Returns a direct buffer of at least the given size, reusing the current
+     * one when it is large enough.
+     */
+    static ByteBuffer ensureCapacity(ByteBuffer buf, int bytes) {
+        if (buf != null && buf.capacity() >= bytes) {
+            buf.clear();
+            return buf;
+        }
+        return ByteBuffer.allocateDirect(bytes);
+    }
+
+    /**
+     * Checks the length argument of an all-reduce against its buffer.
+     */
+    static void checkLength(double[] data, int length) {
+        if (data == null) throw new IllegalArgumentException("data cannot be null");
+        if (length < 0 || length > data.length) {
+            throw new IllegalArgumentException("length must be in [0, " + data.length + "]: " + length);
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting", e);
+        }
+    }
+
+    /**
+     * Accepted connection together with the rank announced by the peer.
+     */
+    static final class Peer {
+        final int rank;
+        final SocketChannel channel;
+
+        Peer(int rank, SocketChannel channel) {
+            this.rank = rank;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package minigptj.dist;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Collective communication between the processes of a distributed training
+ * run.
+ *
+ * Every process (rank) holds a full copy of the model and trains on its own
+ * batches. After backpropagation the ranks sum their gradient buffers with
+ * allReduce(), so each rank applies the same optimiser step and the model
+ * copies stay identical.
+ *
+ * Every rank must call allReduce() the same number of times with buffers of
+ * the same length, or the same length argument.
+ */
+public interface Collective extends AutoCloseable {
+
+    /**
+     * Returns this process's rank, from 0 to worldSize() - 1.
+     *
+     * @return rank of this process
+     */
+    int rank();
+
+    /**
+     * Returns the number of processes taking part.
+     *
+     * @return world size
+     */
+    int worldSize();
+
+    /**
+     * Replaces the buffer on every rank with the element-wise sum of the
+     * buffers of all ranks.
+     *
+     * @param data buffer to reduce in place
+     * @throws IOException if communication with another rank fails
+     */
+    default void allReduce(double[] data) throws IOException {
+        allReduce(data, data.length);
+    }
+
+    /**
+     * Sums the first length entries of the buffers of all ranks in place,
+     * leaving the rest of each buffer untouched. Lets callers reuse one
+     * buffer for reductions whose size changes from step to step.
+     *
+     * @param data buffer to reduce in place
+     * @param length number of leading entries to reduce
+     * @throws IOException if communication with another rank fails
+     */
+    void allReduce(double[] data, int length) throws IOException;
+
+    /**
+     * Replaces the buffer on every rank with the buffer of rank 0.
+     *
+     * @param data buffer to overwrite in place
+     * @throws IOException if communication with another rank fails
+     */
+    default void broadcast(double[] data) throws IOException {
+        if (rank() != 0) {
+            Arrays.fill(data, 0.0);
+        }
+        allReduce(data);
+    }
+
+    /**
+     * Closes the connections to the other ranks.
+     *
+     * @throws IOException if a connection cannot be closed
+     */
+    @Override
+    void close() throws IOException;
+}
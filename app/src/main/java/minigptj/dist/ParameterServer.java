@@ -0,0 +1,130 @@
+package minigptj.dist;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Star-shaped reduction through a central parameter server.
+ *
+ * Rank 0 is the server and listens on the given port; every other rank is a
+ * worker with one connection to it. In allReduce() each worker pushes its
+ * buffer to the server, which sums the buffers in rank order and sends the
+ * total back to every worker.
+ *
+ * Every rank then applies the same optimiser step to the summed gradient,
+ * which keeps the parameters identical without the server having to send
+ * them. Compared with RingAllReduce this is simpler and its summation order
+ * is strictly 0, 1, ..., worldSize - 1, but the server's link carries
+ * 2 * (worldSize - 1) buffers per call, so it stops scaling sooner.
+ */
+public class ParameterServer implements Collective {
+    private final int rank;
+    private final int worldSize;
+    // On the server: one channel per worker, indexed by rank (slot 0 unused).
+    // On a worker: only the channel to the server.
+    private final SocketChannel[] channels;
+
+    private ByteBuffer buf;
+
+    private ParameterServer(int rank, int worldSize, SocketChannel[] channels) {
+        this.rank = rank;
+        this.worldSize = worldSize;
+        this.channels = channels;
+    }
+
+    /**
+     * Starts the server (rank 0) or connects a worker to it. The server
+     * blocks until every worker has connected.
+     *
+     * @param rank rank of this process
+     * @param worldSize number of processes, including the server
+     * @param host host the server listens on
+     * @param port server port
+     * @return connected collective
+     * @throws IOException if the connections cannot be established
+     */
+    public static ParameterServer connect(int rank, int worldSize, String host, int port) throws IOException {
+        RingAllReduce.checkRank(rank, worldSize);
+        InetSocketAddress address = new InetSocketAddress(host, port);
+
+        if (rank != 0) {
+            return new ParameterServer(rank, worldSize, new SocketChannel[] {
+                ChannelIO.connect(address, rank, worldSize)
+            });
+        }
+
+        SocketChannel[] workers = new SocketChannel[worldSize];
+        if (worldSize > 1) {
+            try (ServerSocketChannel server = ChannelIO.listen(address)) {
+                for (int i = 1; i < worldSize; i++) {
+                    ChannelIO.Peer peer = ChannelIO.accept(server, worldSize);
+                    if (peer.rank < 1 || workers[peer.rank] != null) {
+                        peer.channel.close();
+                        throw new IOException("Unexpected or duplicate worker rank " + peer.rank);
+                    }
+                    workers[peer.rank] = peer.channel;
+                }
+            }
+        }
+        return new ParameterServer(rank, worldSize, workers);
+    }
+
+    @Override
+    public int rank() {
+        return rank;
+    }
+
+    @Override
+    public int worldSize() {
+        return worldSize;
+    }
+
+    @Override
+    public void allReduce(double[] data, int length) throws IOException {
+        ChannelIO.checkLength(data, length);
+        if (worldSize == 1) return;
+
+        int bytes = length * Double.BYTES;
+        buf = ChannelIO.ensureCapacity(buf, bytes);
+        buf.limit(bytes);
+
+        if (rank != 0) {
+            // push the local buffer, then wait for the total
+            SocketChannel server = channels[0];
+            for (int i = 0; i < length; i++) buf.putDouble(data[i]);
+            buf.flip();
+            ChannelIO.writeFully(server, buf);
+
+            buf.clear().limit(bytes);
+            ChannelIO.readFully(server, buf);
+            buf.flip();
+            for (int i = 0; i < length; i++) data[i] = buf.getDouble();
+            return;
+        }
+
+        // server: add the workers' buffers in rank order
+        for (int w = 1; w < worldSize; w++) {
+            buf.clear().limit(bytes);
+            ChannelIO.readFully(channels[w], buf);
+            buf.flip();
+            for (int i = 0; i < length; i++) data[i] += buf.getDouble();
+        }
+
+        buf.clear().limit(bytes);
+        for (int i = 0; i < length; i++) buf.putDouble(data[i]);
+        for (int w = 1; w < worldSize; w++) {
+            buf.rewind();
+            ChannelIO.writeFully(channels[w], buf);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SocketChannel channel : channels) {
+            if (channel != null) channel.close();
+        }
+    }
+}
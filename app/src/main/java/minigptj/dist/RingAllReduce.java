@@ -0,0 +1,179 @@
+package minigptj.dist;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Ring all-reduce over TCP.
+ *
+ * The ranks form a ring: each one sends to rank + 1 and receives from
+ * rank - 1. The buffer is split into worldSize segments and reduced in two
+ * phases of worldSize - 1 steps each:
+ *
+ *   reduce-scatter: at step s rank r sends segment (r - s) and adds the
+ *                   incoming segment (r - s - 1) to its own copy, after
+ *                   which rank r holds the full sum of segment r + 1
+ *   all-gather:     the finished segments travel once more around the ring
+ *                   and overwrite the partial sums
+ *
+ * Each rank sends and receives 2 * (worldSize - 1) / worldSize times the
+ * buffer size per call, independent of the number of ranks, and every rank
+ * ends with bit-identical values.
+ *
+ * Rank r listens on basePort + r. Segments are sent and received at the
+ * same time through non-blocking channels and direct byte buffers, so
+ * neighbours never deadlock on full socket buffers.
+ */
+public class RingAllReduce implements Collective {
+    private final int rank;
+    private final int worldSize;
+    private final SocketChannel next;
+    private final SocketChannel prev;
+    private final Selector selector;
+
+    private ByteBuffer sendBuf;
+    private ByteBuffer recvBuf;
+
+    private RingAllReduce(int rank, int worldSize, SocketChannel next, SocketChannel prev) throws IOException {
+        this.rank = rank;
+        this.worldSize = worldSize;
+        this.next = next;
+        this.prev = prev;
+        if (worldSize > 1) {
+            this.selector = Selector.open();
+            next.configureBlocking(false);
+            prev.configureBlocking(false);
+        } else {
+            this.selector = null;
+        }
+    }
+
+    /**
+     * Joins the ring. Blocks until both neighbours are connected.
+     *
+     * @param rank rank of this process
+     * @param worldSize number of processes in the ring
+     * @param host host every rank listens on
+     * @param basePort port of rank 0; rank r listens on basePort + r
+     * @return connected ring
+     * @throws IOException if the neighbours cannot be reached
+     */
+    public static RingAllReduce connect(int rank, int worldSize, String host, int basePort) throws IOException {
+        checkRank(rank, worldSize);
+        if (worldSize == 1) {
+            return new RingAllReduce(rank, worldSize, null, null);
+        }
+
+        try (ServerSocketChannel server = ChannelIO.listen(new InetSocketAddress(host, basePort + rank))) {
+            int nextRank = (rank + 1) % worldSize;
+            int prevRank = (rank - 1 + worldSize) % worldSize;
+
+            SocketChannel next = ChannelIO.connect(new InetSocketAddress(host, basePort + nextRank), rank, worldSize);
+            ChannelIO.Peer peer = ChannelIO.accept(server, worldSize);
+            if (peer.rank != prevRank) {
+                peer.channel.close();
+                next.close();
+                throw new IOException("Rank " + rank + " expected a connection from rank " + prevRank
+                    + " but rank " + peer.rank + " connected");
+            }
+            return new RingAllReduce(rank, worldSize, next, peer.channel);
+        }
+    }
+
+    @Override
+    public int rank() {
+        return rank;
+    }
+
+    @Override
+    public int worldSize() {
+        return worldSize;
+    }
+
+    @Override
+    public void allReduce(double[] data, int length) throws IOException {
+        ChannelIO.checkLength(data, length);
+        if (worldSize == 1) return;
+
+        int[] bounds = new int[worldSize + 1];
+        int maxSegment = 0;
+        for (int i = 0; i <= worldSize; i++) {
+            bounds[i] = (int) ((long) length * i / worldSize);
+            if (i > 0) maxSegment = Math.max(maxSegment, bounds[i] - bounds[i - 1]);
+        }
+        sendBuf = ChannelIO.ensureCapacity(sendBuf, maxSegment * Double.BYTES);
+        recvBuf = ChannelIO.ensureCapacity(recvBuf, maxSegment * Double.BYTES);
+
+        // reduce-scatter
+        for (int s = 0; s < worldSize - 1; s++) {
+            int sendSeg = Math.floorMod(rank - s, worldSize);
+            int recvSeg = Math.floorMod(rank - s - 1, worldSize);
+            exchange(data, bounds, sendSeg, recvSeg, true);
+        }
+
+        // all-gather
+        for (int s = 0; s < worldSize - 1; s++) {
+            int sendSeg = Math.floorMod(rank + 1 - s, worldSize);
+            int recvSeg = Math.floorMod(rank - s, worldSize);
+            exchange(data, bounds, sendSeg, recvSeg, false);
+        }
+    }
+
+    /**
+     * Sends one segment to the next rank while receiving another from the
+     * previous rank, then adds or copies the received values into data.
+     */
+    private void exchange(double[] data, int[] bounds, int sendSeg, int recvSeg, boolean add) throws IOException {
+        sendBuf.clear();
+        for (int i = bounds[sendSeg]; i < bounds[sendSeg + 1]; i++) {
+            sendBuf.putDouble(data[i]);
+        }
+        sendBuf.flip();
+
+        recvBuf.clear();
+        recvBuf.limit((bounds[recvSeg + 1] - bounds[recvSeg]) * Double.BYTES);
+
+        SelectionKey sendKey = next.register(selector, sendBuf.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+        SelectionKey recvKey = prev.register(selector, recvBuf.hasRemaining() ? SelectionKey.OP_READ : 0);
+        while (sendBuf.hasRemaining() || recvBuf.hasRemaining()) {
+            selector.select();
+            selector.selectedKeys().clear();
+            if (sendBuf.hasRemaining()) {
+                next.write(sendBuf);
+                if (!sendBuf.hasRemaining()) sendKey.interestOps(0);
+            }
+            if (recvBuf.hasRemaining()) {
+                if (prev.read(recvBuf) < 0) {
+                    throw new IOException("Rank " + Math.floorMod(rank - 1, worldSize) + " closed the connection");
+                }
+                if (!recvBuf.hasRemaining()) recvKey.interestOps(0);
+            }
+        }
+
+        recvBuf.flip();
+        for (int i = bounds[recvSeg]; i < bounds[recvSeg + 1]; i++) {
+            double v = recvBuf.getDouble();
+            data[i] = add ? data[i] + v : v;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (worldSize == 1) return;
+        selector.close();
+        next.close();
+        prev.close();
+    }
+
+    static void checkRank(int rank, int worldSize) {
+        if (worldSize < 1) throw new IllegalArgumentException("worldSize must be >= 1");
+        if (rank < 0 || rank >= worldSize) {
+            throw new IllegalArgumentException("rank must be in [0, " + worldSize + ")");
+        }
+    }
+}
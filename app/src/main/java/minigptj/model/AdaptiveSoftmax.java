@@ -0,0 +1,532 @@
+package minigptj.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+
+/**
+ * Adaptive softmax output layer for large vocabularies.
+ *
+ * A full output projection scores every vocabulary entry for every position,
+ * so its cost grows linearly with the vocabulary. Adaptive softmax exploits
+ * the skewed token frequency distribution of natural text instead:
+ *
+ * - tokens are ranked by corpus frequency
+ * - the most frequent tokens form a small "head" that is always scored
+ * - the remaining tokens are split into tail clusters, each represented in
+ *   the head by a single cluster token
+ * - a tail cluster is only scored for positions whose target (during training)
+ *   or sampled head token (during generation) falls inside that cluster
+ *
+ * Each tail cluster first projects the hidden state down to a smaller
+ * dimension, so rarer tokens also use cheaper representations.
+ *
+ * Probability of a token:
+ *     head token:  p(w) = pHead(w)
+ *     tail token:  p(w) = pHead(cluster(w)) * pCluster(w)
+ *
+ * Ranks are positions in the frequency ordering. Cutoffs are rank boundaries:
+ *     head      = ranks [0, cutoffs[0])
+ *     cluster i = ranks [cutoffs[i], cutoffs[i + 1]), with the last cluster
+ *                 ending at vocabSize
+ */
+public class AdaptiveSoftmax {
+    // Default head: the most frequent tokens covering this share of the
+    // corpus, but never more than MAX_HEAD_SIZE of them.
+    private static final double HEAD_MASS = 0.9;
+    private static final int MAX_HEAD_SIZE = 1024;
+    // Default first tail cluster: ends where this share is covered.
+    private static final double FIRST_CLUSTER_MASS = 0.99;
+
+    private final int dModel;
+    private final int vocabSize;
+    private final int[] cutoffs;
+    private final int[] rankToId;
+    private final int[] idToRank;
+
+    private final Linear head;        // dModel x (headSize + numClusters)
+    private final Linear[] tailProj;  // dModel x tailDim(i)
+    private final Linear[] tailOut;   // tailDim(i) x clusterSize(i)
+
+    // caches for backward
+    private Matrix lastHeadProbs;     // N x (headSize + numClusters)
+    private int[] lastHeadTargets;    // -1 for ignored rows
+    private int[][] lastClusterRows;  // row indices routed to each cluster
+    private int[][] lastClusterTargets;
+    private Matrix[] lastClusterProbs;
+    private int lastCount;
+
+    /**
+     * Creates an adaptive softmax layer with a projection divisor of 4.
+     *
+     * @param dModel size of the incoming hidden vectors
+     * @param tokenCounts frequency of each token ID, length vocabSize
+     * @param cutoffs increasing rank boundaries separating head and tail clusters
+     */
+    public AdaptiveSoftmax(int dModel, int[] tokenCounts, int[] cutoffs) {
+        this(dModel, tokenCounts, cutoffs, 4);
+    }
+
+    /**
+     * Creates an adaptive softmax layer.
+     *
+     * Tail cluster i projects hidden vectors down to
+     * dModel / divFactor^(i + 1) dimensions (at least 1).
+     *
+     * @param dModel size of the incoming hidden vectors
+     * @param tokenCounts frequency of each token ID, length vocabSize
+     * @param cutoffs increasing rank boundaries separating head and tail clusters
+     * @param divFactor shrink factor applied to each successive tail projection
+     */
+    public AdaptiveSoftmax(int dModel, int[] tokenCounts, int[] cutoffs, int divFactor) {
+        if (dModel < 1) throw new IllegalArgumentException("dModel must be >= 1");
+        if (tokenCounts == null) throw new IllegalArgumentException("tokenCounts cannot be null");
+        if (tokenCounts.length < 2) throw new IllegalArgumentException("vocabSize must be >= 2");
+        if (cutoffs == null || cutoffs.length == 0) throw new IllegalArgumentException("need at least one cutoff");
+        if (divFactor < 1) throw new IllegalArgumentException("divFactor must be >= 1");
+
+        this.dModel = dModel;
+        this.vocabSize = tokenCounts.length;
+
+        for (int i = 0; i < cutoffs.length; i++) {
+            int lower = (i == 0) ? 0 : cutoffs[i - 1];
+            if (cutoffs[i] <= lower || cutoffs[i] >= vocabSize) {
+                throw new IllegalArgumentException("cutoffs must be strictly increasing and inside (0, vocabSize)");
+            }
+        }
+        this.cutoffs = cutoffs.clone();
+
+        this.rankToId = frequencyOrder(tokenCounts);
+        this.idToRank = new int[vocabSize];
+        for (int r = 0; r < vocabSize; r++) {
+            idToRank[rankToId[r]] = r;
+        }
+
+        int numClusters = cutoffs.length;
+        this.head = new Linear(dModel, cutoffs[0] + numClusters);
+        this.tailProj = new Linear[numClusters];
+        this.tailOut = new Linear[numClusters];
+
+        int dim = dModel;
+        for (int c = 0; c < numClusters; c++) {
+            dim = Math.max(1, dim / divFactor);
+            tailProj[c] = new Linear(dModel, dim);
+            tailOut[c] = new Linear(dim, clusterSize(c));
+        }
+    }
+
+    /**
+     * Chooses cutoffs from corpus token frequencies.
+     *
+     * The head is the smallest set of most frequent tokens covering 90% of
+     * the token mass, capped at 1024 tokens, so its cost stops growing with
+     * the vocabulary. The next tokens up to 99% of the mass form the first
+     * tail cluster and the rest the second. When no tokens are left for a
+     * second cluster, a single tail cluster is used.
+     *
+     * @param tokenCounts frequency of each token ID, length vocabSize
+     * @return cutoffs suitable for the constructor
+     */
+    public static int[] defaultCutoffs(int[] tokenCounts) {
+        if (tokenCounts == null) throw new IllegalArgumentException("tokenCounts cannot be null");
+        int vocabSize = tokenCounts.length;
+        if (vocabSize < 2) throw new IllegalArgumentException("vocabSize must be >= 2 for adaptive softmax");
+
+        int[] order = frequencyOrder(tokenCounts);
+        long total = 0;
+        for (int count : tokenCounts) {
+            if (count < 0) throw new IllegalArgumentException("token counts must be >= 0");
+            total += count;
+        }
+
+        int headSize = ranksCovering(order, tokenCounts, HEAD_MASS * total);
+        headSize = Math.max(1, Math.min(headSize, Math.min(MAX_HEAD_SIZE, vocabSize - 1)));
+
+        int firstEnd = ranksCovering(order, tokenCounts, FIRST_CLUSTER_MASS * total);
+        if (firstEnd <= headSize || firstEnd >= vocabSize) {
+            return new int[] { headSize };
+        }
+        return new int[] { headSize, firstEnd };
+    }
+
+    /**
+     * Parses a comma-separated cutoff list such as "2000,10000".
+     *
+     * Ranges are checked by the constructor.
+     *
+     * @param spec comma-separated rank boundaries
+     * @return parsed cutoffs
+     */
+    public static int[] parseCutoffs(String spec) {
+        if (spec == null || spec.isBlank()) throw new IllegalArgumentException("cutoffs cannot be empty");
+        String[] parts = spec.split(",");
+        int[] cutoffs = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            cutoffs[i] = Integer.parseInt(parts[i].trim());
+        }
+        return cutoffs;
+    }
+
+    /**
+     * Computes masked cross-entropy loss for a batch of hidden vectors.
+     *
+     * Only the head and the tail clusters that contain at least one target are
+     * evaluated, so the cost for frequent tokens is independent of vocabulary
+     * size. Rows whose target is padId are ignored.
+     *
+     * @param hidden hidden vectors of shape N x dModel
+     * @param targets target token IDs of length N
+     * @param padId token ID excluded from the loss
+     * @return average cross-entropy over non-padding targets
+     */
+    public double forward(Matrix hidden, int[] targets, int padId) {
+        if (hidden.getCols() != dModel) throw new IllegalArgumentException("hidden cols must equal dModel");
+        if (targets.length != hidden.getRows()) throw new IllegalArgumentException("need one target per hidden row");
+
+        int n = hidden.getRows();
+        int headSize = cutoffs[0];
+        int numClusters = cutoffs.length;
+
+        int[] headTargets = new int[n];
+        int[] clusterCounts = new int[numClusters];
+        int count = 0;
+
+        for (int i = 0; i < n; i++) {
+            int target = targets[i];
+            if (target == padId) {
+                headTargets[i] = -1;
+                continue;
+            }
+            if (target < 0 || target >= vocabSize) {
+                throw new IllegalArgumentException("token id out of range: " + target);
+            }
+
+            int rank = idToRank[target];
+            int cluster = clusterOf(rank);
+            if (cluster < 0) {
+                headTargets[i] = rank;
+            } else {
+                headTargets[i] = headSize + cluster;
+                clusterCounts[cluster]++;
+            }
+            count++;
+        }
+
+        // Route each row to the tail cluster that holds its target.
+        int[][] clusterRows = new int[numClusters][];
+        int[][] clusterTargets = new int[numClusters][];
+        for (int c = 0; c < numClusters; c++) {
+            clusterRows[c] = new int[clusterCounts[c]];
+            clusterTargets[c] = new int[clusterCounts[c]];
+        }
+        int[] fill = new int[numClusters];
+        for (int i = 0; i < n; i++) {
+            if (headTargets[i] < headSize) continue;
+            int c = headTargets[i] - headSize;
+            clusterRows[c][fill[c]] = i;
+            clusterTargets[c][fill[c]] = idToRank[targets[i]] - cutoffs[c];
+            fill[c]++;
+        }
+
+        double eps = 1e-12;
+        double loss = 0.0;
+
+        Matrix headProbs = head.forward(hidden).softmaxRows();
+        for (int i = 0; i < n; i++) {
+            if (headTargets[i] >= 0) {
+                loss += -Math.log(Math.max(headProbs.get(i, headTargets[i]), eps));
+            }
+        }
+
+        // Empty clusters still run forward so their gradients are defined as zero.
+        Matrix[] clusterProbs = new Matrix[numClusters];
+        for (int c = 0; c < numClusters; c++) {
+            Matrix sub = hidden.gatherRows(clusterRows[c]);
+            clusterProbs[c] = tailOut[c].forward(tailProj[c].forward(sub)).softmaxRows();
+
+            for (int k = 0; k < clusterRows[c].length; k++) {
+                loss += -Math.log(Math.max(clusterProbs[c].get(k, clusterTargets[c][k]), eps));
+            }
+        }
+
+        this.lastHeadProbs = headProbs;
+        this.lastHeadTargets = headTargets;
+        this.lastClusterRows = clusterRows;
+        this.lastClusterTargets = clusterTargets;
+        this.lastClusterProbs = clusterProbs;
+        this.lastCount = count;
+
+        return count == 0 ? 0.0 : loss / count;
+    }
+
+    /**
+     * Backward pass for the most recent call to forward().
+     *
+     * Computes gradients for the head and every tail cluster and returns the
+     * gradient with respect to the hidden vectors.
+     *
+     * @return gradient of shape N x dModel
+     */
+    public Matrix backward() {
+        return backward(lastCount);
+    }
+
+    /**
+     * Backward pass for the most recent call to forward(), averaging over a
+     * given number of targets.
+     *
+     * When a batch is split into micro-batches, passing the target count of
+     * the whole batch makes the accumulated micro-batch gradients equal the
+     * gradient of the full batch's average loss.
+     *
+     * @param targetCount number of non-padding targets the loss is averaged over
+     * @return gradient of shape N x dModel
+     */
+    public Matrix backward(int targetCount) {
+        if (lastHeadProbs == null) throw new IllegalStateException("Must call forward() before backward().");
+
+        double scale = targetCount == 0 ? 0.0 : 1.0 / targetCount;
+
+        Matrix dHead = softmaxGrad(lastHeadProbs, lastHeadTargets, scale);
+        Matrix dHidden = head.backward(dHead);
+
+        for (int c = 0; c < cutoffs.length; c++) {
+            Matrix dTail = softmaxGrad(lastClusterProbs[c], lastClusterTargets[c], scale);
+            Matrix dSub = tailProj[c].backward(tailOut[c].backward(dTail));
+
+            int[] rows = lastClusterRows[c];
+            for (int k = 0; k < rows.length; k++) {
+                for (int j = 0; j < dModel; j++) {
+                    dHidden.set(rows[k], j, dHidden.get(rows[k], j) + dSub.get(k, j));
+                }
+            }
+        }
+
+        return dHidden;
+    }
+
+    /**
+     * Switches gradient accumulation on or off for the head and every tail
+     * layer.
+     *
+     * @param accumulate true to add each backward pass to the existing
+     *                   gradients, false to replace them
+     */
+    public void setAccumulateGradients(boolean accumulate) {
+        for (Linear layer : getLayers()) {
+            layer.setAccumulateGradients(accumulate);
+        }
+    }
+
+    /**
+     * Resets the gradients of the head and every tail layer to zero.
+     */
+    public void zeroGrad() {
+        for (Linear layer : getLayers()) {
+            layer.zeroGrad();
+        }
+    }
+
+    /**
+     * Samples one token for each hidden row.
+     *
+     * A head entry is sampled first. Only if it is a cluster token is that
+     * single tail cluster evaluated, so generating frequent tokens never pays
+     * for the rest of the vocabulary. Temperature is applied at both levels.
+     *
+     * @param hidden hidden vectors of shape N x dModel
+     * @param temperature positive sampling temperature
+     * @param rng random generator
+     * @return sampled token IDs of length N
+     */
+    public int[] sample(Matrix hidden, double temperature, Random rng) {
+        if (temperature <= 0.0) throw new IllegalArgumentException("temperature must be > 0");
+
+        int headSize = cutoffs[0];
+        Matrix headProbs = head.forward(hidden).multiply(1.0 / temperature).softmaxRows();
+
+        int[] ids = new int[hidden.getRows()];
+        for (int i = 0; i < ids.length; i++) {
+            int pick = sampleRow(headProbs, i, rng);
+            if (pick < headSize) {
+                ids[i] = rankToId[pick];
+                continue;
+            }
+
+            int c = pick - headSize;
+            Matrix row = hidden.gatherRows(new int[] { i });
+            Matrix tailProbs = tailOut[c].forward(tailProj[c].forward(row))
+                .multiply(1.0 / temperature)
+                .softmaxRows();
+            ids[i] = rankToId[cutoffs[c] + sampleRow(tailProbs, 0, rng)];
+        }
+        return ids;
+    }
+
+    /**
+     * Computes the full output distribution in token-ID order.
+     *
+     * This evaluates every cluster and is intended for evaluation and testing
+     * rather than the training or generation hot path.
+     *
+     * @param hidden hidden vectors of shape N x dModel
+     * @return probabilities of shape N x vocabSize
+     */
+    public Matrix probabilities(Matrix hidden) {
+        int n = hidden.getRows();
+        int headSize = cutoffs[0];
+
+        Matrix headProbs = head.forward(hidden).softmaxRows();
+        Matrix probs = new Matrix(n, vocabSize);
+
+        for (int i = 0; i < n; i++) {
+            for (int r = 0; r < headSize; r++) {
+                probs.set(i, rankToId[r], headProbs.get(i, r));
+            }
+        }
+
+        for (int c = 0; c < cutoffs.length; c++) {
+            Matrix tailProbs = tailOut[c].forward(tailProj[c].forward(hidden)).softmaxRows();
+            for (int i = 0; i < n; i++) {
+                double pCluster = headProbs.get(i, headSize + c);
+                for (int k = 0; k < clusterSize(c); k++) {
+                    probs.set(i, rankToId[cutoffs[c] + k], pCluster * tailProbs.get(i, k));
+                }
+            }
+        }
+        return probs;
+    }
+
+    /**
+     * Returns all trainable layers: the head followed by each tail cluster's
+     * projection and output layers.
+     *
+     * @return unmodifiable list of layers
+     */
+    public List<Linear> getLayers() {
+        List<Linear> layers = new ArrayList<>();
+        layers.add(head);
+        for (int c = 0; c < cutoffs.length; c++) {
+            layers.add(tailProj[c]);
+            layers.add(tailOut[c]);
+        }
+        return Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * Returns the rank boundaries separating head and tail clusters.
+     *
+     * @return copy of the cutoffs
+     */
+    public int[] getCutoffs() {
+        return cutoffs.clone();
+    }
+
+    /**
+     * Returns token IDs ordered from most to least frequent.
+     *
+     * @return copy of the rank-to-ID mapping
+     */
+    public int[] getRankToId() {
+        return rankToId.clone();
+    }
+
+    /**
+     * Returns the number of tokens in the vocabulary.
+     *
+     * @return vocabulary size
+     */
+    public int getVocabSize() {
+        return vocabSize;
+    }
+
+    /**
+     * Orders token IDs by descending frequency, breaking ties by ID so the
+     * ordering is deterministic.
+     *
+     * @param tokenCounts frequency of each token ID
+     * @return token IDs sorted from most to least frequent
+     */
+    static int[] frequencyOrder(int[] tokenCounts) {
+        Integer[] order = new Integer[tokenCounts.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> tokenCounts[a] != tokenCounts[b]
+            ? Integer.compare(tokenCounts[b], tokenCounts[a])
+            : Integer.compare(a, b));
+
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of leading ranks whose counts add up to at least
+     * the given mass.
+     */
+    private static int ranksCovering(int[] order, int[] tokenCounts, double mass) {
+        long covered = 0;
+        int ranks = 0;
+        while (ranks < order.length && covered < mass) {
+            covered += tokenCounts[order[ranks]];
+            ranks++;
+        }
+        return ranks;
+    }
+
+    /**
+     * Returns the tail cluster containing a rank, or -1 for head ranks.
+     */
+    private int clusterOf(int rank) {
+        if (rank < cutoffs[0]) return -1;
+        for (int c = cutoffs.length - 1; c >= 0; c--) {
+            if (rank >= cutoffs[c]) return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of tokens in a tail cluster.
+     */
+    private int clusterSize(int c) {
+        int end = (c + 1 < cutoffs.length) ? cutoffs[c + 1] : vocabSize;
+        return end - cutoffs[c];
+    }
+
+    /**
+     * Computes (probs - oneHot(target)) * scale, leaving rows with a negative
+     * target at zero.
+     */
+    private static Matrix softmaxGrad(Matrix probs, int[] targets, double scale) {
+        Matrix grad = new Matrix(probs.getRows(), probs.getCols());
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] < 0) continue;
+            for (int j = 0; j < probs.getCols(); j++) {
+                grad.set(i, j, probs.get(i, j) * scale);
+            }
+            grad.set(i, targets[i], grad.get(i, targets[i]) - scale);
+        }
+        return grad;
+    }
+
+    /**
+     * Samples a column index from one probability row.
+     */
+    private static int sampleRow(Matrix probs, int row, Random rng) {
+        double r = rng.nextDouble();
+        double cumulative = 0.0;
+        for (int j = 0; j < probs.getCols(); j++) {
+            cumulative += probs.get(row, j);
+            if (r <= cumulative) return j;
+        }
+        return probs.getCols() - 1;
+    }
+}
@@ -1,5 +1,7 @@
 package minigptj.model;
 
+import java.util.Random;
+
 import minigptj.core.Linear;
 import minigptj.core.Matrix;
 
@@ -56,16 +58,28 @@ public class CausalSelfAttention {
      * @param seqLen fixed sequence length used by the attention mask
      */
     public CausalSelfAttention(int dModel, int seqLen) {
+        this(dModel, seqLen, new Random());
+    }
+
+    /**
+     * Creates a single-head causal self-attention layer whose projections are
+     * initialised from the given random generator.
+     *
+     * @param dModel embedding dimension
+     * @param seqLen fixed sequence length used by the attention mask
+     * @param rand random generator used for the projection weights
+     */
+    public CausalSelfAttention(int dModel, int seqLen, Random rand) {
         if (dModel < 1) throw new IllegalArgumentException("dModel must be >= 1");
         if (seqLen < 1) throw new IllegalArgumentException("seqLen must be >= 1");
 
         this.dModel = dModel;
         this.seqLen = seqLen;
 
-        this.Wq = new Linear(dModel, dModel);
-        this.Wk = new Linear(dModel, dModel);
-        this.Wv = new Linear(dModel, dModel);
-        this.Wo = new Linear(dModel, dModel);
+        this.Wq = new Linear(dModel, dModel, rand);
+        this.Wk = new Linear(dModel, dModel, rand);
+        this.Wv = new Linear(dModel, dModel, rand);
+        this.Wo = new Linear(dModel, dModel, rand);
 
         /*
          * Scale query/key projections slightly at initialisation.
@@ -78,6 +92,54 @@ public class CausalSelfAttention {
         scaleWeights(Wk.getWeights(), 0.1);
     }
 
+    /**
+     * Creates a replica that shares the projections of another layer.
+     */
+    private CausalSelfAttention(CausalSelfAttention source) {
+        this.dModel = source.dModel;
+        this.seqLen = source.seqLen;
+        this.Wq = source.Wq.replicate();
+        this.Wk = source.Wk.replicate();
+        this.Wv = source.Wv.replicate();
+        this.Wo = source.Wo.replicate();
+    }
+
+    /**
+     * Creates a replica of this layer for data-parallel training.
+     *
+     * The four projections are replicated with Linear.replicate(), so the
+     * replica shares their weights while keeping its own attention caches
+     * and gradients.
+     *
+     * @return attention layer sharing this layer's parameters
+     */
+    public CausalSelfAttention replicate() {
+        return new CausalSelfAttention(this);
+    }
+
+    /**
+     * Switches gradient accumulation on or off for all four projections.
+     *
+     * @param accumulate true to add each backward pass to the existing
+     *                   gradients, false to replace them
+     */
+    public void setAccumulateGradients(boolean accumulate) {
+        Wq.setAccumulateGradients(accumulate);
+        Wk.setAccumulateGradients(accumulate);
+        Wv.setAccumulateGradients(accumulate);
+        Wo.setAccumulateGradients(accumulate);
+    }
+
+    /**
+     * Resets the gradients of all four projections to zero.
+     */
+    public void zeroGrad() {
+        Wq.zeroGrad();
+        Wk.zeroGrad();
+        Wv.zeroGrad();
+        Wo.zeroGrad();
+    }
+
     /**
      * Forward pass through causal self-attention.
      *
@@ -3,6 +3,7 @@ package minigptj.model;
 import java.util.Random;
 
 import minigptj.core.Matrix;
+import minigptj.core.SparseRowGradient;
 
 /**
  * Learned token embedding layer.
@@ -14,16 +15,31 @@ import minigptj.core.Matrix;
  * The class supports two output layouts:
  * - flattened layout: batchSize x (contextLen * dModel)
  * - sequence layout: (batchSize * contextLen) x dModel
+ *
+ * Gradients are kept row-sparse: only the rows of tokens that appeared in the
+ * most recent batch are stored, so backward and optimiser costs scale with the
+ * number of distinct tokens per batch rather than the vocabulary size.
+ *
+ * Gradients are reset at the start of each forward pass and accumulated by
+ * backward. This lets a TiedOutputProjection that reuses these weights add its
+ * gradient into the same parameter before the embedding's own backward pass.
+ * In accumulate mode (setAccumulateGradients(true)) forward passes no longer
+ * reset the gradient, so it sums over several micro-batches until zeroGrad()
+ * is called.
  */
 public class Embedding {
     private final int vocabSize;
     private final int dModel;
 
     private final Matrix weights;     // (vocabSize x dModel)
-    private Matrix gradWeights;       // (vocabSize x dModel)
+    private final SparseRowGradient gradWeights; // touched rows of (vocabSize x dModel)
 
-    // cache last input IDs for backprop
-    private int[][] lastIds;
+    // cache last input IDs for backprop, flattened row-major (b * contextLen + t)
+    private int[] lastIds;
+    private int lastContextLen;
+
+    // When true, forward passes keep the gradient of earlier micro-batches.
+    private boolean accumulateGradients;
 
     /**
      * Creates an embedding layer with randomly initialised weights.
@@ -32,6 +48,18 @@ public class Embedding {
      * @param dModel size of each learned embedding vector
      */
     public Embedding(int vocabSize, int dModel) {
+        this(vocabSize, dModel, new Random());
+    }
+
+    /**
+     * Creates an embedding layer whose weights are drawn from the given
+     * random generator.
+     *
+     * @param vocabSize number of tokens in the vocabulary
+     * @param dModel size of each learned embedding vector
+     * @param rand random generator used for the weights
+     */
+    public Embedding(int vocabSize, int dModel, Random rand) {
         if (vocabSize < 2) throw new IllegalArgumentException("vocabSize must be >= 2");
         if (dModel < 1) throw new IllegalArgumentException("dModel must be >= 1");
 
@@ -39,10 +67,9 @@ public class Embedding {
         this.dModel = dModel;
 
         this.weights = new Matrix(vocabSize, dModel);
-        this.gradWeights = new Matrix(vocabSize, dModel);
+        this.gradWeights = new SparseRowGradient(vocabSize, dModel);
 
         // small random init
-        Random rand = new Random();
         for (int i = 0; i < vocabSize; i++) {
             for (int j = 0; j < dModel; j++) {
                 weights.set(i, j, rand.nextGaussian() * 0.01);
@@ -50,6 +77,29 @@ public class Embedding {
         }
     }
 
+    /**
+     * Creates a replica that shares the weights of another embedding.
+     */
+    private Embedding(Embedding source) {
+        this.vocabSize = source.vocabSize;
+        this.dModel = source.dModel;
+        this.weights = source.weights;
+        this.gradWeights = new SparseRowGradient(vocabSize, dModel);
+        this.accumulateGradients = source.accumulateGradients;
+    }
+
+    /**
+     * Creates a replica of this layer for data-parallel training.
+     *
+     * The replica shares the embedding matrix but has its own cached token
+     * IDs and its own sparse gradient.
+     *
+     * @return embedding sharing this layer's weights
+     */
+    public Embedding replicate() {
+        return new Embedding(this);
+    }
+
     /**
      * Performs a forward pass using flattened output layout.
      *
@@ -63,33 +113,19 @@ public class Embedding {
      * @return flattened embedding matrix
      */
     public Matrix forward(int[][] ids) {
-        if (ids == null) throw new IllegalArgumentException("ids cannot be null");
-        if (ids.length == 0) throw new IllegalArgumentException("ids must not be empty");
-
+        int[] flatIds = flattenAndValidate(ids);
         int batchSize = ids.length;
         int contextLen = ids[0].length;
-        if (contextLen < 1) throw new IllegalArgumentException("contextLen must be >= 1");
-
-        // validate rectangular + cache
-        for (int i = 0; i < batchSize; i++) {
-            if (ids[i].length != contextLen) {
-                throw new IllegalArgumentException("ragged ids: all rows must have same length");
-            }
-        }
-        this.lastIds = ids;
 
+        Matrix rows = weights.gatherRows(flatIds);
         Matrix out = new Matrix(batchSize, contextLen * dModel);
 
         for (int b = 0; b < batchSize; b++) {
             for (int t = 0; t < contextLen; t++) {
-                int tokenId = ids[b][t];
-                if (tokenId < 0 || tokenId >= vocabSize) {
-                    throw new IllegalArgumentException("token id out of range: " + tokenId);
-                }
-
+                int row = b * contextLen + t;
                 int baseCol = t * dModel;
                 for (int j = 0; j < dModel; j++) {
-                    out.set(b, baseCol + j, weights.get(tokenId, j));
+                    out.set(b, baseCol + j, rows.get(row, j));
                 }
             }
         }
@@ -115,34 +151,52 @@ public class Embedding {
      * @return sequence-form embedding matrix
      */
     public Matrix forwardSeq(int[][] ids) {
-        if (ids == null) throw new IllegalArgumentException("ids cannot be null");
-        if (ids.length == 0) throw new IllegalArgumentException("ids must not be empty");
+        return weights.gatherRows(flattenAndValidate(ids));
+    }
 
-        int batchSize = ids.length;
-        int contextLen = ids[0].length;
-        for (int i = 0; i < batchSize; i++) {
-            if (ids[i].length != contextLen) throw new IllegalArgumentException("ragged ids");
+    /**
+     * Performs a sequence-layout forward pass with positional embeddings fused in.
+     *
+     * Equivalent to forwardSeq(ids) followed by adding pos row t to every
+     * output row at token position t, but done in a single gather pass.
+     *
+     * @param ids token IDs for each context window
+     * @param pos positional embeddings of shape contextLen x dModel
+     * @return sequence-form embedding matrix including positional embeddings
+     */
+    public Matrix forwardSeq(int[][] ids, Matrix pos) {
+        int[] flatIds = flattenAndValidate(ids);
+        if (pos.getRows() != lastContextLen || pos.getCols() != dModel) {
+            throw new IllegalArgumentException("pos must have shape contextLen x dModel");
         }
-        this.lastIds = ids;
-
-        Matrix out = new Matrix(batchSize * contextLen, dModel);
+        return weights.gatherRows(flatIds, pos);
+    }
 
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < contextLen; t++) {
-                int tokenId = ids[b][t];
-                if (tokenId < 0 || tokenId >= vocabSize) {
-                    throw new IllegalArgumentException("token id out of range: " + tokenId);
-                }
-                int row = b * contextLen + t;
-                for (int j = 0; j < dModel; j++) {
-                    out.set(row, j, weights.get(tokenId, j));
-                }
-            }
+    /**
+     * Performs a sequence-layout forward pass over flat token IDs with
+     * positional embeddings fused in.
+     *
+     * The IDs are row-major, contextLen per sequence, where contextLen is
+     * the number of rows of pos. The array is kept for backwardSeq() without
+     * copying, so the caller must not refill it before the backward pass.
+     *
+     * @param ids token IDs of length batchSize * contextLen
+     * @param pos positional embeddings of shape contextLen x dModel
+     * @return sequence-form embedding matrix including positional embeddings
+     */
+    public Matrix forwardSeq(int[] ids, Matrix pos) {
+        if (ids == null) throw new IllegalArgumentException("ids cannot be null");
+        if (pos.getCols() != dModel) {
+            throw new IllegalArgumentException("pos must have shape contextLen x dModel");
         }
-        return out;
+        int contextLen = pos.getRows();
+        if (ids.length == 0 || ids.length % contextLen != 0) {
+            throw new IllegalArgumentException("ids length must be a positive multiple of contextLen");
+        }
+        cacheIds(ids, contextLen);
+        return weights.gatherRows(ids, pos);
     }
 
-
     /**
      * Backward pass for the flattened forward layout.
      *
@@ -155,25 +209,21 @@ public class Embedding {
     public void backward(Matrix dOut) {
         if (lastIds == null) throw new IllegalStateException("Must call forward() before backward().");
 
-        int batchSize = lastIds.length;
-        int contextLen = lastIds[0].length;
+        int contextLen = lastContextLen;
+        int batchSize = lastIds.length / contextLen;
 
         if (dOut.getRows() != batchSize || dOut.getCols() != contextLen * dModel) {
             throw new IllegalArgumentException("dOut has wrong shape");
         }
 
-        // reset gradWeights to 0
-        this.gradWeights = new Matrix(vocabSize, dModel);
-
         for (int b = 0; b < batchSize; b++) {
             for (int t = 0; t < contextLen; t++) {
-                int tokenId = lastIds[b][t];
+                int tokenId = lastIds[b * contextLen + t];
                 int baseCol = t * dModel;
 
                 for (int j = 0; j < dModel; j++) {
-                    double g = dOut.get(b, baseCol + j);
                     // accumulate because the same token can appear multiple times
-                    gradWeights.set(tokenId, j, gradWeights.get(tokenId, j) + g);
+                    gradWeights.add(tokenId, j, dOut.get(b, baseCol + j));
                 }
             }
         }
@@ -182,34 +232,19 @@ public class Embedding {
      * Backward pass for the sequence forward layout.
      *
      * This is used when embeddings are passed into the transformer attention
-     * block in sequence form.
+     * block in sequence form. Rows are scatter-added into the sparse gradient,
+     * in parallel for large batches.
      *
      * @param dOut upstream gradient of shape (batchSize * contextLen) x dModel
      */
     public void backwardSeq(Matrix dOut) {
         if (lastIds == null) throw new IllegalStateException("Must call forwardSeq() before backwardSeq().");
 
-        int batchSize = lastIds.length;
-        int contextLen = lastIds[0].length;
-
-        if (dOut.getRows() != batchSize * contextLen || dOut.getCols() != dModel) {
+        if (dOut.getRows() != lastIds.length || dOut.getCols() != dModel) {
             throw new IllegalArgumentException("dOut has wrong shape for backwardSeq()");
         }
 
-        // reset grads
-        this.gradWeights = new Matrix(vocabSize, dModel);
-
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < contextLen; t++) {
-                int tokenId = lastIds[b][t];
-                int row = b * contextLen + t;
-
-                for (int j = 0; j < dModel; j++) {
-                    double g = dOut.get(row, j);
-                    gradWeights.set(tokenId, j, gradWeights.get(tokenId, j) + g);
-                }
-            }
-        }
+        gradWeights.scatterAddRows(lastIds, dOut);
     }
 
     /**
@@ -222,14 +257,43 @@ public class Embedding {
     }
 
     /**
-     * Returns the most recent embedding gradients.
+     * Returns the most recent embedding gradients as a dense matrix.
+     *
+     * This materialises every vocabulary row and is intended for diagnostics;
+     * optimisers use getSparseGradWeights() instead.
      *
      * @return gradient matrix for the embedding weights
      */
     public Matrix getGradWeights() {
+        return gradWeights.toDense();
+    }
+
+    /**
+     * Returns the most recent embedding gradients for the touched rows only.
+     *
+     * @return row-sparse gradient for the embedding weights
+     */
+    public SparseRowGradient getSparseGradWeights() {
         return gradWeights;
     }
 
+    /**
+     * Switches gradient accumulation on or off.
+     *
+     * @param accumulate true to keep the gradient across forward passes until
+     *                   zeroGrad(), false to reset it at every forward pass
+     */
+    public void setAccumulateGradients(boolean accumulate) {
+        this.accumulateGradients = accumulate;
+    }
+
+    /**
+     * Resets the embedding gradient to zero.
+     */
+    public void zeroGrad() {
+        gradWeights.clear();
+    }
+
     /**
      * Returns the number of tokens in the vocabulary.
      *
@@ -239,6 +303,57 @@ public class Embedding {
         return vocabSize;
     }
 
+    /**
+     * Flattens a batch of token IDs into row-major order and caches it.
+     *
+     * All validation happens here, before any embedding rows are copied, so
+     * the gather loops themselves contain no checks. Outside accumulate mode,
+     * starting a forward pass also resets the gradient for the new step.
+     *
+     * @param ids token IDs of shape batchSize x contextLen
+     * @return flattened token IDs of length batchSize * contextLen
+     */
+    private int[] flattenAndValidate(int[][] ids) {
+        if (ids == null) throw new IllegalArgumentException("ids cannot be null");
+        if (ids.length == 0) throw new IllegalArgumentException("ids must not be empty");
+
+        int batchSize = ids.length;
+        int contextLen = ids[0].length;
+        if (contextLen < 1) throw new IllegalArgumentException("contextLen must be >= 1");
+
+        int[] flat = new int[batchSize * contextLen];
+        for (int b = 0; b < batchSize; b++) {
+            int[] row = ids[b];
+            if (row.length != contextLen) {
+                throw new IllegalArgumentException("ragged ids: all rows must have same length");
+            }
+            System.arraycopy(row, 0, flat, b * contextLen, contextLen);
+        }
+        cacheIds(flat, contextLen);
+        return flat;
+    }
+
+    /**
+     * Checks flat token IDs against the vocabulary and caches them for the
+     * backward pass.
+     *
+     * @param flat token IDs of length batchSize * contextLen
+     * @param contextLen number of tokens per sequence
+     */
+    private void cacheIds(int[] flat, int contextLen) {
+        for (int tokenId : flat) {
+            if (tokenId < 0 || tokenId >= vocabSize) {
+                throw new IllegalArgumentException("token id out of range: " + tokenId);
+            }
+        }
+
+        this.lastIds = flat;
+        this.lastContextLen = contextLen;
+        if (!accumulateGradients) {
+            gradWeights.clear();
+        }
+    }
+
     /**
      * Returns the embedding dimension.
      *
@@ -0,0 +1,290 @@
+package minigptj.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+import minigptj.core.ReLU;
+import minigptj.optim.TreeAllReduce;
+
+/**
+ * Position-wise feed-forward network split across worker threads.
+ *
+ * The FFN computes relu(X * W1 + b1) * W2 + b2. W1 (dModel x hidden) is split
+ * by columns and W2 (hidden x dModel) by the matching rows, so shard s holds
+ * columns [h_s, h_s+1) of W1 and the same rows of W2:
+ *
+ *   H_s = relu(X * W1_s + b1_s)          independent per shard
+ *   Y   = sum_s H_s * W2_s + b2          one reduction at the block boundary
+ *
+ * The ReLU is element-wise, so no communication is needed between the two
+ * layers. The backward pass mirrors this: every shard receives the full
+ * upstream gradient and the input gradients dX_s are summed in a second
+ * reduction. Both reductions use TreeAllReduce, so results do not depend on
+ * thread timing.
+ *
+ * Each worker only holds its 1/shards slice of the weights, gradients and
+ * hidden activations. The shards are independent Linear layers and are
+ * registered with the optimiser instead of the full layers; copyTo() writes
+ * them back into full-size layers for sampling and saving.
+ *
+ * Only shard 0 of the second layer carries the bias b2. The other shards'
+ * biases stay at zero: their bias gradients are cleared after backward.
+ */
+public class TensorParallelFFN implements AutoCloseable {
+    private final int dModel;
+    private final int hidden;
+    private final Linear[] up;      // column shards of W1, each dModel x h_s
+    private final Linear[] down;    // row shards of W2, each h_s x dModel
+    private final ReLU[] act;
+    private final int[] bounds;     // hidden columns [bounds[s], bounds[s + 1]) belong to shard s
+    private final ExecutorService workers;
+
+    /**
+     * Splits a two-layer FFN into shards. The full layers are copied, not
+     * modified.
+     *
+     * @param ffn1 first layer, dModel x hidden
+     * @param ffn2 second layer, hidden x dModel
+     * @param shards number of shards and worker threads
+     */
+    public TensorParallelFFN(Linear ffn1, Linear ffn2, int shards) {
+        Matrix w1 = ffn1.getWeights();
+        Matrix w2 = ffn2.getWeights();
+        if (w1.getCols() != w2.getRows() || w1.getRows() != w2.getCols()) {
+            throw new IllegalArgumentException("ffn1 and ffn2 shapes do not form a dModel -> hidden -> dModel FFN");
+        }
+        if (ffn1.hasLora() || ffn2.hasLora()) {
+            throw new IllegalArgumentException("LoRA layers cannot be split");
+        }
+        this.dModel = w1.getRows();
+        this.hidden = w1.getCols();
+        if (shards < 1 || shards > hidden) {
+            throw new IllegalArgumentException("shards must be in [1, " + hidden + "]");
+        }
+
+        this.bounds = new int[shards + 1];
+        for (int s = 0; s <= shards; s++) {
+            bounds[s] = (int) ((long) hidden * s / shards);
+        }
+
+        this.up = new Linear[shards];
+        this.down = new Linear[shards];
+        this.act = new ReLU[shards];
+        for (int s = 0; s < shards; s++) {
+            int width = bounds[s + 1] - bounds[s];
+            up[s] = new Linear(dModel, width);
+            down[s] = new Linear(width, dModel);
+            act[s] = new ReLU();
+        }
+        loadFrom(ffn1, ffn2);
+        this.workers = newWorkers(shards);
+    }
+
+    /**
+     * Creates a replica that shares another module's shard weights.
+     */
+    private TensorParallelFFN(TensorParallelFFN source) {
+        this.dModel = source.dModel;
+        this.hidden = source.hidden;
+        this.bounds = source.bounds;
+        int shards = source.up.length;
+        this.up = new Linear[shards];
+        this.down = new Linear[shards];
+        this.act = new ReLU[shards];
+        for (int s = 0; s < shards; s++) {
+            up[s] = source.up[s].replicate();
+            down[s] = source.down[s].replicate();
+            act[s] = new ReLU();
+        }
+        this.workers = newWorkers(shards);
+    }
+
+    /**
+     * Creates a replica for data-parallel training. It shares the shard
+     * weights but has its own caches, gradients and worker threads.
+     *
+     * @return module sharing this module's parameters
+     */
+    public TensorParallelFFN replicate() {
+        return new TensorParallelFFN(this);
+    }
+
+    /**
+     * Forward pass.
+     *
+     * @param x input of shape N x dModel
+     * @return output of shape N x dModel
+     */
+    public Matrix forward(Matrix x) {
+        if (x.getCols() != dModel) throw new IllegalArgumentException("x cols must equal dModel");
+
+        List<Callable<Matrix>> tasks = new ArrayList<>();
+        for (int s = 0; s < up.length; s++) {
+            int shard = s;
+            tasks.add(() -> down[shard].forward(act[shard].forward(up[shard].forward(x))));
+        }
+        return reduce(tasks);
+    }
+
+    /**
+     * Backward pass for the most recent forward().
+     *
+     * @param dOut upstream gradient of shape N x dModel
+     * @return gradient with respect to the input, shape N x dModel
+     */
+    public Matrix backward(Matrix dOut) {
+        List<Callable<Matrix>> tasks = new ArrayList<>();
+        for (int s = 0; s < up.length; s++) {
+            int shard = s;
+            tasks.add(() -> {
+                Matrix dHidden = down[shard].backward(dOut);
+                if (shard > 0) {
+                    clear(down[shard].getGradBias());
+                }
+                return up[shard].backward(act[shard].backward(dHidden));
+            });
+        }
+        return reduce(tasks);
+    }
+
+    /**
+     * Returns the shard layers the optimiser should update: every column
+     * shard of the first layer, then every row shard of the second.
+     *
+     * @return shard layers in a fixed order
+     */
+    public List<Linear> getShardLayers() {
+        List<Linear> layers = new ArrayList<>(List.of(up));
+        layers.addAll(List.of(down));
+        return layers;
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return shard count
+     */
+    public int getShardCount() {
+        return up.length;
+    }
+
+    /**
+     * Writes the shard weights back into full-size layers.
+     *
+     * @param ffn1 destination first layer, dModel x hidden
+     * @param ffn2 destination second layer, hidden x dModel
+     */
+    public void copyTo(Linear ffn1, Linear ffn2) {
+        Matrix w1 = ffn1.getWeights();
+        Matrix b1 = ffn1.getBias();
+        Matrix w2 = ffn2.getWeights();
+        Matrix b2 = ffn2.getBias();
+        checkShapes(w1, w2);
+
+        for (int s = 0; s < up.length; s++) {
+            int from = bounds[s];
+            Matrix uw = up[s].getWeights();
+            Matrix ub = up[s].getBias();
+            Matrix dw = down[s].getWeights();
+            for (int c = 0; c < uw.getCols(); c++) {
+                for (int i = 0; i < dModel; i++) {
+                    w1.set(i, from + c, uw.get(i, c));
+                }
+                b1.set(0, from + c, ub.get(0, c));
+                for (int j = 0; j < dModel; j++) {
+                    w2.set(from + c, j, dw.get(c, j));
+                }
+            }
+        }
+        for (int j = 0; j < dModel; j++) {
+            b2.set(0, j, down[0].getBias().get(0, j));
+        }
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    /**
+     * Copies full-size layer weights into the shards.
+     */
+    private void loadFrom(Linear ffn1, Linear ffn2) {
+        Matrix w1 = ffn1.getWeights();
+        Matrix b1 = ffn1.getBias();
+        Matrix w2 = ffn2.getWeights();
+        Matrix b2 = ffn2.getBias();
+
+        for (int s = 0; s < up.length; s++) {
+            int from = bounds[s];
+            Matrix uw = up[s].getWeights();
+            Matrix ub = up[s].getBias();
+            Matrix dw = down[s].getWeights();
+            for (int c = 0; c < uw.getCols(); c++) {
+                for (int i = 0; i < dModel; i++) {
+                    uw.set(i, c, w1.get(i, from + c));
+                }
+                ub.set(0, c, b1.get(0, from + c));
+                for (int j = 0; j < dModel; j++) {
+                    dw.set(c, j, w2.get(from + c, j));
+                }
+            }
+        }
+        for (int j = 0; j < dModel; j++) {
+            down[0].getBias().set(0, j, b2.get(0, j));
+        }
+    }
+
+    private void checkShapes(Matrix w1, Matrix w2) {
+        if (w1.getRows() != dModel || w1.getCols() != hidden || w2.getRows() != hidden || w2.getCols() != dModel) {
+            throw new IllegalArgumentException("layers must have shapes dModel x hidden and hidden x dModel");
+        }
+    }
+
+    /**
+     * Runs one task per shard and sums their results in a fixed order.
+     */
+    private Matrix reduce(List<Callable<Matrix>> tasks) {
+        List<Matrix> partials = new ArrayList<>();
+        try {
+            for (Future<Matrix> future : workers.invokeAll(tasks)) {
+                partials.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for FFN shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException("FFN shard failed", cause);
+        }
+        TreeAllReduce.sum(partials);
+        return partials.get(0);
+    }
+
+    private static void clear(Matrix m) {
+        for (int j = 0; j < m.getCols(); j++) {
+            m.set(0, j, 0.0);
+        }
+    }
+
+    private static ExecutorService newWorkers(int shards) {
+        AtomicInteger next = new AtomicInteger();
+        return Executors.newFixedThreadPool(shards, r -> {
+            Thread thread = new Thread(r, "ffn-shard-" + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
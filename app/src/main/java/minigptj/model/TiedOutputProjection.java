@@ -0,0 +1,85 @@
+package minigptj.model;
+
+import minigptj.core.Matrix;
+
+/**
+ * Output projection that reuses the token embedding matrix.
+ *
+ * Instead of a separate dModel x vocabSize Linear layer, logits are computed
+ * against the transposed embedding weights:
+ *
+ *     logits = hidden * E^T
+ *
+ * where E is the vocabSize x dModel embedding matrix. The product is computed
+ * with a transposed matrix multiply, so E^T is never materialised.
+ *
+ * During backpropagation the output-side gradient dLogits^T * hidden is added
+ * into the embedding's own gradient, so both uses of the shared matrix train
+ * a single parameter with a single set of optimiser state. Like common GPT
+ * implementations, the tied projection has no bias.
+ *
+ * Order of calls within a training step:
+ *     emb.forwardSeq(...)    resets the embedding gradient
+ *     tied.forward(...)
+ *     tied.backward(...)     adds the output-side gradient
+ *     emb.backwardSeq(...)   adds the input-side gradient
+ */
+public class TiedOutputProjection {
+    private final Embedding embedding;
+
+    private Matrix lastInput;
+
+    /**
+     * Creates an output projection tied to an embedding layer.
+     *
+     * @param embedding embedding whose weights are shared
+     */
+    public TiedOutputProjection(Embedding embedding) {
+        if (embedding == null) throw new IllegalArgumentException("embedding cannot be null");
+        this.embedding = embedding;
+    }
+
+    /**
+     * Projects hidden vectors onto vocabulary logits.
+     *
+     * @param hidden matrix of shape N x dModel
+     * @return logits of shape N x vocabSize
+     */
+    public Matrix forward(Matrix hidden) {
+        if (hidden.getCols() != embedding.getDModel()) {
+            throw new IllegalArgumentException("hidden cols must equal dModel");
+        }
+        this.lastInput = hidden;
+        return hidden.dotTransposed(embedding.getWeights());
+    }
+
+    /**
+     * Backward pass through the tied projection.
+     *
+     * Adds dLogits^T * hidden to the embedding gradient and returns the
+     * gradient with respect to the hidden vectors.
+     *
+     * @param dLogits upstream gradient of shape N x vocabSize
+     * @return gradient with respect to hidden, shape N x dModel
+     */
+    public Matrix backward(Matrix dLogits) {
+        if (lastInput == null) {
+            throw new IllegalStateException("Must call forward() before backward().");
+        }
+
+        // dE = dLogits^T * X  (vocabSize x dModel)
+        embedding.getSparseGradWeights().addDense(dLogits.transposeDot(lastInput));
+
+        // dX = dLogits * E
+        return dLogits.dot(embedding.getWeights());
+    }
+
+    /**
+     * Returns the embedding layer whose weights are shared.
+     *
+     * @return tied embedding layer
+     */
+    public Embedding getEmbedding() {
+        return embedding;
+    }
+}
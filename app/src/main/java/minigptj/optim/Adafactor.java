@@ -0,0 +1,277 @@
+package minigptj.optim;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+import minigptj.core.SparseRowGradient;
+import minigptj.model.Embedding;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adafactor optimiser with a factored second moment.
+ *
+ * Adam stores a full second-moment matrix per parameter. Adafactor instead
+ * keeps one running mean of squared gradients per row (R) and one per
+ * column (C), and reconstructs the second moment as a rank-1 estimate:
+ *
+ *   R_i = beta2_t * R_i + (1 - beta2_t) * mean_j(g_ij^2 + eps)
+ *   C_j = beta2_t * C_j + (1 - beta2_t) * mean_i(g_ij^2 + eps)
+ *   V_ij = R_i * C_j / mean(C)
+ *
+ * Optimiser memory is therefore O(rows + cols) per matrix rather than
+ * O(rows * cols). A 1 x n bias row reduces to an unfactored estimate.
+ *
+ * Update rule (no first moment):
+ *
+ *   U = G / sqrt(V)
+ *   U = U / max(1, RMS(U) / clipThreshold)
+ *   param = param - lr * U
+ *
+ * The decay rate grows with the timestep, beta2_t = 1 - t^(-decayRate), so
+ * early steps rely on recent gradients and no bias correction is needed.
+ */
+public class Adafactor implements Optimizer {
+    private double lr;
+    private final double decayRate;
+    private final double eps;
+    private final double clipThreshold;
+
+    // Optimisation timestep used for the decay schedule.
+    private int t = 0;
+
+    /**
+     * Running row means of squared gradients for each parameter matrix.
+     */
+    private final Map<Matrix, double[]> rowStats = new HashMap<>();
+    /**
+     * Running column means of squared gradients for each parameter matrix.
+     */
+    private final Map<Matrix, double[]> colStats = new HashMap<>();
+
+    /**
+     * Creates an Adafactor optimiser using standard default hyperparameters.
+     *
+     * Defaults:
+     *   decayRate     = 0.8
+     *   eps           = 1e-30
+     *   clipThreshold = 1.0
+     *
+     * @param lr learning rate
+     */
+    public Adafactor(double lr) {
+        this(lr, 0.8, 1e-30, 1.0);
+    }
+
+    /**
+     * Creates an Adafactor optimiser with custom hyperparameters.
+     *
+     * @param lr learning rate
+     * @param decayRate exponent of the second-moment decay schedule
+     * @param eps small constant added to squared gradients
+     * @param clipThreshold maximum RMS of an update before it is scaled down
+     */
+    public Adafactor(double lr, double decayRate, double eps, double clipThreshold) {
+        if (decayRate <= 0) throw new IllegalArgumentException("decayRate must be > 0");
+        if (clipThreshold <= 0) throw new IllegalArgumentException("clipThreshold must be > 0");
+        this.lr = lr;
+        this.decayRate = decayRate;
+        this.eps = eps;
+        this.clipThreshold = clipThreshold;
+    }
+
+    /**
+     * Returns the current learning rate.
+     *
+     * @return learning rate used by the next update
+     */
+    @Override
+    public double getLearningRate() {
+        return lr;
+    }
+
+    /**
+     * Sets the learning rate used by subsequent updates. Learning-rate
+     * schedules call this once per training step.
+     *
+     * @param lr new learning rate
+     */
+    @Override
+    public void setLearningRate(double lr) {
+        this.lr = lr;
+    }
+
+    /**
+     * Applies one optimisation step to a Linear layer.
+     *
+     * Both the weight matrix and bias vector are updated in-place. If the
+     * layer has LoRA adapters attached, only the adapters are updated.
+     *
+     * @param layer Linear layer to update
+     */
+    @Override
+    public void step(Linear layer) {
+        if (layer.hasLora()) {
+            update(layer.getLoraA(), layer.getGradLoraA());
+            update(layer.getLoraB(), layer.getGradLoraB());
+            return;
+        }
+        update(layer.getWeights(), layer.getGradWeights());
+        update(layer.getBias(),    layer.getGradBias());
+    }
+
+    /**
+     * Applies one optimisation step to an Embedding layer.
+     *
+     * Like Adam.step(Embedding) this is a lazy update: only rows for tokens
+     * that appeared in the batch have their row statistics and weights
+     * updated, and the column statistics are averaged over those rows.
+     *
+     * @param emb embedding layer to update
+     */
+    @Override
+    public void step(Embedding emb) {
+        updateSparse(emb.getWeights(), emb.getSparseGradWeights());
+    }
+
+    /**
+     * Advances the optimiser timestep.
+     *
+     * This should be called once per training step before parameter updates
+     * so that the decay schedule is computed correctly.
+     */
+    @Override
+    public void tick() {
+        t++;
+    }
+
+    /**
+     * Returns the memory held by the factored statistics across all
+     * parameters.
+     *
+     * @return approximate optimiser state size in bytes
+     */
+    public long getStateBytes() {
+        long total = 0;
+        for (double[] r : rowStats.values()) total += (long) Double.BYTES * r.length;
+        for (double[] c : colStats.values()) total += (long) Double.BYTES * c.length;
+        return total;
+    }
+
+    /**
+     * Updates a parameter matrix using the Adafactor update rule.
+     *
+     * @param param parameter matrix to update
+     * @param grad gradient matrix for the parameter
+     */
+    private void update(Matrix param, Matrix grad) {
+        if (grad == null) throw new IllegalStateException("Grad is null; call backward() first.");
+        double beta2 = currentBeta2();
+
+        int rows = param.getRows();
+        int cols = param.getCols();
+        double[] r = rowStats.computeIfAbsent(param, k -> new double[rows]);
+        double[] c = colStats.computeIfAbsent(param, k -> new double[cols]);
+
+        // row and column sums of squared gradients
+        double[] rowSq = new double[rows];
+        double[] colSq = new double[cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                double g = grad.get(i, j);
+                double g2 = g * g + eps;
+                rowSq[i] += g2;
+                colSq[j] += g2;
+            }
+        }
+        for (int i = 0; i < rows; i++) {
+            r[i] = beta2 * r[i] + (1 - beta2) * rowSq[i] / cols;
+        }
+        for (int j = 0; j < cols; j++) {
+            c[j] = beta2 * c[j] + (1 - beta2) * colSq[j] / rows;
+        }
+        double meanC = mean(c);
+
+        // first pass: RMS of the unclipped update
+        double sumU2 = 0.0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                double u = grad.get(i, j) / Math.sqrt(r[i] * c[j] / meanC);
+                sumU2 += u * u;
+            }
+        }
+        double scale = lr / Math.max(1.0, Math.sqrt(sumU2 / (rows * cols)) / clipThreshold);
+
+        // second pass: parameter update
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                double u = grad.get(i, j) / Math.sqrt(r[i] * c[j] / meanC);
+                param.set(i, j, param.get(i, j) - scale * u);
+            }
+        }
+    }
+
+    /**
+     * Updates only the rows present in a row-sparse gradient.
+     *
+     * @param param parameter matrix to update
+     * @param grad row-sparse gradient for the parameter
+     */
+    private void updateSparse(Matrix param, SparseRowGradient grad) {
+        double beta2 = currentBeta2();
+        int touched = grad.size();
+        if (touched == 0) return;
+
+        int cols = param.getCols();
+        double[] r = rowStats.computeIfAbsent(param, k -> new double[param.getRows()]);
+        double[] c = colStats.computeIfAbsent(param, k -> new double[cols]);
+
+        double[] colSq = new double[cols];
+        for (int k = 0; k < touched; k++) {
+            double rowSq = 0.0;
+            for (int j = 0; j < cols; j++) {
+                double g = grad.get(k, j);
+                double g2 = g * g + eps;
+                rowSq += g2;
+                colSq[j] += g2;
+            }
+            int i = grad.rowIndex(k);
+            r[i] = beta2 * r[i] + (1 - beta2) * rowSq / cols;
+        }
+        for (int j = 0; j < cols; j++) {
+            c[j] = beta2 * c[j] + (1 - beta2) * colSq[j] / touched;
+        }
+        double meanC = mean(c);
+
+        double sumU2 = 0.0;
+        for (int k = 0; k < touched; k++) {
+            double ri = r[grad.rowIndex(k)];
+            for (int j = 0; j < cols; j++) {
+                double u = grad.get(k, j) / Math.sqrt(ri * c[j] / meanC);
+                sumU2 += u * u;
+            }
+        }
+        double scale = lr / Math.max(1.0, Math.sqrt(sumU2 / ((double) touched * cols)) / clipThreshold);
+
+        for (int k = 0; k < touched; k++) {
+            int i = grad.rowIndex(k);
+            for (int j = 0; j < cols; j++) {
+                double u = grad.get(k, j) / Math.sqrt(r[i] * c[j] / meanC);
+                param.set(i, j, param.get(i, j) - scale * u);
+            }
+        }
+    }
+
+    /**
+     * Returns the second-moment decay for the current timestep.
+     */
+    private double currentBeta2() {
+        if (t < 1) throw new IllegalStateException("Call tick() before step().");
+        return 1.0 - Math.pow(t, -decayRate);
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0.0;
+        for (double v : values) sum += v;
+        return sum / values.length;
+    }
+}
@@ -2,6 +2,7 @@ package minigptj.optim;
 
 import minigptj.core.Linear;
 import minigptj.core.Matrix;
+import minigptj.core.SparseRowGradient;
 import minigptj.model.Embedding;
 import java.util.HashMap;
 import java.util.Map;
@@ -25,24 +26,26 @@ import java.util.Map;
  * After bias correction:
  *
  *   param = param - lr * mHat / (sqrt(vHat) + eps)
+ *
+ * The moments can optionally be stored in reduced precision (see
+ * MomentPrecision) to shrink optimiser memory. They are converted back to
+ * double inside each update, one row at a time.
  */
-public class Adam {
-    private final double lr;
+public class Adam implements Optimizer {
+    private double lr;
     private final double beta1;
     private final double beta2;
     private final double eps;
+    private final MomentPrecision precision;
 
     // Optimisation timestep used for bias correction.
     private int t = 0;
 
     /**
-     * First moment estimates (mean of gradients) for each parameter matrix.
-     */
-    private final Map<Matrix, double[][]> m1 = new HashMap<>();
-    /**
-     * Second moment estimates (mean of squared gradients) for each parameter matrix.
+     * First and second moment estimates (mean of gradients and of squared
+     * gradients) for each parameter matrix.
      */
-    private final Map<Matrix, double[][]> m2 = new HashMap<>();
+    private final Map<Matrix, MomentBuffer> moments = new HashMap<>();
 
     /**
      * Creates an Adam optimiser using standard default hyperparameters.
@@ -67,20 +70,76 @@ public class Adam {
      * @param eps small constant added for numerical stability
      */
     public Adam(double lr, double beta1, double beta2, double eps) {
+        this(lr, beta1, beta2, eps, MomentPrecision.DOUBLE);
+    }
+
+    /**
+     * Creates an Adam optimiser with default hyperparameters and the given
+     * moment storage precision.
+     *
+     * @param lr learning rate
+     * @param precision storage format for the moment estimates
+     */
+    public Adam(double lr, MomentPrecision precision) {
+        this(lr, 0.9, 0.999, 1e-8, precision);
+    }
+
+    /**
+     * Creates an Adam optimiser with custom hyperparameters and moment
+     * storage precision.
+     *
+     * @param lr learning rate
+     * @param beta1 exponential decay rate for first moment estimates
+     * @param beta2 exponential decay rate for second moment estimates
+     * @param eps small constant added for numerical stability
+     * @param precision storage format for the moment estimates
+     */
+    public Adam(double lr, double beta1, double beta2, double eps, MomentPrecision precision) {
+        if (precision == null) throw new IllegalArgumentException("precision cannot be null");
         this.lr = lr;
         this.beta1 = beta1;
         this.beta2 = beta2;
         this.eps = eps;
+        this.precision = precision;
+    }
+
+    /**
+     * Returns the current learning rate.
+     *
+     * @return learning rate used by the next update
+     */
+    @Override
+    public double getLearningRate() {
+        return lr;
+    }
+
+    /**
+     * Sets the learning rate used by subsequent updates. Learning-rate
+     * schedules call this once per training step.
+     *
+     * @param lr new learning rate
+     */
+    @Override
+    public void setLearningRate(double lr) {
+        this.lr = lr;
     }
 
     /**
      * Applies one optimisation step to a Linear layer.
      *
-     * Both the weight matrix and bias vector are updated in-place.
+     * Both the weight matrix and bias vector are updated in-place. If the
+     * layer has LoRA adapters attached, only the adapters are updated and
+     * moment buffers are only allocated for them.
      *
      * @param layer Linear layer to update
      */
+    @Override
     public void step(Linear layer) {
+        if (layer.hasLora()) {
+            update(layer.getLoraA(), layer.getGradLoraA());
+            update(layer.getLoraB(), layer.getGradLoraB());
+            return;
+        }
         update(layer.getWeights(), layer.getGradWeights());
         update(layer.getBias(),    layer.getGradBias());
     }
@@ -88,10 +147,15 @@ public class Adam {
     /**
      * Applies one optimisation step to an Embedding layer.
      *
+     * This is a lazy (sparse) Adam update: only rows for tokens that appeared
+     * in the batch have their moments and weights updated. Rows of unseen
+     * tokens are left untouched rather than being moved by decaying momentum.
+     *
      * @param emb embedding layer to update
      */
+    @Override
     public void step(Embedding emb) {
-        update(emb.getWeights(), emb.getGradWeights());
+        updateSparse(emb.getWeights(), emb.getSparseGradWeights());
     }
 
     /**
@@ -106,30 +170,86 @@ public class Adam {
         if (grad == null) throw new IllegalStateException("Grad is null; call backward() first.");
 
         // initialise moment buffers lazily on first use
-        double[][] firstMoment  = m1.computeIfAbsent(param,
-            k -> new double[param.getRows()][param.getCols()]);
-        double[][] secondMoment = m2.computeIfAbsent(param,
-            k -> new double[param.getRows()][param.getCols()]);
+        MomentBuffer state = momentsFor(param);
+        double[] firstMoment  = new double[param.getCols()];
+        double[] secondMoment = new double[param.getCols()];
 
         // bias correction terms
         double bc1 = 1.0 - Math.pow(beta1, t);
         double bc2 = 1.0 - Math.pow(beta2, t);
 
         for (int i = 0; i < param.getRows(); i++) {
+            state.readRow(i, firstMoment, secondMoment);
             for (int j = 0; j < param.getCols(); j++) {
                 double g = grad.get(i, j);
                 // update moving averages
-                firstMoment[i][j]  = beta1 * firstMoment[i][j]  + (1 - beta1) * g;
-                secondMoment[i][j] = beta2 * secondMoment[i][j] + (1 - beta2) * g * g;
+                firstMoment[j]  = beta1 * firstMoment[j]  + (1 - beta1) * g;
+                secondMoment[j] = beta2 * secondMoment[j] + (1 - beta2) * g * g;
 
                 // bias-corrected estimates
-                double mHat = firstMoment[i][j]  / bc1;
-                double vHat = secondMoment[i][j] / bc2;
+                double mHat = firstMoment[j]  / bc1;
+                double vHat = secondMoment[j] / bc2;
 
                 // parameter update
                 param.set(i, j, param.get(i, j) - lr * mHat / (Math.sqrt(vHat) + eps));
             }
+            state.writeRow(i, firstMoment, secondMoment);
+        }
+    }
+
+    /**
+     * Updates only the rows present in a row-sparse gradient.
+     *
+     * Moment buffers are still stored for the whole parameter matrix, but the
+     * cost of the update scales with the number of touched rows.
+     *
+     * @param param parameter matrix to update
+     * @param grad row-sparse gradient for the parameter
+     */
+    private void updateSparse(Matrix param, SparseRowGradient grad) {
+        MomentBuffer state = momentsFor(param);
+        double[] firstMoment  = new double[param.getCols()];
+        double[] secondMoment = new double[param.getCols()];
+
+        double bc1 = 1.0 - Math.pow(beta1, t);
+        double bc2 = 1.0 - Math.pow(beta2, t);
+
+        for (int k = 0; k < grad.size(); k++) {
+            int i = grad.rowIndex(k);
+            state.readRow(i, firstMoment, secondMoment);
+            for (int j = 0; j < param.getCols(); j++) {
+                double g = grad.get(k, j);
+                firstMoment[j]  = beta1 * firstMoment[j]  + (1 - beta1) * g;
+                secondMoment[j] = beta2 * secondMoment[j] + (1 - beta2) * g * g;
+
+                double mHat = firstMoment[j]  / bc1;
+                double vHat = secondMoment[j] / bc2;
+
+                param.set(i, j, param.get(i, j) - lr * mHat / (Math.sqrt(vHat) + eps));
+            }
+            state.writeRow(i, firstMoment, secondMoment);
+        }
+    }
+
+    /**
+     * Returns the moment storage for a parameter, creating it on first use.
+     */
+    private MomentBuffer momentsFor(Matrix param) {
+        return moments.computeIfAbsent(param,
+            k -> MomentBuffer.create(precision, param.getRows(), param.getCols()));
+    }
+
+    /**
+     * Returns the memory held by moment estimates across all parameters.
+     *
+     * @return approximate optimiser state size in bytes
+     */
+    public long getStateBytes() {
+        long total = 0;
+        for (MomentBuffer state : moments.values()) {
+            total += state.sizeInBytes();
         }
+        return total;
     }
 
     /**
@@ -138,6 +258,7 @@ public class Adam {
      * This should be called once per training step before parameter updates
      * so that bias correction is computed correctly.
      */
+    @Override
     public void tick() {
         t++;
     }
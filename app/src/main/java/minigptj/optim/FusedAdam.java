@@ -0,0 +1,415 @@
+package minigptj.optim;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+import minigptj.core.SparseRowGradient;
+import minigptj.model.CausalSelfAttention;
+import minigptj.model.Embedding;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Adam optimiser that updates every registered parameter in one fused sweep.
+ *
+ * Uses the same update rule as Adam, but instead of one moment map entry per
+ * parameter matrix, all parameters are packed into a single contiguous
+ * buffer (see Matrix.bindTo()), with gradients and both moment estimates
+ * stored in parallel flat arrays of the same layout:
+ *
+ *   params: [ W1 | b1 | W2 | b2 | ... | embedding ]
+ *   grads:  [ dW1| db1| dW2| db2| ... ]
+ *   m1, m2: same layout as params
+ *
+ * A training step copies the latest dense gradients into the flat gradient
+ * array and then runs one tight loop over all dense parameters. The bias
+ * corrections are computed once per step, and large sweeps are split into
+ * chunks across the common fork/join pool. Each element is updated
+ * independently, so the result is the same as Adam regardless of threading.
+ *
+ * Embedding layers keep their row-sparse gradient and receive the same lazy
+ * row update as Adam.step(Embedding), using the embedding's region of the
+ * flat moment arrays.
+ *
+ * Usage:
+ *   FusedAdam opt = new FusedAdam(0.001);
+ *   opt.register(layer1);
+ *   opt.register(layer2);
+ *   ...
+ *   // each training step, after backward():
+ *   opt.tick();
+ *   opt.step();
+ *
+ * Parameters are packed by pack() or, failing that, on the first step();
+ * registering more afterwards is not allowed. Packing moves every parameter
+ * matrix to new storage, so call pack() explicitly before other threads use
+ * the parameters (for example with StepScheduler).
+ *
+ * FusedAdam also implements the per-layer Optimizer interface: step(Linear)
+ * and step(Embedding) run the same kernel over just that layer's region of
+ * the buffers, so a registered layer can be updated as soon as its own
+ * gradients are ready.
+ */
+public class FusedAdam implements Optimizer {
+    // Below this many values a sweep is cheaper to run on the calling thread.
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+    // Number of values each parallel task updates.
+    private static final int CHUNK_SIZE = 1 << 13;
+
+    private double lr;
+    private final double beta1;
+    private final double beta2;
+    private final double eps;
+
+    // Optimisation timestep used for bias correction.
+    private int t = 0;
+
+    // Dense parameters and where to fetch their gradients, in packing order.
+    private final List<Matrix> denseParams = new ArrayList<>();
+    private final List<Supplier<Matrix>> denseGrads = new ArrayList<>();
+    // Row-sparse parameters, packed after the dense ones.
+    private final List<Embedding> sparseLayers = new ArrayList<>();
+    // Index in denseParams of every registered matrix (-1 for sparse ones).
+    private final Map<Matrix, Integer> registered = new IdentityHashMap<>();
+
+    private double[] params;
+    private double[] grads;
+    private double[] m1;
+    private double[] m2;
+    private int[] denseOffsets;
+    private int[] sparseOffsets;
+    private int denseLength;
+
+    /**
+     * Creates a fused Adam optimiser using standard default hyperparameters.
+     *
+     * Defaults:
+     *   beta1 = 0.9
+     *   beta2 = 0.999
+     *   eps   = 1e-8
+     *
+     * @param lr learning rate
+     */
+    public FusedAdam(double lr) {
+        this(lr, 0.9, 0.999, 1e-8);
+    }
+
+    /**
+     * Creates a fused Adam optimiser with custom hyperparameters.
+     *
+     * @param lr learning rate
+     * @param beta1 exponential decay rate for first moment estimates
+     * @param beta2 exponential decay rate for second moment estimates
+     * @param eps small constant added for numerical stability
+     */
+    public FusedAdam(double lr, double beta1, double beta2, double eps) {
+        this.lr = lr;
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.eps = eps;
+    }
+
+    /**
+     * Returns the current learning rate.
+     *
+     * @return learning rate used by the next update
+     */
+    @Override
+    public double getLearningRate() {
+        return lr;
+    }
+
+    /**
+     * Sets the learning rate used by subsequent updates. Learning-rate
+     * schedules call this once per training step.
+     *
+     * @param lr new learning rate
+     */
+    @Override
+    public void setLearningRate(double lr) {
+        this.lr = lr;
+    }
+
+    /**
+     * Registers the trainable parameters of a Linear layer.
+     *
+     * The weights and bias are registered, or only the adapters if the layer
+     * has LoRA adapters attached.
+     *
+     * @param layer Linear layer to optimise
+     */
+    public void register(Linear layer) {
+        if (layer.hasLora()) {
+            registerDense(layer.getLoraA(), layer::getGradLoraA);
+            registerDense(layer.getLoraB(), layer::getGradLoraB);
+        } else {
+            registerDense(layer.getWeights(), layer::getGradWeights);
+            registerDense(layer.getBias(), layer::getGradBias);
+        }
+    }
+
+    /**
+     * Registers the four projections of an attention layer.
+     *
+     * @param attn attention layer to optimise
+     */
+    public void register(CausalSelfAttention attn) {
+        register(attn.getWq());
+        register(attn.getWk());
+        register(attn.getWv());
+        register(attn.getWo());
+    }
+
+    /**
+     * Registers an Embedding layer, which is updated lazily by row.
+     *
+     * @param emb embedding layer to optimise
+     */
+    public void register(Embedding emb) {
+        checkNotPacked();
+        markRegistered(emb.getWeights(), -1);
+        sparseLayers.add(emb);
+    }
+
+    /**
+     * Advances the optimiser timestep.
+     *
+     * This should be called once per training step before step() so that
+     * bias correction is computed correctly.
+     */
+    @Override
+    public void tick() {
+        t++;
+    }
+
+    /**
+     * Applies one optimisation step to every registered parameter.
+     *
+     * The first call packs all parameters into the shared buffer.
+     */
+    public void step() {
+        if (params == null) {
+            pack();
+        }
+
+        // gather the latest dense gradients into the flat gradient array
+        for (int p = 0; p < denseParams.size(); p++) {
+            gatherGrad(p);
+        }
+
+        // bias correction terms, once for the whole sweep
+        double bc1 = 1.0 - Math.pow(beta1, t);
+        double bc2 = 1.0 - Math.pow(beta2, t);
+
+        sweepRange(0, denseLength, bc1, bc2);
+
+        for (int s = 0; s < sparseLayers.size(); s++) {
+            updateSparse(sparseLayers.get(s).getSparseGradWeights(), sparseOffsets[s], bc1, bc2);
+        }
+    }
+
+    /**
+     * Applies one optimisation step to a single registered Linear layer.
+     *
+     * @param layer registered Linear layer to update
+     */
+    @Override
+    public void step(Linear layer) {
+        if (params == null) {
+            pack();
+        }
+
+        double bc1 = 1.0 - Math.pow(beta1, t);
+        double bc2 = 1.0 - Math.pow(beta2, t);
+
+        if (layer.hasLora()) {
+            stepDense(layer.getLoraA(), bc1, bc2);
+            stepDense(layer.getLoraB(), bc1, bc2);
+        } else {
+            stepDense(layer.getWeights(), bc1, bc2);
+            stepDense(layer.getBias(), bc1, bc2);
+        }
+    }
+
+    /**
+     * Applies one optimisation step to a single registered Embedding layer.
+     *
+     * @param emb registered embedding layer to update
+     */
+    @Override
+    public void step(Embedding emb) {
+        if (params == null) {
+            pack();
+        }
+
+        int s = sparseLayers.indexOf(emb);
+        if (s < 0) throw new IllegalArgumentException("Embedding is not registered");
+
+        double bc1 = 1.0 - Math.pow(beta1, t);
+        double bc2 = 1.0 - Math.pow(beta2, t);
+        updateSparse(emb.getSparseGradWeights(), sparseOffsets[s], bc1, bc2);
+    }
+
+    /**
+     * Returns the total number of registered parameter values.
+     *
+     * @return length of the packed parameter buffer
+     */
+    public int getParameterCount() {
+        int total = 0;
+        for (Matrix m : registered.keySet()) {
+            total += m.getRows() * m.getCols();
+        }
+        return total;
+    }
+
+    /**
+     * Gathers the gradient of one dense parameter and updates its region.
+     */
+    private void stepDense(Matrix param, double bc1, double bc2) {
+        Integer index = registered.get(param);
+        if (index == null || index < 0) {
+            throw new IllegalArgumentException("Layer is not registered");
+        }
+
+        gatherGrad(index);
+        int from = denseOffsets[index];
+        sweepRange(from, from + param.getRows() * param.getCols(), bc1, bc2);
+    }
+
+    /**
+     * Copies the latest gradient of dense parameter p into the flat array.
+     */
+    private void gatherGrad(int p) {
+        Matrix grad = denseGrads.get(p).get();
+        if (grad == null) throw new IllegalStateException("Grad is null; call backward() first.");
+
+        Matrix param = denseParams.get(p);
+        if (grad.getRows() != param.getRows() || grad.getCols() != param.getCols()) {
+            throw new IllegalStateException("Gradient shape does not match its parameter");
+        }
+        grad.copyTo(grads, denseOffsets[p]);
+    }
+
+    /**
+     * Runs the fused update over [from, to), split into chunks across the
+     * common fork/join pool when the range is large.
+     */
+    private void sweepRange(int from, int to, double bc1, double bc2) {
+        int workers = ForkJoinPool.getCommonPoolParallelism();
+        if (workers <= 1 || to - from < PARALLEL_THRESHOLD) {
+            sweep(from, to, bc1, bc2);
+            return;
+        }
+
+        int chunks = (to - from + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int start = from + c * CHUNK_SIZE;
+            sweep(start, Math.min(to, start + CHUNK_SIZE), bc1, bc2);
+        });
+    }
+
+    /**
+     * Fused Adam update over the dense range [from, to) of the flat buffers.
+     *
+     * The loop body only touches index i of each array, so the JIT can
+     * vectorise it and chunks can run on separate threads.
+     */
+    private void sweep(int from, int to, double bc1, double bc2) {
+        for (int i = from; i < to; i++) {
+            double g = grads[i];
+            double m = beta1 * m1[i] + (1 - beta1) * g;
+            double v = beta2 * m2[i] + (1 - beta2) * g * g;
+            m1[i] = m;
+            m2[i] = v;
+
+            double mHat = m / bc1;
+            double vHat = v / bc2;
+            params[i] = params[i] - lr * mHat / (Math.sqrt(vHat) + eps);
+        }
+    }
+
+    /**
+     * Lazy Adam update for the rows present in a row-sparse gradient.
+     *
+     * @param grad row-sparse gradient
+     * @param base start of the parameter in the flat buffers
+     */
+    private void updateSparse(SparseRowGradient grad, int base, double bc1, double bc2) {
+        int cols = grad.getCols();
+        for (int k = 0; k < grad.size(); k++) {
+            int row = base + grad.rowIndex(k) * cols;
+            for (int j = 0; j < cols; j++) {
+                int i = row + j;
+                double g = grad.get(k, j);
+                m1[i] = beta1 * m1[i] + (1 - beta1) * g;
+                m2[i] = beta2 * m2[i] + (1 - beta2) * g * g;
+
+                double mHat = m1[i] / bc1;
+                double vHat = m2[i] / bc2;
+                params[i] = params[i] - lr * mHat / (Math.sqrt(vHat) + eps);
+            }
+        }
+    }
+
+    /**
+     * Allocates the flat buffers and moves every registered parameter into
+     * the shared parameter buffer, dense parameters first.
+     *
+     * Called automatically by the first step if needed.
+     */
+    public void pack() {
+        checkNotPacked();
+
+        int total = getParameterCount();
+        params = new double[total];
+        grads = new double[total];
+        m1 = new double[total];
+        m2 = new double[total];
+
+        int offset = 0;
+        denseOffsets = new int[denseParams.size()];
+        for (int p = 0; p < denseParams.size(); p++) {
+            Matrix param = denseParams.get(p);
+            denseOffsets[p] = offset;
+            param.bindTo(params, offset);
+            offset += param.getRows() * param.getCols();
+        }
+        denseLength = offset;
+
+        sparseOffsets = new int[sparseLayers.size()];
+        for (int s = 0; s < sparseLayers.size(); s++) {
+            Matrix weights = sparseLayers.get(s).getWeights();
+            sparseOffsets[s] = offset;
+            weights.bindTo(params, offset);
+            offset += weights.getRows() * weights.getCols();
+        }
+    }
+
+    private void registerDense(Matrix param, Supplier<Matrix> grad) {
+        checkNotPacked();
+        markRegistered(param, denseParams.size());
+        denseParams.add(param);
+        denseGrads.add(grad);
+    }
+
+    /**
+     * Records a parameter with its index in denseParams (-1 for sparse).
+     */
+    private void markRegistered(Matrix param, int denseIndex) {
+        if (registered.containsKey(param)) {
+            throw new IllegalArgumentException("Parameter is already registered");
+        }
+        registered.put(param, denseIndex);
+    }
+
+    private void checkNotPacked() {
+        if (params != null) {
+            throw new IllegalStateException("Parameters cannot be registered after the first step()");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package minigptj.optim;
+
+/**
+ * Learning-rate schedule expressed as a multiplier of a base rate.
+ *
+ * factor(step) is applied to every base learning rate in a training run, so
+ * one schedule can drive several parameter groups with different rates
+ * (for example Adam at 0.001 and the positional-embedding SGD at 0.02):
+ *
+ *   opt.setLearningRate(baseLr * schedule.factor(step))
+ *
+ * Steps are numbered from 1, matching the training loop and Adam's tick().
+ */
+@FunctionalInterface
+public interface LearningRateSchedule {
+
+    /**
+     * Returns the multiplier for a training step.
+     *
+     * @param step training step, starting at 1
+     * @return factor applied to the base learning rate
+     */
+    double factor(int step);
+
+    /**
+     * Keeps the base learning rate for every step.
+     *
+     * @return schedule with factor 1
+     */
+    static LearningRateSchedule constant() {
+        return step -> 1.0;
+    }
+
+    /**
+     * Linear warmup to the base rate, then cosine decay.
+     *
+     * @param warmupSteps steps spent ramping up from near zero to 1
+     * @param totalSteps step at which the decay reaches minFactor
+     * @param minFactor final multiplier, kept after totalSteps
+     * @return warmup + cosine schedule
+     */
+    static LearningRateSchedule warmupCosine(int warmupSteps, int totalSteps, double minFactor) {
+        checkSteps(warmupSteps, totalSteps);
+        return step -> {
+            if (step <= warmupSteps) return (double) step / warmupSteps;
+            if (step >= totalSteps) return minFactor;
+            double progress = (double) (step - warmupSteps) / (totalSteps - warmupSteps);
+            return minFactor + (1 - minFactor) * 0.5 * (1 + Math.cos(Math.PI * progress));
+        };
+    }
+
+    /**
+     * Linear warmup to the base rate, then linear decay.
+     *
+     * @param warmupSteps steps spent ramping up from near zero to 1
+     * @param totalSteps step at which the decay reaches minFactor
+     * @param minFactor final multiplier, kept after totalSteps
+     * @return warmup + linear decay schedule
+     */
+    static LearningRateSchedule warmupLinear(int warmupSteps, int totalSteps, double minFactor) {
+        checkSteps(warmupSteps, totalSteps);
+        return step -> {
+            if (step <= warmupSteps) return (double) step / warmupSteps;
+            if (step >= totalSteps) return minFactor;
+            double progress = (double) (step - warmupSteps) / (totalSteps - warmupSteps);
+            return 1 - (1 - minFactor) * progress;
+        };
+    }
+
+    /**
+     * One-cycle policy: cosine ramp from 1/divFactor up to 1, then cosine
+     * annealing down to 1/(divFactor * finalDivFactor).
+     *
+     * The base learning rate is the peak of the cycle, so it is usually set
+     * several times higher than a constant-rate run would use.
+     *
+     * @param totalSteps length of the cycle
+     * @param pctStart fraction of the cycle spent increasing the rate
+     * @param divFactor ratio of the peak to the starting rate
+     * @param finalDivFactor ratio of the starting rate to the final rate
+     * @return one-cycle schedule
+     */
+    static LearningRateSchedule oneCycle(int totalSteps, double pctStart, double divFactor, double finalDivFactor) {
+        if (totalSteps < 2) throw new IllegalArgumentException("totalSteps must be >= 2");
+        if (pctStart <= 0 || pctStart >= 1) throw new IllegalArgumentException("pctStart must be in (0, 1)");
+        if (divFactor < 1 || finalDivFactor < 1) {
+            throw new IllegalArgumentException("divFactor and finalDivFactor must be >= 1");
+        }
+
+        double start = 1.0 / divFactor;
+        double end = start / finalDivFactor;
+        int peakStep = Math.max(1, (int) Math.round(pctStart * totalSteps));
+        return step -> {
+            if (step <= peakStep) {
+                return cosineBetween(start, 1.0, (double) (step - 1) / Math.max(1, peakStep - 1));
+            }
+            if (step >= totalSteps) return end;
+            return cosineBetween(1.0, end, (double) (step - peakStep) / (totalSteps - peakStep));
+        };
+    }
+
+    /**
+     * Builds a schedule from its command-line name.
+     *
+     * Names: constant, warmup-cosine, warmup-linear, one-cycle. The decaying
+     * schedules end at 10% of the base rate after totalSteps; one-cycle uses
+     * the common defaults pctStart = 0.3, divFactor = 25, finalDivFactor = 1e4.
+     *
+     * @param name schedule name
+     * @param warmupSteps warmup length for the warmup schedules
+     * @param totalSteps planned length of training
+     * @return matching schedule
+     */
+    static LearningRateSchedule byName(String name, int warmupSteps, int totalSteps) {
+        switch (name) {
+            case "constant":      return constant();
+            case "warmup-cosine": return warmupCosine(warmupSteps, totalSteps, 0.1);
+            case "warmup-linear": return warmupLinear(warmupSteps, totalSteps, 0.1);
+            case "one-cycle":     return oneCycle(totalSteps, 0.3, 25.0, 1e4);
+            default: throw new IllegalArgumentException("Unknown learning-rate schedule: " + name);
+        }
+    }
+
+    /** Cosine interpolation from a (progress 0) to b (progress 1). */
+    private static double cosineBetween(double a, double b, double progress) {
+        return b + (a - b) * 0.5 * (1 + Math.cos(Math.PI * progress));
+    }
+
+    private static void checkSteps(int warmupSteps, int totalSteps) {
+        if (warmupSteps < 1) throw new IllegalArgumentException("warmupSteps must be >= 1");
+        if (totalSteps <= warmupSteps) throw new IllegalArgumentException("totalSteps must be > warmupSteps");
+    }
+}
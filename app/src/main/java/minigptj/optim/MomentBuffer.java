@@ -0,0 +1,243 @@
+package minigptj.optim;
+
+/**
+ * Storage for the Adam moment estimates of one parameter matrix.
+ *
+ * Moments are read and written one row at a time into double scratch
+ * arrays, so the update rule can stay in double precision whatever the
+ * storage format.
+ */
+abstract class MomentBuffer {
+    // Values per quantisation block in INT8 storage.
+    static final int BLOCK_SIZE = 64;
+
+    protected final int rows;
+    protected final int cols;
+
+    protected MomentBuffer(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * Creates zero-initialised moment storage for a rows x cols parameter.
+     *
+     * @param precision storage format
+     * @param rows parameter row count
+     * @param cols parameter column count
+     * @return empty moment buffer
+     */
+    static MomentBuffer create(MomentPrecision precision, int rows, int cols) {
+        switch (precision) {
+            case DOUBLE: return new DoubleMoments(rows, cols);
+            case FLOAT:  return new FloatMoments(rows, cols);
+            case INT8:   return new Int8Moments(rows, cols);
+            default:     throw new IllegalArgumentException("Unknown precision: " + precision);
+        }
+    }
+
+    /**
+     * Reads one row of both moments.
+     *
+     * @param row parameter row
+     * @param m destination for the first moment, length cols
+     * @param v destination for the second moment, length cols
+     */
+    abstract void readRow(int row, double[] m, double[] v);
+
+    /**
+     * Writes one row of both moments.
+     *
+     * @param row parameter row
+     * @param m first moment values, length cols
+     * @param v second moment values, length cols
+     */
+    abstract void writeRow(int row, double[] m, double[] v);
+
+    /**
+     * Returns the memory used by the stored moments.
+     *
+     * @return approximate size in bytes
+     */
+    abstract long sizeInBytes();
+
+    /** Full double precision storage. */
+    static final class DoubleMoments extends MomentBuffer {
+        private final double[] m;
+        private final double[] v;
+
+        DoubleMoments(int rows, int cols) {
+            super(rows, cols);
+            this.m = new double[rows * cols];
+            this.v = new double[rows * cols];
+        }
+
+        @Override
+        void readRow(int row, double[] mOut, double[] vOut) {
+            System.arraycopy(m, row * cols, mOut, 0, cols);
+            System.arraycopy(v, row * cols, vOut, 0, cols);
+        }
+
+        @Override
+        void writeRow(int row, double[] mIn, double[] vIn) {
+            System.arraycopy(mIn, 0, m, row * cols, cols);
+            System.arraycopy(vIn, 0, v, row * cols, cols);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 2L * Double.BYTES * m.length;
+        }
+    }
+
+    /** Single precision storage, rounded on every write. */
+    static final class FloatMoments extends MomentBuffer {
+        private final float[] m;
+        private final float[] v;
+
+        FloatMoments(int rows, int cols) {
+            super(rows, cols);
+            this.m = new float[rows * cols];
+            this.v = new float[rows * cols];
+        }
+
+        @Override
+        void readRow(int row, double[] mOut, double[] vOut) {
+            int base = row * cols;
+            for (int j = 0; j < cols; j++) {
+                mOut[j] = m[base + j];
+                vOut[j] = v[base + j];
+            }
+        }
+
+        @Override
+        void writeRow(int row, double[] mIn, double[] vIn) {
+            int base = row * cols;
+            for (int j = 0; j < cols; j++) {
+                m[base + j] = (float) mIn[j];
+                v[base + j] = (float) vIn[j];
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 2L * Float.BYTES * m.length;
+        }
+    }
+
+    /**
+     * Block-wise 8-bit storage.
+     *
+     * Each row is split into blocks of up to BLOCK_SIZE values that never
+     * cross a row boundary, so sparse row updates only requantise their own
+     * blocks. Every block has its own float scale set from its largest
+     * magnitude:
+     *
+     * - the first moment is stored as a signed code in [-127, 127]
+     * - the second moment is stored as sqrt(v) in an unsigned code in
+     *   [0, 255], which halves its dynamic range
+     *
+     * Codes are rounded stochastically: a value between two codes takes the
+     * upper one with probability equal to its distance from the lower one,
+     * so the decoded moment is unbiased. With round-to-nearest a small
+     * moment in a block with a large one could never decay: once the
+     * per-step decay is under half a code, every write stores the same code
+     * again, and the moment drives updates long after its gradient has
+     * stopped. Stochastic rounding decays it in expectation, and zero is
+     * stored exactly, so a moment whose gradient stops reaches zero.
+     *
+     * The random draws come from a hash of the position and a per-row write
+     * counter, so runs are reproducible and rows can be written from
+     * different threads. A v code is never rounded to zero while the m code
+     * of the same value is non-zero, which keeps m / sqrt(v) bounded by the
+     * ratio of the block scales.
+     */
+    static final class Int8Moments extends MomentBuffer {
+        private final int blocksPerRow;
+        private final byte[] m;
+        private final byte[] v;
+        private final float[] mScale;
+        private final float[] vScale;
+        private final int[] rowWrites;
+
+        Int8Moments(int rows, int cols) {
+            super(rows, cols);
+            this.blocksPerRow = (cols + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            this.m = new byte[rows * cols];
+            this.v = new byte[rows * cols];
+            this.mScale = new float[rows * blocksPerRow];
+            this.vScale = new float[rows * blocksPerRow];
+            this.rowWrites = new int[rows];
+        }
+
+        @Override
+        void readRow(int row, double[] mOut, double[] vOut) {
+            int base = row * cols;
+            for (int b = 0; b < blocksPerRow; b++) {
+                double ms = mScale[row * blocksPerRow + b];
+                double vs = vScale[row * blocksPerRow + b];
+                int end = Math.min(cols, (b + 1) * BLOCK_SIZE);
+                for (int j = b * BLOCK_SIZE; j < end; j++) {
+                    mOut[j] = m[base + j] * ms;
+                    double s = (v[base + j] & 0xFF) * vs;
+                    vOut[j] = s * s;
+                }
+            }
+        }
+
+        @Override
+        void writeRow(int row, double[] mIn, double[] vIn) {
+            int base = row * cols;
+            long salt = ((long) row << 32) | (rowWrites[row]++ & 0xFFFFFFFFL);
+            for (int b = 0; b < blocksPerRow; b++) {
+                int start = b * BLOCK_SIZE;
+                int end = Math.min(cols, start + BLOCK_SIZE);
+
+                double mMax = 0.0;
+                double sMax = 0.0;
+                for (int j = start; j < end; j++) {
+                    mMax = Math.max(mMax, Math.abs(mIn[j]));
+                    sMax = Math.max(sMax, Math.sqrt(vIn[j]));
+                }
+
+                float ms = (float) (mMax / 127.0);
+                float vs = (float) (sMax / 255.0);
+                if (vs * 255.0 < sMax) {
+                    // keep the largest value representable after float rounding
+                    vs = Math.nextUp(vs);
+                }
+                mScale[row * blocksPerRow + b] = ms;
+                vScale[row * blocksPerRow + b] = vs;
+
+                for (int j = start; j < end; j++) {
+                    int mCode = (ms == 0f) ? 0
+                        : (int) Math.max(-127, Math.min(127, Math.floor(mIn[j] / ms + uniform(salt, 2 * j))));
+                    int vCode = (vs == 0f) ? 0
+                        : (int) Math.min(255, Math.floor(Math.sqrt(vIn[j]) / vs + uniform(salt, 2 * j + 1)));
+                    if (vCode == 0 && mCode != 0) {
+                        vCode = 1;
+                    }
+                    m[base + j] = (byte) mCode;
+                    v[base + j] = (byte) vCode;
+                }
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 2L * m.length + 2L * Float.BYTES * mScale.length + (long) Integer.BYTES * rowWrites.length;
+        }
+
+        /**
+         * Returns a uniform value in [0, 1) for one rounding decision, from
+         * the SplitMix64 finaliser applied to the write salt and a counter.
+         */
+        private static double uniform(long salt, int counter) {
+            long z = salt * 0x9E3779B97F4A7C15L + counter;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+            return (z >>> 11) * 0x1.0p-53;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package minigptj.optim;
+
+/**
+ * Storage precision for Adam's first and second moment estimates.
+ *
+ * The update itself is always computed in double precision; this only
+ * controls how the moments are kept between steps.
+ */
+public enum MomentPrecision {
+    /** 8 bytes per value per moment. Exact. */
+    DOUBLE,
+
+    /** 4 bytes per value per moment. */
+    FLOAT,
+
+    /**
+     * 1 byte per value per moment, quantised block-wise with one float scale
+     * per block of up to 64 values.
+     */
+    INT8
+}
@@ -0,0 +1,49 @@
+package minigptj.optim;
+
+import minigptj.core.Linear;
+import minigptj.model.Embedding;
+
+/**
+ * Common surface of the per-layer optimisers.
+ *
+ * A training step calls tick() once, then step() for every trainable layer
+ * after backpropagation has filled in its gradients. A LearningRateSchedule
+ * adjusts the rate between steps through setLearningRate().
+ */
+public interface Optimizer {
+
+    /**
+     * Advances the optimiser timestep. Call once per training step, before
+     * any step() calls.
+     */
+    default void tick() {
+    }
+
+    /**
+     * Returns the learning rate used by the next update.
+     *
+     * @return current learning rate
+     */
+    double getLearningRate();
+
+    /**
+     * Sets the learning rate used by subsequent updates.
+     *
+     * @param lr new learning rate
+     */
+    void setLearningRate(double lr);
+
+    /**
+     * Updates the trainable parameters of a Linear layer in-place.
+     *
+     * @param layer Linear layer to update
+     */
+    void step(Linear layer);
+
+    /**
+     * Updates the weights of an Embedding layer in-place.
+     *
+     * @param emb embedding layer to update
+     */
+    void step(Embedding emb);
+}
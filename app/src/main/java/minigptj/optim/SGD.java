@@ -2,6 +2,7 @@ package minigptj.optim;
 
 import minigptj.core.Linear;
 import minigptj.core.Matrix;
+import minigptj.core.SparseRowGradient;
 import minigptj.model.Embedding;
 
 /**
@@ -18,8 +19,8 @@ import minigptj.model.Embedding;
  * This optimiser does not compute gradients itself. Gradients are expected
  * to be produced during backpropagation by the corresponding layer.
  */
-public class SGD {
-    private final double learningRate;
+public class SGD implements Optimizer {
+    private double learningRate;
 
     /**
      * Creates a new SGD optimiser.
@@ -29,6 +30,27 @@ public class SGD {
     public SGD(double learningRate) {
         this.learningRate = learningRate;
     }
+    /**
+     * Returns the current learning rate.
+     *
+     * @return learning rate used by the next update
+     */
+    @Override
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    /**
+     * Sets the learning rate used by subsequent updates. Learning-rate
+     * schedules call this once per training step.
+     *
+     * @param learningRate new learning rate
+     */
+    @Override
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
     /**
      * Applies one optimisation step to a Linear layer.
      *
@@ -39,9 +61,18 @@ public class SGD {
      * - forward() has already been called
      * - backward() has already been called
      *
+     * If the layer has LoRA adapters attached, only the adapters are updated.
+     *
      * @param layer Linear layer to update
      */
+    @Override
     public void step(Linear layer) {
+        if (layer.hasLora()) {
+            update(layer.getLoraA(), layer.getGradLoraA());
+            update(layer.getLoraB(), layer.getGradLoraB());
+            return;
+        }
+
         Matrix w = layer.getWeights();
         Matrix b = layer.getBias();
 
@@ -72,21 +103,42 @@ public class SGD {
      * Apply one optimisation step to an Embedding layer.
      *
      * The embedding matrix is updated in-place using accumulated embedding
-     * gradients from the backward pass.
+     * gradients from the backward pass. Only rows for tokens seen in the batch
+     * are visited, since all other rows have zero gradient.
      *
      * @param emb embedding layer to update
      */
+    @Override
     public void step(Embedding emb) {
         Matrix w = emb.getWeights();
-        Matrix dW = emb.getGradWeights();
+        SparseRowGradient dW = emb.getSparseGradWeights();
 
         if (dW == null) {
             throw new IllegalStateException("Embedding gradients are null. Call forward() and backward() before step().");
         }
 
-        for (int i = 0; i < w.getRows(); i++) {
+        for (int k = 0; k < dW.size(); k++) {
+            int i = dW.rowIndex(k);
             for (int j = 0; j < w.getCols(); j++) {
-                w.set(i, j, w.get(i, j) - learningRate * dW.get(i, j));
+                w.set(i, j, w.get(i, j) - learningRate * dW.get(k, j));
+            }
+        }
+    }
+
+    /**
+     * Applies W = W - lr * dW to a single parameter matrix.
+     *
+     * @param param parameter matrix to update
+     * @param grad gradient matrix for the parameter
+     */
+    private void update(Matrix param, Matrix grad) {
+        if (grad == null) {
+            throw new IllegalStateException("Gradients are null. Call forward() and backward() before step().");
+        }
+
+        for (int i = 0; i < param.getRows(); i++) {
+            for (int j = 0; j < param.getCols(); j++) {
+                param.set(i, j, param.get(i, j) - learningRate * grad.get(i, j));
             }
         }
     }
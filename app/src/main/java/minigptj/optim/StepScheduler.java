@@ -0,0 +1,129 @@
+package minigptj.optim;
+
+import minigptj.core.Linear;
+import minigptj.model.CausalSelfAttention;
+import minigptj.model.Embedding;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Overlaps per-layer optimiser steps with the rest of the backward pass.
+ *
+ * Backpropagation finishes the output layer's gradients first and the
+ * embedding's last. Once a layer's backward() has returned, its gradients
+ * are final and its weights are no longer needed for this step, so it can be
+ * updated while backward continues on earlier layers.
+ *
+ * Each submitted step runs on a single worker thread, in submission order,
+ * so the optimiser itself never sees concurrent calls and the result is the
+ * same as stepping every layer serially after backward.
+ *
+ * Order of calls within a training step:
+ *     scheduler.beginStep()            ticks the optimiser
+ *     out.backward(...);  scheduler.submit(out)
+ *     ffn.backward(...);  scheduler.submit(ffn)
+ *     ...
+ *     emb.backwardSeq(...); scheduler.submit(emb)
+ *     scheduler.awaitStep()            before the next forward pass
+ *
+ * An output projection tied to the embedding reads the embedding weights
+ * during its backward pass, so the embedding must always be submitted last.
+ */
+public class StepScheduler implements AutoCloseable {
+    private final Optimizer optimizer;
+    private final ExecutorService worker;
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    /**
+     * Creates a scheduler with its own worker thread.
+     *
+     * @param optimizer optimiser used for every layer update
+     */
+    public StepScheduler(Optimizer optimizer) {
+        if (optimizer == null) throw new IllegalArgumentException("optimizer cannot be null");
+        this.optimizer = optimizer;
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "optimizer-step");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a training step by advancing the optimiser timestep.
+     *
+     * Must be called after the previous awaitStep() and before any submit().
+     */
+    public void beginStep() {
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("Previous step has not been awaited.");
+        }
+        optimizer.tick();
+    }
+
+    /**
+     * Queues the update of a Linear layer whose backward pass has finished.
+     *
+     * @param layer layer with final gradients
+     */
+    public void submit(Linear layer) {
+        pending.add(worker.submit(() -> optimizer.step(layer)));
+    }
+
+    /**
+     * Queues the updates of the four attention projections.
+     *
+     * @param attn attention layer whose backward pass has finished
+     */
+    public void submit(CausalSelfAttention attn) {
+        submit(attn.getWq());
+        submit(attn.getWk());
+        submit(attn.getWv());
+        submit(attn.getWo());
+    }
+
+    /**
+     * Queues the update of an Embedding layer whose backward pass has
+     * finished.
+     *
+     * @param emb embedding layer with final gradients
+     */
+    public void submit(Embedding emb) {
+        pending.add(worker.submit(() -> optimizer.step(emb)));
+    }
+
+    /**
+     * Waits for every queued update of the current step.
+     *
+     * After this returns all parameter updates are visible to the calling
+     * thread and the next forward pass can start.
+     */
+    public void awaitStep() {
+        try {
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for optimiser steps", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException("Optimiser step failed", cause);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Stops the worker thread after any queued updates have run.
+     */
+    @Override
+    public void close() {
+        worker.shutdown();
+    }
+}
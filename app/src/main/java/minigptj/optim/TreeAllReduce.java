@@ -0,0 +1,68 @@
+package minigptj.optim;
+
+import minigptj.core.Matrix;
+import minigptj.core.SparseRowGradient;
+import java.util.List;
+
+/**
+ * Deterministic tree reduction of per-replica gradients.
+ *
+ * Data-parallel replicas each compute a gradient for their batch shard. The
+ * shards are summed pairwise in a fixed binary tree, always into the
+ * lower-indexed part:
+ *
+ *   stride 1:  g0 += g1,  g2 += g3,  g4 += g5, ...
+ *   stride 2:  g0 += g2,  g4 += g6, ...
+ *   stride 4:  g0 += g4, ...
+ *
+ * The order of additions depends only on the number of parts, never on
+ * thread timing, so the reduced gradient is bit-identical from run to run
+ * and whether the replicas ran on one thread or many.
+ *
+ * The result is left in part 0. Replicas share their parameters, so only
+ * the primary replica's gradients need the full sum before the optimiser
+ * step; no broadcast back to the other parts is needed.
+ */
+public final class TreeAllReduce {
+
+    private TreeAllReduce() {
+    }
+
+    /**
+     * Sums dense gradients into the first matrix.
+     *
+     * @param parts gradients of the same shape, one per replica
+     */
+    public static void sum(List<Matrix> parts) {
+        int n = checkParts(parts);
+        for (int stride = 1; stride < n; stride *= 2) {
+            for (int i = 0; i + stride < n; i += 2 * stride) {
+                parts.get(i).addInPlace(parts.get(i + stride));
+            }
+        }
+    }
+
+    /**
+     * Sums row-sparse gradients into the first gradient.
+     *
+     * @param parts gradients for the same parameter, one per replica
+     */
+    public static void sumSparse(List<SparseRowGradient> parts) {
+        int n = checkParts(parts);
+        for (int stride = 1; stride < n; stride *= 2) {
+            for (int i = 0; i + stride < n; i += 2 * stride) {
+                parts.get(i).addAll(parts.get(i + stride));
+            }
+        }
+    }
+
+    private static int checkParts(List<?> parts) {
+        if (parts == null || parts.isEmpty()) {
+            throw new IllegalArgumentException("parts cannot be empty");
+        }
+        for (Object part : parts) {
+            if (part == null) throw new IllegalStateException("Grad is null; call backward() first.");
+        }
+        return parts.size();
+    }
+}
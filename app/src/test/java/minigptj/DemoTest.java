@@ -0,0 +1,74 @@
+package minigptj;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Random;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+import minigptj.core.ReLU;
+import minigptj.data.TextDataset;
+import minigptj.model.CausalSelfAttention;
+import minigptj.model.Embedding;
+import minigptj.model.TiedOutputProjection;
+import minigptj.optim.Adam;
+
+public class DemoTest {
+
+    @Test
+    void testTrainStepRunsOnFullBatch() {
+        int vocabSize = 12;
+        int d = Demo.D_MODEL;
+        Random rng = new Random(5);
+        Embedding emb = new Embedding(vocabSize, d);
+        CausalSelfAttention attn = new CausalSelfAttention(d, Demo.CONTEXT_LEN);
+        Linear ffn1 = new Linear(d, 4 * d, rng);
+        Linear ffn2 = new Linear(4 * d, d, rng);
+        Linear outProj = new Linear(d, vocabSize, rng);
+        Matrix pos = new Matrix(Demo.CONTEXT_LEN, d);
+        List<Linear> adaptable = List.of(attn.getWq(), attn.getWk(), attn.getWv(), attn.getWo(), ffn1, ffn2);
+
+        int[] tokens = new int[500];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = 2 + rng.nextInt(vocabSize - 2);
+        }
+        TextDataset ds = new TextDataset(tokens, Demo.CONTEXT_LEN);
+        int[] x = new int[64 * Demo.CONTEXT_LEN];
+        int[] y = new int[64 * Demo.CONTEXT_LEN];
+        ds.sampleSequences(rng, x, y);
+
+        double loss = Demo.trainStep(x, y, emb, attn, ffn1, new ReLU(), ffn2, outProj,
+                                     null, null, pos, adaptable, new Adam(0.001), false);
+
+        assertTrue(Double.isFinite(loss));
+        assertNotEquals(0.0, pos.get(0, 0), 0.0);
+    }
+
+    @Test
+    void testTrainStepWithTiedOutputNeedsNoUntiedHead() {
+        int vocabSize = 12;
+        int d = Demo.D_MODEL;
+        Random rng = new Random(5);
+        Embedding emb = new Embedding(vocabSize, d);
+        CausalSelfAttention attn = new CausalSelfAttention(d, Demo.CONTEXT_LEN);
+        Linear ffn1 = new Linear(d, 4 * d, rng);
+        Linear ffn2 = new Linear(4 * d, d, rng);
+        Matrix pos = new Matrix(Demo.CONTEXT_LEN, d);
+        List<Linear> adaptable = List.of(attn.getWq(), attn.getWk(), attn.getWv(), attn.getWo(), ffn1, ffn2);
+
+        int[] tokens = new int[500];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = 2 + rng.nextInt(vocabSize - 2);
+        }
+        TextDataset ds = new TextDataset(tokens, Demo.CONTEXT_LEN);
+        int[] x = new int[8 * Demo.CONTEXT_LEN];
+        int[] y = new int[8 * Demo.CONTEXT_LEN];
+        ds.sampleSequences(rng, x, y);
+
+        double loss = Demo.trainStep(x, y, emb, attn, ffn1, new ReLU(), ffn2, null,
+                                     null, new TiedOutputProjection(emb), pos, adaptable, new Adam(0.001), false);
+
+        assertTrue(Double.isFinite(loss));
+    }
+}
@@ -0,0 +1,88 @@
+package minigptj;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+public class TrainCharLMTest {
+
+    @Test
+    void testHogwildThreadsTrainSharedWeights() throws Exception {
+        Path corpus = Files.createTempFile("hogwild", ".txt");
+        try {
+            Files.writeString(corpus, "the frog sat on the log. ".repeat(40), StandardCharsets.UTF_8);
+            TrainCharLM.Options opts = TrainCharLM.Options.parse(new String[] {
+                "--corpus", corpus.toString(), "--no-token-cache", "--hogwild", "2",
+                "--steps", "60", "--batch-size", "4", "--lr", "0.003", "--seed", "3"});
+            opts.verbose = false;
+            opts.curveEvery = 1;
+
+            TrainCharLM.Result result = TrainCharLM.train(opts);
+
+            assertEquals(60, result.steps);
+            assertTrue(Double.isFinite(result.smoothedLoss));
+            for (double[] point : result.lossCurve) {
+                assertTrue(Double.isFinite(point[1]));
+            }
+            // The first loss comes from the initial weights, so a clear drop
+            // means the threads' updates reached the shared weights. The step
+            // size is kept small because racing updates at higher rates
+            // occasionally knock the run back up.
+            double initialLoss = result.lossCurve.get(0)[1];
+            assertTrue(result.smoothedLoss < initialLoss - 1.0,
+                "loss did not fall: " + initialLoss + " -> " + result.smoothedLoss);
+        } finally {
+            Files.deleteIfExists(corpus);
+        }
+    }
+
+    @Test
+    void testTiedReplicasTrainWithoutUntiedHead() throws Exception {
+        Path corpus = Files.createTempFile("tied", ".txt");
+        try {
+            Files.writeString(corpus, "the frog sat on the log. ".repeat(40), StandardCharsets.UTF_8);
+            TrainCharLM.Options opts = TrainCharLM.Options.parse(new String[] {
+                "--corpus", corpus.toString(), "--no-token-cache", "--tie-weights", "--data-parallel", "2",
+                "--steps", "3", "--batch-size", "4", "--seed", "3"});
+            opts.verbose = false;
+
+            TrainCharLM.Result result = TrainCharLM.train(opts);
+
+            assertEquals(3, result.steps);
+            assertTrue(Double.isFinite(result.smoothedLoss));
+        } finally {
+            Files.deleteIfExists(corpus);
+        }
+    }
+
+    @Test
+    void testCutoffsOptionRequiresAdaptiveSoftmax() {
+        TrainCharLM.Options opts = TrainCharLM.Options.parse(new String[] {
+            "--adaptive-softmax", "--cutoffs", "10,20"});
+        assertArrayEquals(new int[] {10, 20}, opts.cutoffs);
+
+        TrainCharLM.Options untied = TrainCharLM.Options.parse(new String[] {"--cutoffs", "10,20"});
+        untied.verbose = false;
+        assertThrows(IllegalArgumentException.class, () -> TrainCharLM.train(untied));
+    }
+
+    @Test
+    void testSamplerSeedsDistinctAcrossRanksAndLoaders() {
+        for (int streams = 1; streams <= 4; streams++) {
+            Set<Long> seeds = new HashSet<>();
+            for (int rank = 0; rank < 8; rank++) {
+                for (int p = 0; p < streams; p++) {
+                    assertTrue(seeds.add(TrainCharLM.samplerSeed(rank, p, streams)),
+                        "duplicate seed for rank " + rank + ", loader " + p + " of " + streams);
+                }
+            }
+        }
+        // A lone sampler keeps the seed of a single-threaded run.
+        assertEquals(123L, TrainCharLM.samplerSeed(0, 0, 1));
+        assertEquals(123L, TrainCharLM.samplerSeed(0, 0, 4));
+    }
+}
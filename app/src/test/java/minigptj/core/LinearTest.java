@@ -2,6 +2,7 @@ package minigptj.core;
 
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
+import java.util.Random;
 
 public class LinearTest {
     @Test
@@ -181,4 +182,178 @@ public class LinearTest {
         assertThrows(IllegalStateException.class, () -> layer.backward(dOut));
     }
 
+    // sum of outputs weighted by a fixed upstream gradient
+    private static double weightedSum(Matrix out, Matrix weights) {
+        double sum = 0.0;
+        for (int i = 0; i < out.getRows(); i++) {
+            for (int j = 0; j < out.getCols(); j++) {
+                sum += out.get(i, j) * weights.get(i, j);
+            }
+        }
+        return sum;
+    }
+
+    @Test
+    void testEnableLoraKeepsOutputUnchanged() {
+        Linear layer = new Linear(4, 3);
+        Matrix input = new Matrix(new double[][] {{1, -2, 0.5, 3}});
+
+        Matrix before = layer.forward(input);
+        layer.enableLora(2, 4.0);
+        Matrix after = layer.forward(input);
+
+        assertTrue(layer.hasLora());
+        assertEquals(2, layer.getLoraRank());
+        for (int j = 0; j < 3; j++) {
+            assertEquals(before.get(0, j), after.get(0, j), 1e-12);
+        }
+    }
+
+    @Test
+    void testSeededLoraInitIsReproducible() {
+        Linear first = new Linear(4, 3, new Random(1));
+        Linear second = new Linear(4, 3, new Random(1));
+        first.enableLora(2, 2.0, new Random(9));
+        second.enableLora(2, 2.0, new Random(9));
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 2; j++) {
+                assertEquals(first.getLoraA().get(i, j), second.getLoraA().get(i, j));
+            }
+        }
+    }
+
+    @Test
+    void testLoraBackwardOnlyProducesAdapterGradients() {
+        Linear layer = new Linear(4, 3);
+        layer.enableLora(2, 2.0);
+        // non-zero B so every gradient path is exercised
+        Matrix b = layer.getLoraB();
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                b.set(i, j, 0.1 * (i + 1) - 0.05 * j);
+            }
+        }
+
+        Matrix input = new Matrix(new double[][] {{1, -2, 0.5, 3}, {0.2, 0.1, -1, 0}});
+        Matrix dOut = new Matrix(new double[][] {{1, 0.5, -1}, {-0.3, 2, 0.7}});
+
+        layer.forward(input);
+        Matrix dX = layer.backward(dOut);
+
+        assertNull(layer.getGradWeights());
+        assertNull(layer.getGradBias());
+
+        double h = 1e-6;
+        Matrix[] params = {layer.getLoraA(), layer.getLoraB(), input};
+        Matrix[] grads = {layer.getGradLoraA(), layer.getGradLoraB(), dX};
+        for (int p = 0; p < params.length; p++) {
+            Matrix m = params[p];
+            for (int i = 0; i < m.getRows(); i++) {
+                for (int j = 0; j < m.getCols(); j++) {
+                    double orig = m.get(i, j);
+                    m.set(i, j, orig + h);
+                    double plus = weightedSum(layer.forward(input), dOut);
+                    m.set(i, j, orig - h);
+                    double minus = weightedSum(layer.forward(input), dOut);
+                    m.set(i, j, orig);
+                    assertEquals((plus - minus) / (2 * h), grads[p].get(i, j), 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testMergeLoraPreservesOutput() {
+        Linear layer = new Linear(3, 3);
+        layer.enableLora(1, 1.0);
+        layer.getLoraB().set(0, 0, 0.5);
+        layer.getLoraB().set(0, 2, -1.5);
+
+        Matrix input = new Matrix(new double[][] {{1, 2, 3}});
+        Matrix withAdapters = layer.forward(input);
+
+        layer.mergeLora();
+        Matrix merged = layer.forward(input);
+
+        assertFalse(layer.hasLora());
+        for (int j = 0; j < 3; j++) {
+            assertEquals(withAdapters.get(0, j), merged.get(0, j), 1e-12);
+        }
+    }
+
+    @Test
+    void testInvalidLoraRankRejected() {
+        Linear layer = new Linear(4, 2);
+        assertThrows(IllegalArgumentException.class, () -> layer.enableLora(0, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> layer.enableLora(3, 1.0));
+    }
+
+    @Test
+    void testReplicaSharesWeightsButKeepsOwnGradients() {
+        Linear layer = new Linear(2, 2);
+        Linear replica = layer.replicate();
+        assertSame(layer.getWeights(), replica.getWeights());
+        assertSame(layer.getBias(), replica.getBias());
+
+        layer.forward(new Matrix(new double[][] {{1, 0}}));
+        layer.backward(new Matrix(new double[][] {{1, 1}}));
+        replica.forward(new Matrix(new double[][] {{0, 1}}));
+        replica.backward(new Matrix(new double[][] {{2, 2}}));
+
+        assertEquals(1.0, layer.getGradWeights().get(0, 0), 1e-12);
+        assertEquals(0.0, layer.getGradWeights().get(1, 0), 1e-12);
+        assertEquals(0.0, replica.getGradWeights().get(0, 0), 1e-12);
+        assertEquals(2.0, replica.getGradWeights().get(1, 0), 1e-12);
+    }
+
+    @Test
+    void testSeededConstructorIsReproducible() {
+        Linear a = new Linear(3, 4, new Random(5));
+        Linear b = new Linear(3, 4, new Random(5));
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                assertEquals(a.getWeights().get(i, j), b.getWeights().get(i, j), 0.0);
+            }
+        }
+    }
+
+    @Test
+    void testAccumulatedMicroBatchGradientsMatchFullBatch() {
+        Linear layer = new Linear(2, 3, new Random(3));
+        Matrix x = new Matrix(new double[][] {{1, 2}, {3, 4}, {5, 6}});
+        Matrix dOut = new Matrix(new double[][] {{1, 0, 2}, {0, 1, 1}, {3, 1, 0}});
+
+        layer.forward(x);
+        layer.backward(dOut);
+        Matrix fullW = layer.getGradWeights();
+        Matrix fullB = layer.getGradBias();
+
+        layer.setAccumulateGradients(true);
+        layer.zeroGrad();
+        layer.forward(new Matrix(new double[][] {{1, 2}}));
+        layer.backward(new Matrix(new double[][] {{1, 0, 2}}));
+        layer.forward(new Matrix(new double[][] {{3, 4}, {5, 6}}));
+        layer.backward(new Matrix(new double[][] {{0, 1, 1}, {3, 1, 0}}));
+
+        for (int j = 0; j < 3; j++) {
+            assertEquals(fullB.get(0, j), layer.getGradBias().get(0, j), 1e-12);
+            for (int i = 0; i < 2; i++) {
+                assertEquals(fullW.get(i, j), layer.getGradWeights().get(i, j), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testZeroGradResetsAccumulatedGradients() {
+        Linear layer = new Linear(1, 1);
+        layer.setAccumulateGradients(true);
+        layer.forward(new Matrix(new double[][] {{2}}));
+        layer.backward(new Matrix(new double[][] {{1}}));
+        layer.backward(new Matrix(new double[][] {{1}}));
+        assertEquals(4.0, layer.getGradWeights().get(0, 0), 1e-12);
+
+        layer.zeroGrad();
+        assertEquals(0.0, layer.getGradWeights().get(0, 0), 0.0);
+        assertEquals(0.0, layer.getGradBias().get(0, 0), 0.0);
+    }
 }
@@ -98,4 +98,105 @@ public class MatrixTest {
         assertTrue(p0 > p2);
     }
 
+
+    @Test
+    void testGatherRowsCopiesSelectedRows() {
+        Matrix m = new Matrix(new double[][]{
+            {1, 2},
+            {3, 4},
+            {5, 6}
+        });
+
+        Matrix out = m.gatherRows(new int[]{2, 0, 2});
+
+        assertEquals(3, out.getRows());
+        assertEquals(5, out.get(0, 0), 1e-9);
+        assertEquals(2, out.get(1, 1), 1e-9);
+        assertEquals(6, out.get(2, 1), 1e-9);
+
+        // result is a copy, not a view
+        out.set(0, 0, 100);
+        assertEquals(5, m.get(2, 0), 1e-9);
+    }
+
+    @Test
+    void testGatherRowsAddsOffsetsCyclically() {
+        Matrix m = new Matrix(new double[][]{{1, 1}, {2, 2}});
+        Matrix offsets = new Matrix(new double[][]{{10, 20}, {30, 40}});
+
+        Matrix out = m.gatherRows(new int[]{0, 1, 1, 0}, offsets);
+
+        assertEquals(11, out.get(0, 0), 1e-9);
+        assertEquals(42, out.get(1, 1), 1e-9);
+        assertEquals(12, out.get(2, 0), 1e-9);
+        assertEquals(41, out.get(3, 1), 1e-9);
+    }
+
+    @Test
+    void testDotTransposedMatchesExplicitTranspose() {
+        Matrix a = new Matrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        Matrix b = new Matrix(new double[][]{{1, 0, 2}, {-1, 3, 1}, {2, 2, 2}, {0, 1, 0}});
+
+        Matrix expected = a.dot(b.transpose());
+        Matrix actual = a.dotTransposed(b);
+
+        assertEquals(2, actual.getRows());
+        assertEquals(4, actual.getCols());
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 4; j++) {
+                assertEquals(expected.get(i, j), actual.get(i, j), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testTransposeDotMatchesExplicitTranspose() {
+        Matrix a = new Matrix(new double[][]{{1, 2}, {3, 4}, {5, 6}});
+        Matrix b = new Matrix(new double[][]{{1, 0, 2}, {-1, 3, 1}, {2, 2, 2}});
+
+        Matrix expected = a.transpose().dot(b);
+        Matrix actual = a.transposeDot(b);
+
+        assertEquals(2, actual.getRows());
+        assertEquals(3, actual.getCols());
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(expected.get(i, j), actual.get(i, j), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testTransposedProductsRejectMismatchedShapes() {
+        Matrix a = new Matrix(2, 3);
+        assertThrows(IllegalArgumentException.class, () -> a.dotTransposed(new Matrix(4, 2)));
+        assertThrows(IllegalArgumentException.class, () -> a.transposeDot(new Matrix(3, 3)));
+    }
+
+    @Test
+    void testBindToMovesValuesIntoSharedBuffer() {
+        Matrix m = new Matrix(new double[][]{{1, 2}, {3, 4}});
+        double[] buffer = new double[7];
+
+        m.bindTo(buffer, 2);
+
+        assertEquals(3, buffer[4], 1e-9);
+        assertEquals(4, m.get(1, 1), 1e-9);
+
+        // writes go through to the buffer and vice versa
+        m.set(0, 1, 9);
+        assertEquals(9, buffer[3], 1e-9);
+        buffer[5] = -1;
+        assertEquals(-1, m.get(1, 1), 1e-9);
+
+        // products read from the bound region
+        Matrix product = new Matrix(new double[][]{{1, 0}, {0, 1}}).dot(m);
+        assertEquals(9, product.get(0, 1), 1e-9);
+    }
+
+    @Test
+    void testBindToRejectsRegionOutsideBuffer() {
+        Matrix m = new Matrix(2, 2);
+        assertThrows(IllegalArgumentException.class, () -> m.bindTo(new double[5], 2));
+    }
 }
@@ -0,0 +1,137 @@
+package minigptj.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+public class SparseRowGradientTest {
+
+    @Test
+    void testAddRowAccumulatesIntoSameSlot() {
+        SparseRowGradient g = new SparseRowGradient(10, 2);
+        Matrix src = new Matrix(new double[][]{{1.0, 2.0}, {3.0, 4.0}});
+
+        g.addRow(7, src, 0);
+        g.addRow(7, src, 1);
+
+        assertEquals(1, g.size());
+        assertEquals(7, g.rowIndex(0));
+        assertEquals(4.0, g.get(0, 0), 1e-9);
+        assertEquals(6.0, g.get(0, 1), 1e-9);
+    }
+
+    @Test
+    void testToDenseOnlyFillsTouchedRows() {
+        SparseRowGradient g = new SparseRowGradient(4, 3);
+        g.add(2, 1, 5.0);
+
+        Matrix dense = g.toDense();
+        assertEquals(4, dense.getRows());
+        assertEquals(3, dense.getCols());
+        assertEquals(5.0, dense.get(2, 1), 1e-9);
+        assertEquals(0.0, dense.get(0, 1), 1e-9);
+    }
+
+    @Test
+    void testClearResetsValues() {
+        SparseRowGradient g = new SparseRowGradient(4, 2);
+        g.add(1, 0, 3.0);
+        g.clear();
+        assertEquals(0, g.size());
+
+        g.add(1, 1, 2.0);
+        assertEquals(0.0, g.get(0, 0), 1e-9);
+        assertEquals(2.0, g.get(0, 1), 1e-9);
+    }
+
+    @Test
+    void testGrowsBeyondInitialCapacity() {
+        SparseRowGradient g = new SparseRowGradient(100, 1);
+        for (int r = 0; r < 100; r++) {
+            g.add(r, 0, r);
+        }
+        assertEquals(100, g.size());
+        assertEquals(99.0, g.toDense().get(99, 0), 1e-9);
+    }
+
+    @Test
+    void testRowOutOfRangeRejected() {
+        SparseRowGradient g = new SparseRowGradient(3, 1);
+        assertThrows(IllegalArgumentException.class, () -> g.add(3, 0, 1.0));
+    }
+
+    @Test
+    void testScatterAddMatchesSerialAccumulation() {
+        // large enough to take the parallel path
+        int n = 4096, cols = 16, vocab = 37;
+        Random rng = new Random(1);
+        int[] ids = new int[n];
+        Matrix src = new Matrix(n, cols);
+        for (int k = 0; k < n; k++) {
+            ids[k] = rng.nextInt(vocab);
+            for (int j = 0; j < cols; j++) {
+                src.set(k, j, rng.nextGaussian());
+            }
+        }
+
+        SparseRowGradient parallel = new SparseRowGradient(vocab, cols);
+        parallel.scatterAddRows(ids, src);
+
+        SparseRowGradient serial = new SparseRowGradient(vocab, cols);
+        for (int k = 0; k < n; k++) {
+            serial.addRow(ids[k], src, k);
+        }
+
+        Matrix a = parallel.toDense();
+        Matrix b = serial.toDense();
+        for (int i = 0; i < vocab; i++) {
+            for (int j = 0; j < cols; j++) {
+                assertEquals(b.get(i, j), a.get(i, j), 0.0);
+            }
+        }
+    }
+
+    @Test
+    void testAddAllMergesTouchedRows() {
+        SparseRowGradient a = new SparseRowGradient(5, 2);
+        a.add(1, 0, 1.0);
+        SparseRowGradient b = new SparseRowGradient(5, 2);
+        b.add(1, 0, 2.0);
+        b.add(3, 1, 4.0);
+
+        a.addAll(b);
+
+        assertEquals(2, a.size());
+        Matrix dense = a.toDense();
+        assertEquals(3.0, dense.get(1, 0), 1e-12);
+        assertEquals(4.0, dense.get(3, 1), 1e-12);
+        assertThrows(IllegalArgumentException.class, () -> a.addAll(new SparseRowGradient(4, 2)));
+    }
+
+    @Test
+    void testCopyRowsToWritesZerosForUntouchedRows() {
+        SparseRowGradient g = new SparseRowGradient(5, 2);
+        g.add(3, 0, 1.0);
+        g.add(3, 1, 2.0);
+
+        double[] dst = {9.0, 9.0, 9.0, 9.0, 9.0};
+        g.copyRowsTo(new int[] {1, 3, 4}, 2, dst, 1);
+
+        assertArrayEquals(new double[] {9.0, 0.0, 0.0, 1.0, 2.0}, dst);
+    }
+
+    @Test
+    void testSetRowsKeepsZeroRowsTouched() {
+        SparseRowGradient g = new SparseRowGradient(5, 2);
+        g.add(0, 0, 7.0);
+
+        g.setRows(new int[] {2, 4}, 2, new double[] {1.0, 2.0, 0.0, 0.0}, 0);
+
+        assertEquals(2, g.size());
+        assertFalse(g.isTouched(0));
+        assertTrue(g.isTouched(2));
+        assertTrue(g.isTouched(4));
+        assertEquals(2.0, g.toDense().get(2, 1), 1e-12);
+        assertEquals(0.0, g.toDense().get(0, 0), 1e-12);
+    }
+}
@@ -0,0 +1,124 @@
+package minigptj.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+public class BatchPrefetcherTest {
+
+    private TextDataset dataset() {
+        int[] tokens = new int[200];
+        Random rng = new Random(1);
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = 2 + rng.nextInt(20);
+        }
+        return new TextDataset(tokens, 4);
+    }
+
+    @Test
+    void testSingleProducerMatchesInlineSampling() {
+        TextDataset ds = dataset();
+        Random expected = new Random(9);
+        int[] x = new int[3 * 4];
+        int[] y = new int[3 * 4];
+
+        try (BatchPrefetcher prefetcher = new BatchPrefetcher(ds, 3, 2, 1, 9)) {
+            for (int b = 0; b < 10; b++) {
+                ds.sampleSequences(expected, x, y);
+                BatchPrefetcher.Slot slot = prefetcher.take();
+                assertArrayEquals(x, slot.inputs);
+                assertArrayEquals(y, slot.targets);
+                prefetcher.release(slot);
+            }
+        }
+    }
+
+    @Test
+    void testSeveralProducersAreDeterministic() {
+        TextDataset ds = dataset();
+        int[][] first = new int[12][];
+        try (BatchPrefetcher prefetcher = new BatchPrefetcher(ds, 2, 2, 3, 5)) {
+            for (int b = 0; b < first.length; b++) {
+                BatchPrefetcher.Slot slot = prefetcher.take();
+                first[b] = slot.inputs.clone();
+                prefetcher.release(slot);
+            }
+        }
+        // A deeper ring changes the timing but not the batches.
+        try (BatchPrefetcher prefetcher = new BatchPrefetcher(ds, 2, 5, 3, 5)) {
+            for (int b = 0; b < first.length; b++) {
+                BatchPrefetcher.Slot slot = prefetcher.take();
+                assertArrayEquals(first[b], slot.inputs);
+                prefetcher.release(slot);
+            }
+        }
+    }
+
+    @Test
+    void testSamplerProducerMatchesInlineSampler() {
+        TextDataset ds = dataset();
+        EpochSampler expected = new EpochSampler(ds, 4, 2);
+        int[] x = new int[5 * 4];
+        int[] y = new int[5 * 4];
+
+        BatchSampler[] samplers = {new EpochSampler(ds, 4, 2)};
+        try (BatchPrefetcher prefetcher = new BatchPrefetcher(samplers, x.length, 3)) {
+            for (int b = 0; b < 25; b++) {
+                expected.nextBatch(x, y);
+                BatchPrefetcher.Slot slot = prefetcher.take();
+                assertArrayEquals(x, slot.inputs);
+                assertArrayEquals(y, slot.targets);
+                prefetcher.release(slot);
+            }
+        }
+    }
+
+    @Test
+    void testTakenSlotsAreNotRefilled() throws InterruptedException {
+        TextDataset ds = dataset();
+        try (BatchPrefetcher prefetcher = new BatchPrefetcher(ds, 2, 2, 2, 3)) {
+            BatchPrefetcher.Slot a = prefetcher.take();
+            BatchPrefetcher.Slot b = prefetcher.take();
+            int[] aInputs = a.inputs.clone();
+            int[] bInputs = b.inputs.clone();
+
+            // Every slot is taken, so the producers must wait.
+            Thread.sleep(50);
+            assertArrayEquals(aInputs, a.inputs);
+            assertArrayEquals(bInputs, b.inputs);
+
+            // Releasing the first slot lets it be refilled with the third batch.
+            prefetcher.release(a);
+            BatchPrefetcher.Slot c = prefetcher.take();
+            assertSame(a, c);
+            prefetcher.release(b);
+            assertThrows(IllegalArgumentException.class, () -> prefetcher.release(b));
+        }
+    }
+
+    @Test
+    void testProducerErrorFailsTake() {
+        BatchSampler[] samplers = {(inputs, targets) -> {
+            throw new AssertionError("sampler broke");
+        }};
+        try (BatchPrefetcher prefetcher = new BatchPrefetcher(samplers, 8, 2)) {
+            IllegalStateException e = assertThrows(IllegalStateException.class, prefetcher::take);
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    @Test
+    void testTakeAfterCloseThrows() {
+        BatchPrefetcher prefetcher = new BatchPrefetcher(dataset(), 2, 2, 1, 1);
+        prefetcher.close();
+        assertThrows(IllegalStateException.class, prefetcher::take);
+    }
+
+    @Test
+    void testInvalidArgumentsThrow() {
+        TextDataset ds = dataset();
+        assertThrows(IllegalArgumentException.class, () -> new BatchPrefetcher(ds, 0, 2, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new BatchPrefetcher(ds, 2, 0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new BatchPrefetcher(ds, 2, 2, 0, 1));
+    }
+}
@@ -0,0 +1,125 @@
+package minigptj.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BpeTokenizerTest {
+
+    private static final String TEXT =
+        "The king's daughter went out into the forest, and the king went after her. "
+        + "There the frog said to the king's daughter: 'The king will come.'\n";
+
+    @Test
+    void testEncodeDecodeRoundTrip() {
+        BpeTokenizer tok = BpeTokenizer.train(TEXT.repeat(3), 80);
+        assertEquals(TEXT, tok.decode(tok.encode(TEXT)));
+    }
+
+    @Test
+    void testMergesShortenText() {
+        CharTokenizer chars = CharTokenizer.fromText(TEXT);
+        BpeTokenizer tok = BpeTokenizer.train(TEXT.repeat(3), chars.vocabSize() + 30);
+        assertEquals(chars.vocabSize() + 30, tok.vocabSize());
+        assertTrue(tok.encode(TEXT).length < TEXT.length() * 2 / 3);
+        // Character IDs are shared with the character tokenizer.
+        assertEquals(chars.charToId('k'), tok.encode("k")[0]);
+    }
+
+    @Test
+    void testWordsAreNotMergedAcrossBoundaries() {
+        BpeTokenizer tok = BpeTokenizer.train("ab, ab, ab, ab, ab, ab,", 40);
+        for (int id : tok.encode("ab, ab,")) {
+            String text = tok.tokenText(id);
+            assertFalse(text.length() > 1 && text.contains(","), text);
+        }
+    }
+
+    @Test
+    void testEncoderMatchesMergeByMergeReference() {
+        BpeTokenizer tok = BpeTokenizer.train(TEXT.repeat(2), 90);
+        Random rng = new Random(3);
+        String alphabet = "thek ingaoa ";
+        for (int t = 0; t < 200; t++) {
+            StringBuilder text = new StringBuilder();
+            int length = 1 + rng.nextInt(30);
+            for (int i = 0; i < length; i++) {
+                text.append(alphabet.charAt(rng.nextInt(alphabet.length())));
+            }
+            assertArrayEquals(referenceEncode(tok, text.toString()), tok.encode(text.toString()));
+        }
+        assertArrayEquals(referenceEncode(tok, TEXT), tok.encode(TEXT));
+    }
+
+    @Test
+    void testTrainingIsDeterministic() {
+        BpeTokenizer a = BpeTokenizer.train(TEXT, 70);
+        BpeTokenizer b = BpeTokenizer.train(TEXT, 70);
+        assertArrayEquals(a.getMerges(), b.getMerges());
+    }
+
+    @Test
+    void testFromMergesRebuildsTokenizer() {
+        BpeTokenizer tok = BpeTokenizer.train(TEXT, 70);
+        BpeTokenizer copy = BpeTokenizer.fromMerges(tok.getAlphabet(), tok.getMerges());
+        assertEquals(tok.vocabSize(), copy.vocabSize());
+        assertArrayEquals(tok.encode(TEXT), copy.encode(TEXT));
+    }
+
+    @Test
+    void testSpecialAndUnknownTokens() {
+        BpeTokenizer tok = BpeTokenizer.train("abab abab", 12);
+        int[] ids = tok.encode("abz");
+        assertEquals(CharTokenizer.UNK_ID, ids[ids.length - 1]);
+        assertNull(tok.tokenText(CharTokenizer.PAD_ID));
+        assertNull(tok.tokenText(CharTokenizer.UNK_ID));
+        assertNull(tok.tokenText(tok.vocabSize()));
+        assertEquals("ab\uFFFD", tok.decode(new int[] {CharTokenizer.PAD_ID, ids[0], CharTokenizer.UNK_ID}));
+    }
+
+    @Test
+    void testInvalidArgumentsThrow() {
+        assertThrows(IllegalArgumentException.class, () -> BpeTokenizer.train(TEXT, 5));
+        assertThrows(IllegalArgumentException.class, () -> BpeTokenizer.fromMerges("ab", new int[] {2}));
+        assertThrows(IllegalArgumentException.class, () -> BpeTokenizer.fromMerges("ab", new int[] {2, 4}));
+        assertThrows(IllegalArgumentException.class, () -> BpeTokenizer.fromMerges("ab", new int[] {2, 3, 2, 3}));
+    }
+
+    /**
+     * Applies each merge in rank order to every word of the text, the way
+     * BPE is defined, without the priority queue.
+     */
+    private static int[] referenceEncode(BpeTokenizer tok, String text) {
+        CharTokenizer chars = CharTokenizer.fromVocabulary(tok.getAlphabet());
+        int[] merges = tok.getMerges();
+        int[] out = new int[0];
+        int at = 0;
+        while (at < text.length()) {
+            int letters = (text.charAt(at) == ' ') ? at + 1 : at;
+            int end = letters;
+            while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) end++;
+            if (end == letters) end = at + 1;
+
+            int[] ids = chars.encode(text.substring(at, end));
+            for (int r = 0; r < merges.length / 2; r++) {
+                int[] merged = new int[ids.length];
+                int n = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    if (i + 1 < ids.length && ids[i] == merges[2 * r] && ids[i + 1] == merges[2 * r + 1]) {
+                        merged[n++] = chars.vocabSize() + r;
+                        i++;
+                    } else {
+                        merged[n++] = ids[i];
+                    }
+                }
+                ids = Arrays.copyOf(merged, n);
+            }
+            int[] joined = Arrays.copyOf(out, out.length + ids.length);
+            System.arraycopy(ids, 0, joined, out.length, ids.length);
+            out = joined;
+            at = end;
+        }
+        return out;
+    }
+}
@@ -43,10 +43,74 @@ public class CharTokenizerTest {
         assertEquals(tok1.charToId('b'), tok2.charToId('b'));
     }
 
+    @Test
+    void testCountTokens() {
+        CharTokenizer tok = CharTokenizer.fromText("abb");
+        int[] counts = tok.countTokens(tok.encode("abbb"));
+        assertEquals(tok.vocabSize(), counts.length);
+        assertEquals(1, counts[tok.charToId('a')]);
+        assertEquals(3, counts[tok.charToId('b')]);
+        assertEquals(0, counts[CharTokenizer.PAD_ID]);
+    }
+
     @Test
     void testIdToCharRoundTrip() {
         CharTokenizer tok = CharTokenizer.fromText("xyz");
         int id = tok.charToId('x');
         assertEquals('x', tok.idToChar(id));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testFromVocabularyRecreatesIds() {
+        CharTokenizer tok = CharTokenizer.fromText("hello world");
+        CharTokenizer copy = CharTokenizer.fromVocabulary(tok.getVocabulary());
+        assertEquals(tok.vocabSize(), copy.vocabSize());
+        assertArrayEquals(tok.encode("low held"), copy.encode("low held"));
+        assertThrows(IllegalArgumentException.class, () -> CharTokenizer.fromVocabulary("abca"));
+    }
+
+    @Test
+    void testCountTokensFromStore() {
+        CharTokenizer tok = CharTokenizer.fromText("abb");
+        int[] ids = tok.encode("abbb");
+        assertArrayEquals(tok.countTokens(ids), tok.countTokens(new IntTokenStore(ids)));
+    }
+
+    @Test
+    void testBulkEncodeIntoBuffer() {
+        CharTokenizer tok = CharTokenizer.fromText("abc");
+        StringBuilder text = new StringBuilder("xxabzc");
+        int[] dst = new int[6];
+        tok.encode(text, 2, 6, dst, 1);
+        assertArrayEquals(new int[] {0, tok.charToId('a'), tok.charToId('b'), CharTokenizer.UNK_ID,
+            tok.charToId('c'), 0}, dst);
+
+        int[] fromArray = new int[4];
+        tok.encode("xxabzc".toCharArray(), 2, 6, fromArray, 0);
+        assertArrayEquals(tok.encode("abzc"), fromArray);
+
+        assertThrows(IllegalArgumentException.class, () -> tok.encode(text, 0, 6, new int[5], 0));
+        assertThrows(IllegalArgumentException.class, () -> tok.encode(text, 4, 2, dst, 0));
+    }
+
+    @Test
+    void testBulkDecodeIntoBuffer() {
+        CharTokenizer tok = CharTokenizer.fromText("ab");
+        int[] ids = {tok.charToId('a'), CharTokenizer.PAD_ID, CharTokenizer.UNK_ID, 99, tok.charToId('b')};
+        char[] dst = new char[7];
+        int n = tok.decode(ids, 0, ids.length, dst, 2);
+        assertEquals(4, n);
+        assertEquals("a\uFFFD\uFFFDb", new String(dst, 2, n));
+    }
+
+    @Test
+    void testHasCharUsesVocabulary() {
+        CharTokenizer tok = CharTokenizer.fromText("a\u00e9\uFFFF");
+        assertTrue(tok.hasChar('a'));
+        assertTrue(tok.hasChar('\u00e9'));
+        assertTrue(tok.hasChar('\uFFFF'));
+        assertFalse(tok.hasChar('b'));
+        assertEquals(5, tok.vocabSize());
+        assertEquals("a\u00e9\uFFFF", tok.getVocabulary());
+    }
+}
@@ -0,0 +1,114 @@
+package minigptj.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CorpusEncoderTest {
+
+    // Two- and three-byte UTF-8 characters and a surrogate pair, so small
+    // chunks have to move their boundaries.
+    private static final String TEXT = "Once upon a time, a king's daughter — café, naïve, €5 🐸 — lived by a well.\n";
+
+    @Test
+    void testMatchesWholeTextTokenizer() throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        try {
+            Files.writeString(corpus, TEXT.repeat(3), StandardCharsets.UTF_8);
+            CharTokenizer expected = CharTokenizer.fromText(TEXT.repeat(3));
+
+            for (int chunkBytes : new int[] {4, 5, 7, 64, 1 << 20}) {
+                CorpusEncoder encoder = new CorpusEncoder(3, chunkBytes);
+                CharTokenizer tok = encoder.buildTokenizer(corpus);
+                assertEquals(expected.getVocabulary(), tok.getVocabulary());
+                assertArrayEquals(expected.encode(TEXT.repeat(3)), encoder.encode(corpus, tok));
+            }
+        } finally {
+            Files.deleteIfExists(corpus);
+        }
+    }
+
+    @Test
+    void testEncodeCompact() throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        try {
+            Files.writeString(corpus, TEXT.repeat(3), StandardCharsets.UTF_8);
+            int[] expected = CharTokenizer.fromText(TEXT.repeat(3)).encode(TEXT.repeat(3));
+
+            for (int chunkBytes : new int[] {4, 7, 1 << 20}) {
+                CorpusEncoder encoder = new CorpusEncoder(3, chunkBytes);
+                TokenStore store = encoder.encodeCompact(corpus, encoder.buildTokenizer(corpus));
+                assertTrue(store instanceof ByteTokenStore);
+                assertEquals(expected.length, store.length());
+                int[] copy = new int[expected.length];
+                store.copy(0, copy, 0, expected.length);
+                assertArrayEquals(expected, copy);
+            }
+        } finally {
+            Files.deleteIfExists(corpus);
+        }
+    }
+
+    @Test
+    void testWriteTokenFile() throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        Path tokens = Files.createTempFile("tokens", ".bin");
+        try {
+            Files.writeString(corpus, TEXT, StandardCharsets.UTF_8);
+            new CorpusEncoder(2, 6).writeTokenFile(corpus, tokens);
+
+            CharTokenizer expected = CharTokenizer.fromText(TEXT);
+            int[] ids = expected.encode(TEXT);
+            TokenFile file = TokenFile.open(tokens);
+            assertEquals(expected.getVocabulary(), file.getTokenizer().getVocabulary());
+            assertEquals(ids.length, file.length());
+            int[] copy = new int[ids.length];
+            file.copy(0, copy, 0, ids.length);
+            assertArrayEquals(ids, copy);
+        } finally {
+            Files.deleteIfExists(corpus);
+            Files.deleteIfExists(tokens);
+        }
+    }
+
+    @Test
+    void testEmptyCorpus() throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        try {
+            CorpusEncoder encoder = new CorpusEncoder(2, 8);
+            CharTokenizer tok = encoder.buildTokenizer(corpus);
+            assertEquals(2, tok.vocabSize());
+            assertEquals(0, encoder.encode(corpus, tok).length);
+            assertEquals(0, encoder.encodeCompact(corpus, tok).length());
+        } finally {
+            Files.deleteIfExists(corpus);
+        }
+    }
+
+    @Test
+    void testMalformedUtf8Throws() throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        Path tokens = Files.createTempFile("tokens", ".bin");
+        try {
+            Files.write(corpus, new byte[] {'a', 'b', (byte) 0xFF, 'c'});
+            CorpusEncoder encoder = new CorpusEncoder(2, 8);
+            assertThrows(IOException.class, () -> encoder.buildTokenizer(corpus));
+            CharTokenizer tok = CharTokenizer.fromText("abc");
+            assertThrows(IOException.class, () -> encoder.encodeCompact(corpus, tok));
+            assertThrows(IOException.class, () -> encoder.writeTokenFile(corpus, tokens));
+            assertFalse(Files.exists(TokenFile.tempPath(tokens)));
+        } finally {
+            Files.deleteIfExists(corpus);
+            Files.deleteIfExists(tokens);
+        }
+    }
+
+    @Test
+    void testInvalidSettingsThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new CorpusEncoder(0, 1024));
+        assertThrows(IllegalArgumentException.class, () -> new CorpusEncoder(1, 2));
+    }
+}
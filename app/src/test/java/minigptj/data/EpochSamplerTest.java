@@ -0,0 +1,86 @@
+package minigptj.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class EpochSamplerTest {
+
+    private int[] sequentialTokens(int n) {
+        int[] tokens = new int[n];
+        for (int i = 0; i < n; i++) {
+            tokens[i] = 2 + i;
+        }
+        return tokens;
+    }
+
+    @Test
+    void testEpochCoversEveryWindowOnce() {
+        int contextLen = 4;
+        TextDataset ds = new TextDataset(sequentialTokens(41), contextLen);
+        EpochSampler sampler = new EpochSampler(ds, contextLen, 3);
+
+        // One sequence per batch, so the epoch boundary is easy to find.
+        int[] inputs = new int[contextLen];
+        int[] targets = new int[contextLen];
+        sampler.nextBatch(inputs, targets);
+        int windows = sampler.getWindowCount();
+
+        boolean[] targetSeen = new boolean[41 + 2];
+        for (int w = 0; w < windows; w++) {
+            if (w > 0) sampler.nextBatch(inputs, targets);
+            assertEquals(0, sampler.getEpoch());
+            for (int t = 0; t < contextLen; t++) {
+                // Targets are the inputs shifted by one token.
+                if (t + 1 < contextLen) assertEquals(inputs[t + 1], targets[t]);
+                if (targets[t] == CharTokenizer.PAD_ID) continue;
+                assertFalse(targetSeen[targets[t]], "token targeted twice in one epoch");
+                targetSeen[targets[t]] = true;
+            }
+        }
+
+        // Non-overlapping windows leave fewer than contextLen tokens untargeted.
+        int seen = 0;
+        for (boolean b : targetSeen) {
+            if (b) seen++;
+        }
+        assertTrue(seen > 40 - contextLen);
+
+        sampler.nextBatch(inputs, targets);
+        assertEquals(1, sampler.getEpoch());
+    }
+
+    @Test
+    void testSameSeedGivesSameBatches() {
+        TextDataset ds = new TextDataset(sequentialTokens(100), 5);
+        EpochSampler a = new EpochSampler(ds, 5, 11);
+        EpochSampler b = new EpochSampler(ds, 5, 11);
+        int[] xa = new int[3 * 5];
+        int[] ya = new int[3 * 5];
+        int[] xb = new int[3 * 5];
+        int[] yb = new int[3 * 5];
+        for (int i = 0; i < 20; i++) {
+            a.nextBatch(xa, ya);
+            b.nextBatch(xb, yb);
+            assertArrayEquals(xa, xb);
+            assertArrayEquals(ya, yb);
+        }
+    }
+
+    @Test
+    void testStrideControlsWindowCount() {
+        TextDataset ds = new TextDataset(sequentialTokens(101), 8);
+        EpochSampler sampler = new EpochSampler(ds, 2, 1);
+        sampler.nextBatch(new int[8], new int[8]);
+        // 100 examples, one window every 2 examples from the phase.
+        assertEquals(50, sampler.getWindowCount());
+    }
+
+    @Test
+    void testInvalidArgumentsThrow() {
+        TextDataset ds = new TextDataset(sequentialTokens(20), 4);
+        assertThrows(IllegalArgumentException.class, () -> new EpochSampler(ds, 0, 1));
+        EpochSampler sampler = new EpochSampler(ds, 4, 1);
+        assertThrows(IllegalArgumentException.class, () -> sampler.nextBatch(new int[6], new int[6]));
+        assertThrows(IllegalArgumentException.class, () -> sampler.nextBatch(new int[4], new int[8]));
+    }
+}
@@ -52,4 +52,49 @@ public class TextDatasetTest {
         assertEquals(3, batch.x[0].length);
         assertEquals(4, batch.y.length);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCopySequenceShiftsTargetsWithPadding() {
+        int[] tokens = {2, 3, 4, 5, 6};
+        TextDataset ds = new TextDataset(tokens, 3);
+        int[] inputs = new int[5];
+        int[] targets = new int[5];
+
+        ds.copySequence(1, inputs, targets, 2);
+
+        int pad = CharTokenizer.PAD_ID;
+        assertArrayEquals(new int[] {0, 0, pad, 2, 3}, inputs);
+        assertArrayEquals(new int[] {0, 0, 2, 3, 4}, targets);
+        assertEquals(ds.getTarget(1), targets[4]);
+    }
+
+    @Test
+    void testSampleSequencesMatchesContextsAndTargets() {
+        int[] tokens = {2, 3, 4, 5, 6, 7, 8, 9};
+        TextDataset ds = new TextDataset(tokens, 3);
+        int[] inputs = new int[4 * 3];
+        int[] targets = new int[4 * 3];
+
+        ds.sampleSequences(new Random(7), inputs, targets);
+
+        Random expected = new Random(7);
+        for (int b = 0; b < 4; b++) {
+            int idx = expected.nextInt((int) ds.size());
+            int[] ctx = ds.getContext(idx);
+            for (int t = 0; t < 3; t++) {
+                assertEquals(ctx[t], inputs[b * 3 + t]);
+            }
+            assertEquals(ctx[1], targets[b * 3]);
+            assertEquals(ctx[2], targets[b * 3 + 1]);
+            assertEquals(ds.getTarget(idx), targets[b * 3 + 2]);
+        }
+    }
+
+    @Test
+    void testSampleSequencesRejectsBadBuffers() {
+        TextDataset ds = new TextDataset(new int[] {2, 3, 4, 5}, 3);
+        Random rng = new Random(1);
+        assertThrows(IllegalArgumentException.class, () -> ds.sampleSequences(rng, new int[6], new int[3]));
+        assertThrows(IllegalArgumentException.class, () -> ds.sampleSequences(rng, new int[4], new int[4]));
+    }
+}
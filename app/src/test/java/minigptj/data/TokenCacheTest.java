@@ -0,0 +1,167 @@
+package minigptj.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class TokenCacheTest {
+
+    @Test
+    void testReusesEntryUntilCorpusChanges() throws IOException {
+        Path dir = Files.createTempDirectory("token-cache");
+        try {
+            Path corpus = dir.resolve("corpus.txt");
+            Path cacheDir = dir.resolve("cache");
+            TokenCache cache = new TokenCache(cacheDir);
+
+            Files.writeString(corpus, "the frog prince", StandardCharsets.UTF_8);
+            Path first = cache.entryPath(corpus);
+            assertTokensMatch("the frog prince", cache.open(corpus));
+            assertTrue(Files.exists(first));
+
+            // A second open maps the same entry instead of rewriting it.
+            long written = Files.getLastModifiedTime(first).toMillis();
+            Files.setLastModifiedTime(first, FileTime.fromMillis(written - 10_000));
+            assertTokensMatch("the frog prince", cache.open(corpus));
+            assertEquals(written - 10_000, Files.getLastModifiedTime(first).toMillis());
+
+            Files.writeString(corpus, "the golden goose", StandardCharsets.UTF_8);
+            Path second = cache.entryPath(corpus);
+            assertNotEquals(first, second);
+            assertTokensMatch("the golden goose", cache.open(corpus));
+            assertFalse(Files.exists(first));
+            try (Stream<Path> entries = Files.list(cacheDir)) {
+                assertEquals(1, entries.count());
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    void testDamagedEntryIsRebuilt() throws IOException {
+        Path dir = Files.createTempDirectory("token-cache");
+        try {
+            Path corpus = dir.resolve("corpus.txt");
+            Files.writeString(corpus, "rapunzel, rapunzel", StandardCharsets.UTF_8);
+            TokenCache cache = new TokenCache(dir.resolve("cache"));
+            cache.open(corpus);
+
+            Path entry = cache.entryPath(corpus);
+            Files.write(entry, new byte[] {1, 2, 3});
+            assertTokensMatch("rapunzel, rapunzel", cache.open(corpus));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    void testBpeEntryIsReusedAndDecodesToCorpus() throws IOException {
+        Path dir = Files.createTempDirectory("token-cache");
+        try {
+            String text = "the king and the queen and the princess ".repeat(5);
+            Path corpus = dir.resolve("corpus.txt");
+            Files.writeString(corpus, text, StandardCharsets.UTF_8);
+            TokenCache cache = new TokenCache(dir.resolve("cache"));
+
+            TokenCache.BpeCorpus built = cache.openBpe(corpus, 40);
+            assertArrayEquals(BpeTokenizer.train(text, 40).getMerges(), built.getTokenizer().getMerges());
+            assertEquals(text, decodeAll(built));
+
+            Path entry = cache.bpeEntryPath(corpus, 40);
+            long written = Files.getLastModifiedTime(entry).toMillis();
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(written - 10_000));
+            TokenCache.BpeCorpus cached = cache.openBpe(corpus, 40);
+            assertEquals(written - 10_000, Files.getLastModifiedTime(entry).toMillis());
+            assertArrayEquals(built.getTokenizer().getMerges(), cached.getTokenizer().getMerges());
+            assertEquals(text, decodeAll(cached));
+
+            // A damaged entry is rebuilt.
+            Files.write(entry, new byte[] {1, 2, 3});
+            assertEquals(text, decodeAll(cache.openBpe(corpus, 40)));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    void testBpeEntryWithOtherMergesIsNotUsed() throws IOException {
+        Path dir = Files.createTempDirectory("token-cache");
+        try {
+            String text = "the king and the queen and the princess ".repeat(5);
+            Path corpus = dir.resolve("corpus.txt");
+            Files.writeString(corpus, text, StandardCharsets.UTF_8);
+            TokenCache cache = new TokenCache(dir.resolve("cache"));
+
+            // Same vocabulary size, but merges learned from other text.
+            BpeTokenizer trained = cache.openBpe(corpus, 40).getTokenizer();
+            BpeTokenizer other = BpeTokenizer.train("a queen, a king and a princess: the end. ".repeat(5), 40);
+            assertEquals(trained.vocabSize(), other.vocabSize());
+            assertNotEquals(trained.getAlphabet(), other.getAlphabet());
+
+            TokenCache.BpeCorpus encoded = cache.openBpe(corpus, other);
+            assertSame(other, encoded.getTokenizer());
+            int[] expected = other.encode(text);
+            int[] ids = new int[expected.length];
+            assertEquals(expected.length, encoded.getTokens().length());
+            encoded.getTokens().copy(0, ids, 0, ids.length);
+            assertArrayEquals(expected, ids);
+            assertArrayEquals(trained.getMerges(), cache.openBpe(corpus, 40).getTokenizer().getMerges());
+
+            // A tokenizer with the learned merges reads the entry.
+            BpeTokenizer reloaded = BpeTokenizer.fromMerges(trained.getAlphabet(), trained.getMerges());
+            TokenCache.BpeCorpus fromEntry = cache.openBpe(corpus, reloaded);
+            assertNotSame(reloaded, fromEntry.getTokenizer());
+            assertEquals(text, decodeAll(fromEntry));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    void testKeyCoversSettingsAndContents() throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        try {
+            Files.writeString(corpus, "hansel", StandardCharsets.UTF_8);
+            String key = TokenCache.key(corpus, "a");
+            assertEquals(64, key.length());
+            assertEquals(key, TokenCache.key(corpus, "a"));
+            assertNotEquals(key, TokenCache.key(corpus, "b"));
+
+            Files.writeString(corpus, "gretel", StandardCharsets.UTF_8);
+            assertNotEquals(key, TokenCache.key(corpus, "a"));
+        } finally {
+            Files.deleteIfExists(corpus);
+        }
+    }
+
+    private static void assertTokensMatch(String text, TokenFile file) {
+        CharTokenizer expected = CharTokenizer.fromText(text);
+        int[] ids = expected.encode(text);
+        assertEquals(expected.getVocabulary(), file.getTokenizer().getVocabulary());
+        assertEquals(ids.length, file.length());
+        int[] copy = new int[ids.length];
+        file.copy(0, copy, 0, ids.length);
+        assertArrayEquals(ids, copy);
+    }
+
+    private static String decodeAll(TokenCache.BpeCorpus corpus) {
+        int[] ids = new int[(int) corpus.getTokens().length()];
+        corpus.getTokens().copy(0, ids, 0, ids.length);
+        return corpus.getTokenizer().decode(ids);
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
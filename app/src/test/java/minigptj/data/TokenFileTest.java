@@ -0,0 +1,146 @@
+package minigptj.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TokenFileTest {
+
+    @Test
+    void testTokenWidthFollowsVocabSize() {
+        assertEquals(1, TokenFile.tokenWidth(65));
+        assertEquals(1, TokenFile.tokenWidth(256));
+        assertEquals(2, TokenFile.tokenWidth(257));
+        assertEquals(2, TokenFile.tokenWidth(65536));
+        assertEquals(4, TokenFile.tokenWidth(65537));
+    }
+
+    @Test
+    void testWriteAndOpenRoundTrip() throws IOException {
+        String text = "the quick brown fox jumps over the lazy dog";
+        CharTokenizer tok = CharTokenizer.fromText(text);
+        int[] ids = tok.encode(text);
+
+        Path path = Files.createTempFile("tokens", ".bin");
+        try {
+            TokenFile.write(path, tok, ids);
+            TokenFile file = TokenFile.open(path);
+
+            assertEquals(1, file.getTokenWidth());
+            assertEquals(ids.length, file.length());
+            assertEquals(tok.getVocabulary(), file.getTokenizer().getVocabulary());
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(ids[i], file.get(i));
+            }
+            int[] copy = new int[ids.length];
+            file.copy(0, copy, 0, ids.length);
+            assertArrayEquals(ids, copy);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testWideVocabularyUsesTwoByteTokens() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (char c = 0x100; c < 0x300; c++) {
+            sb.append(c);
+        }
+        CharTokenizer tok = CharTokenizer.fromText(sb.toString());
+        int[] ids = tok.encode(sb.toString());
+
+        Path path = Files.createTempFile("tokens", ".bin");
+        try {
+            TokenFile.write(path, tok, ids);
+            TokenFile file = TokenFile.open(path);
+            assertEquals(2, file.getTokenWidth());
+            int[] copy = new int[ids.length];
+            file.copy(0, copy, 0, ids.length);
+            assertArrayEquals(ids, copy);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testCopyAcrossRegions() throws IOException {
+        CharTokenizer tok = CharTokenizer.fromText("abcdefgh");
+        int[] ids = tok.encode("abcdefghhgfedcbaabcdefgh");
+
+        Path path = Files.createTempFile("tokens", ".bin");
+        try {
+            TokenFile.write(path, tok, ids);
+            // 8-byte regions: every window of 5 from offset 6 crosses one.
+            TokenFile file = TokenFile.open(path, 8);
+            int[] window = new int[5];
+            for (int from = 0; from + window.length <= ids.length; from++) {
+                file.copy(from, window, 0, window.length);
+                for (int i = 0; i < window.length; i++) {
+                    assertEquals(ids[from + i], window[i]);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testDatasetOverTokenFileMatchesArray() throws IOException {
+        String text = "once upon a time there lived a king and a queen";
+        CharTokenizer tok = CharTokenizer.fromText(text);
+        int[] ids = tok.encode(text);
+
+        Path path = Files.createTempFile("tokens", ".bin");
+        try {
+            TokenFile.write(path, tok, ids);
+            TextDataset mapped = new TextDataset(TokenFile.open(path, 16), 8);
+            TextDataset array = new TextDataset(ids, 8);
+            assertEquals(array.size(), mapped.size());
+
+            int[] x1 = new int[8 * 6];
+            int[] y1 = new int[8 * 6];
+            int[] x2 = new int[8 * 6];
+            int[] y2 = new int[8 * 6];
+            array.sampleSequences(new Random(3), x1, y1);
+            mapped.sampleSequences(new Random(3), x2, y2);
+            assertArrayEquals(x1, x2);
+            assertArrayEquals(y1, y2);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testOpenRejectsInvalidFiles() throws IOException {
+        CharTokenizer tok = CharTokenizer.fromText("abc");
+        Path path = Files.createTempFile("tokens", ".bin");
+        try {
+            Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+            assertThrows(IOException.class, () -> TokenFile.open(path));
+
+            // Truncated token section.
+            TokenFile.write(path, tok, tok.encode("abcabc"));
+            byte[] bytes = Files.readAllBytes(path);
+            Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+            assertThrows(IOException.class, () -> TokenFile.open(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testWriteRejectsOutOfRangeTokens() throws IOException {
+        CharTokenizer tok = CharTokenizer.fromText("abc");
+        Path path = Files.createTempFile("tokens", ".bin");
+        try {
+            assertThrows(IllegalArgumentException.class,
+                () -> TokenFile.write(path, tok, new int[] {2, 3, 99}));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
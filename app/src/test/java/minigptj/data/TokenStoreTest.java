@@ -0,0 +1,59 @@
+package minigptj.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class TokenStoreTest {
+
+    @Test
+    void testCompactPicksWidthFromVocabSize() {
+        int[] ids = {0, 1, 2, 3};
+        assertTrue(TokenStore.compact(ids, 65) instanceof ByteTokenStore);
+        assertTrue(TokenStore.compact(ids, 256) instanceof ByteTokenStore);
+        assertTrue(TokenStore.compact(ids, 257) instanceof ShortTokenStore);
+        assertTrue(TokenStore.compact(ids, 65536) instanceof ShortTokenStore);
+        assertTrue(TokenStore.compact(ids, 65537) instanceof IntTokenStore);
+    }
+
+    @Test
+    void testCompactStoresWidenHighIdsUnsigned() {
+        int[] bytes = {0, 127, 128, 255, 7};
+        int[] shorts = {0, 255, 32767, 32768, 65535};
+        for (int[] ids : new int[][] {bytes, shorts}) {
+            TokenStore store = TokenStore.compact(ids, ids == bytes ? 256 : 65536);
+            assertEquals(ids.length, store.length());
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(ids[i], store.get(i));
+            }
+            int[] copy = new int[ids.length + 2];
+            store.copy(1, copy, 2, ids.length - 1);
+            for (int i = 1; i < ids.length; i++) {
+                assertEquals(ids[i], copy[i + 1]);
+            }
+        }
+    }
+
+    @Test
+    void testCompactDatasetMatchesIntDataset() {
+        String text = "hello world, hello compact tokens";
+        CharTokenizer tok = CharTokenizer.fromText(text);
+        int[] ids = tok.encode(text);
+        TextDataset plain = new TextDataset(ids, 5);
+        TextDataset packed = new TextDataset(TokenStore.compact(ids, tok.vocabSize()), 5);
+
+        assertEquals(plain.size(), packed.size());
+        for (long i = 0; i < plain.size(); i++) {
+            assertArrayEquals(plain.getContext(i), packed.getContext(i));
+            assertEquals(plain.getTarget(i), packed.getTarget(i));
+        }
+    }
+
+    @Test
+    void testInvalidAccessThrows() {
+        TokenStore store = TokenStore.compact(new int[] {1, 2, 3}, 4);
+        assertThrows(IllegalArgumentException.class, () -> TokenStore.compact(new int[] {4}, 4));
+        assertThrows(IllegalArgumentException.class, () -> TokenStore.compact(new int[] {-1}, 4));
+        assertThrows(IllegalArgumentException.class, () -> store.get(3));
+        assertThrows(IllegalArgumentException.class, () -> store.copy(2, new int[2], 0, 2));
+    }
+}
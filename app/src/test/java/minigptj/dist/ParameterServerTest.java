@@ -0,0 +1,56 @@
+package minigptj.dist;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ParameterServerTest {
+
+    @Test
+    void testServerSumsWorkerBuffers() throws Exception {
+        int worldSize = 3;
+        int length = 5;
+        List<double[]> out = RingAllReduceTest.runRanks(worldSize, length, ParameterServer::connect);
+
+        for (int i = 0; i < length; i++) {
+            double expected = worldSize * (0.6 + worldSize * i);
+            for (double[] data : out) {
+                assertEquals(expected, data[i], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void testReduceLengthLeavesTailUntouched() throws Exception {
+        List<double[]> out = RingAllReduceTest.runRanks(2, 5, 2, ParameterServer::connect);
+        for (int r = 0; r < 2; r++) {
+            double[] data = out.get(r);
+            assertEquals(2 * 0.3, data[0], 1e-9);
+            assertEquals(2 * (0.3 + 2), data[1], 1e-9);
+            assertEquals((r + 1) * 0.1 + 4, data[4], 1e-12);
+        }
+    }
+
+    @Test
+    void testBroadcastCopiesRankZero() throws Exception {
+        int basePort = RingAllReduceTest.freeBasePort(1);
+        double[] workerData = {9.0, 9.0};
+        Thread worker = new Thread(() -> {
+            try (Collective c = ParameterServer.connect(1, 2, "127.0.0.1", basePort)) {
+                c.broadcast(workerData);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        worker.start();
+
+        try (Collective c = ParameterServer.connect(0, 2, "127.0.0.1", basePort)) {
+            double[] data = {1.0, 2.0};
+            c.broadcast(data);
+            assertArrayEquals(new double[] {1.0, 2.0}, data);
+        }
+        worker.join();
+        assertArrayEquals(new double[] {1.0, 2.0}, workerData);
+    }
+}
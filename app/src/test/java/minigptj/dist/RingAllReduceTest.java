@@ -0,0 +1,148 @@
+package minigptj.dist;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RingAllReduceTest {
+
+    /**
+     * Runs one rank per thread over real localhost sockets and returns each
+     * rank's buffer after the all-reduce.
+     */
+    static List<double[]> runRanks(int worldSize, int length, Connector connector) throws Exception {
+        return runRanks(worldSize, length, length, connector);
+    }
+
+    /**
+     * Like runRanks(), but only reduces the first reduceLength entries.
+     */
+    static List<double[]> runRanks(int worldSize, int length, int reduceLength, Connector connector)
+            throws Exception {
+        int basePort = freeBasePort(worldSize);
+        ExecutorService pool = Executors.newFixedThreadPool(worldSize);
+        try {
+            List<Future<double[]>> results = new ArrayList<>();
+            for (int r = 0; r < worldSize; r++) {
+                int rank = r;
+                results.add(pool.submit(() -> {
+                    double[] data = new double[length];
+                    for (int i = 0; i < length; i++) {
+                        data[i] = (rank + 1) * 0.1 + i;
+                    }
+                    try (Collective c = connector.connect(rank, worldSize, "127.0.0.1", basePort)) {
+                        c.allReduce(data, reduceLength);
+                        // second call reuses the connection and buffers
+                        c.allReduce(data, reduceLength);
+                    }
+                    return data;
+                }));
+            }
+            List<double[]> out = new ArrayList<>();
+            for (Future<double[]> f : results) {
+                out.add(f.get());
+            }
+            return out;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static int freeBasePort(int count) throws IOException {
+        for (int attempt = 0; attempt < 50; attempt++) {
+            int base;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                base = probe.getLocalPort();
+            }
+            if (base + count > 65535) continue;
+            boolean free = true;
+            for (int p = base + 1; p < base + count && free; p++) {
+                try {
+                    new ServerSocket(p).close();
+                } catch (IOException e) {
+                    free = false;
+                }
+            }
+            if (free) return base;
+        }
+        throw new IOException("no free port range");
+    }
+
+    interface Connector {
+        Collective connect(int rank, int worldSize, String host, int port) throws IOException;
+    }
+
+    @Test
+    void testRingSumsAcrossRanks() throws Exception {
+        int worldSize = 3;
+        int length = 10;
+        List<double[]> out = runRanks(worldSize, length, RingAllReduce::connect);
+
+        for (int i = 0; i < length; i++) {
+            // one all-reduce gives 0.6 + 3i, the second multiplies by worldSize
+            double expected = worldSize * (0.6 + worldSize * i);
+            for (double[] data : out) {
+                assertEquals(expected, data[i], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void testRingRanksEndBitIdentical() throws Exception {
+        List<double[]> out = runRanks(4, 100_003, RingAllReduce::connect);
+        for (double[] data : out) {
+            assertArrayEquals(out.get(0), data);
+        }
+    }
+
+    @Test
+    void testBufferShorterThanWorldSize() throws Exception {
+        List<double[]> out = runRanks(3, 2, RingAllReduce::connect);
+        for (double[] data : out) {
+            assertEquals(3 * 0.6, data[0], 1e-9);
+        }
+    }
+
+    @Test
+    void testReduceLengthLeavesTailUntouched() throws Exception {
+        int worldSize = 3;
+        List<double[]> out = runRanks(worldSize, 10, 4, RingAllReduce::connect);
+        for (int r = 0; r < worldSize; r++) {
+            double[] data = out.get(r);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(worldSize * (0.6 + worldSize * i), data[i], 1e-9);
+            }
+            for (int i = 4; i < 10; i++) {
+                assertEquals((r + 1) * 0.1 + i, data[i], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testReduceLengthOutOfRangeRejected() throws Exception {
+        try (Collective c = RingAllReduce.connect(0, 1, "127.0.0.1", 0)) {
+            assertThrows(IllegalArgumentException.class, () -> c.allReduce(new double[2], 3));
+        }
+    }
+
+    @Test
+    void testSingleRankIsNoOp() throws Exception {
+        double[] data = {1.0, 2.0};
+        try (Collective c = RingAllReduce.connect(0, 1, "127.0.0.1", 0)) {
+            c.allReduce(data);
+        }
+        assertArrayEquals(new double[] {1.0, 2.0}, data);
+    }
+
+    @Test
+    void testInvalidRankRejected() {
+        assertThrows(IllegalArgumentException.class, () -> RingAllReduce.connect(2, 2, "127.0.0.1", 0));
+    }
+}
@@ -0,0 +1,198 @@
+package minigptj.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+
+public class AdaptiveSoftmaxTest {
+
+    // token 7 most frequent, then 6, 5, ..., 0
+    private static final int[] COUNTS = {0, 1, 2, 3, 4, 5, 6, 7};
+
+    private static Matrix randomHidden(int rows, int cols, long seed) {
+        Random rng = new Random(seed);
+        Matrix m = new Matrix(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                m.set(i, j, rng.nextGaussian());
+            }
+        }
+        return m;
+    }
+
+    @Test
+    void testFrequencyOrderMostFrequentFirst() {
+        int[] order = AdaptiveSoftmax.frequencyOrder(new int[]{3, 9, 1, 9});
+        // ties broken by lower ID
+        assertEquals(1, order[0]);
+        assertEquals(3, order[1]);
+        assertEquals(0, order[2]);
+        assertEquals(2, order[3]);
+    }
+
+    @Test
+    void testDefaultCutoffsFollowTokenMass() {
+        // 28 tokens in total: ranks 0-5 (tokens 7..2) cover 27 >= 90%,
+        // and rank 6 (token 1) brings the total to 28 >= 99%.
+        assertArrayEquals(new int[]{6, 7}, AdaptiveSoftmax.defaultCutoffs(COUNTS));
+    }
+
+    @Test
+    void testDefaultHeadSizeIsCappedForLargeVocabularies() {
+        for (int vocabSize : new int[]{20_000, 200_000}) {
+            int[] counts = new int[vocabSize];
+            for (int i = 0; i < vocabSize; i++) {
+                counts[i] = 10_000_000 / (i + 1);
+            }
+            int[] cutoffs = AdaptiveSoftmax.defaultCutoffs(counts);
+            assertEquals(1024, cutoffs[0]);
+            new AdaptiveSoftmax(4, counts, cutoffs);
+        }
+    }
+
+    @Test
+    void testDefaultCutoffsFallBackToOneClusterForTinyVocabularies() {
+        assertArrayEquals(new int[]{1}, AdaptiveSoftmax.defaultCutoffs(new int[]{9, 1}));
+        assertArrayEquals(new int[]{1}, AdaptiveSoftmax.defaultCutoffs(new int[]{0, 0, 0}));
+    }
+
+    @Test
+    void testParseCutoffs() {
+        assertArrayEquals(new int[]{2, 5}, AdaptiveSoftmax.parseCutoffs("2, 5"));
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveSoftmax.parseCutoffs("2,x"));
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveSoftmax.parseCutoffs(""));
+    }
+
+    @Test
+    void testProbabilitiesSumToOne() {
+        AdaptiveSoftmax out = new AdaptiveSoftmax(6, COUNTS, new int[]{2, 5}, 2);
+        Matrix probs = out.probabilities(randomHidden(3, 6, 1));
+
+        assertEquals(8, probs.getCols());
+        for (int i = 0; i < 3; i++) {
+            double sum = 0.0;
+            for (int j = 0; j < 8; j++) {
+                sum += probs.get(i, j);
+            }
+            assertEquals(1.0, sum, 1e-9);
+        }
+    }
+
+    @Test
+    void testLossMatchesFullDistribution() {
+        AdaptiveSoftmax out = new AdaptiveSoftmax(6, COUNTS, new int[]{2, 5}, 2);
+        Matrix hidden = randomHidden(4, 6, 2);
+        // head, first cluster, second cluster, padding
+        int[] targets = {7, 4, 1, 0};
+
+        Matrix probs = out.probabilities(hidden);
+        double expected = 0.0;
+        for (int i = 0; i < 3; i++) {
+            expected += -Math.log(probs.get(i, targets[i]));
+        }
+        expected /= 3;
+
+        assertEquals(expected, out.forward(hidden, targets, 0), 1e-9);
+    }
+
+    @Test
+    void testBackwardMatchesNumericalGradient() {
+        AdaptiveSoftmax out = new AdaptiveSoftmax(4, COUNTS, new int[]{3, 6}, 2);
+        Matrix hidden = randomHidden(3, 4, 3);
+        int[] targets = {6, 3, 1};
+
+        out.forward(hidden, targets, 0);
+        Matrix dHidden = out.backward();
+
+        double h = 1e-6;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                double orig = hidden.get(i, j);
+                hidden.set(i, j, orig + h);
+                double plus = out.forward(hidden, targets, 0);
+                hidden.set(i, j, orig - h);
+                double minus = out.forward(hidden, targets, 0);
+                hidden.set(i, j, orig);
+
+                assertEquals((plus - minus) / (2 * h), dHidden.get(i, j), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    void testUnusedClusterGetsZeroGradient() {
+        AdaptiveSoftmax out = new AdaptiveSoftmax(4, COUNTS, new int[]{3, 6}, 2);
+        // only head targets
+        out.forward(randomHidden(2, 4, 4), new int[]{7, 6}, 0);
+        out.backward();
+
+        Linear lastTail = out.getLayers().get(4);
+        Matrix grad = lastTail.getGradWeights();
+        for (int i = 0; i < grad.getRows(); i++) {
+            for (int j = 0; j < grad.getCols(); j++) {
+                assertEquals(0.0, grad.get(i, j), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testSampleReturnsValidIds() {
+        AdaptiveSoftmax out = new AdaptiveSoftmax(6, COUNTS, new int[]{2, 5}, 2);
+        int[] ids = out.sample(randomHidden(20, 6, 5), 1.0, new Random(7));
+        assertEquals(20, ids.length);
+        for (int id : ids) {
+            assertTrue(id >= 0 && id < 8);
+        }
+    }
+
+    @Test
+    void testInvalidCutoffsRejected() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new AdaptiveSoftmax(4, COUNTS, new int[]{5, 3}));
+        assertThrows(IllegalArgumentException.class,
+            () -> new AdaptiveSoftmax(4, COUNTS, new int[]{8}));
+    }
+
+    @Test
+    void testAccumulatedMicroBatchesMatchFullBatch() {
+        AdaptiveSoftmax full = new AdaptiveSoftmax(4, COUNTS, new int[]{3, 6}, 2);
+        Matrix hidden = randomHidden(4, 4, 5);
+        int[] targets = {7, 4, 1, 6};
+
+        full.forward(hidden, targets, 0);
+        Matrix dFull = full.backward();
+        Matrix headGrad = full.getLayers().get(0).getGradWeights();
+
+        // Same parameters, two micro-batches of two rows averaged over all four targets.
+        full.setAccumulateGradients(true);
+        full.zeroGrad();
+        full.forward(rows(hidden, 0, 2), new int[]{7, 4}, 0);
+        Matrix dFirst = full.backward(4);
+        full.forward(rows(hidden, 2, 4), new int[]{1, 6}, 0);
+        Matrix dSecond = full.backward(4);
+        Matrix headAccum = full.getLayers().get(0).getGradWeights();
+
+        for (int i = 0; i < headGrad.getRows(); i++) {
+            for (int j = 0; j < headGrad.getCols(); j++) {
+                assertEquals(headGrad.get(i, j), headAccum.get(i, j), 1e-12);
+            }
+        }
+        for (int j = 0; j < 4; j++) {
+            assertEquals(dFull.get(0, j), dFirst.get(0, j), 1e-12);
+            assertEquals(dFull.get(3, j), dSecond.get(1, j), 1e-12);
+        }
+    }
+
+    private static Matrix rows(Matrix src, int from, int to) {
+        Matrix m = new Matrix(to - from, src.getCols());
+        for (int i = from; i < to; i++) {
+            for (int j = 0; j < src.getCols(); j++) {
+                m.set(i - from, j, src.get(i, j));
+            }
+        }
+        return m;
+    }
+}
@@ -2,6 +2,7 @@ package minigptj.model;
 
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
+import java.util.Random;
 import minigptj.core.Matrix;
 
 public class CausalSelfAttentionTest {
@@ -110,7 +111,7 @@ public class CausalSelfAttentionTest {
 
     private Matrix randomMatrix(int rows, int cols) {
         Matrix m = new Matrix(rows, cols);
-        java.util.Random rng = new java.util.Random(42);
+        Random rng = new Random(42);
         for (int i = 0; i < rows; i++)
             for (int j = 0; j < cols; j++)
                 m.set(i, j, rng.nextGaussian() * 0.1);
@@ -133,4 +134,50 @@ public class CausalSelfAttentionTest {
             for (int j = 0; j < src.getCols(); j++)
                 dst.set(i, j, src.get(i, j));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testReplicaShardGradientsSumToFullBatchGradient() {
+        int dModel = 4;
+        int seqLen = 3;
+        CausalSelfAttention attn = new CausalSelfAttention(dModel, seqLen, new Random(1));
+        CausalSelfAttention replica = attn.replicate();
+        assertSame(attn.getWq().getWeights(), replica.getWq().getWeights());
+
+        Matrix x = randomMatrix(2 * seqLen, dModel, 2);
+        Matrix dOut = randomMatrix(2 * seqLen, dModel, 3);
+
+        attn.forward(x);
+        attn.backward(dOut);
+        Matrix full = attn.getWq().getGradWeights();
+
+        // Run each sequence of the batch on its own replica.
+        attn.forward(rows(x, 0, seqLen));
+        attn.backward(rows(dOut, 0, seqLen));
+        replica.forward(rows(x, seqLen, 2 * seqLen));
+        replica.backward(rows(dOut, seqLen, 2 * seqLen));
+        Matrix summed = attn.getWq().getGradWeights().add(replica.getWq().getGradWeights());
+
+        for (int i = 0; i < dModel; i++) {
+            for (int j = 0; j < dModel; j++) {
+                assertEquals(full.get(i, j), summed.get(i, j), 1e-12);
+            }
+        }
+    }
+
+    private Matrix randomMatrix(int rows, int cols, long seed) {
+        Random rng = new Random(seed);
+        Matrix m = new Matrix(rows, cols);
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                m.set(i, j, rng.nextGaussian());
+        return m;
+    }
+
+    private Matrix rows(Matrix src, int from, int to) {
+        Matrix m = new Matrix(to - from, src.getCols());
+        for (int i = from; i < to; i++)
+            for (int j = 0; j < src.getCols(); j++)
+                m.set(i - from, j, src.get(i, j));
+        return m;
+    }
+}
@@ -30,6 +30,33 @@ public class EmbeddingTest {
         }
     }
 
+    @Test
+    void testForwardSeqWithPositionsMatchesSeparateAdd() {
+        Embedding emb = new Embedding(10, 4);
+        Matrix pos = new Matrix(3, 4);
+        for (int t = 0; t < 3; t++) {
+            for (int j = 0; j < 4; j++) {
+                pos.set(t, j, t * 10 + j);
+            }
+        }
+        int[][] ids = {{2, 3, 4}, {1, 5, 6}};
+
+        Matrix plain = emb.forwardSeq(ids);
+        Matrix fused = emb.forwardSeq(ids, pos);
+
+        for (int r = 0; r < 6; r++) {
+            for (int j = 0; j < 4; j++) {
+                assertEquals(plain.get(r, j) + pos.get(r % 3, j), fused.get(r, j), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testForwardSeqRejectsOutOfRangeToken() {
+        Embedding emb = new Embedding(5, 2);
+        assertThrows(IllegalArgumentException.class, () -> emb.forwardSeq(new int[][]{{1, 5}}));
+    }
+
     @Test
     void testBackwardSeqShape() {
         Embedding emb = new Embedding(10, 4);
@@ -63,10 +90,69 @@ public class EmbeddingTest {
         }
     }
 
+    @Test
+    void testBackwardSeqOnlyStoresTouchedRows() {
+        Embedding emb = new Embedding(50, 3);
+        int[][] ids = {{4, 9, 4}};
+        emb.forwardSeq(ids);
+        emb.backwardSeq(new Matrix(3, 3));
+
+        // two distinct tokens, regardless of vocabulary size
+        assertEquals(2, emb.getSparseGradWeights().size());
+    }
+
     @Test
     void testBackwardSeqRequiresForward() {
         Embedding emb = new Embedding(5, 3);
         Matrix dOut = new Matrix(1, 3);
         assertThrows(IllegalStateException.class, () -> emb.backwardSeq(dOut));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAccumulateModeKeepsGradientAcrossForwardPasses() {
+        Embedding emb = new Embedding(6, 2);
+        emb.setAccumulateGradients(true);
+
+        emb.forwardSeq(new int[][] {{1, 2}});
+        emb.backwardSeq(new Matrix(new double[][] {{1, 1}, {2, 2}}));
+        emb.forwardSeq(new int[][] {{2, 3}});
+        emb.backwardSeq(new Matrix(new double[][] {{3, 3}, {4, 4}}));
+
+        Matrix grad = emb.getGradWeights();
+        assertEquals(1.0, grad.get(1, 0), 1e-12);
+        assertEquals(5.0, grad.get(2, 0), 1e-12);
+        assertEquals(4.0, grad.get(3, 1), 1e-12);
+
+        emb.zeroGrad();
+        assertEquals(0, emb.getSparseGradWeights().size());
+    }
+
+    @Test
+    void testFlatForwardSeqMatchesNestedIds() {
+        Embedding emb = new Embedding(10, 4);
+        Matrix pos = new Matrix(3, 4);
+        pos.set(1, 2, 0.5);
+
+        Matrix nested = emb.forwardSeq(new int[][] {{2, 3, 4}, {1, 5, 6}}, pos);
+        Matrix flat = emb.forwardSeq(new int[] {2, 3, 4, 1, 5, 6}, pos);
+
+        for (int r = 0; r < 6; r++) {
+            for (int j = 0; j < 4; j++) {
+                assertEquals(nested.get(r, j), flat.get(r, j), 0.0);
+            }
+        }
+
+        // backward scatters into the rows of the flat IDs
+        Matrix dOut = new Matrix(6, 4);
+        dOut.set(4, 0, 1.0);
+        emb.backwardSeq(dOut);
+        assertEquals(1.0, emb.getGradWeights().get(5, 0), 1e-12);
+    }
+
+    @Test
+    void testFlatForwardSeqRejectsPartialSequence() {
+        Embedding emb = new Embedding(10, 2);
+        assertThrows(IllegalArgumentException.class, () -> emb.forwardSeq(new int[] {1, 2, 3}, new Matrix(2, 2)));
+        assertThrows(IllegalArgumentException.class, () -> emb.forwardSeq(new int[] {1, 12}, new Matrix(2, 2)));
+    }
+}
@@ -0,0 +1,122 @@
+package minigptj.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Random;
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+import minigptj.core.ReLU;
+
+public class TensorParallelFFNTest {
+
+    @Test
+    void testForwardAndBackwardMatchUnshardedFFN() {
+        int dModel = 4;
+        int hidden = 10; // 3 shards of widths 3, 3 and 4
+        Linear ffn1 = new Linear(dModel, hidden, new Random(1));
+        Linear ffn2 = new Linear(hidden, dModel, new Random(2));
+        fill(ffn1.getBias(), 3);
+        fill(ffn2.getBias(), 4);
+        ReLU act = new ReLU();
+
+        Matrix x = randomMatrix(6, dModel, 5);
+        Matrix dOut = randomMatrix(6, dModel, 6);
+
+        Matrix expected = ffn2.forward(act.forward(ffn1.forward(x)));
+        Matrix expectedDx = ffn1.backward(act.backward(ffn2.backward(dOut)));
+
+        try (TensorParallelFFN tp = new TensorParallelFFN(ffn1, ffn2, 3)) {
+            assertMatrixEquals(expected, tp.forward(x), 1e-12);
+            assertMatrixEquals(expectedDx, tp.backward(dOut), 1e-12);
+
+            // Shard gradients are slices of the full-layer gradients.
+            List<Linear> shards = tp.getShardLayers();
+            assertEquals(6, shards.size());
+            int from = 0;
+            for (int s = 0; s < 3; s++) {
+                Linear up = shards.get(s);
+                Linear down = shards.get(3 + s);
+                int width = up.getWeights().getCols();
+                for (int c = 0; c < width; c++) {
+                    assertEquals(ffn1.getGradBias().get(0, from + c), up.getGradBias().get(0, c), 1e-12);
+                    for (int i = 0; i < dModel; i++) {
+                        assertEquals(ffn1.getGradWeights().get(i, from + c), up.getGradWeights().get(i, c), 1e-12);
+                        assertEquals(ffn2.getGradWeights().get(from + c, i), down.getGradWeights().get(c, i), 1e-12);
+                    }
+                }
+                from += width;
+            }
+            assertEquals(hidden, from);
+
+            // Only the first row shard owns the output bias.
+            assertMatrixEquals(ffn2.getGradBias(), shards.get(3).getGradBias(), 1e-12);
+            assertEquals(0.0, shards.get(4).getGradBias().get(0, 0));
+            assertEquals(0.0, shards.get(5).getGradBias().get(0, 0));
+        }
+    }
+
+    @Test
+    void testCopyToRestoresFullLayers() {
+        Linear ffn1 = new Linear(3, 8, new Random(1));
+        Linear ffn2 = new Linear(8, 3, new Random(2));
+        fill(ffn1.getBias(), 3);
+        fill(ffn2.getBias(), 4);
+
+        try (TensorParallelFFN tp = new TensorParallelFFN(ffn1, ffn2, 2)) {
+            Linear out1 = new Linear(3, 8);
+            Linear out2 = new Linear(8, 3);
+            tp.copyTo(out1, out2);
+
+            assertMatrixEquals(ffn1.getWeights(), out1.getWeights(), 0.0);
+            assertMatrixEquals(ffn1.getBias(), out1.getBias(), 0.0);
+            assertMatrixEquals(ffn2.getWeights(), out2.getWeights(), 0.0);
+            assertMatrixEquals(ffn2.getBias(), out2.getBias(), 0.0);
+        }
+    }
+
+    @Test
+    void testReplicaSharesShardWeights() {
+        Linear ffn1 = new Linear(4, 8, new Random(1));
+        Linear ffn2 = new Linear(8, 4, new Random(2));
+        try (TensorParallelFFN tp = new TensorParallelFFN(ffn1, ffn2, 2);
+             TensorParallelFFN replica = tp.replicate()) {
+            List<Linear> a = tp.getShardLayers();
+            List<Linear> b = replica.getShardLayers();
+            for (int i = 0; i < a.size(); i++) {
+                assertSame(a.get(i).getWeights(), b.get(i).getWeights());
+                assertNotSame(a.get(i), b.get(i));
+            }
+        }
+    }
+
+    @Test
+    void testInvalidShardCountThrows() {
+        Linear ffn1 = new Linear(4, 8);
+        Linear ffn2 = new Linear(8, 4);
+        assertThrows(IllegalArgumentException.class, () -> new TensorParallelFFN(ffn1, ffn2, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TensorParallelFFN(ffn1, ffn2, 9));
+        assertThrows(IllegalArgumentException.class, () -> new TensorParallelFFN(ffn1, new Linear(8, 3), 2));
+    }
+
+    private void fill(Matrix m, long seed) {
+        Random rng = new Random(seed);
+        for (int i = 0; i < m.getRows(); i++)
+            for (int j = 0; j < m.getCols(); j++)
+                m.set(i, j, rng.nextGaussian());
+    }
+
+    private Matrix randomMatrix(int rows, int cols, long seed) {
+        Matrix m = new Matrix(rows, cols);
+        fill(m, seed);
+        return m;
+    }
+
+    private void assertMatrixEquals(Matrix expected, Matrix actual, double eps) {
+        assertEquals(expected.getRows(), actual.getRows());
+        assertEquals(expected.getCols(), actual.getCols());
+        for (int i = 0; i < expected.getRows(); i++)
+            for (int j = 0; j < expected.getCols(); j++)
+                assertEquals(expected.get(i, j), actual.get(i, j), eps);
+    }
+}
@@ -0,0 +1,116 @@
+package minigptj.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+import minigptj.core.Matrix;
+
+public class TiedOutputProjectionTest {
+
+    private static Matrix randomMatrix(int rows, int cols, long seed) {
+        Random rng = new Random(seed);
+        Matrix m = new Matrix(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                m.set(i, j, rng.nextGaussian());
+            }
+        }
+        return m;
+    }
+
+    // sum of logits weighted by a fixed upstream gradient
+    private static double weightedSum(Matrix logits, Matrix weights) {
+        double sum = 0.0;
+        for (int i = 0; i < logits.getRows(); i++) {
+            for (int j = 0; j < logits.getCols(); j++) {
+                sum += logits.get(i, j) * weights.get(i, j);
+            }
+        }
+        return sum;
+    }
+
+    @Test
+    void testForwardUsesTransposedEmbedding() {
+        Embedding emb = new Embedding(6, 4);
+        TiedOutputProjection tied = new TiedOutputProjection(emb);
+        Matrix hidden = randomMatrix(3, 4, 1);
+
+        Matrix logits = tied.forward(hidden);
+        Matrix expected = hidden.dot(emb.getWeights().transpose());
+
+        assertEquals(3, logits.getRows());
+        assertEquals(6, logits.getCols());
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 6; j++) {
+                assertEquals(expected.get(i, j), logits.get(i, j), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void testBackwardMatchesNumericalGradient() {
+        Embedding emb = new Embedding(5, 3);
+        TiedOutputProjection tied = new TiedOutputProjection(emb);
+        Matrix hidden = randomMatrix(2, 3, 2);
+        Matrix dLogits = randomMatrix(2, 5, 3);
+
+        emb.forwardSeq(new int[][]{{0}});
+        tied.forward(hidden);
+        Matrix dHidden = tied.backward(dLogits);
+        Matrix dE = emb.getGradWeights();
+
+        double h = 1e-6;
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                double orig = hidden.get(i, j);
+                hidden.set(i, j, orig + h);
+                double plus = weightedSum(tied.forward(hidden), dLogits);
+                hidden.set(i, j, orig - h);
+                double minus = weightedSum(tied.forward(hidden), dLogits);
+                hidden.set(i, j, orig);
+                assertEquals((plus - minus) / (2 * h), dHidden.get(i, j), 1e-6);
+            }
+        }
+
+        Matrix e = emb.getWeights();
+        for (int v = 0; v < 5; v++) {
+            for (int j = 0; j < 3; j++) {
+                double orig = e.get(v, j);
+                e.set(v, j, orig + h);
+                double plus = weightedSum(tied.forward(hidden), dLogits);
+                e.set(v, j, orig - h);
+                double minus = weightedSum(tied.forward(hidden), dLogits);
+                e.set(v, j, orig);
+                assertEquals((plus - minus) / (2 * h), dE.get(v, j), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    void testEmbeddingGradientAccumulatesBothUses() {
+        Embedding emb = new Embedding(4, 2);
+        TiedOutputProjection tied = new TiedOutputProjection(emb);
+
+        emb.forwardSeq(new int[][]{{1}});
+        Matrix hidden = new Matrix(new double[][]{{1.0, 2.0}});
+        tied.forward(hidden);
+
+        Matrix dLogits = new Matrix(new double[][]{{0.0, 1.0, 0.0, 0.0}});
+        tied.backward(dLogits);
+        emb.backwardSeq(new Matrix(new double[][]{{10.0, 20.0}}));
+
+        Matrix grad = emb.getGradWeights();
+        // output side (1, 2) plus input side (10, 20) on the same row
+        assertEquals(11.0, grad.get(1, 0), 1e-12);
+        assertEquals(22.0, grad.get(1, 1), 1e-12);
+        assertEquals(0.0, grad.get(0, 0), 1e-12);
+    }
+
+    @Test
+    void testBackwardBeforeForwardThrows() {
+        TiedOutputProjection tied = new TiedOutputProjection(new Embedding(4, 2));
+        assertThrows(IllegalStateException.class,
+            () -> tied.backward(new Matrix(1, 4)));
+    }
+}
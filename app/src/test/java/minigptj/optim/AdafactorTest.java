@@ -0,0 +1,111 @@
+package minigptj.optim;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+import minigptj.model.Embedding;
+
+public class AdafactorTest {
+
+    @Test
+    void testAdafactorReducesLoss() {
+        Linear layer = new Linear(8, 4);
+        Matrix x = new Matrix(8, 8);
+        Matrix y = new Matrix(8, 4);
+        for (int i = 0; i < 8; i++) {
+            x.set(i, i, 1.0);
+            for (int j = 0; j < 4; j++) {
+                y.set(i, j, Math.sin(i * 4 + j));
+            }
+        }
+
+        Adafactor opt = new Adafactor(0.05);
+        double first = 0.0;
+        double last = 0.0;
+        for (int step = 0; step < 300; step++) {
+            Matrix dOut = layer.forward(x).add(y.multiply(-1.0));
+            double loss = 0.0;
+            for (int i = 0; i < 8; i++) {
+                for (int j = 0; j < 4; j++) {
+                    loss += dOut.get(i, j) * dOut.get(i, j);
+                }
+            }
+            if (step == 0) first = loss;
+            last = loss;
+
+            layer.backward(dOut);
+            opt.tick();
+            opt.step(layer);
+        }
+
+        assertTrue(last < first * 0.01);
+    }
+
+    @Test
+    void testStateGrowsWithRowsPlusCols() {
+        Linear layer = new Linear(96, 384);
+        layer.forward(new Matrix(1, 96));
+        layer.backward(new Matrix(1, 384));
+
+        Adafactor opt = new Adafactor(0.01);
+        opt.tick();
+        opt.step(layer);
+
+        // weights: 96 + 384 values, bias: 1 + 384 values
+        assertEquals(8L * (96 + 384 + 1 + 384), opt.getStateBytes());
+    }
+
+    @Test
+    void testEmbeddingStepOnlyUpdatesSeenRows() {
+        Embedding emb = new Embedding(5, 3);
+        double untouched = emb.getWeights().get(4, 0);
+        double seen = emb.getWeights().get(1, 0);
+
+        emb.forwardSeq(new int[][]{{1, 2}});
+        emb.backwardSeq(new Matrix(new double[][]{{1, -1, 0.5}, {0.2, 0.3, -0.4}}));
+
+        Adafactor opt = new Adafactor(0.01);
+        opt.tick();
+        opt.step(emb);
+
+        assertEquals(untouched, emb.getWeights().get(4, 0), 0.0);
+        assertNotEquals(seen, emb.getWeights().get(1, 0), 1e-12);
+    }
+
+    @Test
+    void testUpdateIsClippedToLearningRate() {
+        Linear layer = new Linear(2, 2);
+        Matrix before = new Matrix(2, 2);
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                before.set(i, j, layer.getWeights().get(i, j));
+            }
+        }
+        layer.forward(new Matrix(new double[][]{{1000.0, -50.0}}));
+        layer.backward(new Matrix(new double[][]{{3.0, -7.0}}));
+
+        Adafactor opt = new Adafactor(0.1);
+        opt.tick();
+        opt.step(layer);
+
+        // RMS of the applied weight update never exceeds lr * clipThreshold
+        double sumSq = 0.0;
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                double d = layer.getWeights().get(i, j) - before.get(i, j);
+                sumSq += d * d;
+            }
+        }
+        assertTrue(Math.sqrt(sumSq / 4) <= 0.1 + 1e-12);
+    }
+
+    @Test
+    void testStepBeforeTickThrows() {
+        Linear layer = new Linear(2, 2);
+        layer.forward(new Matrix(1, 2));
+        layer.backward(new Matrix(1, 2));
+        assertThrows(IllegalStateException.class, () -> new Adafactor(0.01).step(layer));
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 
 import minigptj.core.Linear;
 import minigptj.core.Matrix;
+import minigptj.model.Embedding;
 
 public class AdamTest {
 
@@ -83,4 +84,112 @@ public class AdamTest {
 
         assertTrue(after < before);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAdamEmbeddingLazyUpdate() {
+        Embedding emb = new Embedding(6, 2);
+        Adam adam = new Adam(0.01);
+
+        // step 1 touches row 1, step 2 touches only row 3
+        emb.forwardSeq(new int[][]{{1}});
+        emb.backwardSeq(new Matrix(new double[][]{{1.0, 1.0}}));
+        adam.tick();
+        adam.step(emb);
+
+        double row1 = emb.getWeights().get(1, 0);
+        double row3 = emb.getWeights().get(3, 0);
+
+        emb.forwardSeq(new int[][]{{3}});
+        emb.backwardSeq(new Matrix(new double[][]{{1.0, 1.0}}));
+        adam.tick();
+        adam.step(emb);
+
+        // row 1 keeps its value despite non-zero momentum; row 3 moves
+        assertEquals(row1, emb.getWeights().get(1, 0), 1e-12);
+        assertTrue(emb.getWeights().get(3, 0) < row3);
+    }
+
+    @Test
+    void testAdamOnlyUpdatesLoraAdapters() {
+        Linear layer = new Linear(2, 2);
+        layer.enableLora(1, 1.0);
+
+        Matrix w = layer.getWeights();
+        double w00 = w.get(0, 0);
+        double b0 = layer.getBias().get(0, 0);
+        double b00 = layer.getLoraB().get(0, 0);
+
+        layer.forward(new Matrix(new double[][]{{1.0, 2.0}}));
+        layer.backward(new Matrix(new double[][]{{1.0, -1.0}}));
+
+        Adam adam = new Adam(0.01);
+        adam.tick();
+        adam.step(layer);
+
+        // base weights and bias are frozen, adapter B moves
+        assertEquals(w00, w.get(0, 0), 0.0);
+        assertEquals(b0, layer.getBias().get(0, 0), 0.0);
+        assertNotEquals(b00, layer.getLoraB().get(0, 0), 1e-9);
+    }
+
+    // fits y = x * W for a fixed target W and returns the final loss
+    private static double fitLinear(MomentPrecision precision) {
+        Linear layer = new Linear(8, 4);
+        Matrix target = new Matrix(8, 4);
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 4; j++) {
+                layer.getWeights().set(i, j, 0.0);
+                target.set(i, j, Math.sin(i * 4 + j));
+            }
+        }
+        Matrix x = new Matrix(8, 8);
+        for (int i = 0; i < 8; i++) {
+            x.set(i, i, 1.0);
+        }
+        Matrix y = x.dot(target);
+
+        Adam adam = new Adam(0.05, precision);
+        double loss = 0.0;
+        for (int step = 0; step < 300; step++) {
+            Matrix dOut = layer.forward(x).add(y.multiply(-1.0));
+            loss = 0.0;
+            for (int i = 0; i < 8; i++) {
+                for (int j = 0; j < 4; j++) {
+                    loss += dOut.get(i, j) * dOut.get(i, j);
+                }
+            }
+            layer.backward(dOut);
+            adam.tick();
+            adam.step(layer);
+        }
+        return loss;
+    }
+
+    @Test
+    void testReducedPrecisionMomentsConvergeLikeDouble() {
+        double baseline = fitLinear(MomentPrecision.DOUBLE);
+        assertTrue(baseline < 1e-2);
+        assertTrue(fitLinear(MomentPrecision.FLOAT) < 1e-2);
+        assertTrue(fitLinear(MomentPrecision.INT8) < 1e-2);
+    }
+
+    @Test
+    void testInt8MomentsShrinkOptimizerState() {
+        Linear a = new Linear(64, 64);
+        Linear b = new Linear(64, 64);
+        Matrix x = new Matrix(1, 64);
+        a.forward(x);
+        a.backward(new Matrix(1, 64));
+        b.forward(x);
+        b.backward(new Matrix(1, 64));
+
+        Adam full = new Adam(0.01);
+        Adam quantised = new Adam(0.01, MomentPrecision.INT8);
+        full.tick();
+        full.step(a);
+        quantised.tick();
+        quantised.step(b);
+
+        assertTrue(quantised.getStateBytes() * 7 < full.getStateBytes());
+    }
+}
@@ -0,0 +1,144 @@
+package minigptj.optim;
+
+import static minigptj.optim.MatrixFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+import minigptj.model.Embedding;
+
+public class FusedAdamTest {
+
+    // runs forward/backward with a fixed upstream gradient
+    private static void backward(Linear layer, Matrix x) {
+        Matrix out = layer.forward(x);
+        Matrix dOut = new Matrix(out.getRows(), out.getCols());
+        for (int i = 0; i < out.getRows(); i++) {
+            for (int j = 0; j < out.getCols(); j++) {
+                dOut.set(i, j, out.get(i, j) - 0.1 * j);
+            }
+        }
+        layer.backward(dOut);
+    }
+
+    private static void checkMatchesAdam(int in, int out) {
+        Linear a = new Linear(in, out);
+        Linear b = new Linear(in, out);
+        copyInto(a.getWeights(), b.getWeights());
+        Embedding ea = new Embedding(7, 3);
+        Embedding eb = new Embedding(7, 3);
+        copyInto(ea.getWeights(), eb.getWeights());
+
+        Adam adam = new Adam(0.01);
+        FusedAdam fused = new FusedAdam(0.01);
+        fused.register(b);
+        fused.register(eb);
+
+        Matrix x = new Matrix(2, in);
+        for (int j = 0; j < in; j++) {
+            x.set(0, j, Math.sin(j));
+            x.set(1, j, Math.cos(j));
+        }
+
+        for (int step = 0; step < 3; step++) {
+            backward(a, x);
+            backward(b, x);
+            int[][] ids = {{step, 4}};
+            ea.backwardSeq(ea.forwardSeq(ids).multiply(-1.0));
+            eb.backwardSeq(eb.forwardSeq(ids).multiply(-1.0));
+
+            adam.tick();
+            adam.step(a);
+            adam.step(ea);
+            fused.tick();
+            fused.step();
+        }
+
+        assertSameValues(a.getWeights(), b.getWeights());
+        assertSameValues(a.getBias(), b.getBias());
+        assertSameValues(ea.getWeights(), eb.getWeights());
+    }
+
+    @Test
+    void testMatchesAdamExactly() {
+        checkMatchesAdam(3, 2);
+    }
+
+    @Test
+    void testParallelSweepMatchesAdamExactly() {
+        // large enough to split the sweep across threads
+        checkMatchesAdam(200, 200);
+    }
+
+    @Test
+    void testParameterCountCoversAllRegisteredMatrices() {
+        FusedAdam opt = new FusedAdam(0.01);
+        opt.register(new Linear(4, 3));
+        opt.register(new Embedding(5, 2));
+        // 4*3 weights + 3 bias + 5*2 embedding
+        assertEquals(25, opt.getParameterCount());
+    }
+
+    @Test
+    void testDuplicateRegistrationRejected() {
+        FusedAdam opt = new FusedAdam(0.01);
+        Linear layer = new Linear(2, 2);
+        opt.register(layer);
+        assertThrows(IllegalArgumentException.class, () -> opt.register(layer));
+    }
+
+    @Test
+    void testRegistrationAfterStepRejected() {
+        FusedAdam opt = new FusedAdam(0.01);
+        Linear layer = new Linear(2, 2);
+        opt.register(layer);
+        backward(layer, new Matrix(new double[][]{{1.0, 2.0}}));
+        opt.tick();
+        opt.step();
+        assertThrows(IllegalStateException.class, () -> opt.register(new Linear(2, 2)));
+    }
+
+    @Test
+    void testStepWithoutBackwardThrows() {
+        FusedAdam opt = new FusedAdam(0.01);
+        opt.register(new Linear(2, 2));
+        opt.tick();
+        assertThrows(IllegalStateException.class, opt::step);
+    }
+
+    @Test
+    void testPerLayerStepMatchesFusedStep() {
+        Linear a = new Linear(3, 2);
+        Linear b = new Linear(3, 2);
+        copyInto(a.getWeights(), b.getWeights());
+
+        FusedAdam whole = new FusedAdam(0.01);
+        whole.register(a);
+        FusedAdam perLayer = new FusedAdam(0.01);
+        perLayer.register(b);
+
+        Matrix x = new Matrix(new double[][]{{1.0, -2.0, 0.5}});
+        for (int step = 0; step < 3; step++) {
+            backward(a, x);
+            backward(b, x);
+            whole.tick();
+            whole.step();
+            perLayer.tick();
+            perLayer.step(b);
+        }
+
+        assertSameValues(a.getWeights(), b.getWeights());
+        assertSameValues(a.getBias(), b.getBias());
+    }
+
+    @Test
+    void testPerLayerStepRejectsUnregisteredLayer() {
+        FusedAdam opt = new FusedAdam(0.01);
+        opt.register(new Linear(2, 2));
+        Linear other = new Linear(2, 2);
+        backward(other, new Matrix(new double[][]{{1.0, 2.0}}));
+        opt.tick();
+        assertThrows(IllegalArgumentException.class, () -> opt.step(other));
+    }
+}
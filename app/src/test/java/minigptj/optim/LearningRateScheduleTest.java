@@ -0,0 +1,109 @@
+package minigptj.optim;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+
+public class LearningRateScheduleTest {
+    @Test
+    void testConstantKeepsBaseRate() {
+        LearningRateSchedule s = LearningRateSchedule.constant();
+        assertEquals(1.0, s.factor(1));
+        assertEquals(1.0, s.factor(10_000));
+    }
+
+    @Test
+    void testWarmupCosineRampsThenDecays() {
+        LearningRateSchedule s = LearningRateSchedule.warmupCosine(10, 110, 0.1);
+
+        assertEquals(0.1, s.factor(1), 1e-12);
+        assertEquals(0.5, s.factor(5), 1e-12);
+        assertEquals(1.0, s.factor(10), 1e-12);
+        // halfway through the decay the cosine is at its midpoint
+        assertEquals(0.55, s.factor(60), 1e-12);
+        assertEquals(0.1, s.factor(110), 1e-12);
+        assertEquals(0.1, s.factor(500), 1e-12);
+
+        for (int step = 11; step <= 110; step++) {
+            assertTrue(s.factor(step) <= s.factor(step - 1));
+        }
+    }
+
+    @Test
+    void testWarmupLinearDecaysLinearly() {
+        LearningRateSchedule s = LearningRateSchedule.warmupLinear(10, 110, 0.0);
+
+        assertEquals(1.0, s.factor(10), 1e-12);
+        assertEquals(0.75, s.factor(35), 1e-12);
+        assertEquals(0.5, s.factor(60), 1e-12);
+        assertEquals(0.0, s.factor(110), 1e-12);
+    }
+
+    @Test
+    void testOneCyclePeaksThenAnneals() {
+        LearningRateSchedule s = LearningRateSchedule.oneCycle(100, 0.3, 25.0, 1e4);
+
+        assertEquals(1.0 / 25, s.factor(1), 1e-12);
+        assertEquals(1.0, s.factor(30), 1e-12);
+        assertEquals(1.0 / 25 / 1e4, s.factor(100), 1e-15);
+
+        for (int step = 2; step <= 30; step++) {
+            assertTrue(s.factor(step) >= s.factor(step - 1));
+        }
+        for (int step = 31; step <= 100; step++) {
+            assertTrue(s.factor(step) <= s.factor(step - 1));
+        }
+    }
+
+    @Test
+    void testByNameRejectsUnknownSchedule() {
+        assertEquals(1.0, LearningRateSchedule.byName("constant", 10, 100).factor(50));
+        assertEquals(1.0, LearningRateSchedule.byName("warmup-cosine", 10, 100).factor(10), 1e-12);
+        assertThrows(IllegalArgumentException.class,
+            () -> LearningRateSchedule.byName("exponential", 10, 100));
+    }
+
+    @Test
+    void testInvalidStepCountsThrow() {
+        assertThrows(IllegalArgumentException.class, () -> LearningRateSchedule.warmupCosine(0, 100, 0.1));
+        assertThrows(IllegalArgumentException.class, () -> LearningRateSchedule.warmupLinear(100, 100, 0.1));
+        assertThrows(IllegalArgumentException.class, () -> LearningRateSchedule.oneCycle(100, 1.0, 25, 1e4));
+    }
+
+    @Test
+    void testSetLearningRateScalesSgdUpdate() {
+        Linear layer = new Linear(1, 1);
+        layer.getWeights().set(0, 0, 1.0);
+        layer.forward(new Matrix(new double[][] {{1.0}}));
+        layer.backward(new Matrix(new double[][] {{1.0}}));
+
+        SGD sgd = new SGD(0.1);
+        sgd.setLearningRate(0.1 * LearningRateSchedule.warmupLinear(4, 10, 0.0).factor(2));
+        assertEquals(0.05, sgd.getLearningRate(), 1e-12);
+
+        sgd.step(layer);
+        assertEquals(0.95, layer.getWeights().get(0, 0), 1e-12);
+    }
+
+    @Test
+    void testSetLearningRateScalesAdamStep() {
+        // The first Adam step moves each parameter by about lr.
+        Linear layer = new Linear(1, 1);
+        layer.getWeights().set(0, 0, 1.0);
+        layer.forward(new Matrix(new double[][] {{1.0}}));
+        layer.backward(new Matrix(new double[][] {{1.0}}));
+
+        for (Optimizer opt : new Optimizer[] { new Adam(0.1), new FusedAdam(0.1) }) {
+            layer.getWeights().set(0, 0, 1.0);
+            opt.setLearningRate(0.01);
+            if (opt instanceof FusedAdam) {
+                ((FusedAdam) opt).register(layer);
+            }
+            opt.tick();
+            opt.step(layer);
+            assertEquals(0.99, layer.getWeights().get(0, 0), 1e-6);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package minigptj.optim;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import minigptj.core.Matrix;
+
+/**
+ * Helpers shared by optimiser tests that train two copies of the same
+ * layers and compare them.
+ */
+final class MatrixFixtures {
+
+    private MatrixFixtures() {
+    }
+
+    /** Copies every value of src into dst, which must have the same shape. */
+    static void copyInto(Matrix src, Matrix dst) {
+        for (int i = 0; i < src.getRows(); i++) {
+            for (int j = 0; j < src.getCols(); j++) {
+                dst.set(i, j, src.get(i, j));
+            }
+        }
+    }
+
+    /** Asserts that two matrices hold bit-for-bit the same values. */
+    static void assertSameValues(Matrix expected, Matrix actual) {
+        for (int i = 0; i < expected.getRows(); i++) {
+            for (int j = 0; j < expected.getCols(); j++) {
+                assertEquals(expected.get(i, j), actual.get(i, j), 0.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package minigptj.optim;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class MomentBufferTest {
+
+    private static double[] ramp(int n, double scale) {
+        double[] values = new double[n];
+        for (int j = 0; j < n; j++) {
+            values[j] = scale * Math.sin(j + 1);
+        }
+        return values;
+    }
+
+    private static double[] squares(double[] values) {
+        double[] out = new double[values.length];
+        for (int j = 0; j < values.length; j++) {
+            out[j] = values[j] * values[j];
+        }
+        return out;
+    }
+
+    @Test
+    void testDoubleRoundTripIsExact() {
+        MomentBuffer buf = MomentBuffer.create(MomentPrecision.DOUBLE, 2, 5);
+        double[] m = ramp(5, 0.3);
+        double[] v = squares(m);
+        buf.writeRow(1, m, v);
+
+        double[] mOut = new double[5];
+        double[] vOut = new double[5];
+        buf.readRow(1, mOut, vOut);
+        assertArrayEquals(m, mOut, 0.0);
+        assertArrayEquals(v, vOut, 0.0);
+
+        // other rows untouched
+        buf.readRow(0, mOut, vOut);
+        assertEquals(0.0, mOut[0], 0.0);
+    }
+
+    @Test
+    void testFloatRoundTripWithinFloatPrecision() {
+        MomentBuffer buf = MomentBuffer.create(MomentPrecision.FLOAT, 1, 5);
+        double[] m = ramp(5, 1e-3);
+        double[] v = squares(m);
+        buf.writeRow(0, m, v);
+
+        double[] mOut = new double[5];
+        double[] vOut = new double[5];
+        buf.readRow(0, mOut, vOut);
+        for (int j = 0; j < 5; j++) {
+            assertEquals(m[j], mOut[j], Math.abs(m[j]) * 1e-7);
+            assertEquals(v[j], vOut[j], v[j] * 1e-7);
+        }
+    }
+
+    @Test
+    void testInt8RoundTripWithinBlockScale() {
+        // 70 columns spans two blocks per row
+        MomentBuffer buf = MomentBuffer.create(MomentPrecision.INT8, 1, 70);
+        double[] m = ramp(70, 0.01);
+        double[] v = squares(m);
+        buf.writeRow(0, m, v);
+
+        double[] mOut = new double[70];
+        double[] vOut = new double[70];
+        buf.readRow(0, mOut, vOut);
+        for (int j = 0; j < 70; j++) {
+            // stochastic rounding picks one of the two neighbouring codes
+            assertEquals(m[j], mOut[j], 0.01 / 127.0 + 1e-12);
+            assertEquals(Math.sqrt(v[j]), Math.sqrt(vOut[j]), 0.01 / 255.0 + 1e-12);
+        }
+    }
+
+    @Test
+    void testInt8NeverPairsNonZeroFirstMomentWithZeroSecond() {
+        MomentBuffer buf = MomentBuffer.create(MomentPrecision.INT8, 1, 2);
+        double[] mOut = new double[2];
+        double[] vOut = new double[2];
+        for (int i = 0; i < 200; i++) {
+            buf.writeRow(0, new double[]{1.0, 0.5}, new double[]{1.0, 1e-18});
+            buf.readRow(0, mOut, vOut);
+            assertTrue(mOut[1] != 0.0);
+            assertTrue(vOut[1] > 0.0);
+        }
+    }
+
+    @Test
+    void testInt8StochasticRoundingIsUnbiased() {
+        MomentBuffer buf = MomentBuffer.create(MomentPrecision.INT8, 1, 2);
+        double[] mOut = new double[2];
+        double[] vOut = new double[2];
+        double mSum = 0.0;
+        int n = 20_000;
+        for (int i = 0; i < n; i++) {
+            // 0.3 codes of the block scale: rounds to 0 or 1 code
+            buf.writeRow(0, new double[]{1.0, 0.3 / 127.0}, new double[]{1.0, 1.0});
+            buf.readRow(0, mOut, vOut);
+            mSum += mOut[1];
+        }
+        assertEquals(0.3 / 127.0, mSum / n, 0.02 / 127.0);
+    }
+
+    @Test
+    void testInt8MomentsDecayAfterGradientStops() {
+        // Column 0 keeps a large gradient, so the block scale stays large
+        // while column 1's gradient stops after 10 steps.
+        MomentBuffer quantised = MomentBuffer.create(MomentPrecision.INT8, 1, 2);
+        MomentBuffer exact = MomentBuffer.create(MomentPrecision.DOUBLE, 1, 2);
+        double[] m = new double[2];
+        double[] v = new double[2];
+        double[] mExact = new double[2];
+        double[] vExact = new double[2];
+        for (int step = 1; step <= 20_000; step++) {
+            double[] g = {1.0, (step <= 10) ? 0.5 : 0.0};
+            quantised.readRow(0, m, v);
+            exact.readRow(0, mExact, vExact);
+            for (int j = 0; j < 2; j++) {
+                m[j] = 0.9 * m[j] + 0.1 * g[j];
+                v[j] = 0.999 * v[j] + 0.001 * g[j] * g[j];
+                mExact[j] = 0.9 * mExact[j] + 0.1 * g[j];
+                vExact[j] = 0.999 * vExact[j] + 0.001 * g[j] * g[j];
+            }
+            quantised.writeRow(0, m, v);
+            exact.writeRow(0, mExact, vExact);
+        }
+        quantised.readRow(0, m, v);
+        exact.readRow(0, mExact, vExact);
+
+        // Exact sqrt(v) has fallen to under a thousandth of one code, whose
+        // step is sqrt(1) / 255, so both quantised moments should be zero.
+        assertTrue(Math.sqrt(vExact[1]) < 1e-3 / 255.0);
+        assertEquals(0.0, m[1], 0.0);
+        assertEquals(0.0, v[1], 0.0);
+    }
+
+    @Test
+    void testReducedPrecisionUsesLessMemory() {
+        long doubles = MomentBuffer.create(MomentPrecision.DOUBLE, 96, 384).sizeInBytes();
+        long floats = MomentBuffer.create(MomentPrecision.FLOAT, 96, 384).sizeInBytes();
+        long bytes = MomentBuffer.create(MomentPrecision.INT8, 96, 384).sizeInBytes();
+
+        assertEquals(doubles / 2, floats);
+        assertTrue(bytes * 7 < doubles);
+    }
+}
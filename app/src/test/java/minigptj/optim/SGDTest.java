@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 
 import minigptj.core.Linear;
 import minigptj.core.Matrix;
+import minigptj.model.Embedding;
 
 public class SGDTest {
     @Test
@@ -49,4 +50,19 @@ public class SGDTest {
         assertEquals(0.0 - 0.1 * 4.0, b.get(0, 0), 1e-9);
         assertEquals(0.0 - 0.1 * 6.0, b.get(0, 1), 1e-9);
     }
+
+    @Test
+    void testSGDEmbeddingUpdatesOnlySeenRows() {
+        Embedding emb = new Embedding(5, 2);
+        double untouched = emb.getWeights().get(4, 0);
+        double seen = emb.getWeights().get(2, 0);
+
+        emb.forwardSeq(new int[][]{{2}});
+        emb.backwardSeq(new Matrix(new double[][]{{1.0, 1.0}}));
+
+        new SGD(0.5).step(emb);
+
+        assertEquals(seen - 0.5, emb.getWeights().get(2, 0), 1e-9);
+        assertEquals(untouched, emb.getWeights().get(4, 0), 1e-12);
+    }
 }
@@ -0,0 +1,74 @@
+package minigptj.optim;
+
+import static minigptj.optim.MatrixFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import minigptj.core.Linear;
+import minigptj.core.Matrix;
+import minigptj.model.Embedding;
+
+public class StepSchedulerTest {
+
+    @Test
+    void testOverlappedStepsMatchSerialSteps() {
+        Embedding embA = new Embedding(6, 3);
+        Linear layerA = new Linear(3, 4);
+        Embedding embB = new Embedding(6, 3);
+        Linear layerB = new Linear(3, 4);
+        copyInto(embA.getWeights(), embB.getWeights());
+        copyInto(layerA.getWeights(), layerB.getWeights());
+
+        Adam serial = new Adam(0.01);
+        try (StepScheduler scheduler = new StepScheduler(new Adam(0.01))) {
+            for (int step = 0; step < 3; step++) {
+                int[][] ids = {{1, step + 2}};
+                Matrix dOut = new Matrix(new double[][]{{1, -1, 0.5, 0}, {0.2, 0.3, -0.4, 1}});
+
+                // serial: full backward, then step every layer
+                layerA.forward(embA.forwardSeq(ids));
+                embA.backwardSeq(layerA.backward(dOut));
+                serial.tick();
+                serial.step(layerA);
+                serial.step(embA);
+
+                // overlapped: step each layer as soon as its backward returns
+                layerB.forward(embB.forwardSeq(ids));
+                scheduler.beginStep();
+                Matrix dX = layerB.backward(dOut);
+                scheduler.submit(layerB);
+                embB.backwardSeq(dX);
+                scheduler.submit(embB);
+                scheduler.awaitStep();
+            }
+        }
+
+        assertSameValues(layerA.getWeights(), layerB.getWeights());
+        assertSameValues(layerA.getBias(), layerB.getBias());
+        assertSameValues(embA.getWeights(), embB.getWeights());
+    }
+
+    @Test
+    void testStepFailureIsRethrownOnAwait() {
+        try (StepScheduler scheduler = new StepScheduler(new Adam(0.01))) {
+            scheduler.beginStep();
+            // no backward pass, so the gradient is missing
+            scheduler.submit(new Linear(2, 2));
+            assertThrows(IllegalStateException.class, scheduler::awaitStep);
+        }
+    }
+
+    @Test
+    void testBeginStepRequiresPreviousAwait() {
+        Linear layer = new Linear(2, 2);
+        layer.forward(new Matrix(1, 2));
+        layer.backward(new Matrix(1, 2));
+
+        try (StepScheduler scheduler = new StepScheduler(new Adam(0.01))) {
+            scheduler.beginStep();
+            scheduler.submit(layer);
+            assertThrows(IllegalStateException.class, scheduler::beginStep);
+            scheduler.awaitStep();
+        }
+    }
+}
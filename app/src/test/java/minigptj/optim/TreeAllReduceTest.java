@@ -0,0 +1,65 @@
+package minigptj.optim;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import minigptj.core.Matrix;
+import minigptj.core.SparseRowGradient;
+
+public class TreeAllReduceTest {
+    @Test
+    void testSumLeavesTotalInFirstPart() {
+        List<Matrix> parts = new ArrayList<>();
+        for (int r = 0; r < 5; r++) {
+            parts.add(new Matrix(new double[][] {{r, 10.0 * r}}));
+        }
+
+        TreeAllReduce.sum(parts);
+
+        assertEquals(10.0, parts.get(0).get(0, 0), 1e-12);
+        assertEquals(100.0, parts.get(0).get(0, 1), 1e-12);
+    }
+
+    @Test
+    void testSumFollowsFixedPairwiseOrder() {
+        // ((a + b) + (c + d)) differs from ((a + b) + c) + d in floating point
+        double a = 1e16, b = 1.0, c = -1e16, d = 1.0;
+        List<Matrix> parts = new ArrayList<>();
+        for (double v : new double[] {a, b, c, d}) {
+            parts.add(new Matrix(new double[][] {{v}}));
+        }
+
+        TreeAllReduce.sum(parts);
+
+        assertEquals((a + b) + (c + d), parts.get(0).get(0, 0), 0.0);
+    }
+
+    @Test
+    void testSumSparseMergesRows() {
+        List<SparseRowGradient> parts = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            SparseRowGradient g = new SparseRowGradient(4, 1);
+            g.add(r, 0, 1.0);
+            g.add(3, 0, 1.0);
+            parts.add(g);
+        }
+
+        TreeAllReduce.sumSparse(parts);
+
+        Matrix dense = parts.get(0).toDense();
+        assertEquals(1.0, dense.get(0, 0), 1e-12);
+        assertEquals(1.0, dense.get(2, 0), 1e-12);
+        assertEquals(3.0, dense.get(3, 0), 1e-12);
+    }
+
+    @Test
+    void testMissingGradientThrows() {
+        List<Matrix> parts = new ArrayList<>();
+        parts.add(new Matrix(1, 1));
+        parts.add(null);
+        assertThrows(IllegalStateException.class, () -> TreeAllReduce.sum(parts));
+        assertThrows(IllegalArgumentException.class, () -> TreeAllReduce.sum(new ArrayList<>()));
+    }
+}